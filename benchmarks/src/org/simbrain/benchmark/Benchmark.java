@@ -0,0 +1,102 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.util.Random;
+
+/**
+ * A parameterized micro-benchmark run by {@link BenchmarkRunner}. For each
+ * parameter value the runner calls {@link #setUp(String)} once (not timed),
+ * then calls {@link #run()} repeatedly through warmup and measurement
+ * iterations, then calls {@link #tearDown()}.
+ * <p>
+ * Benchmarks should draw any random numbers they need from
+ * {@link #getRandom()}, which is re-seeded with the same value for every
+ * parameter, so that repeated runs build the same networks.
+ */
+public abstract class Benchmark {
+
+    /** Seed used for {@link #random}. */
+    public static final long SEED = 42;
+
+    /** Source of reproducible random numbers for the benchmark. */
+    private Random random = new Random(SEED);
+
+    /**
+     * @return name of the benchmark, used to select it and in results
+     */
+    public abstract String getName();
+
+    /**
+     * @return the parameter values the benchmark is run with
+     */
+    public String[] getParams() {
+        return new String[] { "" };
+    }
+
+    /**
+     * Build the state for one parameter value. Not timed.
+     *
+     * @param param the parameter value
+     * @throws Exception if the state cannot be built
+     */
+    public abstract void setUp(String param) throws Exception;
+
+    /**
+     * The operation being timed. Return some value computed from the
+     * results, which the runner consumes so that the work cannot be
+     * optimized away.
+     *
+     * @return a value derived from the results of the operation
+     * @throws Exception if the operation fails
+     */
+    public abstract double run() throws Exception;
+
+    /**
+     * Release the state built by {@link #setUp(String)}. Not timed.
+     *
+     * @throws Exception if resources cannot be released
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * @return number of operations performed by each call to {@link #run()},
+     *         used to report time per operation
+     */
+    public int getOperationsPerRun() {
+        return 1;
+    }
+
+    /**
+     * @return the benchmark's random number generator
+     */
+    public Random getRandom() {
+        return random;
+    }
+
+    /**
+     * Re-seed the random number generator. Called by the runner before each
+     * {@link #setUp(String)}.
+     */
+    void resetRandom() {
+        random = new Random(SEED);
+    }
+
+}
@@ -0,0 +1,441 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.simbrain.util.math.RandomStreams;
+
+/**
+ * Runs the Simbrain benchmark suite. Modeled on JMH: every benchmark and
+ * parameter combination is run in a freshly forked JVM (unless forking is
+ * turned off), with a number of timed warmup iterations followed by timed
+ * measurement iterations. Each iteration calls the benchmark repeatedly for
+ * a fixed wall-clock time and records the average time per operation.
+ * Results are reported as mean and 99.9% confidence interval over the
+ * measurement iterations of all forks.
+ * <p>
+ * Results can be written to a CSV file and compared against a baseline CSV
+ * from an earlier run; the runner exits with status 1 if any benchmark is
+ * slower than the baseline by more than the tolerance.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>-wi n : warmup iterations (default 5)</li>
+ * <li>-i n : measurement iterations (default 5)</li>
+ * <li>-t ms : duration of each iteration (default 1000)</li>
+ * <li>-f n : forks per benchmark, 0 to run in this JVM (default 1)</li>
+ * <li>-csv file : write results to a CSV file</li>
+ * <li>-baseline file : compare against results from a CSV file</li>
+ * <li>-tolerance x : allowed relative slowdown (default 0.1)</li>
+ * <li>-list : list benchmarks and parameters</li>
+ * <li>regex : only run benchmarks whose "name:param" matches</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+
+    /** All benchmarks in the suite. */
+    private static final Class<?>[] BENCHMARKS = { NetworkUpdateBenchmark.class,
+            NeuronRuleBenchmark.class, SynapseRuleBenchmark.class,
+            ConnectionBenchmark.class, WorkspaceUpdateBenchmark.class };
+
+    /** Prefix of the result line printed by a forked JVM. */
+    private static final String RESULT_PREFIX = "#result ";
+
+    /** Student t quantile for a 99.9% interval, indexed by degrees of freedom. */
+    private static final double[] T_999 = { 0, 636.6, 31.60, 12.92, 8.610,
+            6.869, 5.959, 5.408, 5.041, 4.781, 4.587, 4.437, 4.318, 4.221,
+            4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850 };
+
+    /** Sink for benchmark results, so their work is not eliminated. */
+    private static volatile double sink;
+
+    /** Number of warmup iterations. */
+    private int warmupIterations = 5;
+
+    /** Number of measurement iterations. */
+    private int iterations = 5;
+
+    /** Duration of each iteration in milliseconds. */
+    private long iterationMillis = 1000;
+
+    /** Number of forked JVMs per benchmark and parameter. */
+    private int forks = 1;
+
+    /**
+     * Run the suite. See the class documentation for options.
+     *
+     * @param args options
+     * @throws Exception if a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String csv = null;
+        String baseline = null;
+        double tolerance = 0.1;
+        Pattern filter = null;
+        boolean list = false;
+        String single = null;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-wi")) {
+                runner.warmupIterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-i")) {
+                runner.iterations = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-t")) {
+                runner.iterationMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("-f")) {
+                runner.forks = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-csv")) {
+                csv = args[++i];
+            } else if (arg.equals("-baseline")) {
+                baseline = args[++i];
+            } else if (arg.equals("-tolerance")) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-list")) {
+                list = true;
+            } else if (arg.equals("-single")) {
+                single = args[++i];
+            } else {
+                filter = Pattern.compile(arg);
+            }
+        }
+
+        if (single != null) {
+            // Run in a forked JVM: one benchmark, one parameter
+            String[] key = single.split(":", 2);
+            double[] scores = runner.runInProcess(createBenchmark(key[0]),
+                    key[1]);
+            StringBuilder sb = new StringBuilder(RESULT_PREFIX);
+            for (double s : scores) {
+                sb.append(s).append(' ');
+            }
+            System.out.println(sb.toString().trim());
+            System.exit(0);
+        }
+
+        Map<String, double[]> results = new LinkedHashMap<String, double[]>();
+        for (Class<?> c : BENCHMARKS) {
+            Benchmark b = (Benchmark) c.getDeclaredConstructor().newInstance();
+            for (String param : b.getParams()) {
+                String key = b.getName() + ":" + param;
+                if (filter != null && !filter.matcher(key).find()) {
+                    continue;
+                }
+                if (list) {
+                    System.out.println(key);
+                    continue;
+                }
+                System.out.println("# " + key);
+                double[] scores;
+                if (runner.forks == 0) {
+                    scores = runner.runInProcess(createBenchmark(b.getName()),
+                            param);
+                } else {
+                    scores = new double[0];
+                    for (int f = 0; f < runner.forks; f++) {
+                        double[] forkScores = runner.runForked(key);
+                        scores = concat(scores, forkScores);
+                    }
+                }
+                results.put(key, scores);
+                System.out.println(format(key, scores));
+            }
+        }
+        if (list) {
+            return;
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%-50s %14s %14s",
+                "Benchmark", "ns/op", "error"));
+        for (Map.Entry<String, double[]> e : results.entrySet()) {
+            System.out.println(format(e.getKey(), e.getValue()));
+        }
+        if (csv != null) {
+            writeCsv(new File(csv), results);
+        }
+        if (baseline != null) {
+            int regressions = compare(readCsv(new File(baseline)), results,
+                    tolerance);
+            System.exit(regressions > 0 ? 1 : 0);
+        }
+        // Some benchmarks leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    /**
+     * Create a benchmark by name.
+     *
+     * @param name the benchmark name
+     * @return a new instance of the benchmark
+     * @throws Exception if there is no such benchmark
+     */
+    private static Benchmark createBenchmark(final String name)
+            throws Exception {
+        for (Class<?> c : BENCHMARKS) {
+            Benchmark b = (Benchmark) c.getDeclaredConstructor().newInstance();
+            if (b.getName().equals(name)) {
+                return b;
+            }
+        }
+        throw new IllegalArgumentException("No benchmark named " + name);
+    }
+
+    /**
+     * Run warmup and measurement iterations in this JVM.
+     *
+     * @param b the benchmark
+     * @param param the parameter value
+     * @return average nanoseconds per operation of each measurement iteration
+     * @throws Exception if the benchmark fails
+     */
+    private double[] runInProcess(final Benchmark b, final String param)
+            throws Exception {
+        b.resetRandom();
+        RandomStreams.setSeed(Benchmark.SEED);
+        b.setUp(param);
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                runIteration(b);
+            }
+            double[] scores = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                scores[i] = runIteration(b);
+            }
+            return scores;
+        } finally {
+            b.tearDown();
+        }
+    }
+
+    /**
+     * Call the benchmark repeatedly for the iteration time.
+     *
+     * @param b the benchmark
+     * @return average nanoseconds per operation
+     * @throws Exception if the benchmark fails
+     */
+    private double runIteration(final Benchmark b) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1000000L;
+        long ops = 0;
+        double acc = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            acc += b.run();
+            ops += b.getOperationsPerRun();
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink += acc;
+        return (now - start) / (double) ops;
+    }
+
+    /**
+     * Run one benchmark and parameter in a forked JVM with the same class
+     * path and options.
+     *
+     * @param key "name:param"
+     * @return the scores reported by the fork
+     * @throws IOException if the fork cannot be started
+     * @throws InterruptedException if interrupted while waiting on the fork
+     */
+    private double[] runForked(final String key) throws IOException,
+            InterruptedException {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(BenchmarkRunner.class.getName());
+        cmd.addAll(Arrays.asList("-wi", "" + warmupIterations, "-i",
+                "" + iterations, "-t", "" + iterationMillis, "-single", key));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                p.getInputStream()));
+        double[] scores = null;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.startsWith(RESULT_PREFIX)) {
+                String[] tokens = line.substring(RESULT_PREFIX.length())
+                        .split(" ");
+                scores = new double[tokens.length];
+                for (int i = 0; i < tokens.length; i++) {
+                    scores[i] = Double.parseDouble(tokens[i]);
+                }
+            } else {
+                System.out.println(line);
+            }
+        }
+        p.waitFor();
+        if (scores == null) {
+            throw new IllegalStateException("Forked run of " + key
+                    + " failed.");
+        }
+        return scores;
+    }
+
+    /**
+     * @param scores measurement scores
+     * @return the mean
+     */
+    static double mean(final double[] scores) {
+        double sum = 0;
+        for (double s : scores) {
+            sum += s;
+        }
+        return sum / scores.length;
+    }
+
+    /**
+     * @param scores measurement scores
+     * @return half width of the 99.9% confidence interval of the mean
+     */
+    static double error(final double[] scores) {
+        int n = scores.length;
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(scores);
+        double ss = 0;
+        for (double s : scores) {
+            ss += (s - mean) * (s - mean);
+        }
+        double sd = Math.sqrt(ss / (n - 1));
+        double t = n - 1 < T_999.length ? T_999[n - 1] : 3.291;
+        return t * sd / Math.sqrt(n);
+    }
+
+    /**
+     * @param key the benchmark key
+     * @param scores measurement scores
+     * @return a formatted result line
+     */
+    private static String format(final String key, final double[] scores) {
+        return String.format(Locale.US, "%-50s %14.3f %14.3f", key,
+                mean(scores), error(scores));
+    }
+
+    /**
+     * @param a first array
+     * @param b second array
+     * @return a followed by b
+     */
+    private static double[] concat(final double[] a, final double[] b) {
+        double[] ret = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    /**
+     * Write results as "benchmark,param,mean,error" lines.
+     *
+     * @param file the file to write
+     * @param results the results
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeCsv(final File file,
+            final Map<String, double[]> results) throws IOException {
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        try {
+            out.println("benchmark,param,mean,error");
+            for (Map.Entry<String, double[]> e : results.entrySet()) {
+                String[] key = e.getKey().split(":", 2);
+                out.println(key[0] + "," + key[1] + ","
+                        + mean(e.getValue()) + "," + error(e.getValue()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read the means from a results file written by
+     * {@link #writeCsv(File, Map)}.
+     *
+     * @param file the file to read
+     * @return map from benchmark key to mean
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, Double> readCsv(final File file)
+            throws IOException {
+        Map<String, Double> ret = new LinkedHashMap<String, Double>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line = in.readLine(); // Header
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.split(",");
+                if (tokens.length >= 3) {
+                    ret.put(tokens[0] + ":" + tokens[1],
+                            Double.parseDouble(tokens[2]));
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return ret;
+    }
+
+    /**
+     * Print a comparison against baseline results.
+     *
+     * @param baseline baseline means
+     * @param results current results
+     * @param tolerance allowed relative slowdown
+     * @return number of regressions
+     */
+    private static int compare(final Map<String, Double> baseline,
+            final Map<String, double[]> results, final double tolerance) {
+        int regressions = 0;
+        System.out.println();
+        System.out.println(String.format(Locale.US, "%-50s %14s %14s %8s",
+                "Benchmark", "baseline", "current", "ratio"));
+        for (Map.Entry<String, double[]> e : results.entrySet()) {
+            Double old = baseline.get(e.getKey());
+            if (old == null) {
+                continue;
+            }
+            double current = mean(e.getValue());
+            double ratio = current / old;
+            boolean regression = ratio > 1 + tolerance;
+            if (regression) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.US,
+                    "%-50s %14.3f %14.3f %8.3f%s", e.getKey(), old, current,
+                    ratio, regression ? "  REGRESSION" : ""));
+        }
+        return regressions;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import org.simbrain.workspace.AttributeManager;
+import org.simbrain.workspace.Coupling;
+import org.simbrain.workspace.UmatchedAttributesException;
+import org.simbrain.workspace.Workspace;
+import org.simbrain.workspace.WorkspaceComponent;
+import org.simbrain.workspace.updater.ComponentScheduler;
+import org.simbrain.workspace.updater.LatchCompletionSignal;
+import org.simbrain.workspace.updater.WorkspaceUpdater;
+
+/**
+ * Self-check of {@link ComponentScheduler}: runs the scheduler and the
+ * two-phase buffered update side by side and stops at the first tick where
+ * they differ.
+ */
+public class ComponentSchedulerCheck {
+
+    /**
+     * Check that the scheduler gives the same results as updating all
+     * couplings and then all components, on a chain of components each of
+     * which copies the value of the one before it. The first component counts
+     * the ticks. In the two-phase order every component lags the one before
+     * it by a tick; reading a component after its consumers are written
+     * would let values skip ahead.
+     *
+     * @param args chain length and number of ticks
+     * @throws UmatchedAttributesException if a coupling can't be made
+     */
+    public static void main(String[] args)
+            throws UmatchedAttributesException {
+        final int length = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        Workspace scheduled = new Workspace();
+        Workspace reference = new Workspace();
+        ChainCell[] scheduledCells = createChain(scheduled, length);
+        ChainCell[] referenceCells = createChain(reference, length);
+        WorkspaceUpdater updater = reference.getUpdater();
+        ComponentScheduler scheduler = scheduled.getUpdater()
+                .getComponentScheduler();
+        for (int t = 1; t <= ticks; t++) {
+            scheduler.update();
+            updater.updateCouplings();
+            List<? extends WorkspaceComponent> components = updater
+                    .getComponents();
+            LatchCompletionSignal latch = new LatchCompletionSignal(
+                    components.size());
+            for (WorkspaceComponent component : components) {
+                updater.updateComponent(component, latch);
+            }
+            latch.await();
+            for (int i = 0; i < length; i++) {
+                if (scheduledCells[i].value != referenceCells[i].value) {
+                    System.err.println("Tick " + t + ", cell " + i
+                            + ": scheduled " + scheduledCells[i].value
+                            + ", two-phase " + referenceCells[i].value);
+                    System.exit(1);
+                }
+            }
+        }
+        System.out.println("Same results for " + length + " components over "
+                + ticks + " ticks");
+        System.exit(0);
+    }
+
+    /**
+     * Add a chain of coupled components to a workspace, in an order which is
+     * not the order of the chain.
+     *
+     * @param workspace the workspace
+     * @param length number of components
+     * @return the components in chain order
+     * @throws UmatchedAttributesException if a coupling can't be made
+     */
+    private static ChainCell[] createChain(final Workspace workspace,
+            final int length) throws UmatchedAttributesException {
+        ChainCell[] cells = new ChainCell[length];
+        for (int i = 0; i < length; i++) {
+            cells[i] = new ChainCell("Cell" + i, i == 0);
+        }
+        for (int i = 0; i < length; i += 2) {
+            workspace.addWorkspaceComponent(cells[i]);
+        }
+        for (int i = length - 1 - length % 2; i > 0; i -= 2) {
+            workspace.addWorkspaceComponent(cells[i]);
+        }
+        for (int i = 1; i < length; i++) {
+            AttributeManager from = cells[i - 1].getAttributeManager();
+            AttributeManager to = cells[i].getAttributeManager();
+            workspace.getCouplingManager().addCoupling(
+                    new Coupling<Double>(from.createPotentialProducer(
+                            cells[i - 1], "getValue", double.class), to
+                            .createPotentialConsumer(cells[i], "setValue",
+                                    double.class)));
+        }
+        return cells;
+    }
+
+    /**
+     * A component holding one value, used by {@link #main(String[])}.
+     */
+    private static class ChainCell extends WorkspaceComponent {
+
+        /** The value. */
+        private volatile double value;
+
+        /** Whether the value counts the ticks. */
+        private final boolean counting;
+
+        /**
+         * @param name the name
+         * @param counting whether the value counts the ticks
+         */
+        ChainCell(final String name, final boolean counting) {
+            super(name);
+            this.counting = counting;
+        }
+
+        /**
+         * @return the value
+         */
+        public double getValue() {
+            return value;
+        }
+
+        /**
+         * @param value the value
+         */
+        public void setValue(final double value) {
+            this.value = value;
+        }
+
+        @Override
+        public void update() {
+            if (counting) {
+                value++;
+            }
+        }
+
+        @Override
+        public void save(final OutputStream output, final String format) {
+        }
+
+        @Override
+        protected void closing() {
+        }
+    }
+
+}
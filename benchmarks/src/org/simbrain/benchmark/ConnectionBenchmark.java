@@ -0,0 +1,85 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import org.simbrain.network.connections.AllToAll;
+import org.simbrain.network.connections.ConnectNeurons;
+import org.simbrain.network.connections.Radial;
+import org.simbrain.network.connections.Sparse;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.layouts.GridLayout;
+
+/**
+ * Times building the connections of a synapse group between two overlapping
+ * grids of 400 neurons with the {@link Sparse} (10% density), {@link Radial}
+ * and {@link AllToAll} connection managers. Each run clears the previous
+ * connections and makes new ones. Times are per build.
+ */
+public class ConnectionBenchmark extends Benchmark {
+
+    /** Number of neurons in each group. */
+    private static final int GROUP_SIZE = 400;
+
+    /** The synapse group being rebuilt. */
+    private SynapseGroup synapseGroup;
+
+    @Override
+    public String getName() {
+        return "Connection";
+    }
+
+    @Override
+    public String[] getParams() {
+        return new String[] { "Sparse", "Radial", "AllToAll" };
+    }
+
+    @Override
+    public void setUp(String param) {
+        Network network = new Network();
+        network.setFireUpdates(false);
+        NeuronGroup src = new NeuronGroup(network, GROUP_SIZE);
+        NeuronGroup tar = new NeuronGroup(network, GROUP_SIZE);
+        GridLayout layout = new GridLayout(10, 10);
+        layout.layoutNeurons(src.getNeuronList());
+        layout.layoutNeurons(tar.getNeuronList());
+        network.addGroup(src);
+        network.addGroup(tar);
+        ConnectNeurons connector;
+        if (param.equals("Sparse")) {
+            connector = new Sparse(0.1, false, false);
+        } else if (param.equals("Radial")) {
+            connector = new Radial(0.8, 30);
+        } else if (param.equals("AllToAll")) {
+            connector = new AllToAll();
+        } else {
+            throw new IllegalArgumentException("Unknown connection manager "
+                    + param);
+        }
+        synapseGroup = new SynapseGroup(src, tar, connector);
+    }
+
+    @Override
+    public double run() {
+        synapseGroup.makeConnections();
+        return synapseGroup.size();
+    }
+
+}
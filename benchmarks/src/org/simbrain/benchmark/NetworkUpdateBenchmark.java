@@ -0,0 +1,129 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.update_actions.BufferedUpdate;
+import org.simbrain.network.update_actions.CompiledUpdate;
+import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
+import org.simbrain.network.update_actions.PartitionedBufferedUpdate;
+import org.simbrain.network.update_actions.PriorityUpdate;
+
+/**
+ * Times {@link Network#update()} on a recurrent network of loose sigmoidal
+ * neurons (1000 neurons, 50 afferent synapses each) under each network update
+ * action.
+ */
+public class NetworkUpdateBenchmark extends Benchmark {
+
+    /** Number of neurons. */
+    private static final int NUM_NEURONS = 1000;
+
+    /** Number of afferent synapses per neuron. */
+    private static final int FAN_IN = 50;
+
+    /** The network being updated. */
+    private Network network;
+
+    /** Update action under test, if it must be shut down. */
+    private PartitionedBufferedUpdate partitioned;
+
+    @Override
+    public String getName() {
+        return "NetworkUpdate";
+    }
+
+    @Override
+    public String[] getParams() {
+        return new String[] { "BufferedUpdate", "PriorityUpdate",
+                "ConcurrentBufferedUpdate", "PartitionedBufferedUpdate",
+                "CompiledUpdate" };
+    }
+
+    @Override
+    public void setUp(String param) {
+        network = buildNetwork(getRandom());
+        network.getUpdateManager().clear();
+        if (param.equals("BufferedUpdate")) {
+            network.getUpdateManager().addAction(new BufferedUpdate(network));
+        } else if (param.equals("PriorityUpdate")) {
+            network.getUpdateManager().addAction(new PriorityUpdate(network));
+        } else if (param.equals("ConcurrentBufferedUpdate")) {
+            network.getUpdateManager().addAction(ConcurrentBufferedUpdate
+                    .createConcurrentBufferedUpdate(network));
+        } else if (param.equals("PartitionedBufferedUpdate")) {
+            partitioned = PartitionedBufferedUpdate.install(network);
+        } else if (param.equals("CompiledUpdate")) {
+            CompiledUpdate.install(network);
+        } else {
+            throw new IllegalArgumentException("Unknown update action "
+                    + param);
+        }
+    }
+
+    /**
+     * Build a recurrent network of loose sigmoidal neurons with random
+     * connections.
+     *
+     * @param rand source of random numbers
+     * @return the network
+     */
+    static Network buildNetwork(final Random rand) {
+        Network network = new Network();
+        network.setFireUpdates(false);
+        List<Neuron> neurons = new ArrayList<Neuron>(NUM_NEURONS);
+        for (int i = 0; i < NUM_NEURONS; i++) {
+            Neuron n = new Neuron(network, new SigmoidalRule());
+            n.forceSetActivation(rand.nextDouble());
+            n.setUpdatePriority(i % 10);
+            network.addNeuron(n);
+            neurons.add(n);
+        }
+        for (Neuron target : neurons) {
+            for (int j = 0; j < FAN_IN; j++) {
+                Neuron source = neurons.get(rand.nextInt(NUM_NEURONS));
+                network.addSynapse(new Synapse(source, target,
+                        rand.nextGaussian() / Math.sqrt(FAN_IN)));
+            }
+        }
+        return network;
+    }
+
+    @Override
+    public double run() {
+        network.update();
+        return network.getNeuronList().get(0).getActivation();
+    }
+
+    @Override
+    public void tearDown() {
+        if (partitioned != null) {
+            partitioned.shutdown();
+            partitioned = null;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.groups.NeuronGroup;
+
+/**
+ * Times a buffered update of a group of 1000 unconnected neurons driven by
+ * random external input, for each neuron update rule in
+ * org.simbrain.network.neuron_update_rules. Times are per neuron.
+ */
+public class NeuronRuleBenchmark extends Benchmark {
+
+    /** Number of neurons. */
+    private static final int NUM_NEURONS = 1000;
+
+    /** The neurons being updated. */
+    private List<Neuron> neurons;
+
+    /** Random input to each neuron. */
+    private double[] inputs;
+
+    @Override
+    public String getName() {
+        return "NeuronRule";
+    }
+
+    @Override
+    public String[] getParams() {
+        return new String[] { "AdExIFRule", "AdditiveRule", "BinaryRule",
+                "ContinuousSigmoidalRule", "DecayRule", "FitzhughNagumo",
+                "HodgkinHuxleyRule", "IACRule", "IntegrateAndFireRule",
+                "IzhikevichRule", "LinearRule", "MorrisLecarRule",
+                "NakaRushtonRule", "PointNeuronRule", "ProductRule",
+                "RunningAverageRule", "SigmoidalRule", "SpikingThresholdRule",
+                "ThreeValueRule", "TimedAccumulatorRule" };
+    }
+
+    @Override
+    public void setUp(String param) throws Exception {
+        Network network = new Network();
+        network.setFireUpdates(false);
+        NeuronGroup ng = new NeuronGroup(network, NUM_NEURONS);
+        ng.setNeuronType((NeuronUpdateRule) Class.forName(
+                "org.simbrain.network.neuron_update_rules." + param)
+                .getDeclaredConstructor().newInstance());
+        network.addGroup(ng);
+        neurons = ng.getNeuronList();
+        inputs = new double[NUM_NEURONS];
+        for (int i = 0; i < NUM_NEURONS; i++) {
+            inputs[i] = getRandom().nextGaussian() * 5;
+        }
+    }
+
+    @Override
+    public double run() {
+        for (int i = 0; i < NUM_NEURONS; i++) {
+            neurons.get(i).setInputValue(inputs[i]);
+        }
+        Network.updateNeurons(neurons);
+        return neurons.get(0).getActivation();
+    }
+
+    @Override
+    public int getOperationsPerRun() {
+        return NUM_NEURONS;
+    }
+
+}
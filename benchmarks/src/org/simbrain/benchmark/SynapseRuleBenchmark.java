@@ -0,0 +1,116 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.util.List;
+
+import org.simbrain.network.connections.AllToAll;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.util.SimbrainConstants.Polarity;
+
+/**
+ * Times {@link SynapseGroup#update()} on a 200 x 200 all to all synapse group
+ * for each synapse update rule in org.simbrain.network.synapse_update_rules.
+ * Source and target activations and spikes are re-randomized from a fixed
+ * table each run. Times are per synapse.
+ */
+public class SynapseRuleBenchmark extends Benchmark {
+
+    /** Number of neurons in each group. */
+    private static final int GROUP_SIZE = 200;
+
+    /** Number of random activation patterns to cycle through. */
+    private static final int NUM_PATTERNS = 16;
+
+    /** The synapse group being updated. */
+    private SynapseGroup synapseGroup;
+
+    /** A synapse whose strength is returned. */
+    private Synapse probe;
+
+    /** All neurons whose state is set each run. */
+    private List<Neuron> neurons;
+
+    /** Activation patterns, one per run in turn. */
+    private double[][] patterns;
+
+    /** Index of the next pattern. */
+    private int next;
+
+    @Override
+    public String getName() {
+        return "SynapseRule";
+    }
+
+    @Override
+    public String[] getParams() {
+        return new String[] { "StaticSynapseRule", "HebbianRule",
+                "HebbianCPCARule", "HebbianThresholdRule", "OjaRule",
+                "STDPRule", "LogSTDPRule", "ShortTermPlasticityRule",
+                "SubtractiveNormalizationRule" };
+    }
+
+    @Override
+    public void setUp(String param) throws Exception {
+        Network network = new Network();
+        network.setFireUpdates(false);
+        NeuronGroup src = new NeuronGroup(network, GROUP_SIZE);
+        NeuronGroup tar = new NeuronGroup(network, GROUP_SIZE);
+        network.addGroup(src);
+        network.addGroup(tar);
+        synapseGroup = SynapseGroup.createSynapseGroup(src, tar,
+                new AllToAll());
+        network.addGroup(synapseGroup);
+        synapseGroup.setLearningRule((SynapseUpdateRule) Class.forName(
+                "org.simbrain.network.synapse_update_rules." + param)
+                .getDeclaredConstructor().newInstance(), Polarity.BOTH);
+        probe = synapseGroup.getAllSynapses().get(0);
+        neurons = network.getFlatNeuronList();
+        patterns = new double[NUM_PATTERNS][neurons.size()];
+        for (double[] pattern : patterns) {
+            for (int i = 0; i < pattern.length; i++) {
+                pattern[i] = getRandom().nextDouble();
+            }
+        }
+    }
+
+    @Override
+    public double run() {
+        double[] pattern = patterns[next];
+        next = (next + 1) % NUM_PATTERNS;
+        for (int i = 0, n = neurons.size(); i < n; i++) {
+            Neuron neuron = neurons.get(i);
+            neuron.forceSetActivation(pattern[i]);
+            neuron.setSpike(pattern[i] > 0.9);
+        }
+        synapseGroup.update();
+        return probe.getStrength();
+    }
+
+    @Override
+    public int getOperationsPerRun() {
+        return GROUP_SIZE * GROUP_SIZE;
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.benchmark;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.simbrain.network.NetworkComponent;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.workspace.Coupling;
+import org.simbrain.workspace.PotentialConsumer;
+import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Workspace;
+
+/**
+ * Times single workspace iterations (through the workspace updater) of two
+ * network components of 1000 neurons each, with the given number of couplings
+ * from activations in the first network to input values in the second.
+ */
+public class WorkspaceUpdateBenchmark extends Benchmark {
+
+    /** Number of neurons in each network. */
+    private static final int NUM_NEURONS = 1000;
+
+    /** The workspace being iterated. */
+    private Workspace workspace;
+
+    /** A neuron whose activation is returned. */
+    private Neuron probe;
+
+    @Override
+    public String getName() {
+        return "WorkspaceUpdate";
+    }
+
+    @Override
+    public String[] getParams() {
+        return new String[] { "0", "10", "100", "1000" };
+    }
+
+    @Override
+    public void setUp(String param) throws Exception {
+        int numCouplings = Integer.parseInt(param);
+        workspace = new Workspace();
+        workspace.setUpdateDelay(0);
+        NetworkComponent nc1 = createComponent("Network 1");
+        NetworkComponent nc2 = createComponent("Network 2");
+        workspace.addWorkspaceComponent(nc1);
+        workspace.addWorkspaceComponent(nc2);
+        List<Neuron> sources = nc1.getNetwork().getFlatNeuronList();
+        List<Neuron> targets = nc2.getNetwork().getFlatNeuronList();
+        for (int i = 0; i < numCouplings; i++) {
+            PotentialProducer producer = nc1.getAttributeManager()
+                    .createPotentialProducer(sources.get(i), "getActivation",
+                            double.class);
+            PotentialConsumer consumer = nc2.getAttributeManager()
+                    .createPotentialConsumer(targets.get(i), "setInputValue",
+                            double.class);
+            workspace.getCouplingManager().addCoupling(
+                    new Coupling<Double>(producer, consumer));
+        }
+        probe = targets.get(0);
+    }
+
+    /**
+     * Create a network component holding a group of randomly initialized
+     * neurons.
+     *
+     * @param name name of the component
+     * @return the component
+     */
+    private NetworkComponent createComponent(final String name) {
+        Network network = new Network();
+        NeuronGroup ng = new NeuronGroup(network, NUM_NEURONS);
+        for (Neuron n : ng.getNeuronList()) {
+            n.forceSetActivation(getRandom().nextDouble());
+        }
+        network.addGroup(ng);
+        return new NetworkComponent(name, network);
+    }
+
+    @Override
+    public double run() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        workspace.iterate(latch, 1);
+        latch.await();
+        return probe.getActivation();
+    }
+
+    @Override
+    public void tearDown() {
+        workspace.clearWorkspace();
+    }
+
+}
@@ -17,9 +17,12 @@
  */
 package org.simbrain.network;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.simbrain.network.core.Network;
@@ -33,7 +36,10 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.listeners.NeuronListener;
 import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.util.io_utilities.NetworkArchive;
+import org.simbrain.workspace.Attribute;
 import org.simbrain.workspace.AttributeType;
+import org.simbrain.workspace.Coupling;
 import org.simbrain.workspace.PotentialConsumer;
 import org.simbrain.workspace.PotentialProducer;
 import org.simbrain.workspace.WorkspaceComponent;
@@ -73,6 +79,8 @@ public final class NetworkComponent extends WorkspaceComponent {
      */
     private void init() {
 
+        network.setRandomKey(getName());
+
         // Initialize attribute types and their default visibility
         addProducerType(new AttributeType(this, "Neuron Activation", "getActivation",
                 double.class, true));
@@ -248,7 +256,8 @@ public final class NetworkComponent extends WorkspaceComponent {
                     }
                 }
             } else if (type.getTypeName().equalsIgnoreCase("Synapse")) {
-                for (Synapse synapse : network.getFlatSynapseList()) {
+                // Compact groups are only coupled as a whole
+                for (Synapse synapse : network.getExpandedSynapseList()) {
                     String description = type.getDescription(synapse.getId());
                     PotentialConsumer consumer = getAttributeManager()
                             .createPotentialConsumer(synapse, type);
@@ -354,7 +363,8 @@ public final class NetworkComponent extends WorkspaceComponent {
                     }
                 }
             } else if (type.getTypeName().equalsIgnoreCase("Synapse")) {
-                for (Synapse synapse : network.getFlatSynapseList()) {
+                // Compact groups are only coupled as a whole
+                for (Synapse synapse : network.getExpandedSynapseList()) {
                     String description = type.getDescription(synapse.getId());
                     PotentialProducer producer = getAttributeManager()
                             .createPotentialProducer(synapse, type);
@@ -423,19 +433,62 @@ public final class NetworkComponent extends WorkspaceComponent {
     }
 
     /**
-     * {@inheritDoc}
+     * Open a network from a network archive (see {@link NetworkArchive}) or
+     * from xml. The format is taken from the data, so the format argument is
+     * ignored.
+     *
+     * @param input stream to read from
+     * @param name name of the component
+     * @param format the format of the data
+     * @return the network component
      */
     public static NetworkComponent open(final InputStream input,
             final String name, final String format) {
-        Network newNetwork = (Network) Network.getXStream().fromXML(input);
+        Network newNetwork;
+        try {
+            BufferedInputStream in = new BufferedInputStream(input, 1 << 16);
+            if (NetworkArchive.isArchive(in)) {
+                newNetwork = NetworkArchive.read(in);
+            } else {
+                newNetwork = (Network) Network.getXStream().fromXML(in);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         return new NetworkComponent(name, newNetwork);
     }
 
+    /**
+     * Save the network as a network archive, or as xml if the format is
+     * "xml".
+     *
+     * @param output stream to write to
+     * @param format the format, or null for the default format
+     */
     @Override
     public void save(final OutputStream output, final String format) {
-        network.preSaveInit();
-        Network.getXStream().toXML(network, output);
-        network.postSaveReInit();
+        if (format != null && format.replace(".", "").equalsIgnoreCase("xml")) {
+            network.preSaveInit();
+            Network.getXStream().toXML(network, output);
+            network.postSaveReInit();
+        } else {
+            try {
+                NetworkArchive.write(network, output);
+                output.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public String getDefaultFormat() {
+        return NetworkArchive.EXTENSION;
+    }
+
+    @Override
+    public List<? extends String> getFormats() {
+        return Arrays.asList(NetworkArchive.EXTENSION, "xml");
     }
 
     /**
@@ -452,9 +505,44 @@ public final class NetworkComponent extends WorkspaceComponent {
         network.update();
     }
 
+    @Override
+    public void couplingAdded(Coupling<?> coupling) {
+        // Tell the network which of its neurons are read or written from
+        // outside, e.g. so a compiled update writes them back every update
+        List<Object> objects = new ArrayList<Object>();
+        addCoupledObject(objects, coupling.getProducer());
+        addCoupledObject(objects, coupling.getConsumer());
+        if (!objects.isEmpty()) {
+            network.addCoupledObjects(coupling, objects);
+        }
+    }
+
+    @Override
+    public void couplingRemoved(Coupling<?> coupling) {
+        network.removeCoupledObjects(coupling);
+    }
+
+    /**
+     * Add the base object of an attribute to a list if it is a neuron or
+     * neuron group of this component.
+     *
+     * @param objects the list to add to
+     * @param attribute the producer or consumer of a coupling
+     */
+    private void addCoupledObject(final List<Object> objects,
+            final Attribute attribute) {
+        if (attribute.getParentComponent() != this) {
+            return;
+        }
+        Object object = attribute.getBaseObject();
+        if (object instanceof Neuron || object instanceof NeuronGroup) {
+            objects.add(object);
+        }
+    }
+
     @Override
     public void closing() {
-        // TODO Auto-generated method stub
+        network.getUpdateManager().dispose();
     }
 
     @Override
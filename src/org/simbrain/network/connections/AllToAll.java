@@ -147,15 +147,23 @@ public class AllToAll implements ConnectNeurons {
      *            connection class will be added.
      */
     public void connectNeurons(SynapseGroup synGroup) {
-        List<Synapse> syns = connectAllToAll(synGroup.getSourceNeurons(),
-                synGroup.getTargetNeurons(), synGroup.isRecurrent(),
-                selfConnectionAllowed, false);
         // Set the capacity of the synapse group's list to accommodate the
         // synapses this group will add.
         synGroup.preAllocateSynapses(synGroup.getSourceNeuronGroup().size()
                 * synGroup.getTargetNeuronGroup().size());
-        for (Synapse s : syns) {
-            synGroup.addNewSynapse(s);
+        // Connections are added as they are made rather than collected
+        // first, so a group built on disk never holds them all in memory
+        boolean noSelfConnections = synGroup.isRecurrent()
+                && !selfConnectionAllowed;
+        List<Neuron> targets = synGroup.getTargetNeurons();
+        for (Neuron source : synGroup.getSourceNeurons()) {
+            for (int j = 0, n = targets.size(); j < n; j++) {
+                Neuron target = targets.get(j);
+                if (noSelfConnections && source.equals(target)) {
+                    continue;
+                }
+                synGroup.addNewConnection(source, target);
+            }
         }
     }
 
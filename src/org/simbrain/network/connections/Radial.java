@@ -18,21 +18,20 @@
 package org.simbrain.network.connections;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.SimbrainConstants.Polarity;
-import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 
 /**
  *
@@ -58,6 +57,12 @@ import org.simbrain.util.math.ProbDistribution;
  * have it make the most connections possible given the exponential
  * distribution.
  *
+ * Target neurons are bucketed by their (x, y) position into a uniform grid,
+ * and each source neuron only visits the cells within the distance at which
+ * its connection probability falls below {@link #getCutoffProbability()}.
+ * Generation time therefore grows with the number of connections made
+ * rather than with the number of source-target pairs.
+ *
  * @author Zach Tosi
  *
  */
@@ -76,6 +81,27 @@ public class Radial extends Sparse {
 
     public static final double DEFAULT_LAMBDA = 2.5;
 
+    /**
+     * Default probability below which pairs are not considered. At the
+     * default lambda and constants this is a distance of about 9 pixels.
+     */
+    public static final double DEFAULT_CUTOFF_PROBABILITY = 1E-6;
+
+    /**
+     * Number of source-target pairs examined per wave of connections, which
+     * bounds the memory used by the connections made but not yet added.
+     */
+    private static final int WAVE_SIZE = 1 << 22;
+
+    /** Target polarity code for neurons with no polarity. */
+    private static final byte NO_POLARITY = 0;
+
+    /** Target polarity code for excitatory neurons. */
+    private static final byte EXCITATORY = 1;
+
+    /** Target polarity code for inhibitory neurons. */
+    private static final byte INHIBITORY = 2;
+
     /** The connection constant for connections between 2 excitatory neurons. */
     private double eeDistConst = DEFAULT_EE_CONST;
 
@@ -106,6 +132,12 @@ public class Radial extends Sparse {
      * connection distance.
      */
     private double lambda = DEFAULT_LAMBDA;
+
+    /**
+     * Connection probability below which source-target pairs are not
+     * considered at all. Zero considers every pair.
+     */
+    private double cutoffProbability = DEFAULT_CUTOFF_PROBABILITY;
     
     private SynapseGroup synapseGroup;
 
@@ -126,50 +158,24 @@ public class Radial extends Sparse {
         final List<Neuron> source, final List<Neuron> target,
         double eeDistConst, double eiDistConst, double ieDistConst,
         double iiDistConst, double distConst, double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
-        for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
-                double probability;
-                if (src.getPolarity() == Polarity.EXCITATORY) {
-                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, eeDistConst,
-                            lambda);
-                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, eiDistConst,
-                            lambda);
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                } else if (src.getPolarity() == Polarity.INHIBITORY) {
-                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, ieDistConst,
-                            lambda);
-                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, iiDistConst,
-                            lambda);
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                } else {
-                    probability = calcConnectProb(src, tar, distConst,
-                        lambda);
-                }
-                if (randVal < probability) {
-                    Synapse s = new Synapse(src, tar);
+        final List<Synapse> synapses = new ArrayList<Synapse>();
+        final List<Neuron> src = source;
+        final List<Neuron> tar = target;
+        final boolean addLoose = loose;
+        TargetGrid grid = new TargetGrid(target, eeDistConst, eiDistConst,
+            ieDistConst, iiDistConst, distConst, lambda,
+            DEFAULT_CUTOFF_PROBABILITY);
+        grid.connect(source, 0, RandomStreams.current().split(),
+            new PairSink() {
+                @Override
+                public void add(int i, int j) {
+                    Synapse s = new Synapse(src.get(i), tar.get(j));
                     synapses.add(s);
-                    if (loose) {
-                        src.getNetwork().addSynapse(s);
+                    if (addLoose) {
+                        src.get(i).getNetwork().addSynapse(s);
                     }
                 }
-            }
-        }
+            });
         return synapses;
     }
 
@@ -185,26 +191,9 @@ public class Radial extends Sparse {
     public static List<Synapse> connectRadialNoPolarity(
         final List<Neuron> source, final List<Neuron> target, double distConst,
         double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
-        for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
-                double probability = calcConnectProb(src, tar, distConst,
-                    lambda);
-                if (randVal < probability) {
-                    Synapse s = new Synapse(src, tar);
-                    synapses.add(s);
-                    if (loose) {
-                        src.getNetwork().addSynapse(s);
-                    }
-                }
-            }
-        }
-        return synapses;
+        // Polarities are ignored when every constant is the same
+        return connectRadialPolarized(source, target, distConst, distConst,
+            distConst, distConst, distConst, lambda, loose);
     }
 
     /**
@@ -260,76 +249,60 @@ public class Radial extends Sparse {
         this.synapseGroup = synGroup;
         List<Neuron> source = synGroup.getSourceNeurons();
         List<Neuron> target = synGroup.getTargetNeurons();
-        List<Synapse> synapses;
-        if (source.size() < 500) {
-        	synapses = connectRadialPolarized(source, target,
-        			eeDistConst, eiDistConst, ieDistConst, iiDistConst,
-        			distConst, lambda, false);
-            for (Synapse s : synapses) {
-                synGroup.addNewSynapse(s);
+        int threads = 1;
+        if (source.size() >= 500) {
+            threads = Runtime.getRuntime().availableProcessors();
+            double runningPercentEx = 0;
+            for (Neuron n : source) {
+                if (n.isPolarized() && Polarity.EXCITATORY == n.getPolarity()) {
+                    runningPercentEx++;
+                }
             }
-        } else {
-        	List<Callable<Collection<Synapse>>> workers =
-        			new ArrayList<Callable<Collection<Synapse>>>();
-        	int threads = Runtime.getRuntime().availableProcessors();
-        	int idealShare = (int) Math.floor(source.size() / threads);
-        	int remaining = source.size();
-        	Iterator<Neuron> srcIter = source.iterator();
-        	List<Neuron> srcChunk;
-        	double runningPercentEx = 0;
-        	for (int i = 0; i < threads; i++) {
-        		srcChunk = new ArrayList<Neuron>((int) Math.ceil((idealShare
-        				* 2) / 0.75));
-        		int share;
-        		if (remaining < idealShare * 2) {
-        			share = remaining;
-        		} else {
-        			share = idealShare;
-        		}
-        		int j = 0;
-        		while (j < share) {
-        			Neuron n = srcIter.next();
-        			srcChunk.add(n);
-        			if (n.isPolarized()) {
-        				if (Polarity.EXCITATORY == n.getPolarity()) {
-        					runningPercentEx++;
-        				}
-        			}
-        			j++;
-        		}
-        		remaining -= j;
-        		workers.add(new ConnectorService(srcChunk, target, false));
-        	}
-        	runningPercentEx /= source.size();
-        	synGroup.setExcitatoryRatio(runningPercentEx);
-        	ExecutorService ex = Executors.newFixedThreadPool(threads);
-        	List<Future<Collection<Synapse>>> generatedSyns;
-        	try {
-				generatedSyns = ex.invokeAll(workers);
-				ex.shutdown();
-				ex.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				return;
-			}
-        	int numSyns = 0;
-        	for (Future<Collection<Synapse>> future : generatedSyns) {
-        		try {
-					numSyns += future.get().size();
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-        	}
-        	synGroup.preAllocateSynapses(numSyns);
-        	for (Future<Collection<Synapse>> future : generatedSyns) {
-        		try {
-					for(Synapse s : future.get()) {
-						synGroup.addNewSynapse(s);
-					}
-				} catch (InterruptedException | ExecutionException e) {
-					e.printStackTrace();
-				}
-        	}
+            runningPercentEx /= source.size();
+            synGroup.setExcitatoryRatio(runningPercentEx);
+        }
+        TargetGrid grid = new TargetGrid(target, eeDistConst, eiDistConst,
+            ieDistConst, iiDistConst, distConst, lambda, cutoffProbability);
+        // Sources are connected in waves of one chunk per thread, and each
+        // wave is added to the group before the next is made, so the
+        // connections are never all held in memory at once.
+        SplitRandomStream base = RandomStreams.current().split();
+        int chunkSize = Math.max(1, Math.min(
+            (source.size() + threads - 1) / threads,
+            WAVE_SIZE / Math.max(1, grid.getCandidatesPerSource())));
+        ExecutorService ex = Executors.newFixedThreadPool(threads);
+        try {
+            int first = 0;
+            while (first < source.size()) {
+                List<ConnectorService> workers =
+                    new ArrayList<ConnectorService>(threads);
+                for (int i = 0; i < threads && first < source.size(); i++) {
+                    int last = Math.min(source.size(), first + chunkSize);
+                    workers.add(new ConnectorService(source.subList(first,
+                        last), first, grid, base));
+                    first = last;
+                }
+                List<Future<int[]>> generated = ex.invokeAll(workers);
+                for (int i = 0; i < workers.size(); i++) {
+                    List<Neuron> srcChunk = workers.get(i).srcList;
+                    int[] pairs;
+                    try {
+                        pairs = generated.get(i).get();
+                    } catch (ExecutionException e) {
+                        e.printStackTrace();
+                        continue;
+                    }
+                    for (int k = 0; k < pairs.length; k += 2) {
+                        synGroup.addNewConnection(srcChunk.get(pairs[k]),
+                            target.get(pairs[k + 1]));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            ex.shutdown();
         }
 
         if (synGroup.isRecurrent()) {
@@ -343,45 +316,9 @@ public class Radial extends Sparse {
         }
         source = null;
         target = null;
-        synapses = null;
         Runtime.getRuntime().gc();
     }
 
-    /**
-     *
-     * @param src the source neuron.
-     * @param tar the target neuron.
-     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
-     * @param lambda average connection distance.
-     * @return
-     */
-    private static double calcConnectProb(Neuron src, Neuron tar,
-        double distConst, double lambda) {
-        double dist = -getRawDist(src, tar);
-        double exp = Math.exp(dist / (lambda * lambda));
-        if (exp == 1.0) { // Same location == same neuron: cheapest way to
-            // prevent self connections
-            exp = 0.0;
-        }
-        return distConst * exp;
-    }
-
-    /**
-     *
-     * @param n1 neuron one
-     * @param n2 neuron two
-     * @return
-     */
-    private static double getRawDist(Neuron n1, Neuron n2) {
-        double x2 = (n1.getX() - n2.getX());
-        x2 *= x2;
-        double y2 = (n1.getY() - n2.getY());
-        y2 *= y2;
-        double z2 = (n1.getZ() - n2.getZ());
-        z2 *= z2;
-        return x2 + y2 + z2;
-    }
-
     @Override
     public String toString() {
         return "Radial";
@@ -435,124 +372,407 @@ public class Radial extends Sparse {
         this.lambda = lambda;
     }
 
-    private class ConnectorService implements Callable<Collection<Synapse>> {
-    	
-    	private final Collection<Neuron> srcColl;
-    	
-    	private final Collection<Neuron> targColl;
-    	
-    	private final boolean loose;
-    	
-    	public ConnectorService(final Collection<Neuron> srcColl,
-    			final Collection<Neuron> targColl, final boolean loose) {
-    		this.srcColl = srcColl;
-    		this.targColl = targColl;
-    		this.loose = loose;
-    	}
-
-		@Override
-		public Collection<Synapse> call() throws Exception {
-			// Attempting to pre-allocate... assumes that connection density
-			// will be less than #src * #tar * 0.2 or 20% connectivity
-			List<Synapse> synapses = new ArrayList<Synapse>(
-					(int) Math.ceil(srcColl.size() * targColl.size() * 0.2
-							* 0.75));
-			for (Neuron src : srcColl) {
-	            for (Neuron tar : targColl) {
-	                double randVal = ProbDistribution.UNIFORM.nextRand(0, 1);
-	                double probability;
-	                if (src.getPolarity() == Polarity.EXCITATORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, eeDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, eiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else if (src.getPolarity() == Polarity.INHIBITORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, ieDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, iiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else {
-	                    probability = calcConnectProb(src, tar, distConst,
-	                        lambda);
-	                }
-	                if (randVal < probability) {
-	                    Synapse s = new Synapse(src, tar);
-	                    synapses.add(s);
-	                    if (loose) {
-	                        src.getNetwork().addSynapse(s);
-	                    }
-	                }
-	            }
-	        }
-	        return synapses;
-		}
-    	
+    /**
+     * @return the connection probability below which source-target pairs
+     *         are not considered
+     */
+    public double getCutoffProbability() {
+        return cutoffProbability;
     }
-    
-    public class DensityEstimator implements Runnable {
 
-        private double estimateDensity;
+    /**
+     * @param cutoffProbability the connection probability below which
+     *            source-target pairs are not considered. Zero considers every
+     *            pair.
+     */
+    public void setCutoffProbability(double cutoffProbability) {
+        this.cutoffProbability = cutoffProbability;
+    }
 
+    /**
+     * Makes the connections from a chunk of source neurons.
+     */
+    private static class ConnectorService implements Callable<int[]> {
+
+        /** The source neurons. */
+        private final List<Neuron> srcList;
+
+        /** Index of the first source neuron among all source neurons. */
+        private final int offset;
+
+        /** The target neurons, bucketed by position. */
+        private final TargetGrid grid;
+
+        /** Stream the stream of each source neuron is derived from. */
+        private final SplitRandomStream base;
+
+        /**
+         * @param srcList the source neurons
+         * @param offset index of the first source neuron among all source
+         *            neurons
+         * @param grid the target neurons, bucketed by position
+         * @param base stream the stream of each source neuron is derived
+         *            from
+         */
+        public ConnectorService(final List<Neuron> srcList, final int offset,
+            final TargetGrid grid, final SplitRandomStream base) {
+            this.srcList = srcList;
+            this.offset = offset;
+            this.grid = grid;
+            this.base = base;
+        }
+
+        /**
+         * @return the connections made, as pairs of indices into the source
+         *         and target lists
+         */
         @Override
-        public void run() {
-            int count = 0;
-            for (Neuron src : synapseGroup.getSourceNeurons()) {
-                for (Neuron tar : synapseGroup.getTargetNeurons()) {
-                    double randVal = Math.random();
-                    double probability;
-                    if (src.getPolarity() == Polarity.EXCITATORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, eeDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, eiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
-                        }
-                    } else if (src.getPolarity() == Polarity.INHIBITORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, ieDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, iiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
-                        }
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
+        public int[] call() throws Exception {
+            final int[][] pairs = new int[][] {new int[64]};
+            final int[] size = new int[1];
+            grid.connect(srcList, offset, base, new PairSink() {
+                @Override
+                public void add(int i, int j) {
+                    if (size[0] == pairs[0].length) {
+                        pairs[0] = Arrays.copyOf(pairs[0], 2 * size[0]);
                     }
-                    if (randVal < probability) {
-                        count++;
+                    pairs[0][size[0]++] = i;
+                    pairs[0][size[0]++] = j;
+                }
+            });
+            return Arrays.copyOf(pairs[0], size[0]);
+        }
+
+    }
+
+    /**
+     * Receives the connections made, as indices into the source and target
+     * lists.
+     */
+    private interface PairSink {
+
+        /**
+         * @param i index of the source neuron
+         * @param j index of the target neuron
+         */
+        void add(int i, int j);
+    }
+
+    /**
+     * Target neurons bucketed by (x, y) position into a uniform grid, stored
+     * as the target indices of each cell in one array. Positions are read
+     * when the grid is made.
+     */
+    private static final class TargetGrid {
+
+        /** Connection constants, by source then target polarity code. */
+        private final double[][] constants;
+
+        /** Square of lambda. */
+        private final double lambdaSquared;
+
+        /** Probability below which pairs are not considered. */
+        private final double cutoff;
+
+        /** Target x positions. */
+        private final double[] x;
+
+        /** Target y positions. */
+        private final double[] y;
+
+        /** Target z positions. */
+        private final double[] z;
+
+        /** Target polarity codes. */
+        private final byte[] polarity;
+
+        /** Left edge of the grid. */
+        private final double minX;
+
+        /** Top edge of the grid. */
+        private final double minY;
+
+        /** Width and height of a cell. */
+        private final double cellSize;
+
+        /** Number of columns. */
+        private final int cols;
+
+        /** Number of rows. */
+        private final int rows;
+
+        /** Start of each cell in {@link #cellItems}. */
+        private final int[] cellStart;
+
+        /** Target indices, cell by cell. */
+        private final int[] cellItems;
+
+        /**
+         * Bucket the target neurons.
+         *
+         * @param target the target neurons
+         * @param ee constant for excitatory to excitatory connections
+         * @param ei constant for excitatory to inhibitory connections
+         * @param ie constant for inhibitory to excitatory connections
+         * @param ii constant for inhibitory to inhibitory connections
+         * @param other constant for connections with unpolarized neurons
+         * @param lambda average connection distance
+         * @param cutoff probability below which pairs are not considered
+         */
+        TargetGrid(final List<Neuron> target, final double ee,
+            final double ei, final double ie, final double ii,
+            final double other, final double lambda, final double cutoff) {
+            constants = new double[][] {{other, other, other},
+                {other, ee, ei}, {other, ie, ii}};
+            lambdaSquared = lambda * lambda;
+            this.cutoff = cutoff;
+            int n = target.size();
+            x = new double[n];
+            y = new double[n];
+            z = new double[n];
+            polarity = new byte[n];
+            double loX = Double.POSITIVE_INFINITY;
+            double loY = Double.POSITIVE_INFINITY;
+            double hiX = Double.NEGATIVE_INFINITY;
+            double hiY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                Neuron tar = target.get(i);
+                x[i] = tar.getX();
+                y[i] = tar.getY();
+                z[i] = tar.getZ();
+                polarity[i] = code(tar);
+                loX = Math.min(loX, x[i]);
+                loY = Math.min(loY, y[i]);
+                hiX = Math.max(hiX, x[i]);
+                hiY = Math.max(hiY, y[i]);
+            }
+            double maxConst = 0;
+            for (double[] row : constants) {
+                for (double c : row) {
+                    maxConst = Math.max(maxConst, c);
+                }
+            }
+            double width = n == 0 ? 0 : hiX - loX;
+            double height = n == 0 ? 0 : hiY - loY;
+            // Cells as wide as the largest cutoff radius, but no more cells
+            // than a few per target
+            double size = Math.sqrt(radiusSquared(maxConst));
+            if (!(size > 0) || Double.isInfinite(size)) {
+                size = Double.POSITIVE_INFINITY;
+            }
+            long cells;
+            while (true) {
+                cells = (long) columns(width, size) * columns(height, size);
+                if (cells <= 4L * n + 4) {
+                    break;
+                }
+                size *= 2;
+            }
+            minX = n == 0 ? 0 : loX;
+            minY = n == 0 ? 0 : loY;
+            cellSize = size;
+            cols = columns(width, size);
+            rows = columns(height, size);
+            cellStart = new int[cols * rows + 1];
+            int[] cellOf = new int[n];
+            for (int i = 0; i < n; i++) {
+                cellOf[i] = cell(x[i], y[i]);
+                cellStart[cellOf[i] + 1]++;
+            }
+            for (int c = 0; c < cols * rows; c++) {
+                cellStart[c + 1] += cellStart[c];
+            }
+            cellItems = new int[n];
+            int[] fill = Arrays.copyOf(cellStart, cols * rows);
+            for (int i = 0; i < n; i++) {
+                cellItems[fill[cellOf[i]]++] = i;
+            }
+        }
+
+        /**
+         * @param extent width or height of the targets
+         * @param size cell size
+         * @return number of cells needed to cover the extent
+         */
+        private static int columns(final double extent, final double size) {
+            if (Double.isInfinite(size)) {
+                return 1;
+            }
+            return (int) Math.min(Integer.MAX_VALUE / 4,
+                Math.floor(extent / size) + 1);
+        }
+
+        /**
+         * @param px an x position
+         * @param py a y position
+         * @return the cell holding the position
+         */
+        private int cell(final double px, final double py) {
+            return row(py) * cols + column(px);
+        }
+
+        /**
+         * @param px an x position
+         * @return the column holding it, clamped to the grid
+         */
+        private int column(final double px) {
+            if (Double.isInfinite(cellSize)) {
+                return 0;
+            }
+            double c = Math.floor((px - minX) / cellSize);
+            return (int) Math.max(0, Math.min(cols - 1, c));
+        }
+
+        /**
+         * @param py a y position
+         * @return the row holding it, clamped to the grid
+         */
+        private int row(final double py) {
+            if (Double.isInfinite(cellSize)) {
+                return 0;
+            }
+            double r = Math.floor((py - minY) / cellSize);
+            return (int) Math.max(0, Math.min(rows - 1, r));
+        }
+
+        /**
+         * @param constant a connection constant
+         * @return the squared distance beyond which its probability is below
+         *         the cutoff
+         */
+        private double radiusSquared(final double constant) {
+            if (!(constant > 0)) {
+                return 0;
+            }
+            if (!(cutoff > 0)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            if (constant <= cutoff) {
+                return 0;
+            }
+            return lambdaSquared * Math.log(constant / cutoff);
+        }
+
+        /**
+         * @return a rough number of targets visited per source neuron
+         */
+        int getCandidatesPerSource() {
+            int n = cellItems.length;
+            if (Double.isInfinite(cellSize) || n == 0) {
+                return n;
+            }
+            // A 3 x 3 block of cells of average occupancy
+            return (int) Math.min(n, 9L * n / (cols * rows) + 1);
+        }
+
+        /**
+         * Make the connections from some source neurons. Each source neuron
+         * draws from its own stream, derived from its index, so the
+         * connections made do not depend on how the sources are split among
+         * threads.
+         *
+         * @param source the source neurons
+         * @param offset index of the first of these source neurons among all
+         *            source neurons
+         * @param base stream the stream of each source neuron is derived from
+         * @param sink receives the connections made
+         */
+        void connect(final List<Neuron> source, final int offset,
+            final SplitRandomStream base, final PairSink sink) {
+            if (cellItems.length == 0) {
+                return;
+            }
+            for (int i = 0, m = source.size(); i < m; i++) {
+                Neuron src = source.get(i);
+                double[] byTarget = constants[code(src)];
+                double maxConst = Math.max(byTarget[0],
+                    Math.max(byTarget[1], byTarget[2]));
+                double r2 = radiusSquared(maxConst);
+                if (r2 == 0) {
+                    continue;
+                }
+                SplitRandomStream rand = base.substream(offset + i);
+                double sx = src.getX();
+                double sy = src.getY();
+                double sz = src.getZ();
+                int c0 = 0;
+                int c1 = cols - 1;
+                int r0 = 0;
+                int r1 = rows - 1;
+                if (!Double.isInfinite(r2)) {
+                    double r = Math.sqrt(r2);
+                    c0 = column(sx - r);
+                    c1 = column(sx + r);
+                    r0 = row(sy - r);
+                    r1 = row(sy + r);
+                }
+                for (int row = r0; row <= r1; row++) {
+                    for (int col = c0; col <= c1; col++) {
+                        int cell = row * cols + col;
+                        for (int k = cellStart[cell], end =
+                            cellStart[cell + 1]; k < end; k++) {
+                            int j = cellItems[k];
+                            double dx = sx - x[j];
+                            double dy = sy - y[j];
+                            double dz = sz - z[j];
+                            double d2 = dx * dx + dy * dy;
+                            if (d2 > r2) {
+                                continue;
+                            }
+                            d2 += dz * dz;
+                            double exp = Math.exp(-d2 / lambdaSquared);
+                            if (exp == 1.0) {
+                                // Same location == same neuron
+                                continue;
+                            }
+                            if (rand.nextDouble() < byTarget[polarity[j]]
+                                * exp) {
+                                sink.add(i, j);
+                            }
+                        }
                     }
                 }
             }
+        }
+
+        /**
+         * @param neuron a neuron
+         * @return its polarity code
+         */
+        private static byte code(final Neuron neuron) {
+            if (neuron.getPolarity() == Polarity.EXCITATORY) {
+                return EXCITATORY;
+            } else if (neuron.getPolarity() == Polarity.INHIBITORY) {
+                return INHIBITORY;
+            }
+            return NO_POLARITY;
+        }
+    }
+
+    public class DensityEstimator implements Runnable {
+
+        private double estimateDensity;
+
+        @Override
+        public void run() {
+            final int[] count = new int[1];
+            TargetGrid grid = new TargetGrid(
+                synapseGroup.getTargetNeurons(), eeDistConst, eiDistConst,
+                ieDistConst, iiDistConst, distConst, lambda,
+                cutoffProbability);
+            grid.connect(synapseGroup.getSourceNeurons(), 0,
+                RandomStreams.current().split(), new PairSink() {
+                    @Override
+                    public void add(int i, int j) {
+                        count[0]++;
+                    }
+                });
             if (synapseGroup.isRecurrent()) {
-                estimateDensity = (double) count / (synapseGroup
+                estimateDensity = (double) count[0] / (synapseGroup
                     .getSourceNeuronGroup().size()
                     * (synapseGroup.getSourceNeuronGroup().size() - 1));
             } else {
-                estimateDensity = (double) count / (synapseGroup.
+                estimateDensity = (double) count[0] / (synapseGroup.
                     getSourceNeuronGroup().size() * synapseGroup
                     .getTargetNeuronGroup().size());
             }
@@ -24,6 +24,7 @@ import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * For each neuron, consider every neuron in an excitatory and inhibitory radius
@@ -125,7 +126,7 @@ public class RadialSimple implements ConnectNeurons {
                     continue;
                 }
             }
-            if (Math.random() < inhibitoryProbability) {
+            if (RandomStreams.current().nextDouble() < inhibitoryProbability) {
                 Synapse synapse = new Synapse(source, target);
                 synapse.setStrength(-1);
                 if (looseSynapses) {
@@ -175,7 +176,7 @@ public class RadialSimple implements ConnectNeurons {
                     continue;
                 }
             }
-            if (Math.random() < excitatoryProbability) {
+            if (RandomStreams.current().nextDouble() < excitatoryProbability) {
                 Synapse synapse = new Synapse(source, target);
                 synapse.setStrength(1);
                 if (looseSynapses) {
@@ -26,7 +26,9 @@ import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
 
 import umontreal.iro.lecuyer.randvar.BinomialGen;
 
@@ -172,7 +174,8 @@ public class Sparse implements ConnectNeurons {
         Neuron target;
         Synapse synapse;
         ArrayList<Synapse> syns = new ArrayList<Synapse>();
-        Random rand = new Random(System.nanoTime());
+        SplitRandomStream stream = RandomStreams.current();
+        Random rand = new Random(stream.nextLong());
         if (equalizeEfferents) {
             ArrayList<Integer> targetList = new ArrayList<Integer>();
             ArrayList<Integer> tListCopy;
@@ -229,7 +232,7 @@ public class Sparse implements ConnectNeurons {
                     if (!selfConnectionAllowed && recurrent && i == j) {
                         continue;
                     } else {
-                        if (Math.random() < sparsity) {
+                        if (stream.nextDouble() < sparsity) {
                             source = sourceNeurons.get(i);
                             target = targetNeurons.get(j);
                             synapse = new Synapse(source, target);
@@ -256,7 +259,8 @@ public class Sparse implements ConnectNeurons {
         boolean recurrent = synapseGroup.isRecurrent();
         int numSrc = synapseGroup.getSourceNeurons().size();
         int numTar = synapseGroup.getTargetNeurons().size();
-        setPermitDensityEditing(numSrc * numTar < 10E8);
+        setPermitDensityEditing((long) numSrc * numTar < 10E8
+            && !synapseGroup.isBuildingOnDisk());
         sourceNeurons = synapseGroup.getSourceNeurons().toArray(
             new Neuron[numSrc]);
         targetNeurons = recurrent ? sourceNeurons : synapseGroup
@@ -269,11 +273,7 @@ public class Sparse implements ConnectNeurons {
                 connectRandom(synapseGroup);
             }
         } else {
-            List<Synapse> syns = this.connectSparse(synapseGroup
-                    .getSourceNeurons(), synapseGroup.getTargetNeurons());
-            for (Synapse s : syns) {
-                synapseGroup.addNewSynapse(s);
-            }
+            connectStreamed(synapseGroup);
         }
 
     }
@@ -308,8 +308,7 @@ public class Sparse implements ConnectNeurons {
             Neuron tar;
             for (int j = 0; j < numConnectsPerSrc; j++) {
                 tar = targetNeurons[sparseOrdering[i][j]];
-                Synapse s = new Synapse(src, tar);
-                synapseGroup.addNewSynapse(s);
+                synapseGroup.addNewConnection(src, tar);
             }
         }
     }
@@ -334,7 +333,7 @@ public class Sparse implements ConnectNeurons {
             .preAllocateSynapses((int) (sourceNeurons.length * numTars * connectionDensity));
         for (int i = 0, n = sourceNeurons.length; i < n; i++) {
             currentOrderingIndices[i] = BinomialGen.nextInt(
-                SimbrainMath.DEFAULT_RANDOM_STREAM, numTars,
+                RandomStreams.current(), numTars,
                 connectionDensity);
             Neuron src = sourceNeurons[i];
             Neuron tar;
@@ -348,13 +347,68 @@ public class Sparse implements ConnectNeurons {
             }
             for (int j = 0; j < currentOrderingIndices[i]; j++) {
                 tar = targetNeurons[o[j]];
-                Synapse s = new Synapse(src, tar);
-                synapseGroup.addNewSynapse(s);
+                synapseGroup.addNewConnection(src, tar);
             }
         }
 
     }
 
+    /**
+     * Populates the synapse group without keeping a sparse ordering, for
+     * groups too large to keep one (or built on disk). Each source neuron is
+     * connected to as many targets as in {@link #connectEqualized} or
+     * {@link #connectRandom}, drawn by partially shuffling a single
+     * permutation of the targets, so that only two ints per target are
+     * needed and connections are added as they are made. Density can't be
+     * edited afterwards.
+     *
+     * @param synapseGroup
+     */
+    private void connectStreamed(SynapseGroup synapseGroup) {
+        currentOrderingIndices = new int[sourceNeurons.length];
+        boolean noSelf = synapseGroup.isRecurrent() && !selfConnectionAllowed;
+        int numTars = noSelf ? sourceNeurons.length - 1 : targetNeurons.length;
+        int numConnectsPerSrc = (int) (connectionDensity * numTars);
+        // perm is a permutation of target indices, pos its inverse
+        int[] perm = new int[targetNeurons.length];
+        int[] pos = new int[targetNeurons.length];
+        for (int j = 0; j < perm.length; j++) {
+            perm[j] = j;
+            pos[j] = j;
+        }
+        SplitRandomStream stream = RandomStreams.current();
+        for (int i = 0, n = sourceNeurons.length; i < n; i++) {
+            if (noSelf) {
+                // Move this neuron past the targets drawn from
+                swap(perm, pos, pos[i], numTars);
+            }
+            int count = equalizeEfferents ? numConnectsPerSrc : BinomialGen
+                .nextInt(stream, numTars, connectionDensity);
+            currentOrderingIndices[i] = count;
+            Neuron src = sourceNeurons[i];
+            for (int j = 0; j < count; j++) {
+                swap(perm, pos, j, stream.nextInt(j, numTars - 1));
+                synapseGroup.addNewConnection(src, targetNeurons[perm[j]]);
+            }
+        }
+    }
+
+    /**
+     * Swap two entries of a permutation, keeping its inverse up to date.
+     *
+     * @param perm the permutation
+     * @param pos the inverse permutation
+     * @param a first position
+     * @param b second position
+     */
+    private static void swap(int[] perm, int[] pos, int a, int b) {
+        int tmp = perm[a];
+        perm[a] = perm[b];
+        perm[b] = tmp;
+        pos[perm[a]] = a;
+        pos[perm[b]] = b;
+    }
+
     /**
      *
      * @param recurrent
@@ -422,7 +476,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToRemove = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    RandomStreams.current(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 if (numToRemove < currentOrderingIndices[i]) {
                     List<Synapse> remove = decreaseDensity(i, numToRemove);
@@ -472,7 +526,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToAdd = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    RandomStreams.current(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 int finalNumConPerSource =
                     numToAdd >= currentOrderingIndices[i]
@@ -22,11 +22,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.simbrain.network.connections.ConnectNeurons;
 import org.simbrain.network.connections.Sparse;
@@ -41,15 +45,22 @@ import org.simbrain.network.listeners.NeuronListener;
 import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.listeners.TextListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.subnetworks.SOMGroup;
+import org.simbrain.network.update_actions.CompiledUpdate;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
+import org.simbrain.network.update_actions.EventDrivenSpikingUpdate;
+import org.simbrain.network.update_actions.PartitionedBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
 import org.simbrain.util.SimpleId;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 
 /**
@@ -134,9 +145,64 @@ public class Network {
      */
     private List<Neuron> prioritySortedNeuronList;
 
+    /**
+     * Neurons which have received a non-zero input value since inputs were
+     * last cleared. See {@link #clearInputs()}.
+     */
+    private List<Neuron> touchedInputs = new ArrayList<Neuron>();
+
+    /** Number of input values cleared by the last call to clearInputs. */
+    private int inputsCleared;
+
     /** Comparator used for sorting the priority sorted neuron list. */
     private PriorityComparator priorityComparator = new PriorityComparator();
 
+    /**
+     * Cached result of {@link #getFlatNeuronList()}. Null when it must be
+     * rebuilt.
+     */
+    private List<Neuron> flatNeuronCache;
+
+    /**
+     * Cached result of {@link #getFlatSynapseList()}. Null when it must be
+     * rebuilt. Not used when a synapse group is compact, since the synapses
+     * of a compact group are created on demand.
+     */
+    private List<Synapse> flatSynapseCache;
+
+    /**
+     * Cached result of {@link #getFlatGroupList()}. Null when it must be
+     * rebuilt.
+     */
+    private List<Group> flatGroupCache;
+
+    /**
+     * Number of neurons when {@link #flatNeuronCache} was built, used to
+     * notice neurons added or removed without an event.
+     */
+    private int flatNeuronCount;
+
+    /**
+     * Number of synapses when {@link #flatSynapseCache} was built, used to
+     * notice synapses added or removed without an event.
+     */
+    private int flatSynapseCount;
+
+    /** Neurons by id, see {@link #getIndexKey(String)}. */
+    private Map<String, Neuron> neuronIdIndex;
+
+    /** Synapses by id. */
+    private Map<String, Synapse> synapseIdIndex;
+
+    /** Groups by id. */
+    private Map<String, Group> groupIdIndex;
+
+    /** Neurons by label. */
+    private Map<String, List<Neuron>> neuronLabelIndex;
+
+    /** Groups by label. */
+    private Map<String, List<Group>> groupLabelIndex;
+
     /** Neuron Id generator. */
     private SimpleId neuronIdGenerator = new SimpleId("Neuron", 1);
 
@@ -166,6 +232,52 @@ public class Network {
     
     /** An optional name for the network that defaults to "Network[current_id]".*/
     private String name ="";
+
+    /**
+     * Random stream bound while the network updates. Made when first
+     * needed.
+     */
+    private SplitRandomStream randomStream;
+
+    /**
+     * Seed the streams of this network and its groups are made from, or null
+     * to make them from the seed of {@link RandomStreams}.
+     */
+    private Long randomSeed;
+
+    /**
+     * Number of calls to {@link #update()}, e.g. to compute something once
+     * per update.
+     */
+    private volatile long updateCount;
+
+    /**
+     * Number of times a synapse strength or enabled state of this network
+     * has been set, e.g. to tell whether a copy of the weights is current.
+     * Synapses do not fire events for these, so this is the only record.
+     * Atomic since synapses in partitioned updates set strengths from several
+     * threads, and a lost increment would hide an edit.
+     */
+    private AtomicLong strengthEditCount = new AtomicLong();
+
+    /**
+     * Neurons and neuron groups of this network which are read or written
+     * from outside the network, keyed by what attaches them (e.g. a
+     * coupling).
+     */
+    private Map<Object, List<Object>> coupledObjects;
+
+    /** Number of times {@link #coupledObjects} has changed. */
+    private volatile int coupledObjectsVersion;
+
+    /** Number of streams made for each key from {@link #randomSeed}. */
+    private Map<String, Integer> randomStreamCounts;
+
+    /**
+     * Identifies this network among the networks of a workspace when its
+     * random streams are made, e.g. the name of its component.
+     */
+    private String randomKey;
     
     /** Static initializer */
     {
@@ -184,7 +296,6 @@ public class Network {
     	name = "Network"+current_id;
     	current_id++;
         updateManager = new NetworkUpdateManager(this);
-        prioritySortedNeuronList = new ArrayList<Neuron>();
     }
 
     /**
@@ -196,10 +307,16 @@ public class Network {
     		networkListeners.get(i).setUpdateComplete(false);
     	}
         // Perform update
-    	for (int i = 0, n = updateManager.getActionList().size(); i < n;
-    			i++) {
-    		updateManager.getActionList().get(i).invoke();
-    	}
+        updateCount++;
+        SplitRandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            for (int i = 0, n = updateManager.getActionList().size(); i < n;
+                    i++) {
+                updateManager.getActionList().get(i).invoke();
+            }
+        } finally {
+            RandomStreams.bind(previous);
+        }
 
     	if (fireUpdates) {
     	    // Fire update events for GUI update. Loose items, then groups.
@@ -217,6 +334,158 @@ public class Network {
         setUpdateCompleted(true);
     }
 
+    /**
+     * @return the number of times this network has been updated, e.g. to
+     *         tell whether values computed in an update are current
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Record that a synapse strength has been set. Called by synapses.
+     */
+    public void strengthChanged() {
+        strengthEditCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of times a synapse strength has been set, e.g. to
+     *         tell whether a copy of the weights must be refreshed
+     */
+    public long getStrengthEditCount() {
+        return strengthEditCount.get();
+    }
+
+    /**
+     * Register neurons or neuron groups which are read or written from
+     * outside the network every update, e.g. by a coupling. Registering
+     * again under the same key replaces the objects.
+     *
+     * @param key what attaches the objects, e.g. the coupling
+     * @param objects the neurons and neuron groups
+     */
+    public synchronized void addCoupledObjects(final Object key,
+            final List<Object> objects) {
+        if (coupledObjects == null) {
+            coupledObjects = new IdentityHashMap<Object, List<Object>>();
+        }
+        coupledObjects.put(key, objects);
+        coupledObjectsVersion++;
+    }
+
+    /**
+     * @param key the key the objects were registered under
+     */
+    public synchronized void removeCoupledObjects(final Object key) {
+        if (coupledObjects != null && coupledObjects.remove(key) != null) {
+            coupledObjectsVersion++;
+        }
+    }
+
+    /**
+     * @return the neurons registered with
+     *         {@link #addCoupledObjects(Object, List)}, including the current
+     *         neurons of registered neuron groups
+     */
+    public synchronized List<Neuron> getCoupledNeurons() {
+        List<Neuron> ret = new ArrayList<Neuron>();
+        if (coupledObjects == null) {
+            return ret;
+        }
+        for (List<Object> objects : coupledObjects.values()) {
+            for (Object object : objects) {
+                if (object instanceof Neuron) {
+                    ret.add((Neuron) object);
+                } else if (object instanceof NeuronGroup) {
+                    ret.addAll(((NeuronGroup) object).getNeuronList());
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the number of times the coupled neurons and groups have changed
+     */
+    public int getCoupledObjectsVersion() {
+        return coupledObjectsVersion;
+    }
+
+    /**
+     * Return the random stream drawn from while this network updates, unless
+     * a group or an update action binds its own. Set the seed of
+     * {@link RandomStreams} to make runs reproducible.
+     *
+     * @return the random stream of this network, made for the current seed
+     */
+    public SplitRandomStream getRandomStream() {
+        if (randomStream == null || !randomStream.isCurrent()) {
+            randomStream = newRandomStream("Network");
+        }
+        return randomStream;
+    }
+
+    /**
+     * Make a new random stream for this network or one of its groups, from
+     * the seed of {@link RandomStreams} or, if one was given, from the seed
+     * of this network (see {@link #setRandomSeed(long)}). Streams made from
+     * the seed of {@link RandomStreams} only depend on the seed, the key and
+     * the random key of this network, not on the order in which networks and
+     * groups first draw numbers.
+     *
+     * @param key the key, e.g. the id of the group that will use the stream
+     * @return the new stream
+     */
+    public synchronized SplitRandomStream newRandomStream(final String key) {
+        if (randomSeed == null) {
+            return RandomStreams.streamFor(getRandomKey() + "/" + key);
+        }
+        Integer count = randomStreamCounts.get(key);
+        int n = count == null ? 0 : count;
+        randomStreamCounts.put(key, n + 1);
+        return RandomStreams.newStream(randomSeed, n == 0 ? key : key + "#"
+                + n);
+    }
+
+    /**
+     * @return the key identifying this network when its random streams are
+     *         made
+     */
+    public String getRandomKey() {
+        return randomKey == null ? "Network" : randomKey;
+    }
+
+    /**
+     * Set the key identifying this network among the networks of a workspace
+     * when its random streams are made. Streams already made are kept until
+     * the seed changes.
+     *
+     * @param randomKey the key, e.g. the name of the network's component
+     */
+    public void setRandomKey(final String randomKey) {
+        this.randomKey = randomKey;
+    }
+
+    /**
+     * Make the random streams of this network and its groups from a seed of
+     * its own instead of the seed of {@link RandomStreams}, so that a copy of
+     * a network draws the same numbers however many other copies are made or
+     * run at the same time. The streams of existing groups are replaced, and
+     * groups made later get streams from the same seed.
+     *
+     * @param seed the seed
+     */
+    public synchronized void setRandomSeed(final long seed) {
+        randomSeed = seed;
+        randomStreamCounts = new HashMap<String, Integer>();
+        randomStream = newRandomStream("Network");
+        for (Group group : getFlatGroupList()) {
+            group.setRandomStream(newRandomStream(group.getId() == null
+                    ? "Group" : group.getId()));
+        }
+    }
+
     /**
      * Update all neuron groups and other groups.
      */
@@ -233,15 +502,17 @@ public class Network {
      * Update the priority list used for priority based update.
      */
     void updatePriorityList() {
-        prioritySortedNeuronList = this.getFlatNeuronList();
-        resortPriorities();
+        // Rebuilt when next needed
+        prioritySortedNeuronList = null;
     }
 
     /**
      * Resort the neurons according to their update priorities.
      */
     void resortPriorities() {
-        Collections.sort(prioritySortedNeuronList, priorityComparator);
+        if (prioritySortedNeuronList != null) {
+            Collections.sort(prioritySortedNeuronList, priorityComparator);
+        }
     }
 
     /**
@@ -253,7 +524,7 @@ public class Network {
      */
     public void updateNeuronsByPriority() {
 
-        for (Neuron neuron : prioritySortedNeuronList) {
+        for (Neuron neuron : getPrioritySortedNeuronList()) {
             neuron.update();
             neuron.setToBufferVals();
         }
@@ -277,16 +548,38 @@ public class Network {
 
     /**
      * Clears out input values of network nodes, which otherwise linger and
-     * cause problems.
+     * cause problems. Only neurons which received a non-zero input value
+     * since the last call are visited; see {@link #getInputsCleared()}.
      */
     public void clearInputs() {
-
-        // TODO: Is there a more efficient way to handle this?
-        // i.e. a way to get a list of neurons that (1) are coupled or better,
-        // (2) have input values which consume.
-        for (Neuron neuron : this.getFlatNeuronList()) {
-            neuron.setInputValue(0);
+        List<Neuron> touched = touchedInputs;
+        int n = touched.size();
+        for (int i = 0; i < n; i++) {
+            touched.get(i).clearInputValue();
         }
+        touched.clear();
+        inputsCleared = n;
+    }
+
+    /**
+     * Called by a neuron the first time it is given a non-zero input value
+     * after inputs were cleared.
+     *
+     * @param neuron the neuron
+     */
+    synchronized void inputTouched(final Neuron neuron) {
+        touchedInputs.add(neuron);
+    }
+
+    /**
+     * Returns the number of neurons whose input values were cleared after the
+     * last update, i.e. the number of neurons that received external input
+     * during that update.
+     *
+     * @return the number of input values cleared
+     */
+    public int getInputsCleared() {
+        return inputsCleared;
     }
 
     /**
@@ -360,11 +653,20 @@ public class Network {
      * @return neuron with that id, null otherwise
      */
     public Neuron getNeuron(final String id) {
-        for (Neuron n : getFlatNeuronList()) {
-            if (n.getId().equalsIgnoreCase(id)) {
-                return n;
+        if (id == null) {
+            return null;
+        }
+        flatNeurons();
+        if (neuronIdIndex == null) {
+            neuronIdIndex = new HashMap<String, Neuron>();
+            for (Neuron n : flatNeuronCache) {
+                putFirst(neuronIdIndex, n.getId(), n);
             }
         }
+        Neuron n = neuronIdIndex.get(getIndexKey(id));
+        if (n != null && n.getId().equalsIgnoreCase(id)) {
+            return n;
+        }
         return null;
     }
 
@@ -376,11 +678,20 @@ public class Network {
      * @return group with that id, null otherwise
      */
     public Group getGroup(final String id) {
-        for (Group group : getFlatGroupList()) {
-            if (group.getId().equalsIgnoreCase(id)) {
-                return group;
+        if (id == null) {
+            return null;
+        }
+        flatGroups();
+        if (groupIdIndex == null) {
+            groupIdIndex = new HashMap<String, Group>();
+            for (Group group : flatGroupCache) {
+                putFirst(groupIdIndex, group.getId(), group);
             }
         }
+        Group group = groupIdIndex.get(getIndexKey(id));
+        if (group != null && group.getId().equalsIgnoreCase(id)) {
+            return group;
+        }
         return null;
     }
 
@@ -392,16 +703,21 @@ public class Network {
      * @return list of groups with that label found, null otherwise
      */
     public List<Group> getGroupsByLabel(final String label) {
-        List<Group> returnList = new ArrayList<Group>();
-        for (Group group : getFlatGroupList()) {
-            if (group.getLabel().equalsIgnoreCase(label)) {
-                returnList.add(group);
+        if (label == null) {
+            return null;
+        }
+        flatGroups();
+        if (groupLabelIndex == null) {
+            groupLabelIndex = new HashMap<String, List<Group>>();
+            for (Group group : flatGroupCache) {
+                putAll(groupLabelIndex, group.getLabel(), group);
             }
         }
-        if (returnList.isEmpty()) {
+        List<Group> found = groupLabelIndex.get(getIndexKey(label));
+        if (found == null) {
             return null;
         } else {
-            return returnList;
+            return new ArrayList<Group>(found);
         }
     }
 
@@ -483,11 +799,29 @@ public class Network {
      * @return synapse with that id, null otherwise
      */
     public Synapse getSynapse(final String id) {
-        for (Synapse s : getFlatSynapseList()) {
-            if (s.getId().equalsIgnoreCase(id)) {
-                return s;
+        if (id == null) {
+            return null;
+        }
+        List<Synapse> synapses = flatSynapses();
+        if (flatSynapseCache == null) {
+            // Compact groups present; nothing to index
+            for (Synapse s : synapses) {
+                if (s.getId().equalsIgnoreCase(id)) {
+                    return s;
+                }
+            }
+            return null;
+        }
+        if (synapseIdIndex == null) {
+            synapseIdIndex = new HashMap<String, Synapse>();
+            for (Synapse s : flatSynapseCache) {
+                putFirst(synapseIdIndex, s.getId(), s);
             }
         }
+        Synapse s = synapseIdIndex.get(getIndexKey(id));
+        if (s != null && s.getId().equalsIgnoreCase(id)) {
+            return s;
+        }
         return null;
     }
 
@@ -500,7 +834,7 @@ public class Network {
     public void addNeuron(final Neuron neuron) {
         neuronList.add(neuron);
         neuron.setId(getNeuronIdGenerator().getId());
-        updatePriorityList();
+        invalidateFlatLists();
         fireNeuronAdded(neuron);
     }
 
@@ -515,6 +849,7 @@ public class Network {
         synapse.initSpikeResponder();
         synapseList.add(synapse);
         synapse.setId(getSynapseIdGenerator().getId());
+        invalidateFlatLists();
         fireSynapseAdded(synapse);
     }
 
@@ -538,8 +873,8 @@ public class Network {
      */
     public void removeNeuron(final Neuron toDelete) {
 
-        // Update priority list
-        updatePriorityList();
+        // Update flat lists and priority list
+        invalidateFlatLists();
 
         // Remove Connected Synapses
         toDelete.deleteConnectedSynapses();
@@ -622,7 +957,7 @@ public class Network {
      * Set the activation level of all neurons to zero.
      */
     public void clearActivations() {
-        for (Neuron neuron : this.getFlatNeuronList()) {
+        for (Neuron neuron : flatNeurons()) {
             neuron.clear();
         }
     }
@@ -631,7 +966,7 @@ public class Network {
      * Set biases on all neurons with a bias to 0.
      */
     public void clearBiases() {
-        for (Neuron neuron : this.getFlatNeuronList()) {
+        for (Neuron neuron : flatNeurons()) {
             if (neuron.getUpdateRule() instanceof BiasedUpdateRule) {
                 ((BiasedUpdateRule) neuron.getUpdateRule()).setBias(0);
             }
@@ -646,7 +981,7 @@ public class Network {
      *            value to set
      */
     public void setActivations(final double value) {
-        for (Neuron neuron : this.getFlatNeuronList()) {
+        for (Neuron neuron : flatNeurons()) {
             neuron.setActivation(value);
         }
         fireNeuronsUpdated(getFlatNeuronList());
@@ -663,7 +998,7 @@ public class Network {
     public void setActivations(final double[] activationArray) {
         // TODO: Sort by id
         int i = 0;
-        for (Neuron neuron : this.getFlatNeuronList()) {
+        for (Neuron neuron : flatNeurons()) {
             if (activationArray.length == i) {
                 return;
             }
@@ -678,9 +1013,12 @@ public class Network {
      *            value to set
      */
     public void setWeights(final double value) {
-        for (Synapse synapse : this.getFlatSynapseList()) {
+        for (Synapse synapse : synapseList) {
             synapse.setStrength(value);
         }
+        for (SynapseGroup group : getSynapseGroups()) {
+            group.setAllStrengths(value);
+        }
     }
 
     /**
@@ -799,6 +1137,7 @@ public class Network {
         if (group.isTopLevelGroup()) {
             groupList.add(group);
         }
+        invalidateFlatLists();
 
         // Notify listeners (mainly network panel) that the group has been
         // added.
@@ -815,6 +1154,7 @@ public class Network {
 
         // Remove from the group list
         groupList.remove(toDelete);
+        invalidateFlatLists();
 
         // Call delete method on this group being deleted
         toDelete.delete();
@@ -844,8 +1184,77 @@ public class Network {
      * @return the flat list
      */
     public List<Neuron> getFlatNeuronList() {
+        return new ArrayList<Neuron>(flatNeurons());
+    }
 
-        List<Neuron> ret = new ArrayList<Neuron>();
+    /**
+     * Create "flat" list of synapses, which includes the top-level synapses
+     * plus all subnet synapses.
+     *
+     * @return the flat list
+     */
+    public List<Synapse> getFlatSynapseList() {
+        List<Synapse> synapses = flatSynapses();
+        if (synapses == flatSynapseCache) {
+            return new ArrayList<Synapse>(synapses);
+        }
+        return synapses;
+    }
+
+    /**
+     * Returns the loose synapses plus the synapses of every synapse group that
+     * is not compact. Unlike {@link #getFlatSynapseList()} this never creates
+     * synapse objects for compact groups, whose connections only live in
+     * their packed storage, so edits made through the returned synapses
+     * always reach the network. Compact groups are read and written as a
+     * whole (see {@link SynapseGroup#getWeightVector()} and
+     * {@link SynapseGroup#setAllStrengths(double)}).
+     *
+     * @return the list of synapse objects
+     */
+    public List<Synapse> getExpandedSynapseList() {
+        List<Synapse> ret = new ArrayList<Synapse>(synapseList);
+        for (SynapseGroup group : getSynapseGroups()) {
+            if (!group.isCompact()) {
+                ret.addAll(group.getAllSynapses());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Create a "flat" list of groups, which includes the top-level groups plus
+     * all subgroups.
+     *
+     * @return the flat list
+     */
+    public List<Group> getFlatGroupList() {
+        return new ArrayList<Group>(flatGroups());
+    }
+
+    /**
+     * Returns the cached flat neuron list, rebuilding it if the network has
+     * changed. Not to be modified or leaked.
+     *
+     * @return the flat neuron list
+     */
+    private List<Neuron> flatNeurons() {
+        int count = neuronList.size();
+        for (int i = 0, n = groupList.size(); i < n; i++) {
+            Group group = groupList.get(i);
+            if (group instanceof NeuronGroup) {
+                count += ((NeuronGroup) group).size();
+            } else if (group instanceof Subnetwork) {
+                for (NeuronGroup ng : ((Subnetwork) group)
+                        .getNeuronGroupList()) {
+                    count += ng.size();
+                }
+            }
+        }
+        if (flatNeuronCache != null && count == flatNeuronCount) {
+            return flatNeuronCache;
+        }
+        List<Neuron> ret = new ArrayList<Neuron>(count);
         ret.addAll(neuronList);
 
         // TODO: Base this on an overridable method?
@@ -858,18 +1267,41 @@ public class Network {
                 ret.addAll(group.getFlatNeuronList());
             }
         }
-
+        flatNeuronCache = ret;
+        flatNeuronCount = count;
+        neuronIdIndex = null;
+        neuronLabelIndex = null;
         return ret;
     }
 
     /**
-     * Create "flat" list of synapses, which includes the top-level synapses
-     * plus all subnet synapses.
+     * Returns the cached flat synapse list, rebuilding it if the network has
+     * changed. If any synapse group is compact the list is built afresh and
+     * not cached. Not to be modified or leaked.
      *
-     * @return the flat list
+     * @return the flat synapse list
      */
-    public List<Synapse> getFlatSynapseList() {
-        List<Synapse> ret = new ArrayList<Synapse>(10000);
+    private List<Synapse> flatSynapses() {
+        int count = synapseList.size();
+        boolean compact = false;
+        for (int i = 0, n = groupList.size(); i < n; i++) {
+            Group group = groupList.get(i);
+            if (group instanceof SynapseGroup) {
+                count += ((SynapseGroup) group).size();
+                compact |= ((SynapseGroup) group).isCompact();
+            } else if (group instanceof Subnetwork) {
+                for (SynapseGroup sg : ((Subnetwork) group)
+                        .getSynapseGroupList()) {
+                    count += sg.size();
+                    compact |= sg.isCompact();
+                }
+            }
+        }
+        if (!compact && flatSynapseCache != null
+                && count == flatSynapseCount) {
+            return flatSynapseCache;
+        }
+        List<Synapse> ret = new ArrayList<Synapse>(count);
         ret.addAll(synapseList);
         for (int i = 0; i < groupList.size(); i++) {
             if (groupList.get(i) instanceof SynapseGroup) {
@@ -880,16 +1312,26 @@ public class Network {
                 ret.addAll(group.getFlatSynapseList());
             }
         }
+        synapseIdIndex = null;
+        if (compact) {
+            flatSynapseCache = null;
+        } else {
+            flatSynapseCache = ret;
+            flatSynapseCount = count;
+        }
         return ret;
     }
 
     /**
-     * Create a "flat" list of groups, which includes the top-level groups plus
-     * all subgroups.
+     * Returns the cached flat group list, rebuilding it if needed. Not to be
+     * modified or leaked.
      *
-     * @return the flat list
+     * @return the flat group list
      */
-    public List<Group> getFlatGroupList() {
+    private List<Group> flatGroups() {
+        if (flatGroupCache != null) {
+            return flatGroupCache;
+        }
         List<Group> ret = new ArrayList<Group>();
         ret.addAll(groupList);
         for (Group group : groupList) {
@@ -898,9 +1340,88 @@ public class Network {
                 ret.addAll(((Subnetwork) group).getSynapseGroupList());
             }
         }
+        flatGroupCache = ret;
+        groupIdIndex = null;
+        groupLabelIndex = null;
         return ret;
     }
-    
+
+    /**
+     * Drop the cached flat lists and the id and label indexes, so they are
+     * rebuilt when next needed. Called whenever neurons, synapses or groups
+     * are added or removed through the network or with an event. Call it
+     * directly after changing the structure of a group in some other way.
+     */
+    public void invalidateFlatLists() {
+        flatNeuronCache = null;
+        flatSynapseCache = null;
+        flatGroupCache = null;
+        neuronIdIndex = null;
+        synapseIdIndex = null;
+        groupIdIndex = null;
+        neuronLabelIndex = null;
+        groupLabelIndex = null;
+        prioritySortedNeuronList = null;
+    }
+
+    /**
+     * Returns the key under which an id or label is indexed. Keys are equal
+     * exactly when {@link String#equalsIgnoreCase(String)} holds, since both
+     * fold each character through upper and then lower case.
+     *
+     * @param s the id or label
+     * @return the index key
+     */
+    private static String getIndexKey(final String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Index an object unless an earlier object has the same key, so lookups
+     * return the first match in flat list order.
+     *
+     * @param index the index
+     * @param key the id, possibly null
+     * @param value the object
+     * @param <T> the type of object
+     */
+    private static <T> void putFirst(final Map<String, T> index,
+            final String key, final T value) {
+        if (key == null) {
+            return;
+        }
+        String k = getIndexKey(key);
+        if (!index.containsKey(k)) {
+            index.put(k, value);
+        }
+    }
+
+    /**
+     * Add an object to the list of objects with a key.
+     *
+     * @param index the index
+     * @param key the label, possibly null
+     * @param value the object
+     * @param <T> the type of object
+     */
+    private static <T> void putAll(final Map<String, List<T>> index,
+            final String key, final T value) {
+        if (key == null) {
+            return;
+        }
+        String k = getIndexKey(key);
+        List<T> list = index.get(k);
+        if (list == null) {
+            list = new ArrayList<T>(1);
+            index.put(k, list);
+        }
+        list.add(value);
+    }
+
     /**
      * Create a "flat" list of groups, which only includes sub-groups of subnetworks
      * and unbound groups.
@@ -991,7 +1512,18 @@ public class Network {
      * @return the XStream object
      */
     public static XStream getXStream() {
-        XStream xstream = new XStream(new DomDriver("UTF-8"));
+        return getXStream(new DomDriver("UTF-8"));
+    }
+
+    /**
+     * Returns a properly initialized xstream object which reads and writes
+     * xml with a given driver.
+     *
+     * @param driver the driver, e.g. a streaming driver for large networks
+     * @return the XStream object
+     */
+    public static XStream getXStream(final HierarchicalStreamDriver driver) {
+        XStream xstream = new XStream(driver);
 
         xstream.omitField(Network.class, "groupListeners");
         xstream.omitField(Network.class, "neuronListeners");
@@ -1001,6 +1533,28 @@ public class Network {
         xstream.omitField(Network.class, "updateCompleted");
         xstream.omitField(Network.class, "logger");
         xstream.omitField(Network.class, "synapseVisibilityThreshold");
+        xstream.omitField(Network.class, "prioritySortedNeuronList");
+        xstream.omitField(Network.class, "touchedInputs");
+        xstream.omitField(Network.class, "inputsCleared");
+        xstream.omitField(Network.class, "flatNeuronCache");
+        xstream.omitField(Network.class, "flatSynapseCache");
+        xstream.omitField(Network.class, "flatGroupCache");
+        xstream.omitField(Network.class, "flatNeuronCount");
+        xstream.omitField(Network.class, "flatSynapseCount");
+        xstream.omitField(Network.class, "neuronIdIndex");
+        xstream.omitField(Network.class, "synapseIdIndex");
+        xstream.omitField(Network.class, "groupIdIndex");
+        xstream.omitField(Network.class, "neuronLabelIndex");
+        xstream.omitField(Network.class, "groupLabelIndex");
+        xstream.omitField(Network.class, "randomStream");
+        xstream.omitField(Network.class, "randomSeed");
+        xstream.omitField(Network.class, "randomStreamCounts");
+        xstream.omitField(Network.class, "randomKey");
+        xstream.omitField(Network.class, "updateCount");
+        xstream.omitField(Network.class, "strengthEditCount");
+        xstream.omitField(Network.class, "coupledObjects");
+        xstream.omitField(Network.class, "coupledObjectsVersion");
+        xstream.omitField(Group.class, "randomStream");
 
         xstream.omitField(NetworkUpdateManager.class, "listeners");
         xstream.omitField(ConcurrentBufferedUpdate.class, "consumerThreads");
@@ -1011,11 +1565,56 @@ public class Network {
         xstream.omitField(ConcurrentBufferedUpdate.class, "collectorThread");
         xstream.omitField(ConcurrentBufferedUpdate.class,
                 "synchronizingBarrier");
+        xstream.omitField(CompiledUpdate.class, "compiled");
+        xstream.omitField(CompiledUpdate.class, "inputGroups");
+        xstream.omitField(CompiledUpdate.class, "recordingGroups");
+        xstream.omitField(CompiledUpdate.class, "synapseGroups");
+        xstream.omitField(CompiledUpdate.class, "listening");
+        xstream.omitField(CompiledUpdate.class, "weightVersion");
+        xstream.omitField(CompiledUpdate.class, "stale");
+        xstream.omitField(CompiledUpdate.class, "coupledVersion");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "events");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "lastEvents");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "timeStep");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "neurons");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "inputGroups");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "recordingGroups");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "synapseGroups");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "plasticSynapses");
+        xstream.omitField(EventDrivenSpikingUpdate.class, "listening");
+        xstream.omitField(PartitionedBufferedUpdate.class, "neurons");
+        xstream.omitField(PartitionedBufferedUpdate.class, "bounds");
+        xstream.omitField(PartitionedBufferedUpdate.class, "invalid");
+        xstream.omitField(PartitionedBufferedUpdate.class, "inputGroups");
+        xstream.omitField(PartitionedBufferedUpdate.class, "recordingGroups");
+        xstream.omitField(PartitionedBufferedUpdate.class, "synapseGroups");
+        xstream.omitField(PartitionedBufferedUpdate.class, "updateLooseSynapses");
+        xstream.omitField(PartitionedBufferedUpdate.class, "listening");
+        xstream.omitField(PartitionedBufferedUpdate.class, "phaser");
+        xstream.omitField(PartitionedBufferedUpdate.class, "workers");
+        xstream.omitField(PartitionedBufferedUpdate.class, "stopped");
+        xstream.omitField(PartitionedBufferedUpdate.class, "workerError");
+        xstream.omitField(PartitionedBufferedUpdate.class, "computeNanos");
+        xstream.omitField(PartitionedBufferedUpdate.class, "commitNanos");
+        xstream.omitField(PartitionedBufferedUpdate.class, "partitionNanos");
+        xstream.omitField(PartitionedBufferedUpdate.class, "updateCount");
+        xstream.omitField(PartitionedBufferedUpdate.class, "streams");
         xstream.omitField(CustomUpdate.class, "interpreter");
         xstream.omitField(CustomUpdate.class, "theAction");
 
         xstream.omitField(SynapseGroup.class, "exTemp");
         xstream.omitField(SynapseGroup.class, "inTemp");
+        xstream.omitField(SynapseGroup.class, "compactStorage");
+        xstream.omitField(SynapseGroup.class, "mappedBuilder");
+        xstream.omitField(NeuronGroup.class, "compactFanIn");
+        xstream.omitField(NeuronGroup.class, "neuronIndices");
+        xstream.omitField(NeuronGroup.class, "compactInput");
+        xstream.omitField(NeuronGroup.class, "compactSourceActs");
+        xstream.omitField(NeuronGroup.class, "compactScratch");
+        xstream.omitField(NeuronGroup.class, "compactInputStamp");
+        xstream.omitField(NeuronGroup.class, "sharedNeurons");
+        xstream.omitField(NeuronGroup.class, "binaryRecorder");
+        xstream.omitField(SOMGroup.class, "engine");
         xstream.omitField(Sparse.class, "sparseOrdering");
         xstream.omitField(Sparse.class, "currentOrderingIndices");
         xstream.omitField(Sparse.class, "sourceNeurons");
@@ -1024,6 +1623,9 @@ public class Network {
         xstream.omitField(Neuron.class, "fanOut");
         xstream.omitField(Neuron.class, "fanIn");
         xstream.omitField(Neuron.class, "generator");
+        xstream.omitField(Neuron.class, "eventDrivenInput");
+        xstream.omitField(Neuron.class, "compactInputIndex");
+        xstream.omitField(Neuron.class, "inputTouched");
 
         // TODO: Backwards compatible
         xstream.omitField(Synapse.class, "sendWeightedInput");
@@ -1048,6 +1650,8 @@ public class Network {
         synapseListeners = new ArrayList<SynapseListener>();
         textListeners = new ArrayList<TextListener>();
         groupListeners = new ArrayList<GroupListener>();
+        touchedInputs = new ArrayList<Neuron>();
+        strengthEditCount = new AtomicLong();
 
         // Initialize update manager
         updateManager.postUnmarshallingInit();
@@ -1075,8 +1679,19 @@ public class Network {
      * operations occur in {@link #readResolve()}.
      */
     public void preSaveInit() {
+        preSaveInit(true);
+    }
+
+    /**
+     * Perform operations required before saving a network.
+     *
+     * @param encodeWeights whether synapse groups saved as weight matrices
+     *            should encode their weights, see
+     *            {@link SynapseGroup#preSaveInit(boolean)}
+     */
+    public void preSaveInit(final boolean encodeWeights) {
         for (SynapseGroup group : this.getSynapseGroups()) {
-            group.preSaveInit();
+            group.preSaveInit(encodeWeights);
         }
     }
 
@@ -1124,13 +1739,13 @@ public class Network {
      */
     public void setTime(final double i) {
     	if (i < time) {
-    		for (Neuron n : this.getFlatNeuronList()) {
+    		for (Neuron n : flatNeurons()) {
     			NeuronUpdateRule nur = n.getUpdateRule();
     			if (nur.isSpikingNeuron()) {
     				SpikingNeuronUpdateRule snur =
     						(SpikingNeuronUpdateRule) nur;
-    				double diff = i - (time - snur.getLastSpikeTime());
-    				snur.setLastSpikeTime(diff < 0 ? 0 : diff);
+    				double diff = i - (time - snur.getLastSpikeTime(n));
+    				snur.setLastSpikeTime(n, diff < 0 ? 0 : diff);
     			}
     		}
     	}
@@ -1162,7 +1777,7 @@ public class Network {
      */
     public void updateTimeType() {
         timeType = TimeType.DISCRETE;
-        for (Neuron n : getFlatNeuronList()) {
+        for (Neuron n : flatNeurons()) {
             if (n.getTimeType() == TimeType.CONTINUOUS) {
                 timeType = TimeType.CONTINUOUS;
             }
@@ -1185,6 +1800,10 @@ public class Network {
      * @return the prioritySortedNeuronList
      */
     public List<Neuron> getPrioritySortedNeuronList() {
+        if (prioritySortedNeuronList == null) {
+            prioritySortedNeuronList = getFlatNeuronList();
+            resortPriorities();
+        }
         return prioritySortedNeuronList;
     }
 
@@ -1206,7 +1825,8 @@ public class Network {
     public void setTimeStep(final double timeStep) {
         double oldTimeStep = this.timeStep;
         this.timeStep = timeStep;
-        for (Synapse s : getFlatSynapseList()) {
+        // Compact groups have no delays to rescale
+        for (Synapse s : getExpandedSynapseList()) {
             int newDelay = (int) (s.getDelay() * oldTimeStep / timeStep);
             if (s.getDelay() != 0 && newDelay == 0) {
                 s.setDelay(1);
@@ -1223,6 +1843,7 @@ public class Network {
      *            neuron which has been deleted
      */
     public void fireNeuronRemoved(final Neuron deleted) {
+        invalidateFlatLists();
         for (NeuronListener listener : neuronListeners) {
             listener.neuronRemoved(new NetworkEvent<Neuron>(this, deleted));
         }
@@ -1295,6 +1916,7 @@ public class Network {
      *            neuron which was added
      */
     public void fireNeuronAdded(final Neuron added) {
+        invalidateFlatLists();
         for (NeuronListener listener : neuronListeners) {
             listener.neuronAdded(new NetworkEvent<Neuron>(this, added));
         }
@@ -1335,6 +1957,7 @@ public class Network {
      *            neuron
      */
     public void fireNeuronLabelChanged(final Neuron changed) {
+        neuronLabelIndex = null;
         for (NeuronListener listener : neuronListeners) {
             listener.labelChanged(new NetworkEvent<Neuron>(this, changed));
         }
@@ -1347,6 +1970,7 @@ public class Network {
      *            synapse which was added
      */
     public void fireSynapseAdded(final Synapse added) {
+        invalidateFlatLists();
         for (SynapseListener listener : synapseListeners) {
             listener.synapseAdded(new NetworkEvent<Synapse>(this, added));
         }
@@ -1359,6 +1983,7 @@ public class Network {
      *            synapse which was deleted
      */
     public void fireSynapseRemoved(final Synapse deleted) {
+        invalidateFlatLists();
         for (SynapseListener listener : synapseListeners) {
             listener.synapseRemoved(new NetworkEvent<Synapse>(this, deleted));
         }
@@ -1458,6 +2083,7 @@ public class Network {
      *            Group that has been added
      */
     public void fireGroupAdded(final Group added) {
+        invalidateFlatLists();
         for (GroupListener listener : groupListeners) {
             listener.groupAdded(new NetworkEvent<Group>(this, added));
         }
@@ -1470,6 +2096,7 @@ public class Network {
      *            Group to be deleted
      */
     public void fireGroupRemoved(final Group deleted) {
+        invalidateFlatLists();
         for (GroupListener listener : groupListeners) {
             listener.groupRemoved(new NetworkEvent<Group>(this, deleted));
         }
@@ -1489,6 +2116,7 @@ public class Network {
      */
     public void fireGroupChanged(final Group old, final Group changed,
             final String changeDescription) {
+        invalidateFlatLists();
 
         for (GroupListener listener : groupListeners) {
             listener.groupChanged(new NetworkEvent<Group>(this, old, changed),
@@ -1507,6 +2135,7 @@ public class Network {
      */
     public void fireGroupChanged(final NetworkEvent<Group> event,
             final String changeDescription) {
+        invalidateFlatLists();
 
         for (GroupListener listener : groupListeners) {
             listener.groupChanged(event, changeDescription);
@@ -1520,6 +2149,7 @@ public class Network {
      */
     public void fireGroupChanged(final Group group,
     		final String changeDescription) {
+        invalidateFlatLists();
         for (GroupListener listener : groupListeners) {
             listener.groupChanged(new NetworkEvent<Group>(this, group),
             		changeDescription);
@@ -1533,6 +2163,7 @@ public class Network {
      *            reference to group whose parameters changed
      */
     public void fireGroupParametersChanged(final Group group) {
+        groupLabelIndex = null;
         for (GroupListener listener : groupListeners) {
             listener.groupParameterChanged(new NetworkEvent<Group>(this, group,
                     group));
@@ -1628,6 +2259,16 @@ public class Network {
         neuronListeners.add(listener);
     }
 
+    /**
+     * Remove a neuron listener.
+     *
+     * @param neuronListener
+     *            the observer to remove
+     */
+    public void removeNeuronListener(NeuronListener neuronListener) {
+        neuronListeners.remove(neuronListener);
+    }
+
     /**
      * Register a synapse listener.
      *
@@ -1687,16 +2328,22 @@ public class Network {
      * @return list of matched neurons, or null if none are found
      */
     public List<Neuron> getNeuronsByLabel(String inputString) {
-        ArrayList<Neuron> foundNeurons = new ArrayList<Neuron>();
-        for (Neuron neuron : this.getFlatNeuronList()) {
-            if (neuron.getLabel().equalsIgnoreCase(inputString)) {
-                foundNeurons.add(neuron);
+        if (inputString == null) {
+            return null;
+        }
+        flatNeurons();
+        if (neuronLabelIndex == null) {
+            neuronLabelIndex = new HashMap<String, List<Neuron>>();
+            for (Neuron neuron : flatNeuronCache) {
+                putAll(neuronLabelIndex, neuron.getLabel(), neuron);
             }
         }
-        if (foundNeurons.size() == 0) {
+        List<Neuron> foundNeurons = neuronLabelIndex.get(getIndexKey(
+                inputString));
+        if (foundNeurons == null) {
             return null;
         } else {
-            return foundNeurons;
+            return new ArrayList<Neuron>(foundNeurons);
         }
     }
 
@@ -1804,7 +2451,7 @@ public class Network {
      *            y offset for translation.
      */
     public void translate(final double offsetX, final double offsetY) {
-        for (Neuron neuron : this.getFlatNeuronList()) {
+        for (Neuron neuron : flatNeurons()) {
             neuron.setX(neuron.getX() + offsetX);
             neuron.setY(neuron.getY() + offsetY);
         }
@@ -1855,7 +2502,7 @@ public class Network {
      */
     public List<SynapseGroup> getSynapseGroups() {
         List<SynapseGroup> retList = new ArrayList<SynapseGroup>();
-        for (Group group : this.getFlatGroupList()) {
+        for (Group group : flatGroups()) {
             if (group instanceof SynapseGroup) {
                 retList.add((SynapseGroup) group);
             }
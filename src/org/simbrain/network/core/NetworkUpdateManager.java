@@ -27,8 +27,11 @@ import org.simbrain.network.groups.Group;
 import org.simbrain.network.listeners.GroupAdapter;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.update_actions.BufferedUpdate;
+import org.simbrain.network.update_actions.CompiledUpdate;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
+import org.simbrain.network.update_actions.EventDrivenSpikingUpdate;
+import org.simbrain.network.update_actions.PartitionedBufferedUpdate;
 import org.simbrain.network.update_actions.PriorityUpdate;
 import org.simbrain.network.update_actions.UpdateGroup;
 
@@ -105,7 +108,8 @@ public class NetworkUpdateManager {
         network.addGroupListener(new GroupAdapter() {
 
             public void groupAdded(NetworkEvent<Group> e) {
-                if (e.getObject().isTopLevelGroup()) {
+                if (e.getObject().isTopLevelGroup()
+                        && !isCompiled(e.getObject())) {
                     addAction(new UpdateGroup(e.getObject()));
                 }
             }
@@ -118,6 +122,29 @@ public class NetworkUpdateManager {
         });
     }
 
+    /**
+     * Returns true if the group will be updated by a {@link CompiledUpdate},
+     * {@link PartitionedBufferedUpdate} or {@link EventDrivenSpikingUpdate}
+     * already in the action list, in which case it needs no action of its
+     * own.
+     *
+     * @param group the group to check
+     * @return true if a compiled update will handle the group
+     */
+    private boolean isCompiled(Group group) {
+        if (!CompiledUpdate.isCompilable(group)) {
+            return false;
+        }
+        for (NetworkUpdateAction action : actionList) {
+            if (action instanceof CompiledUpdate
+                    || action instanceof PartitionedBufferedUpdate
+                    || action instanceof EventDrivenSpikingUpdate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns a list of network update actions that can be added.
      *
@@ -132,6 +159,9 @@ public class NetworkUpdateManager {
         availableActionList.add(new PriorityUpdate(network));
         availableActionList.add(ConcurrentBufferedUpdate
                 .createConcurrentBufferedUpdate(network));
+        availableActionList.add(new PartitionedBufferedUpdate(network));
+        availableActionList.add(new CompiledUpdate(network));
+        availableActionList.add(new EventDrivenSpikingUpdate(network));
 
         // Add update actions for all groups available
         for (Group group : network.getGroupList()) {
@@ -227,11 +257,29 @@ public class NetworkUpdateManager {
      */
     public void removeAction(NetworkUpdateAction action) {
         actionList.remove(action);
-        for (UpdateManagerListener listener : listeners) {
+        // A removed action may unregister itself
+        for (UpdateManagerListener listener
+                : new ArrayList<UpdateManagerListener>(listeners)) {
             listener.actionRemoved(action);
         }
     }
 
+    /**
+     * Stop the threads and drop the listeners of the actions, e.g. when the
+     * network is closed. The actions set them up again if invoked.
+     */
+    public void dispose() {
+        for (NetworkUpdateAction action : actionList) {
+            if (action instanceof PartitionedBufferedUpdate) {
+                ((PartitionedBufferedUpdate) action).dispose();
+            } else if (action instanceof CompiledUpdate) {
+                ((CompiledUpdate) action).dispose();
+            } else if (action instanceof EventDrivenSpikingUpdate) {
+                ((EventDrivenSpikingUpdate) action).dispose();
+            }
+        }
+    }
+
     /**
      * Listen from changes to update manager.
      */
@@ -262,7 +310,8 @@ public class NetworkUpdateManager {
      */
     public void clear() {
         for (NetworkUpdateAction action : actionList) {
-            for (UpdateManagerListener l : listeners) {
+            for (UpdateManagerListener l
+                    : new ArrayList<UpdateManagerListener>(listeners)) {
                 l.actionRemoved(action);
             }
         }
@@ -29,11 +29,13 @@ import java.util.stream.Collectors;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
 import org.simbrain.network.neuron_update_rules.interfaces.ActivityGenerator;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Neuron</b> represents a node in the neural network. Most of the "logic" of
@@ -98,6 +100,12 @@ public class Neuron {
      */
     private double inputValue;
 
+    /**
+     * Whether this neuron is in its network's list of neurons whose input
+     * value must be cleared after the update.
+     */
+    private boolean inputTouched;
+
     /** Reference to network this neuron is part of. */
     private final Network parent;
 
@@ -137,6 +145,20 @@ public class Neuron {
     /** Parent group, if any (null if none). */
     private Group parentGroup;
 
+    /**
+     * Excitatory and inhibitory synaptic input supplied by an event-driven
+     * update action. When not null it is used by {@link #getSynapticInput()}
+     * in place of the post-synaptic responses of the fan-in.
+     */
+    private double[] eventDrivenInput;
+
+    /**
+     * Slot of this neuron in the packed input buffer of its parent group (see
+     * {@link NeuronGroup#getCompactFanInInput(Neuron)}), or -1. Set by the
+     * group.
+     */
+    private int compactInputIndex = -1;
+
     /**
      * Sequence in which the update function should be called for this neuron.
      * By default, this is set to 0 for all the neurons. If you want a subset of
@@ -235,6 +257,12 @@ public class Neuron {
         if (polarity == null) {
             polarity = Polarity.BOTH;
         }
+        if (inputValue != 0) {
+            // Saved with an input value; make sure it is cleared
+            inputTouched = true;
+            parent.inputTouched(this);
+        }
+        compactInputIndex = -1;
     }
 
     /**
@@ -295,12 +323,31 @@ public class Neuron {
      *            the neuronUpdateRule to set
      */
     public void setUpdateRule(final NeuronUpdateRule updateRule) {
+        setUpdateRule(updateRule, true);
+    }
+
+    /**
+     * Set a new update rule, optionally without updating the time type of the
+     * network and firing an event. Used by neuron groups which change the
+     * rules of many neurons at once.
+     *
+     * @param updateRule
+     *            the neuronUpdateRule to set
+     * @param fireEvent
+     *            whether to update the network and fire a neuron type changed
+     *            event
+     */
+    public void setUpdateRule(final NeuronUpdateRule updateRule,
+            final boolean fireEvent) {
         NeuronUpdateRule oldRule = updateRule;
         this.updateRule = updateRule;
         for (Synapse s : getFanOut().values()) {
             s.initSpikeResponder();
         }
-        if (getNetwork() != null) {
+        if (parentGroup instanceof NeuronGroup) {
+            ((NeuronGroup) parentGroup).updateRuleChanged(this);
+        }
+        if (fireEvent && getNetwork() != null) {
             getNetwork().updateTimeType();
             getNetwork().fireNeuronTypeChanged(oldRule, updateRule);
         }
@@ -313,6 +360,11 @@ public class Neuron {
         if (isClamped()) {
             return;
         }
+        if (parentGroup instanceof NeuronGroup
+                && ((NeuronGroup) parentGroup).getSharedRule() == updateRule) {
+            ((NeuronGroup) parentGroup).updateShared(this);
+            return;
+        }
         updateRule.update(this);
     }
 
@@ -470,6 +522,9 @@ public class Neuron {
         for (int i = 0, n = fanIn.size(); i < n; i++) {
         	wtdSum += fanIn.get(i).calcWeightedSum();
         }
+        if (parentGroup instanceof NeuronGroup) {
+            wtdSum += ((NeuronGroup) parentGroup).getCompactFanInInput(this);
+        }
         return wtdSum;
     }
 
@@ -484,12 +539,58 @@ public class Neuron {
      */
     public double getSynapticInput() {
         double wtdSum = inputValue;
-        for (int i = 0, n = fanIn.size(); i < n; i++) {
-        	wtdSum += fanIn.get(i).calcPSR();
+        if (eventDrivenInput != null) {
+            wtdSum += eventDrivenInput[0] + eventDrivenInput[1];
+        } else {
+            for (int i = 0, n = fanIn.size(); i < n; i++) {
+                wtdSum += fanIn.get(i).calcPSR();
+            }
+        }
+        if (parentGroup instanceof NeuronGroup) {
+            wtdSum += ((NeuronGroup) parentGroup).getCompactFanInInput(this);
         }
         return wtdSum;
     }
 
+    /**
+     * @return the excitatory and inhibitory synaptic input supplied by an
+     *         event-driven update, or null if the input is computed from the
+     *         fan-in
+     */
+    public double[] getEventDrivenInput() {
+        return eventDrivenInput;
+    }
+
+    /**
+     * Set by event-driven update actions, which maintain the post-synaptic
+     * responses onto this neuron themselves and write their excitatory and
+     * inhibitory sums into the array before each update.
+     *
+     * @param eventDrivenInput the array of excitatory and inhibitory input,
+     *            or null to compute input from the fan-in again
+     */
+    public void setEventDrivenInput(double[] eventDrivenInput) {
+        this.eventDrivenInput = eventDrivenInput;
+    }
+
+    /**
+     * @return the slot of this neuron in the packed input buffer of its
+     *         parent group, or -1 if it has none
+     */
+    public int getCompactInputIndex() {
+        return compactInputIndex;
+    }
+
+    /**
+     * Set by the parent group when it computes the input from its packed
+     * incoming synapse groups.
+     *
+     * @param compactInputIndex the slot of this neuron, or -1
+     */
+    public void setCompactInputIndex(int compactInputIndex) {
+        this.compactInputIndex = compactInputIndex;
+    }
+
     /**
      * A helper method which iterates over each afferent synapse to this neuron
      * and calls their update functions.
@@ -650,6 +751,19 @@ public class Neuron {
      */
     public void setInputValue(final double inputValue) {
         this.inputValue = inputValue;
+        if (inputValue != 0 && !inputTouched && parent != null) {
+            inputTouched = true;
+            parent.inputTouched(this);
+        }
+    }
+
+    /**
+     * Zero the input value after the network is updated. Called by the
+     * network only for neurons which received input.
+     */
+    void clearInputValue() {
+        inputValue = 0;
+        inputTouched = false;
     }
 
     /**
@@ -1007,7 +1121,7 @@ public class Neuron {
     public void randomizeBias(double lower, double upper) {
         if (this.getUpdateRule() instanceof BiasedUpdateRule) {
             ((BiasedUpdateRule) this.getUpdateRule()).setBias((upper - lower)
-                    * Math.random() + lower);
+                    * RandomStreams.current().nextDouble() + lower);
         }
     }
 
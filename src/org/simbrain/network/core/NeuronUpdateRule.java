@@ -21,6 +21,7 @@ package org.simbrain.network.core;
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * A rule for updating a neuron.
@@ -107,6 +108,11 @@ public abstract class NeuronUpdateRule {
 			@Override
 			public double[] getSeparatedInput(Neuron n) {
 				double [] ei = new double[2];
+				if (n.getEventDrivenInput() != null) {
+					ei[0] = n.getEventDrivenInput()[0];
+					ei[1] = n.getEventDrivenInput()[1];
+					return ei;
+				}
 				for (Synapse s : n.getFanIn()) {
 					double psr = s.calcPSR();
 					if (psr > 0) {
@@ -253,10 +259,10 @@ public abstract class NeuronUpdateRule {
         if (this instanceof BoundedUpdateRule) {
             return (((BoundedUpdateRule) this).getUpperBound() - ((BoundedUpdateRule) this)
                     .getLowerBound())
-                    * Math.random()
+                    * RandomStreams.current().nextDouble()
                     + ((BoundedUpdateRule) this).getLowerBound();
         } else {
-            return 2 * Math.random() - 1;
+            return 2 * RandomStreams.current().nextDouble() - 1;
         }
 
     }
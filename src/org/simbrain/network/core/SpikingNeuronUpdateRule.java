@@ -19,6 +19,8 @@
 package org.simbrain.network.core;
 
 import org.simbrain.network.core.Network.TimeType;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.neuron_update_rules.interfaces.SharedParameterRule;
 
 /**
  * <b>SpikingNeuron</b> is the superclass for spiking neuron types (e.g.
@@ -48,7 +50,7 @@ public abstract class SpikingNeuronUpdateRule extends NeuronUpdateRule {
     @Override
     public void clear(Neuron neuron) {
         super.clear(neuron);
-        setLastSpikeTime(0);
+        setLastSpikeTime(neuron, 0);
     }
 
     /**
@@ -71,10 +73,57 @@ public abstract class SpikingNeuronUpdateRule extends NeuronUpdateRule {
      */
     public void setHasSpiked(final boolean hasSpiked, final Neuron neuron) {
         if (hasSpiked) {
-            lastSpikeTime = neuron.getNetwork().getTime();
+            setLastSpikeTime(neuron, neuron.getNetwork().getTime());
         }
     }
 
+    /**
+     * Returns the time of the last spike of a neuron using this rule. Unlike
+     * {@link #getLastSpikeTime()} this is correct when the rule is shared by
+     * the neurons of a group.
+     *
+     * @param neuron a neuron whose rule this is
+     * @return the time of its last spike
+     */
+    public double getLastSpikeTime(final Neuron neuron) {
+        NeuronGroup group = getSharingGroup(neuron);
+        if (group != null) {
+            return group.getSharedState()[SharedParameterRule.LAST_SPIKE_TIME]
+                    [group.getNeuronIndex(neuron)];
+        }
+        return lastSpikeTime;
+    }
+
+    /**
+     * Set the time of the last spike of a neuron using this rule.
+     *
+     * @param neuron a neuron whose rule this is
+     * @param time the time of its last spike
+     */
+    public void setLastSpikeTime(final Neuron neuron, final double time) {
+        NeuronGroup group = getSharingGroup(neuron);
+        if (group != null) {
+            group.getSharedState()[SharedParameterRule.LAST_SPIKE_TIME]
+                    [group.getNeuronIndex(neuron)] = time;
+        } else {
+            lastSpikeTime = time;
+        }
+    }
+
+    /**
+     * @param neuron a neuron whose rule this is
+     * @return the group sharing this rule among its neurons, or null
+     */
+    private NeuronGroup getSharingGroup(final Neuron neuron) {
+        if (neuron.getParentGroup() instanceof NeuronGroup) {
+            NeuronGroup group = (NeuronGroup) neuron.getParentGroup();
+            if (group.getSharedRule() == this) {
+                return group;
+            }
+        }
+        return null;
+    }
+
     /**
      * @return the lastSpikeTime
      */
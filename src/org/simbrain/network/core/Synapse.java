@@ -30,6 +30,7 @@ import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
 import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Synapse</b> objects represent "connections" between neurons, which learn
@@ -280,6 +281,30 @@ public class Synapse {
         isTemplate = s.isTemplate;
     }
 
+    /**
+     * Creates a synapse which refers to a source and target neuron but is not
+     * added to their fan-out / fan-in. Used to present connections held in
+     * packed storage (see
+     * {@link org.simbrain.network.groups.CompactSynapseStorage}) as synapse
+     * objects, e.g. for GUI selection, without affecting the network.
+     *
+     * @param template synapse whose parameters to copy
+     * @param source source neuron
+     * @param target target neuron
+     * @param strength strength of the new synapse
+     * @return the detached synapse
+     */
+    public static Synapse createDetachedSynapse(Synapse template,
+            Neuron source, Neuron target, double strength) {
+        Synapse s = new Synapse(template);
+        s.source = source;
+        s.target = target;
+        s.parentNetwork = source.getNetwork();
+        // Not an edit of the network's weights
+        s.strength = strength;
+        return s;
+    }
+
     /**
      * Makes a deep copy of a template synapse (one with no source or target).
      *
@@ -437,6 +462,9 @@ public class Synapse {
         }
         if (!isFrozen()) {
             strength = clip(source.getPolarity().clip(wt));
+            if (parentNetwork != null) {
+                parentNetwork.strengthChanged();
+            }
         }
     }
 
@@ -446,6 +474,9 @@ public class Synapse {
      */
     public void forceSetStrength(final double wt) {
         strength = wt;
+        if (parentNetwork != null) {
+            parentNetwork.strengthChanged();
+        }
     }
 
     /**
@@ -582,8 +613,8 @@ public class Synapse {
      * Randomize this weight to a value between its upper and lower bounds.
      */
     public void randomize() {
-        strength = (getUpperBound() - getLowerBound()) * Math.random()
-                + getLowerBound();
+        strength = (getUpperBound() - getLowerBound())
+                * RandomStreams.current().nextDouble() + getLowerBound();
         getNetwork().fireSynapseChanged(this);
     }
 
@@ -592,11 +623,11 @@ public class Synapse {
      */
     public void checkBounds() {
         if (strength > upperBound) {
-            strength = upperBound;
+            forceSetStrength(upperBound);
         }
 
         if (strength < lowerBound) {
-            strength = lowerBound;
+            forceSetStrength(lowerBound);
         }
     }
 
@@ -758,6 +789,9 @@ public class Synapse {
      */
     public void setEnabled(final boolean enabled) {
         this.enabled = enabled;
+        if (parentNetwork != null) {
+            parentNetwork.strengthChanged();
+        }
     }
 
     /**
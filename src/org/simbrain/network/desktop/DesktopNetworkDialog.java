@@ -79,6 +79,7 @@ public class DesktopNetworkDialog extends NetworkDialog {
         SimbrainPreferences.restoreDefaultSetting("networkSynapseMaxSize");
         SimbrainPreferences.restoreDefaultSetting("networkSynapseMinSize");
         SimbrainPreferences.restoreDefaultSetting("networkNudgeAmount");
+        SimbrainPreferences.restoreDefaultSetting("networkMaxFrameRate");
         SimbrainPreferences.restoreDefaultSetting("networkSynapseVisibilityThreshold");
 
         //Make sure new settings are visible
@@ -99,6 +100,8 @@ public class DesktopNetworkDialog extends NetworkDialog {
                 .getBackgroundColor().getRGB());
         SimbrainPreferences.putDouble("networkNudgeAmount",
                 NetworkPanel.getNudgeAmount());
+        SimbrainPreferences.putInt("networkMaxFrameRate",
+                NetworkPanel.getMaxFrameRate());
         SimbrainPreferences.putInt("networkSynapseVisibilityThreshold",
                 Network.getSynapseVisibilityThreshold());
         SimbrainPreferences.putInt("networkWandRadius",
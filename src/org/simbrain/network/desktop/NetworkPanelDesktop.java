@@ -114,6 +114,8 @@ public class NetworkPanelDesktop extends NetworkPanel {
                     .getInt("networkWandRadius"));
             NetworkPanel.setNudgeAmount(SimbrainPreferences
                     .getDouble("networkNudgeAmount"));
+            NetworkPanel.setMaxFrameRate(SimbrainPreferences
+                    .getInt("networkMaxFrameRate"));
             Network.setSynapseVisibilityThreshold(SimbrainPreferences
                     .getInt("networkSynapseVisibilityThreshold"));
             NeuronNode.setHotColor(SimbrainPreferences
@@ -0,0 +1,355 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * Packed storage for the weights of a {@link SynapseGroup}. Connections are
+ * held in compressed sparse column form, i.e. grouped by target neuron, since
+ * that is the fan-in view used on every update: for a target index j,
+ * entries colPtr[j] to colPtr[j+1]-1 hold the connections into j. This class
+ * keeps the column pointers; implementations hold the entries and give access
+ * to them one at a time through {@link #getSource(int)},
+ * {@link #getStrength(int)} and {@link #setStrength(int, double)}. See
+ * {@link HeapSynapseStorage} (arrays on the heap) and
+ * {@link MappedSynapseStorage} (a memory-mapped file).
+ * <p>
+ * A compressed row (by source) index over the same entries is built when
+ * first needed by {@link #propagateFromSources(double[], double[])}, the
+ * outgoing pass from a few active sources (e.g. spiking ones). It holds
+ * positions in the column order rather than copies of the weights, so
+ * weights stay in one place, but it still costs 8 bytes per entry and reads
+ * the weights out of order. Storage for which that defeats the purpose
+ * returns false from {@link #isSourceIndexAllowed()}, and is then always
+ * read in column order.
+ */
+public abstract class CompactSynapseStorage {
+
+    /** Number of source neurons (rows). */
+    private final int numSrc;
+
+    /** Number of target neurons (columns). */
+    private final int numTar;
+
+    /** Column pointers, length numTar + 1. */
+    private final int[] colPtr;
+
+    /**
+     * Row pointers of the by-source index, length numSrc + 1. Null until the
+     * index is first needed.
+     */
+    private volatile int[] rowPtr;
+
+    /** Target index of each entry of the by-source index. */
+    private int[] colIdx;
+
+    /** Position in the column order of each entry of the by-source index. */
+    private int[] rowPos;
+
+    /**
+     * Storage whose entries are held by the implementation.
+     *
+     * @param numSrc number of source neurons
+     * @param colPtr column pointers, of length numTar + 1
+     */
+    protected CompactSynapseStorage(final int numSrc, final int[] colPtr) {
+        this.numSrc = numSrc;
+        this.numTar = colPtr.length - 1;
+        this.colPtr = colPtr;
+    }
+
+    /**
+     * @return the number of stored connections
+     */
+    public int size() {
+        return colPtr[numTar];
+    }
+
+    /**
+     * Weighted input to one target neuron, read directly from the
+     * activations of the source neurons.
+     *
+     * @param target index of the target neuron
+     * @param sources the source neurons, in index order
+     * @return the weighted sum of source activations into the target
+     */
+    public double getWeightedInput(final int target,
+            final List<Neuron> sources) {
+        double sum = 0;
+        for (int k = colPtr[target], end = colPtr[target + 1]; k < end; k++) {
+            sum += getStrength(k) * sources.get(getSource(k)).getActivation();
+        }
+        return sum;
+    }
+
+    /**
+     * Sparse matrix-vector product: the weighted input to every target given
+     * an array of source activations.
+     *
+     * @param srcActs source activations, length numSrc
+     * @param out array to write target inputs into, length numTar
+     * @return out
+     */
+    public double[] propagate(final double[] srcActs, final double[] out) {
+        for (int j = 0; j < numTar; j++) {
+            double sum = 0;
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                sum += getStrength(k) * srcActs[getSource(k)];
+            }
+            out[j] = sum;
+        }
+        return out;
+    }
+
+    /**
+     * Sparse matrix-vector product in row order: the weighted input to every
+     * target, visiting only the entries of sources whose activation is not
+     * zero. Gives the same sums as {@link #propagate(double[], double[])}
+     * when the entries of each column are sorted by source, and is cheaper
+     * when few sources are active.
+     *
+     * @param srcActs source activations, length numSrc
+     * @param out array to write target inputs into, length numTar
+     * @return out
+     */
+    public double[] propagateFromSources(final double[] srcActs,
+            final double[] out) {
+        if (!isSourceIndexAllowed()) {
+            return propagate(srcActs, out);
+        }
+        buildRowIndex();
+        final int[] rp = rowPtr;
+        final int[] ci = colIdx;
+        final int[] pos = rowPos;
+        Arrays.fill(out, 0, numTar, 0);
+        for (int i = 0; i < numSrc; i++) {
+            double act = srcActs[i];
+            if (act == 0) {
+                continue;
+            }
+            for (int p = rp[i], end = rp[i + 1]; p < end; p++) {
+                out[ci[p]] += getStrength(pos[p]) * act;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Build the by-source index if it has not been built. The structure of
+     * the storage never changes, so the index stays valid.
+     */
+    private synchronized void buildRowIndex() {
+        if (rowPtr != null) {
+            return;
+        }
+        final int nnz = size();
+        int[] rp = new int[numSrc + 1];
+        for (int k = 0; k < nnz; k++) {
+            rp[getSource(k) + 1]++;
+        }
+        for (int i = 0; i < numSrc; i++) {
+            rp[i + 1] += rp[i];
+        }
+        int[] fill = Arrays.copyOf(rp, numSrc);
+        int[] ci = new int[nnz];
+        int[] pos = new int[nnz];
+        // Iterating columns in order leaves each row sorted by target
+        for (int j = 0; j < numTar; j++) {
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                int p = fill[getSource(k)]++;
+                ci[p] = j;
+                pos[p] = k;
+            }
+        }
+        colIdx = ci;
+        rowPos = pos;
+        rowPtr = rp;
+    }
+
+    /**
+     * @return the dense numSrc x numTar weight matrix
+     */
+    public double[][] toMatrix() {
+        double[][] mat = new double[numSrc][numTar];
+        for (int j = 0; j < numTar; j++) {
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                mat[getSource(k)][j] = getStrength(k);
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * @return (source, target, strength) triples sorted by source then target,
+     *         in the format of {@link SynapseGroup#getNumericIndices()}
+     */
+    public double[][] getNumericIndices() {
+        int[] fill = new int[numSrc + 1];
+        for (int k = 0, n = size(); k < n; k++) {
+            fill[getSource(k) + 1]++;
+        }
+        for (int i = 0; i < numSrc; i++) {
+            fill[i + 1] += fill[i];
+        }
+        double[][] pairs = new double[size()][];
+        // Iterating columns in order leaves each row sorted by target
+        for (int j = 0; j < numTar; j++) {
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                int src = getSource(k);
+                pairs[fill[src]++] = new double[] { src, j, getStrength(k) };
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Whether a by-source index may be built over this storage, for
+     * {@link #propagateFromSources(double[], double[])}. True by default.
+     *
+     * @return false if the storage should only be read in column order
+     */
+    public boolean isSourceIndexAllowed() {
+        return true;
+    }
+
+    /**
+     * Finds the target (column) of an entry.
+     *
+     * @param k position of the entry
+     * @return the target index
+     */
+    public int getTarget(final int k) {
+        int lo = 0;
+        int hi = numTar;
+        // Largest j with colPtr[j] <= k
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (colPtr[mid] <= k) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param k position of the entry
+     * @return the source index of the entry
+     */
+    public abstract int getSource(int k);
+
+    /**
+     * @param k position of the entry
+     * @return the strength of the entry
+     */
+    public abstract double getStrength(int k);
+
+    /**
+     * @param k position of the entry
+     * @param strength the new strength
+     */
+    public abstract void setStrength(int k, double strength);
+
+    /**
+     * @return the number of excitatory (positive) entries
+     */
+    public int getExcitatoryCount() {
+        int count = 0;
+        for (int k = 0, n = size(); k < n; k++) {
+            if (getStrength(k) > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param excitatory true for positive strengths, false for the rest
+     * @return the strengths of one polarity
+     */
+    public double[] getStrengths(final boolean excitatory) {
+        int count = getExcitatoryCount();
+        double[] ret = new double[excitatory ? count : size() - count];
+        int i = 0;
+        for (int k = 0, n = size(); k < n; k++) {
+            double w = getStrength(k);
+            if ((w > 0) == excitatory) {
+                ret[i++] = w;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the column pointers. Not a copy.
+     */
+    public int[] getColPtr() {
+        return colPtr;
+    }
+
+    /**
+     * @return the row pointers of the by-source index, length numSrc + 1:
+     *         the outgoing entries of source i are entries rowPtr[i] to
+     *         rowPtr[i+1]-1 of {@link #getColIdx()} and
+     *         {@link #getRowPositions()}. Not a copy. The index is built
+     *         on request even if {@link #isSourceIndexAllowed()} is false.
+     */
+    public int[] getRowPtr() {
+        buildRowIndex();
+        return rowPtr;
+    }
+
+    /**
+     * @return the target index of each entry of the by-source index. Not a
+     *         copy.
+     */
+    public int[] getColIdx() {
+        buildRowIndex();
+        return colIdx;
+    }
+
+    /**
+     * @return the position in the column order (see {@link #getStrength(int)})
+     *         of each entry of the by-source index. Not a copy.
+     */
+    public int[] getRowPositions() {
+        buildRowIndex();
+        return rowPos;
+    }
+
+    /**
+     * @return the number of source neurons
+     */
+    public int getNumSrc() {
+        return numSrc;
+    }
+
+    /**
+     * @return the number of target neurons
+     */
+    public int getNumTar() {
+        return numTar;
+    }
+
+}
@@ -19,6 +19,8 @@
 package org.simbrain.network.groups;
 
 import org.simbrain.network.core.Network;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 
 /**
  * <b>Group</b>: a logical group of neurons and / or synapses. Its gui
@@ -54,6 +56,13 @@ public abstract class Group {
      */
     private Group parentGroup;
 
+    /**
+     * Random stream bound while this group updates or makes connections, so
+     * that it draws the same numbers whichever thread runs it. Made from the
+     * group id when first needed.
+     */
+    private SplitRandomStream randomStream;
+
     /**
      * Construct a model group with a reference to its root network.
      *
@@ -119,6 +128,29 @@ public abstract class Group {
         return id;
     }
 
+    /**
+     * @return the random stream of this group, made for the current seed of
+     *         {@link RandomStreams} or the seed of the parent network
+     */
+    public SplitRandomStream getRandomStream() {
+        if (parentNetwork == null) {
+            randomStream = RandomStreams.refresh(randomStream,
+                    id == null ? "Group" : id);
+        } else if (randomStream == null || !randomStream.isCurrent()) {
+            randomStream = parentNetwork.newRandomStream(id == null ? "Group"
+                    : id);
+        }
+        return randomStream;
+    }
+
+    /**
+     * @param randomStream the random stream this group binds, see
+     *            {@link org.simbrain.network.core.Network#setRandomSeed(long)}
+     */
+    public void setRandomStream(final SplitRandomStream randomStream) {
+        this.randomStream = randomStream;
+    }
+
     /**
      * @param id the id to set
      */
@@ -0,0 +1,192 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * Packed weights held in two arrays on the heap: the source index and the
+ * strength of each entry, in the compressed sparse column order of
+ * {@link CompactSynapseStorage}. This costs 12 bytes per synapse (an int
+ * index and a double weight), against a full
+ * {@link org.simbrain.network.core.Synapse} object plus hash set and
+ * fan-in/fan-out entries in the default storage. The arrays themselves can
+ * be read with {@link #getRowIdx()} and {@link #getStrengths()}.
+ */
+public class HeapSynapseStorage extends CompactSynapseStorage {
+
+    /** Source index of each entry. */
+    private final int[] rowIdx;
+
+    /** Strength of each entry. */
+    private final double[] strengths;
+
+    /**
+     * Build the storage from unsorted (source, target, strength) triples. The
+     * entries of each column are sorted by source, so the storage does not
+     * depend on the order of the triples (e.g. the iteration order of a set
+     * of synapses).
+     *
+     * @param numSrc number of source neurons
+     * @param numTar number of target neurons
+     * @param src source index of each connection
+     * @param tar target index of each connection
+     * @param wts strength of each connection
+     */
+    public HeapSynapseStorage(final int numSrc, final int numTar,
+            final int[] src, final int[] tar, final double[] wts) {
+        super(numSrc, getColumnPointers(numTar, tar));
+        final int nnz = wts.length;
+        rowIdx = new int[nnz];
+        strengths = new double[nnz];
+        // Counting sort by source, then a stable counting sort by target
+        int[] rowPtr = new int[numSrc + 1];
+        for (int k = 0; k < nnz; k++) {
+            rowPtr[src[k] + 1]++;
+        }
+        for (int i = 0; i < numSrc; i++) {
+            rowPtr[i + 1] += rowPtr[i];
+        }
+        int[] bySource = new int[nnz];
+        for (int k = 0; k < nnz; k++) {
+            bySource[rowPtr[src[k]]++] = k;
+        }
+        int[] fill = Arrays.copyOf(getColPtr(), numTar);
+        for (int n = 0; n < nnz; n++) {
+            int k = bySource[n];
+            int pos = fill[tar[k]]++;
+            rowIdx[pos] = src[k];
+            strengths[pos] = wts[k];
+        }
+    }
+
+    /**
+     * Wrap arrays which are already in compressed sparse column form.
+     *
+     * @param numSrc number of source neurons
+     * @param colPtr column pointers, of length numTar + 1
+     * @param rowIdx source index of each entry
+     * @param strengths strength of each entry
+     */
+    private HeapSynapseStorage(final int numSrc, final int[] colPtr,
+            final int[] rowIdx, final double[] strengths) {
+        super(numSrc, colPtr);
+        this.rowIdx = rowIdx;
+        this.strengths = strengths;
+    }
+
+    /**
+     * Create storage from arrays in compressed sparse column form, as
+     * returned by {@link #getColPtr()}, {@link #getRowIdx()} and
+     * {@link #getStrengths()}. The arrays are used as is, not copied.
+     *
+     * @param numSrc number of source neurons
+     * @param colPtr column pointers, of length numTar + 1
+     * @param rowIdx source index of each entry
+     * @param strengths strength of each entry
+     * @return the storage
+     * @throws IllegalArgumentException if the arrays are inconsistent
+     */
+    public static HeapSynapseStorage fromColumns(final int numSrc,
+            final int[] colPtr, final int[] rowIdx, final double[] strengths) {
+        if (colPtr.length == 0 || colPtr[0] != 0
+                || colPtr[colPtr.length - 1] != rowIdx.length
+                || rowIdx.length != strengths.length) {
+            throw new IllegalArgumentException(
+                    "Inconsistent compressed column arrays.");
+        }
+        return new HeapSynapseStorage(numSrc, colPtr, rowIdx, strengths);
+    }
+
+    /**
+     * Count the connections into each target.
+     *
+     * @param numTar number of target neurons
+     * @param tar target index of each connection
+     * @return the column pointers
+     */
+    private static int[] getColumnPointers(final int numTar,
+            final int[] tar) {
+        int[] colPtr = new int[numTar + 1];
+        for (int k = 0; k < tar.length; k++) {
+            colPtr[tar[k] + 1]++;
+        }
+        for (int j = 0; j < numTar; j++) {
+            colPtr[j + 1] += colPtr[j];
+        }
+        return colPtr;
+    }
+
+    @Override
+    public double getWeightedInput(final int target,
+            final List<Neuron> sources) {
+        final int[] colPtr = getColPtr();
+        double sum = 0;
+        for (int k = colPtr[target], end = colPtr[target + 1]; k < end; k++) {
+            sum += strengths[k] * sources.get(rowIdx[k]).getActivation();
+        }
+        return sum;
+    }
+
+    @Override
+    public double[] propagate(final double[] srcActs, final double[] out) {
+        final int[] colPtr = getColPtr();
+        for (int j = 0, numTar = getNumTar(); j < numTar; j++) {
+            double sum = 0;
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                sum += strengths[k] * srcActs[rowIdx[k]];
+            }
+            out[j] = sum;
+        }
+        return out;
+    }
+
+    @Override
+    public int getSource(final int k) {
+        return rowIdx[k];
+    }
+
+    @Override
+    public double getStrength(final int k) {
+        return strengths[k];
+    }
+
+    @Override
+    public void setStrength(final int k, final double strength) {
+        strengths[k] = strength;
+    }
+
+    /**
+     * @return all strengths, in storage order. Not a copy.
+     */
+    public double[] getStrengths() {
+        return strengths;
+    }
+
+    /**
+     * @return the source index of each entry. Not a copy.
+     */
+    public int[] getRowIdx() {
+        return rowIdx;
+    }
+
+}
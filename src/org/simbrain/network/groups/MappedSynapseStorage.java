@@ -0,0 +1,748 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+
+/**
+ * Packed weights of a {@link SynapseGroup} held in a memory-mapped file
+ * rather than on the heap, so that groups larger than the heap, or than
+ * physical memory, can be simulated. The operating system keeps the parts of
+ * the file in use in its page cache and pages the rest out as needed.
+ * <p>
+ * The file uses the compressed sparse column layout of
+ * {@link CompactSynapseStorage}: a header, the column pointers, the source
+ * index of each entry and then the strength of each entry, all little-endian.
+ * Entries are grouped by target, which is the order in which target neurons
+ * read their input, so a full update reads the file front to back. Only the
+ * column pointers (4 bytes per target neuron) are kept on the heap.
+ * Strengths are stored as 32 bit floats unless {@link Precision#FLOAT_64} is
+ * asked for.
+ * <p>
+ * Storage is created from existing weights with
+ * {@link #create(File, CompactSynapseStorage, Precision)}, from connections
+ * written to disk as they are made with a {@link Builder}, or by reopening a
+ * file with {@link #open(File)}. The file is mapped in segments of 2^27
+ * entries, since one mapping is limited to 2GB; a group can hold up to
+ * {@link Integer#MAX_VALUE} entries.
+ */
+public class MappedSynapseStorage extends CompactSynapseStorage implements
+        Closeable {
+
+    /** Identifies a weight file: "SBMW" read as a little-endian int. */
+    public static final int MAGIC = 0x574D4253;
+
+    /** Version of the file format. */
+    public static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 32;
+
+    /** Log2 of the number of entries in one mapped segment. */
+    private static final int SEGMENT_SHIFT = 27;
+
+    /** Number of entries in one mapped segment. */
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    /** Mask giving the position of an entry within its segment. */
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** Number of entries copied at a time when writing a file. */
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    /** The weight file. */
+    private final File file;
+
+    /** Channel the file is mapped through. */
+    private final FileChannel channel;
+
+    /** Column pointers, shared with the superclass. */
+    private final int[] colPtr;
+
+    /** Whether strengths are stored as floats rather than doubles. */
+    private final boolean singlePrecision;
+
+    /** The mapped regions, kept so they can be flushed. */
+    private final MappedByteBuffer[] mappings;
+
+    /** Source indices, one buffer per segment. */
+    private final IntBuffer[] rowSegments;
+
+    /** Single precision strengths, one buffer per segment, or null. */
+    private final FloatBuffer[] floatSegments;
+
+    /** Double precision strengths, one buffer per segment, or null. */
+    private final DoubleBuffer[] doubleSegments;
+
+    /**
+     * Map the entries of a weight file whose header and column pointers have
+     * been read.
+     *
+     * @param file the weight file
+     * @param channel read-write channel on the file
+     * @param numSrc number of source neurons
+     * @param colPtr column pointers
+     * @param singlePrecision whether strengths are stored as floats
+     * @throws IOException if the file cannot be mapped
+     */
+    private MappedSynapseStorage(final File file, final FileChannel channel,
+            final int numSrc, final int[] colPtr,
+            final boolean singlePrecision) throws IOException {
+        super(numSrc, colPtr);
+        this.file = file;
+        this.channel = channel;
+        this.colPtr = colPtr;
+        this.singlePrecision = singlePrecision;
+        int nnz = colPtr[colPtr.length - 1];
+        int numSegments = (int) ((nnz + (long) SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        int weightSize = singlePrecision ? 4 : 8;
+        long rowStart = getRowStart(colPtr.length - 1);
+        long weightStart = getWeightStart(rowStart, nnz);
+        mappings = new MappedByteBuffer[2 * numSegments];
+        rowSegments = new IntBuffer[numSegments];
+        floatSegments = singlePrecision ? new FloatBuffer[numSegments] : null;
+        doubleSegments = singlePrecision ? null
+                : new DoubleBuffer[numSegments];
+        for (int s = 0; s < numSegments; s++) {
+            long first = (long) s << SEGMENT_SHIFT;
+            int count = (int) Math.min(SEGMENT_SIZE, nnz - first);
+            MappedByteBuffer rows = channel.map(MapMode.READ_WRITE, rowStart
+                    + 4 * first, 4L * count);
+            MappedByteBuffer weights = channel.map(MapMode.READ_WRITE,
+                    weightStart + weightSize * first, (long) weightSize
+                            * count);
+            rows.order(ByteOrder.LITTLE_ENDIAN);
+            weights.order(ByteOrder.LITTLE_ENDIAN);
+            mappings[2 * s] = rows;
+            mappings[2 * s + 1] = weights;
+            rowSegments[s] = rows.asIntBuffer();
+            if (singlePrecision) {
+                floatSegments[s] = weights.asFloatBuffer();
+            } else {
+                doubleSegments[s] = weights.asDoubleBuffer();
+            }
+        }
+    }
+
+    /**
+     * @param numTar number of target neurons
+     * @return file position of the source indices
+     */
+    private static long getRowStart(final int numTar) {
+        return HEADER_SIZE + 4L * (numTar + 1);
+    }
+
+    /**
+     * @param rowStart file position of the source indices
+     * @param nnz number of entries
+     * @return file position of the strengths, aligned to 8 bytes
+     */
+    private static long getWeightStart(final long rowStart, final int nnz) {
+        return (rowStart + 4L * nnz + 7) & ~7L;
+    }
+
+    /**
+     * Write the weights of existing storage to a file and map it.
+     *
+     * @param file the weight file, which is overwritten
+     * @param source the weights to copy, which may be mapped themselves
+     * @param precision precision of the stored strengths
+     * @return the mapped storage
+     * @throws IOException if the file cannot be written
+     */
+    public static MappedSynapseStorage create(final File file,
+            final CompactSynapseStorage source, final Precision precision)
+            throws IOException {
+        boolean single = precision == Precision.FLOAT_32;
+        int[] colPtr = source.getColPtr().clone();
+        int nnz = source.size();
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(0);
+            writeHeader(channel, source.getNumSrc(), colPtr, single);
+            long rowStart = getRowStart(colPtr.length - 1);
+            long weightStart = getWeightStart(rowStart, nnz);
+            int weightSize = single ? 4 : 8;
+            int[] rows = new int[CHUNK_SIZE];
+            double[] weights = new double[CHUNK_SIZE];
+            ByteBuffer buf = newBuffer(CHUNK_SIZE * 8);
+            for (int k = 0; k < nnz; k += CHUNK_SIZE) {
+                int n = Math.min(CHUNK_SIZE, nnz - k);
+                for (int i = 0; i < n; i++) {
+                    rows[i] = source.getSource(k + i);
+                    weights[i] = source.getStrength(k + i);
+                }
+                writeInts(channel, buf, rowStart + 4L * k, rows, 0, n);
+                writeStrengths(channel, buf, weightStart + (long) weightSize
+                        * k, weights, 0, n, single);
+            }
+            return new MappedSynapseStorage(file, channel,
+                    source.getNumSrc(), colPtr, single);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Map an existing weight file.
+     *
+     * @param file the weight file
+     * @return the mapped storage
+     * @throws IOException if the file cannot be read or is not a weight file
+     */
+    public static MappedSynapseStorage open(final File file)
+            throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            ByteBuffer header = newBuffer(HEADER_SIZE);
+            readFully(channel, header, 0, file);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a weight file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported weight file version "
+                        + version);
+            }
+            boolean single = header.get() == 0;
+            header.position(12);
+            int numSrc = header.getInt();
+            int numTar = header.getInt();
+            int nnz = header.getInt();
+            ByteBuffer cols = newBuffer(4 * (numTar + 1));
+            readFully(channel, cols, HEADER_SIZE, file);
+            cols.flip();
+            int[] colPtr = new int[numTar + 1];
+            cols.asIntBuffer().get(colPtr);
+            if (colPtr[0] != 0 || colPtr[numTar] != nnz) {
+                throw new IOException("Corrupt weight file: " + file);
+            }
+            return new MappedSynapseStorage(file, channel, numSrc, colPtr,
+                    single);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the header and column pointers of a weight file.
+     *
+     * @param channel channel on the file
+     * @param numSrc number of source neurons
+     * @param colPtr column pointers
+     * @param single whether strengths are stored as floats
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeHeader(final FileChannel channel,
+            final int numSrc, final int[] colPtr, final boolean single)
+            throws IOException {
+        int numTar = colPtr.length - 1;
+        ByteBuffer header = newBuffer(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.put((byte) (single ? 0 : 1));
+        header.position(12);
+        header.putInt(numSrc);
+        header.putInt(numTar);
+        header.putInt(colPtr[numTar]);
+        header.clear();
+        writeFully(channel, header, 0);
+        writeInts(channel, newBuffer(CHUNK_SIZE * 4), HEADER_SIZE, colPtr,
+                0, colPtr.length);
+    }
+
+    /**
+     * @param capacity capacity in bytes
+     * @return a little-endian heap buffer
+     */
+    private static ByteBuffer newBuffer(final int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write ints at a file position, through a buffer.
+     *
+     * @param channel channel on the file
+     * @param buf buffer to write through
+     * @param position file position
+     * @param values values to write
+     * @param offset first value to write
+     * @param length number of values to write
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeInts(final FileChannel channel,
+            final ByteBuffer buf, long position, final int[] values,
+            int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, buf.capacity() / 4);
+            buf.clear();
+            buf.asIntBuffer().put(values, offset, n);
+            buf.limit(4 * n);
+            writeFully(channel, buf, position);
+            position += 4L * n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write strengths at a file position, through a buffer.
+     *
+     * @param channel channel on the file
+     * @param buf buffer to write through
+     * @param position file position
+     * @param values values to write
+     * @param offset first value to write
+     * @param length number of values to write
+     * @param single whether to write floats rather than doubles
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeStrengths(final FileChannel channel,
+            final ByteBuffer buf, long position, final double[] values,
+            int offset, int length, final boolean single) throws IOException {
+        int size = single ? 4 : 8;
+        while (length > 0) {
+            int n = Math.min(length, buf.capacity() / size);
+            buf.clear();
+            if (single) {
+                FloatBuffer fb = buf.asFloatBuffer();
+                for (int i = 0; i < n; i++) {
+                    fb.put((float) values[offset + i]);
+                }
+            } else {
+                buf.asDoubleBuffer().put(values, offset, n);
+            }
+            buf.limit(size * n);
+            writeFully(channel, buf, position);
+            position += (long) size * n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write all remaining bytes of a buffer at a file position.
+     *
+     * @param channel channel on the file
+     * @param buf the bytes to write
+     * @param position file position
+     * @throws IOException if the file cannot be written
+     */
+    private static void writeFully(final FileChannel channel,
+            final ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Fill a buffer from a file position.
+     *
+     * @param channel channel on the file
+     * @param buf the buffer to fill
+     * @param position file position
+     * @param file the file, for error messages
+     * @throws IOException if the file cannot be read or is too short
+     */
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buf, long position, final File file)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new IOException("Truncated weight file: " + file);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public double getWeightedInput(final int target,
+            final List<Neuron> sources) {
+        double sum = 0;
+        int k = colPtr[target];
+        final int end = colPtr[target + 1];
+        // Split the column where it crosses into the next segment
+        while (k < end) {
+            int seg = k >>> SEGMENT_SHIFT;
+            int i = k & SEGMENT_MASK;
+            int n = i + Math.min(end - k, SEGMENT_SIZE - i);
+            IntBuffer rows = rowSegments[seg];
+            if (singlePrecision) {
+                FloatBuffer weights = floatSegments[seg];
+                for (; i < n; i++) {
+                    sum += weights.get(i)
+                            * sources.get(rows.get(i)).getActivation();
+                }
+            } else {
+                DoubleBuffer weights = doubleSegments[seg];
+                for (; i < n; i++) {
+                    sum += weights.get(i)
+                            * sources.get(rows.get(i)).getActivation();
+                }
+            }
+            k = (seg << SEGMENT_SHIFT) + n;
+        }
+        return sum;
+    }
+
+    @Override
+    public double[] propagate(final double[] srcActs, final double[] out) {
+        for (int j = 0, numTar = colPtr.length - 1; j < numTar; j++) {
+            double sum = 0;
+            int k = colPtr[j];
+            final int end = colPtr[j + 1];
+            while (k < end) {
+                int seg = k >>> SEGMENT_SHIFT;
+                int i = k & SEGMENT_MASK;
+                int n = i + Math.min(end - k, SEGMENT_SIZE - i);
+                IntBuffer rows = rowSegments[seg];
+                if (singlePrecision) {
+                    FloatBuffer weights = floatSegments[seg];
+                    for (; i < n; i++) {
+                        sum += weights.get(i) * srcActs[rows.get(i)];
+                    }
+                } else {
+                    DoubleBuffer weights = doubleSegments[seg];
+                    for (; i < n; i++) {
+                        sum += weights.get(i) * srcActs[rows.get(i)];
+                    }
+                }
+                k = (seg << SEGMENT_SHIFT) + n;
+            }
+            out[j] = sum;
+        }
+        return out;
+    }
+
+    /**
+     * No by-source index: it would put 8 bytes per entry on the heap and
+     * read the file out of order, which defeats out-of-core storage.
+     *
+     * @return false
+     */
+    @Override
+    public boolean isSourceIndexAllowed() {
+        return false;
+    }
+
+    @Override
+    public int getSource(final int k) {
+        return rowSegments[k >>> SEGMENT_SHIFT].get(k & SEGMENT_MASK);
+    }
+
+    @Override
+    public double getStrength(final int k) {
+        if (singlePrecision) {
+            return floatSegments[k >>> SEGMENT_SHIFT].get(k & SEGMENT_MASK);
+        }
+        return doubleSegments[k >>> SEGMENT_SHIFT].get(k & SEGMENT_MASK);
+    }
+
+    @Override
+    public void setStrength(final int k, final double strength) {
+        if (singlePrecision) {
+            floatSegments[k >>> SEGMENT_SHIFT].put(k & SEGMENT_MASK,
+                    (float) strength);
+        } else {
+            doubleSegments[k >>> SEGMENT_SHIFT].put(k & SEGMENT_MASK,
+                    strength);
+        }
+    }
+
+    /**
+     * Write changed strengths through to the file.
+     */
+    public void flush() {
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.force();
+        }
+    }
+
+    /**
+     * Flush the strengths and close the file. The mapping itself is only
+     * released when this storage is garbage collected, so it must not be
+     * used afterwards.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * @return the weight file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the precision of the stored strengths
+     */
+    public Precision getPrecision() {
+        return singlePrecision ? Precision.FLOAT_32 : Precision.FLOAT_64;
+    }
+
+    /**
+     * Builds a weight file from connections given in any order, without
+     * holding them in memory. Connections are appended to a temporary file
+     * as they are added; {@link #build()} then sorts them by target in as
+     * many passes over the temporary file as it takes to keep each pass
+     * within a fraction of the heap.
+     */
+    public static class Builder implements Closeable {
+
+        /** The weight file to build. */
+        private final File file;
+
+        /** Number of source neurons. */
+        private final int numSrc;
+
+        /** Number of connections into each target neuron. */
+        private final int[] counts;
+
+        /** Whether strengths are stored as floats. */
+        private final boolean singlePrecision;
+
+        /** Size of one connection in the temporary file. */
+        private final int recordSize;
+
+        /** Temporary file connections are appended to. */
+        private final File spillFile;
+
+        /** Channel on the temporary file. */
+        private final FileChannel spill;
+
+        /** Connections not yet written to the temporary file. */
+        private final ByteBuffer buffer;
+
+        /** Number of connections added. */
+        private long size;
+
+        /** Number of connections with positive strength. */
+        private int excitatoryCount;
+
+        /**
+         * Start building a weight file.
+         *
+         * @param file the weight file, which is overwritten by
+         *            {@link #build()}
+         * @param numSrc number of source neurons
+         * @param numTar number of target neurons
+         * @param precision precision of the stored strengths
+         * @throws IOException if the temporary file cannot be created
+         */
+        @SuppressWarnings("resource")
+        public Builder(final File file, final int numSrc, final int numTar,
+                final Precision precision) throws IOException {
+            this.file = file;
+            this.numSrc = numSrc;
+            counts = new int[numTar];
+            singlePrecision = precision == Precision.FLOAT_32;
+            recordSize = singlePrecision ? 12 : 16;
+            File dir = file.getAbsoluteFile().getParentFile();
+            spillFile = File.createTempFile("synapses", ".tmp", dir);
+            spillFile.deleteOnExit();
+            spill = new RandomAccessFile(spillFile, "rw").getChannel();
+            buffer = newBuffer(recordSize * CHUNK_SIZE);
+        }
+
+        /**
+         * Add a connection.
+         *
+         * @param source index of the source neuron
+         * @param target index of the target neuron
+         * @param strength strength of the connection
+         * @throws IOException if the temporary file cannot be written
+         */
+        public void add(final int source, final int target,
+                final double strength) throws IOException {
+            if (size == Integer.MAX_VALUE) {
+                throw new IOException("Too many connections for one group.");
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    spill.write(buffer);
+                }
+                buffer.clear();
+            }
+            buffer.putInt(source);
+            buffer.putInt(target);
+            if (singlePrecision) {
+                buffer.putFloat((float) strength);
+            } else {
+                buffer.putDouble(strength);
+            }
+            counts[target]++;
+            size++;
+            if (strength > 0) {
+                excitatoryCount++;
+            }
+        }
+
+        /**
+         * @return the number of connections added
+         */
+        public int size() {
+            return (int) size;
+        }
+
+        /**
+         * @return the number of connections added with positive strength
+         */
+        public int getExcitatoryCount() {
+            return excitatoryCount;
+        }
+
+        /**
+         * Write the weight file, delete the temporary file and map the
+         * result.
+         *
+         * @return the mapped storage
+         * @throws IOException if either file cannot be accessed
+         */
+        public MappedSynapseStorage build() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                spill.write(buffer);
+            }
+            int numTar = counts.length;
+            int[] colPtr = new int[numTar + 1];
+            for (int j = 0; j < numTar; j++) {
+                colPtr[j + 1] = colPtr[j] + counts[j];
+            }
+            int nnz = colPtr[numTar];
+            int weightSize = singlePrecision ? 4 : 8;
+            // Entries sorted per pass, within an eighth of the heap
+            long budget = Math.max(CHUNK_SIZE, Math.min(Integer.MAX_VALUE - 8,
+                    Runtime.getRuntime().maxMemory() / 8 / (4 + weightSize)));
+            FileChannel out = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                out.truncate(0);
+                writeHeader(out, numSrc, colPtr, singlePrecision);
+                long rowStart = getRowStart(numTar);
+                long weightStart = getWeightStart(rowStart, nnz);
+                ByteBuffer buf = newBuffer(CHUNK_SIZE * 8);
+                int first = 0;
+                do {
+                    // Take whole target neurons up to the budget
+                    int last = first + 1;
+                    while (last < numTar
+                            && colPtr[last + 1] - colPtr[first] <= budget) {
+                        last++;
+                    }
+                    last = Math.min(last, numTar);
+                    int start = colPtr[first];
+                    int n = colPtr[last] - start;
+                    int[] rows = new int[n];
+                    double[] weights = new double[n];
+                    int[] fill = new int[last - first];
+                    for (int j = first; j < last; j++) {
+                        fill[j - first] = colPtr[j] - start;
+                    }
+                    scatter(first, last, fill, rows, weights);
+                    writeInts(out, buf, rowStart + 4L * start, rows, 0, n);
+                    writeStrengths(out, buf, weightStart + (long) weightSize
+                            * start, weights, 0, n, singlePrecision);
+                    first = last;
+                } while (first < numTar);
+                close();
+                return new MappedSynapseStorage(file, out, numSrc, colPtr,
+                        singlePrecision);
+            } catch (IOException e) {
+                out.close();
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Read the temporary file and sort the connections into a range of
+         * target neurons.
+         *
+         * @param first first target of the range
+         * @param last end of the range, exclusive
+         * @param fill next free position of each target in the range
+         * @param rows array to put source indices into
+         * @param weights array to put strengths into
+         * @throws IOException if the temporary file cannot be read
+         */
+        private void scatter(final int first, final int last,
+                final int[] fill, final int[] rows, final double[] weights)
+                throws IOException {
+            long position = 0;
+            long end = size * recordSize;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end
+                        - position));
+                readFully(spill, buffer, position, spillFile);
+                position += buffer.limit();
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int source = buffer.getInt();
+                    int target = buffer.getInt();
+                    double strength = singlePrecision ? buffer.getFloat()
+                            : buffer.getDouble();
+                    if (target >= first && target < last) {
+                        int pos = fill[target - first]++;
+                        rows[pos] = source;
+                        weights[pos] = strength;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Delete the temporary file. Called by {@link #build()}, or to
+         * abandon the build.
+         *
+         * @throws IOException if the temporary file cannot be closed
+         */
+        @Override
+        public void close() throws IOException {
+            spill.close();
+            spillFile.delete();
+        }
+
+    }
+
+}
@@ -23,10 +23,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -39,8 +42,14 @@ import org.simbrain.network.layouts.Layout;
 import org.simbrain.network.layouts.LineLayout;
 import org.simbrain.network.layouts.LineLayout.LineOrientation;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.SharedParameterRule;
+import org.simbrain.network.util.io_utilities.ActivityRecorder;
+import org.simbrain.network.util.io_utilities.ActivityRecordingReader;
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
 
 /**
  * A group of neurons. A primary abstraction for larger network structures.
@@ -87,6 +96,50 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
     private final HashSet<SynapseGroup> outgoingSgs =
             new HashSet<SynapseGroup>();
 
+    /**
+     * Incoming synapse groups whose weights are held in packed arrays (see
+     * {@link SynapseGroup#compact()}), whose input is added to the weighted
+     * input of the neurons in this group. Null if there are none.
+     */
+    private SynapseGroup[] compactFanIn;
+
+    /**
+     * Weighted input from {@link #compactFanIn} to each neuron, computed once
+     * per update. Neurons read their slot (see
+     * {@link Neuron#getCompactInputIndex()}).
+     */
+    private double[] compactInput;
+
+    /** Source activations of each compact incoming group. */
+    private double[][] compactSourceActs;
+
+    /** Input from one compact incoming group. */
+    private double[] compactScratch;
+
+    /**
+     * Network update count {@link #compactInput} was computed in, or -1 if it
+     * must be computed again.
+     */
+    private volatile long compactInputStamp = -1;
+
+    /** Index of each neuron in {@link #neuronList}, built when needed. */
+    private Map<Neuron, Integer> neuronIndices;
+
+    /**
+     * Update rule object used by all the neurons in this group, or null if
+     * each neuron has its own rule. See {@link #setSharedRule(NeuronUpdateRule)}.
+     */
+    private NeuronUpdateRule sharedRule;
+
+    /**
+     * Per-neuron variables of the shared rule, one row per variable and one
+     * column per neuron, in the order of {@link #neuronList}.
+     */
+    private double[][] sharedState;
+
+    /** The neurons as an array, for updates through the shared rule. */
+    private Neuron[] sharedNeurons;
+
     /**
      * In method setLayoutBasedOnSize, this is used as the threshold number of
      * neurons in the group, above which to use grid layout instead of line
@@ -112,6 +165,12 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
     /** Whether or not this group is in a state that allows recording. */
     private boolean recording;
 
+    /**
+     * Binary recorder used instead of {@link #valueWriter} when recording was
+     * started with {@link #startBinaryRecording(File, Precision)}.
+     */
+    private ActivityRecorder binaryRecorder;
+
     /**
      * Whether or not this neuron group is in input mode. If the group is in
      * input mode then its update involves either injecting activation or
@@ -249,6 +308,12 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
             this.addNeuron(new Neuron(network, neuron), false);
         }
         this.updateRule = toCopy.updateRule;
+        if (toCopy.sharedRule != null) {
+            setSharedRule(toCopy.sharedRule.deepCopy());
+            for (int i = 0; i < sharedState.length; i++) {
+                sharedState[i] = toCopy.sharedState[i].clone();
+            }
+        }
         resetSubsamplingIndices();
     }
 
@@ -278,6 +343,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
         }
         stopRecording();
         neuronList.clear();
+        neuronIndices = null;
         Runtime.getRuntime().gc();
     }
 
@@ -289,21 +355,44 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      */
     @Override
     public void update() {
-        if (inputMode) {
-            if (testData == null) {
-                throw new NullPointerException("Test data variable is null,"
-                        + " but neuron group " + getLabel() + " is in input"
-                        + " mode.");
+        invalidateCompactFanInInput();
+        SplitRandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            if (inputMode) {
+                if (testData == null) {
+                    throw new NullPointerException("Test data variable is"
+                            + " null, but neuron group " + getLabel()
+                            + " is in input mode.");
+                }
+                // Surrounded by checks, so actually safe.
+                readNextInputUnsafe();
+            } else if (sharedRule != null) {
+                updateShared();
+            } else {
+                Network.updateNeurons(neuronList);
             }
-            // Surrounded by checks, so actually safe.
-            readNextInputUnsafe();
-        } else {
-            Network.updateNeurons(neuronList);
+        } finally {
+            RandomStreams.bind(previous);
         }
         if (isRecording()) {
             writeActsToFile();
         }
     }
+
+    /**
+     * Update all the neurons through the shared rule, in one loop over the
+     * state arrays.
+     */
+    private void updateShared() {
+        if (sharedNeurons == null) {
+            sharedNeurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        }
+        final Neuron[] neurons = sharedNeurons;
+        ((SharedParameterRule) sharedRule).updateAll(neurons, sharedState);
+        for (int i = 0; i < neurons.length; i++) {
+            neurons[i].setToBufferVals();
+        }
+    }
     
     /**
      * A forwarding method surrounding {@link #readNextInputUnsafe()} in the
@@ -377,6 +466,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
         recordAsSpikes = spikeRecord;
         recording = true;
         try {
+            closeBinaryRecorder();
             if (valueWriter != null) {
                 valueWriter.close();
             }
@@ -389,10 +479,72 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
         this.getParentNetwork().fireGroupChanged(this, "Recording Started");
     }
 
+    /**
+     * Starts recording activations to a compact binary file, which can be
+     * read back with {@link ActivityRecordingReader}. The updating thread only
+     * copies the activations into a ring buffer; encoding and file output
+     * happen on a background thread. As with {@link #startRecording(File)},
+     * spikes rather than activations are recorded if the group is populated
+     * entirely by spiking neurons.
+     *
+     * @param outputFile the file to write the recording to
+     * @param precision precision used for activations
+     */
+    public void startBinaryRecording(final File outputFile,
+            final Precision precision) {
+        boolean spikeRecord = true;
+        for (Neuron n : neuronList) {
+            if (!n.getUpdateRule().isSpikingNeuron()) {
+                spikeRecord = false;
+                break;
+            }
+        }
+        recordAsSpikes = spikeRecord;
+        recording = true;
+        try {
+            closeBinaryRecorder();
+            if (valueWriter != null) {
+                valueWriter.close();
+                valueWriter = null;
+            }
+            binaryRecorder = new ActivityRecorder(outputFile, size(),
+                    spikeRecord, precision);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.getParentNetwork().fireGroupParametersChanged(this);
+        this.getParentNetwork().fireGroupChanged(this, "Recording Started");
+    }
+
+    /**
+     * Starts recording activations to a binary file at double precision.
+     *
+     * @param outputFile the file to write the recording to
+     * @see #startBinaryRecording(File, Precision)
+     */
+    public void startBinaryRecording(final File outputFile) {
+        startBinaryRecording(outputFile, Precision.FLOAT_64);
+    }
+
+    /**
+     * Closes the binary recorder, if any, waiting for it to finish writing.
+     */
+    private void closeBinaryRecorder() {
+        if (binaryRecorder != null) {
+            try {
+                binaryRecorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            binaryRecorder = null;
+        }
+    }
+
     /**
      * Halts recording of activations. Closes all involved output streams.
      */
     public void stopRecording() {
+        closeBinaryRecorder();
         if (valueWriter != null) {
             valueWriter.close();
             valueWriter = null;
@@ -412,6 +564,10 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * {@link #FLUSH_FREQUENCY} invocations.
      */
     public void writeActsToFile() {
+        if (binaryRecorder != null) {
+            binaryRecorder.record(getParentNetwork().getTime(), neuronList);
+            return;
+        }
         try {
             if (writeCounter >= FLUSH_FREQUENCY) {
                 valueWriter.flush();
@@ -490,12 +646,137 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the neuron update rule to set.
      */
     public void setNeuronType(NeuronUpdateRule base) {
+        if (sharedRule != null && base instanceof SharedParameterRule) {
+            setSharedRule(base.deepCopy());
+            return;
+        }
         isSpikingNeuronGroup = base.isSpikingNeuron();
         for (Neuron neuron : neuronList) {
             neuron.setUpdateRule(base.deepCopy());
         }
     }
 
+    /**
+     * Use one update rule object for all the neurons in this group. The rule
+     * holds the parameters of the group, and the variables which each neuron
+     * would otherwise keep in its own rule object are held in primitive arrays
+     * indexed by neuron position, so that the group is updated in one loop
+     * and large groups don't carry a rule object per neuron. The state of
+     * neurons whose rule is of the same class is carried over.
+     * <p>
+     * Since every neuron returns the shared rule from
+     * {@link Neuron#getUpdateRule()}, editing the rule of any neuron edits the
+     * parameters of the whole group. Giving a neuron a rule of its own (e.g.
+     * by changing its type) turns shared mode off for the group, and each
+     * neuron gets a copy of the rule holding its own state again.
+     *
+     * @param rule the rule to share, which must implement
+     *            {@link SharedParameterRule}
+     */
+    public void setSharedRule(final NeuronUpdateRule rule) {
+        if (!(rule instanceof SharedParameterRule)) {
+            throw new IllegalArgumentException(rule.getDescription()
+                    + " rules cannot be shared by a group.");
+        }
+        final SharedParameterRule shared = (SharedParameterRule) rule;
+        final int n = neuronList.size();
+        double[][] state = new double[shared.getStateSize()][n];
+        boolean keepState = sharedRule != null
+                && sharedRule.getClass() == rule.getClass();
+        for (int i = 0; i < n; i++) {
+            NeuronUpdateRule old = neuronList.get(i).getUpdateRule();
+            if (keepState) {
+                for (int j = 0; j < state.length; j++) {
+                    state[j][i] = sharedState[j][i];
+                }
+            } else if (old != sharedRule && old.getClass() == rule.getClass()) {
+                ((SharedParameterRule) old).getState(state, i);
+            } else {
+                shared.getState(state, i);
+            }
+        }
+        NeuronUpdateRule old = n == 0 ? null : neuronList.get(0)
+                .getUpdateRule();
+        // Cleared first, so the neurons don't turn shared mode off again
+        sharedRule = null;
+        for (int i = 0; i < n; i++) {
+            neuronList.get(i).setUpdateRule(rule, false);
+        }
+        sharedRule = rule;
+        sharedState = state;
+        sharedNeurons = null;
+        isSpikingNeuronGroup = rule.isSpikingNeuron();
+        if (getParentNetwork() != null) {
+            getParentNetwork().updateTimeType();
+            getParentNetwork().fireNeuronTypeChanged(old, rule);
+        }
+    }
+
+    /**
+     * Turn shared mode off, giving each neuron a copy of the shared rule
+     * which holds its own state. Does nothing if the group is not in shared
+     * mode.
+     */
+    public void clearSharedRule() {
+        if (sharedRule == null) {
+            return;
+        }
+        final NeuronUpdateRule rule = sharedRule;
+        final double[][] state = sharedState;
+        sharedRule = null;
+        sharedState = null;
+        sharedNeurons = null;
+        for (int i = 0, n = neuronList.size(); i < n; i++) {
+            Neuron neuron = neuronList.get(i);
+            if (neuron.getUpdateRule() == rule) {
+                NeuronUpdateRule copy = rule.deepCopy();
+                ((SharedParameterRule) copy).setState(state, i);
+                neuron.setUpdateRule(copy, false);
+            }
+        }
+    }
+
+    /**
+     * Called by a neuron of this group when its update rule is replaced.
+     * Turns shared mode off if the neuron no longer uses the shared rule.
+     *
+     * @param neuron the neuron
+     */
+    public void updateRuleChanged(final Neuron neuron) {
+        if (sharedRule != null && neuron.getUpdateRule() != sharedRule) {
+            clearSharedRule();
+        }
+    }
+
+    /**
+     * Update one neuron of this group through the shared rule. Used when
+     * the neuron is updated on its own, e.g. by an update action which
+     * updates neurons rather than groups.
+     *
+     * @param neuron a neuron in this group
+     */
+    public void updateShared(final Neuron neuron) {
+        ((SharedParameterRule) sharedRule).update(neuron, sharedState,
+                getNeuronIndex(neuron));
+    }
+
+    /**
+     * @return the rule shared by all the neurons of this group, or null if
+     *         each neuron has its own rule
+     */
+    public NeuronUpdateRule getSharedRule() {
+        return sharedRule;
+    }
+
+    /**
+     * @return the per-neuron variables of the shared rule, one row per
+     *         variable and one column per neuron, or null if the group is not
+     *         in shared mode
+     */
+    public double[][] getSharedState() {
+        return sharedState;
+    }
+
     /**
      * Set the string update rule for the neurons in this group.
      *
@@ -624,7 +905,11 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            whether to fire a neuron added event
      */
     public void addNeuron(Neuron neuron, boolean fireEvent) {
+        if (sharedRule != null) {
+            addSharedColumn(neuron);
+        }
         neuronList.add(neuron);
+        neuronIndices = null;
         neuron.setParentGroup(this);
         if (getParentNetwork() != null) {
             neuron.setId(getParentNetwork().getNeuronIdGenerator().getId());
@@ -654,22 +939,80 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the neuron to delete
      */
     public void removeNeuron(Neuron toDelete) {
+        expandCompactGroups();
+        if (sharedRule != null) {
+            removeSharedColumn(getNeuronIndex(toDelete));
+        }
         neuronList.remove(toDelete);
+        neuronIndices = null;
         if (isEmpty()) {
             delete();
         }
         resetSubsamplingIndices();
     }
 
+    /**
+     * Add a column to the shared state for a neuron being added to the group.
+     * A neuron whose rule is of the class of the shared rule joins shared
+     * mode; any other neuron turns it off.
+     *
+     * @param neuron the neuron being added
+     */
+    private void addSharedColumn(final Neuron neuron) {
+        NeuronUpdateRule rule = neuron.getUpdateRule();
+        if (rule.getClass() != sharedRule.getClass()) {
+            clearSharedRule();
+            return;
+        }
+        final int n = neuronList.size();
+        for (int j = 0; j < sharedState.length; j++) {
+            sharedState[j] = Arrays.copyOf(sharedState[j], n + 1);
+        }
+        if (rule != sharedRule) {
+            ((SharedParameterRule) rule).getState(sharedState, n);
+            // Added to the list after this, so shared mode is kept
+            neuron.setUpdateRule(sharedRule, false);
+        }
+        sharedNeurons = null;
+    }
+
+    /**
+     * Remove the column of a neuron being removed from the shared state.
+     *
+     * @param index the index of the neuron
+     */
+    private void removeSharedColumn(final int index) {
+        if (index < 0) {
+            return;
+        }
+        final int n = neuronList.size();
+        for (int j = 0; j < sharedState.length; j++) {
+            double[] row = new double[n - 1];
+            System.arraycopy(sharedState[j], 0, row, 0, index);
+            System.arraycopy(sharedState[j], index + 1, row, index,
+                    n - index - 1);
+            sharedState[j] = row;
+        }
+        sharedNeurons = null;
+    }
+
     /**
      * Removes all neurons with no incoming or outgoing synapses from the group.
      */
     public void prune() {
+        expandCompactGroups();
+        neuronIndices = null;
         Iterator<Neuron> reaper = neuronList.iterator();
+        int index = 0;
         while (reaper.hasNext()) {
             Neuron n = reaper.next();
             if (n.getFanIn().size() == 0 && n.getFanOut().size() == 0) {
+                if (sharedRule != null) {
+                    removeSharedColumn(index);
+                }
                 reaper.remove();
+            } else {
+                index++;
             }
         }
     }
@@ -1261,13 +1604,198 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
     }
 
     public boolean removeIncomingSg(SynapseGroup sg) {
-        return incomingSgs.remove(sg);
+        boolean removed = incomingSgs.remove(sg);
+        if (compactFanIn != null) {
+            updateCompactFanIn();
+        }
+        return removed;
     }
 
     public boolean removeOutgoingSg(SynapseGroup sg) {
         return outgoingSgs.remove(sg);
     }
 
+    /**
+     * Rebuild the list of compact incoming synapse groups. Called by synapse
+     * groups when they are compacted or expanded.
+     */
+    public void updateCompactFanIn() {
+        List<SynapseGroup> compact = new ArrayList<SynapseGroup>();
+        for (SynapseGroup sg : incomingSgs) {
+            if (sg.isCompact()) {
+                compact.add(sg);
+            }
+        }
+        compactFanIn = compact.isEmpty() ? null
+                : compact.toArray(new SynapseGroup[compact.size()]);
+        neuronIndices = null;
+        compactSourceActs = null;
+        compactInputStamp = -1;
+        if (compactFanIn == null) {
+            for (Neuron neuron : neuronList) {
+                neuron.setCompactInputIndex(-1);
+            }
+        }
+    }
+
+    /**
+     * @return true if some incoming synapse group holds its weights in packed
+     *         arrays
+     */
+    public boolean hasCompactFanIn() {
+        return compactFanIn != null;
+    }
+
+    /**
+     * Returns the weighted input to a neuron of this group from all compact
+     * incoming synapse groups. The input to all neurons is computed at once,
+     * on the first call in each network update or update of this group, from
+     * the source activations at that time; as in a buffered update, sources
+     * committing new activations later in the same update are not seen.
+     *
+     * @param neuron a neuron in this group
+     * @return the summed weighted input, 0 if there are no compact groups
+     */
+    public double getCompactFanInInput(Neuron neuron) {
+        if (compactFanIn == null) {
+            return 0;
+        }
+        long stamp = getParentNetwork().getUpdateCount();
+        if (compactInputStamp != stamp) {
+            computeCompactFanInInput(stamp);
+        }
+        int index = neuron.getCompactInputIndex();
+        final double[] input = compactInput;
+        return index >= 0 && index < input.length ? input[index] : 0;
+    }
+
+    /**
+     * Force the input from compact incoming groups to be computed again on
+     * the next call to {@link #getCompactFanInInput(Neuron)}, e.g. after
+     * source activations are changed within an update.
+     */
+    public void invalidateCompactFanInInput() {
+        compactInputStamp = -1;
+    }
+
+    /**
+     * Compute the input from all compact incoming groups into
+     * {@link #compactInput}, one sparse product per group. Sources with few
+     * active neurons (e.g. spiking groups) are propagated by row, the rest by
+     * column.
+     *
+     * @param stamp the network update count
+     */
+    private synchronized void computeCompactFanInInput(final long stamp) {
+        final SynapseGroup[] fanIn = compactFanIn;
+        if (compactInputStamp == stamp || fanIn == null) {
+            return;
+        }
+        final int size = neuronList.size();
+        if (compactInput == null || compactInput.length != size) {
+            compactInput = new double[size];
+        }
+        if (compactSourceActs == null
+                || compactSourceActs.length != fanIn.length) {
+            compactSourceActs = new double[fanIn.length][];
+        }
+        // Slots follow the neuron list, which may have changed
+        for (int i = 0; i < size; i++) {
+            neuronList.get(i).setCompactInputIndex(i);
+        }
+        final double[] input = compactInput;
+        Arrays.fill(input, 0);
+        for (int g = 0; g < fanIn.length; g++) {
+            CompactSynapseStorage storage = fanIn[g].getCompactStorage();
+            if (storage == null) {
+                continue;
+            }
+            List<Neuron> sources = fanIn[g].getSourceNeuronGroup()
+                    .getNeuronList();
+            double[] acts = compactSourceActs[g];
+            if (acts == null || acts.length != storage.getNumSrc()) {
+                acts = new double[storage.getNumSrc()];
+                compactSourceActs[g] = acts;
+            }
+            int numSrc = Math.min(acts.length, sources.size());
+            int active = 0;
+            for (int i = 0; i < numSrc; i++) {
+                acts[i] = sources.get(i).getActivation();
+                if (acts[i] != 0) {
+                    active++;
+                }
+            }
+            if (compactScratch == null
+                    || compactScratch.length < storage.getNumTar()) {
+                compactScratch = new double[storage.getNumTar()];
+            }
+            if (active * 4 < numSrc && storage.isSourceIndexAllowed()) {
+                storage.propagateFromSources(acts, compactScratch);
+            } else {
+                storage.propagate(acts, compactScratch);
+            }
+            for (int j = 0, n = Math.min(storage.getNumTar(), size); j < n;
+                    j++) {
+                input[j] += compactScratch[j];
+            }
+        }
+        compactInputStamp = stamp;
+    }
+
+    /**
+     * Returns the number of packed connections into a neuron of this group,
+     * e.g. to estimate its update cost.
+     *
+     * @param neuron a neuron in this group
+     * @return the number of connections from compact incoming groups
+     */
+    public int getCompactFanInSize(Neuron neuron) {
+        if (compactFanIn == null) {
+            return 0;
+        }
+        int index = getNeuronIndex(neuron);
+        int size = 0;
+        for (SynapseGroup sg : compactFanIn) {
+            CompactSynapseStorage storage = sg.getCompactStorage();
+            if (storage != null && index >= 0
+                    && index < storage.getNumTar()) {
+                size += storage.getColPtr()[index + 1]
+                        - storage.getColPtr()[index];
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @param neuron a neuron in this group
+     * @return its index in the neuron list, or -1 if it is not in the group
+     */
+    public int getNeuronIndex(Neuron neuron) {
+        if (neuronIndices == null) {
+            Map<Neuron, Integer> indices = new IdentityHashMap<Neuron, Integer>(
+                    neuronList.size());
+            for (int i = 0, n = neuronList.size(); i < n; i++) {
+                indices.put(neuronList.get(i), i);
+            }
+            neuronIndices = indices;
+        }
+        Integer index = neuronIndices.get(neuron);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Compact synapse groups address neurons by index, so they are expanded
+     * before this group's neurons are removed.
+     */
+    private void expandCompactGroups() {
+        for (SynapseGroup sg : incomingSgs) {
+            sg.expand();
+        }
+        for (SynapseGroup sg : outgoingSgs) {
+            sg.expand();
+        }
+    }
+
     /**
      * Returns true if all the neurons in this group are clamped.
      *
@@ -1448,6 +1976,11 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      */
     public void clearNeuronList() {
         neuronList.clear();
+        neuronIndices = null;
+        if (sharedRule != null) {
+            sharedState = new double[sharedState.length][0];
+            sharedNeurons = null;
+        }
     }
 
     /**
@@ -12,9 +12,11 @@
  */
 package org.simbrain.network.groups;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +37,7 @@ import org.simbrain.network.connections.ConnectionUtilities.SynapseParameterSett
 import org.simbrain.network.connections.Sparse;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
@@ -45,6 +48,8 @@ import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
 import org.simbrain.util.SimbrainConstants;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 import org.simbrain.util.randomizer.PolarizedRandomizer;
 
 /**
@@ -231,6 +236,31 @@ public class SynapseGroup extends Group {
     /** Whether or not to use the compressed rep or the full rep. */
     private boolean useFullRepOnSave = false;
 
+    /**
+     * Packed weight storage, used instead of synapse objects when this group
+     * is compact (see {@link #compact()}). Null otherwise.
+     */
+    private CompactSynapseStorage compactStorage;
+
+    /**
+     * Whether the group was compact when saved, so that it is compacted again
+     * when opened.
+     */
+    private boolean compactOnLoad;
+
+    /**
+     * The weight file of a group whose packed weights are memory-mapped (see
+     * {@link #mapToFile(File)}). Saved with the network in place of the
+     * weights, and mapped again when the network is opened. Null otherwise.
+     */
+    private File weightFile;
+
+    /**
+     * Records connections while the group is built with its weights in a
+     * file (see {@link #makeConnections(File)}). Null otherwise.
+     */
+    private MappedSynapseStorage.Builder mappedBuilder;
+
     /**
      * Completely creates a synapse group between the two neuron groups with all
      * default parameters. This method creates the individual connections.
@@ -379,7 +409,12 @@ public class SynapseGroup extends Group {
         clear();
         sourceNeuronGroup.addOutgoingSg(this);
         targetNeuronGroup.addIncomingSg(this);
-        connectionManager.connectNeurons(this);
+        SplitRandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            connectionManager.connectNeurons(this);
+        } finally {
+            RandomStreams.bind(previous);
+        }
         if (size() == 0) {
             System.out.println("Creation failed, conditions of connection"
                     + " resulted in zero synapses being created.");
@@ -387,6 +422,69 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Build this group as {@link #makeConnections()} does, but with its
+     * weights in a memory-mapped file (see {@link MappedSynapseStorage})
+     * rather than in synapse objects, so that it can be larger than the heap.
+     * Connections are written to disk as the connection manager makes them;
+     * connection managers which use {@link #addNewConnection(Neuron, Neuron)}
+     * create no synapse objects at all. The group is compact afterwards (see
+     * {@link #compact()}), so the prototype synapses must be static, enabled
+     * and without delay.
+     *
+     * @param file the weight file, which is overwritten
+     * @throws IOException if the weight file cannot be written
+     * @throws IllegalStateException if the prototype synapses cannot be
+     *             compacted
+     */
+    public void makeConnections(final File file) throws IOException {
+        boolean synapticInput = false;
+        for (Neuron n : targetNeuronGroup.getNeuronList()) {
+            synapticInput |= n.getUpdateRule()
+                    .getInputType() == InputType.SYNAPTIC;
+        }
+        if (!isCompactable(excitatoryPrototype, synapticInput)
+                || !isCompactable(inhibitoryPrototype, synapticInput)) {
+            throw new IllegalStateException("Synapse group " + getLabel()
+                    + " cannot be mapped: synapses must be static, enabled,"
+                    + " have no delay and no spike responses.");
+        }
+        clear();
+        sourceNeuronGroup.addOutgoingSg(this);
+        targetNeuronGroup.addIncomingSg(this);
+        MappedSynapseStorage.Builder builder = new MappedSynapseStorage
+                .Builder(file, sourceNeuronGroup.size(),
+                        targetNeuronGroup.size(), Precision.FLOAT_32);
+        MappedSynapseStorage storage = null;
+        mappedBuilder = builder;
+        SplitRandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            connectionManager.connectNeurons(this);
+            mappedBuilder = null;
+            storage = builder.build();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            RandomStreams.bind(previous);
+            mappedBuilder = null;
+            if (storage == null) {
+                builder.close();
+            }
+        }
+        if (storage.size() == 0) {
+            System.out.println("Creation failed, conditions of connection"
+                    + " resulted in zero synapses being created.");
+            storage.close();
+            delete();
+            return;
+        }
+        displaySynapses = false;
+        compactStorage = storage;
+        weightFile = storage.getFile().getAbsoluteFile();
+        targetNeuronGroup.updateCompactFanIn();
+        getParentNetwork().fireGroupChanged(this, this, "compacted");
+    }
+
     /**
      * Pre-allocates, that is sets the initial capacity of the arraylist
      * containing this synapse group's synapses. This allows expectedNumber of
@@ -400,6 +498,10 @@ public class SynapseGroup extends Group {
      */
     public void preAllocateSynapses(int expectedNumSynapses)
             throws IllegalStateException {
+        if (mappedBuilder != null) {
+            // Connections go to disk
+            return;
+        }
         if (!exSynapseSet.isEmpty() || !inSynapseSet.isEmpty()) {
             throw new IllegalArgumentException("Cannot pre-allocate space"
                     + " for some expected number of synapses when the synapse"
@@ -422,6 +524,11 @@ public class SynapseGroup extends Group {
      * be called to sort synapses into their appropriate sets.
      */
     public void revalidateSynapseSets() {
+        if (compactStorage != null) {
+            // Polarity is read off the sign of the packed strengths
+            excitatoryRatio = getExcitatoryRatioPrecise();
+            return;
+        }
         Iterator<Synapse> exIterator = exSynapseSet.iterator();
         ArrayList<Synapse> exSwitches = new ArrayList<Synapse>(
                 exSynapseSet.size());
@@ -453,27 +560,36 @@ public class SynapseGroup extends Group {
      * call super.update() some time during the custom update.
      */
     public void update() {
-        if (useGroupLevelSettings) {
-            if (!exStatic) { // Only iterate if excitatory synapses aren't
-                             // static
-                // Assuming they're not static, only iterate if they aren't
-                // frozen.
-                if (!isFrozen(Polarity.EXCITATORY)) {
-                    updateExcitatorySynapses();
+        if (compactStorage != null) {
+            // Compact groups are static by construction
+            return;
+        }
+        SplitRandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            if (useGroupLevelSettings) {
+                if (!exStatic) { // Only iterate if excitatory synapses aren't
+                                 // static
+                    // Assuming they're not static, only iterate if they aren't
+                    // frozen.
+                    if (!isFrozen(Polarity.EXCITATORY)) {
+                        updateExcitatorySynapses();
+                    }
                 }
-            }
 
-            if (!inStatic) { // Only iterate if inhibitory synapses aren't
-                             // static
-                // Assuming they're not static, only iterate if they aren't
-                // frozen.
-                if (!isFrozen(Polarity.INHIBITORY)) {
-                    updateInhibitorySynapses();
+                if (!inStatic) { // Only iterate if inhibitory synapses aren't
+                                 // static
+                    // Assuming they're not static, only iterate if they aren't
+                    // frozen.
+                    if (!isFrozen(Polarity.INHIBITORY)) {
+                        updateInhibitorySynapses();
+                    }
                 }
+            } else {
+                updateExcitatorySynapses();
+                updateInhibitorySynapses();
             }
-        } else {
-            updateExcitatorySynapses();
-            updateInhibitorySynapses();
+        } finally {
+            RandomStreams.bind(previous);
         }
     }
 
@@ -497,6 +613,12 @@ public class SynapseGroup extends Group {
 
     /** {@inheritDoc} */
     public int size() {
+        if (compactStorage != null) {
+            return compactStorage.size();
+        }
+        if (mappedBuilder != null) {
+            return mappedBuilder.size();
+        }
         return exSynapseSet.size() + inSynapseSet.size();
     }
 
@@ -505,9 +627,240 @@ public class SynapseGroup extends Group {
      */
     @Override
     public boolean isEmpty() {
+        if (compactStorage != null) {
+            return compactStorage.size() == 0;
+        }
         return exSynapseSet.isEmpty() && inSynapseSet.isEmpty();
     }
 
+    /**
+     * Move the weights of this group into packed primitive arrays (see
+     * {@link CompactSynapseStorage}) and discard the synapse objects, which
+     * are removed from the fan-in and fan-out of their neurons. Target
+     * neurons then read their input from the packed arrays. Methods which
+     * return synapses produce detached copies; methods which edit individual
+     * synapses first return the group to object storage (see
+     * {@link #expand()}).
+     * <p>
+     * Only static, non-delayed, enabled synapses can be compacted, and spike
+     * responses are not modeled, so targets must use weighted input. The
+     * synapses are not displayed while compact.
+     *
+     * @throws IllegalStateException if some synapse cannot be compacted
+     */
+    public void compact() throws IllegalStateException {
+        if (compactStorage != null) {
+            return;
+        }
+        Map<Neuron, Integer> sourceMap = getIndexMap(getSourceNeurons());
+        Map<Neuron, Integer> targetMap = getIndexMap(getTargetNeurons());
+        int numSyns = size();
+        int[] src = new int[numSyns];
+        int[] tar = new int[numSyns];
+        double[] wts = new double[numSyns];
+        int k = 0;
+        for (Synapse s : getAllSynapses()) {
+            if (!isCompactable(s, s.getTarget().getUpdateRule()
+                    .getInputType() == InputType.SYNAPTIC)) {
+                throw new IllegalStateException("Synapse group "
+                        + getLabel() + " cannot be compacted: synapses"
+                        + " must be static, enabled, have no delay and no"
+                        + " spike responses.");
+            }
+            src[k] = sourceMap.get(s.getSource());
+            tar[k] = targetMap.get(s.getTarget());
+            wts[k++] = s.getStrength();
+        }
+        CompactSynapseStorage storage = new HeapSynapseStorage(
+                sourceNeuronGroup.size(), targetNeuronGroup.size(), src, tar,
+                wts);
+        clear();
+        displaySynapses = false;
+        compactStorage = storage;
+        targetNeuronGroup.updateCompactFanIn();
+        getParentNetwork().fireGroupChanged(this, this, "compacted");
+    }
+
+    /**
+     * @param s a synapse, or a prototype synapse
+     * @param synapticInput whether its target uses synaptic input
+     * @return whether the synapse can be held in packed storage
+     */
+    private static boolean isCompactable(final Synapse s,
+            final boolean synapticInput) {
+        return (s.getLearningRule() instanceof StaticSynapseRule
+                || s.isFrozen()) && s.getDelay() == 0 && s.isEnabled()
+                && !(synapticInput && s.getSpikeResponder() != null);
+    }
+
+    /**
+     * Move the weights of this group into a memory-mapped file, as single
+     * precision floats. See {@link #mapToFile(File, Precision)}.
+     *
+     * @param file the weight file, which is overwritten
+     * @throws IOException if the weight file cannot be written
+     * @throws IllegalStateException if some synapse cannot be compacted
+     */
+    public void mapToFile(final File file) throws IOException {
+        mapToFile(file, Precision.FLOAT_32);
+    }
+
+    /**
+     * Move the weights of this group into a memory-mapped file (see
+     * {@link MappedSynapseStorage}), compacting the group first if needed.
+     * Only the pages of the file in use are held in memory. When the network
+     * is saved the file is referred to rather than the weights copied, so it
+     * must be kept with the network.
+     *
+     * @param file the weight file, which is overwritten
+     * @param precision precision of the stored strengths
+     * @throws IOException if the weight file cannot be written
+     * @throws IllegalStateException if some synapse cannot be compacted
+     */
+    public void mapToFile(final File file, final Precision precision)
+            throws IOException {
+        compact();
+        CompactSynapseStorage old = compactStorage;
+        if (file.getAbsoluteFile().equals(weightFile)) {
+            return;
+        }
+        compactStorage = MappedSynapseStorage.create(file, old, precision);
+        weightFile = file.getAbsoluteFile();
+        closeMapping(old);
+        getParentNetwork().fireGroupChanged(this, this, "compacted");
+    }
+
+    /**
+     * @return true if the packed weights of this group are held in a
+     *         memory-mapped file
+     */
+    public boolean isMapped() {
+        return compactStorage instanceof MappedSynapseStorage;
+    }
+
+    /**
+     * @return true while the group is being built with its weights in a
+     *         file (see {@link #makeConnections(File)})
+     */
+    public boolean isBuildingOnDisk() {
+        return mappedBuilder != null;
+    }
+
+    /**
+     * Close the weight file of storage which is no longer used, if it is
+     * mapped.
+     *
+     * @param storage the storage
+     */
+    private static void closeMapping(final CompactSynapseStorage storage) {
+        if (storage instanceof MappedSynapseStorage) {
+            try {
+                ((MappedSynapseStorage) storage).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Return a compact group (see {@link #compact()}) to ordinary synapse
+     * objects, created from the prototype synapses.
+     */
+    public void expand() {
+        if (compactStorage == null) {
+            return;
+        }
+        CompactSynapseStorage storage = compactStorage;
+        compactStorage = null;
+        targetNeuronGroup.updateCompactFanIn();
+        List<Neuron> sources = getSourceNeurons();
+        List<Neuron> targets = getTargetNeurons();
+        preAllocateSynapses(storage.size());
+        int[] colPtr = storage.getColPtr();
+        for (int j = 0, n = storage.getNumTar(); j < n; j++) {
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                double w = storage.getStrength(k);
+                Synapse prototype = w > 0 ? excitatoryPrototype
+                        : inhibitoryPrototype;
+                Synapse s = new Synapse(getParentNetwork(),
+                        sources.get(storage.getSource(k)), targets.get(j),
+                        prototype.getLearningRule().deepCopy(), prototype);
+                s.forceSetStrength(w);
+                s.setId(getParentNetwork().getSynapseIdGenerator().getId());
+                s.setParentGroup(this);
+                if (w > 0) {
+                    exSynapseSet.add(s);
+                } else {
+                    inSynapseSet.add(s);
+                }
+            }
+        }
+        closeMapping(storage);
+        weightFile = null;
+        getParentNetwork().fireGroupChanged(this, this, "expanded");
+    }
+
+    /**
+     * @return true if this group holds its weights in packed arrays rather
+     *         than synapse objects
+     */
+    public boolean isCompact() {
+        return compactStorage != null;
+    }
+
+    /**
+     * @return the packed weight storage, or null if this group is not compact
+     */
+    public CompactSynapseStorage getCompactStorage() {
+        return compactStorage;
+    }
+
+    /**
+     * Create detached synapse objects (see
+     * {@link Synapse#createDetachedSynapse}) for the connections of a compact
+     * group.
+     *
+     * @param polarity which connections to create
+     * @return the synapses
+     */
+    private List<Synapse> materializeSynapses(Polarity polarity) {
+        List<Synapse> ret = new ArrayList<Synapse>();
+        List<Neuron> sources = getSourceNeurons();
+        List<Neuron> targets = getTargetNeurons();
+        int[] colPtr = compactStorage.getColPtr();
+        for (int j = 0, n = compactStorage.getNumTar(); j < n; j++) {
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                double w = compactStorage.getStrength(k);
+                boolean ex = w > 0;
+                if ((ex && polarity == Polarity.INHIBITORY)
+                        || (!ex && polarity == Polarity.EXCITATORY)) {
+                    continue;
+                }
+                ret.add(Synapse.createDetachedSynapse(
+                        ex ? excitatoryPrototype : inhibitoryPrototype,
+                        sources.get(compactStorage.getSource(k)),
+                        targets.get(j), w));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Map each neuron in a list to its index.
+     *
+     * @param neurons the neurons
+     * @return neuron to index map
+     */
+    private static Map<Neuron, Integer> getIndexMap(List<Neuron> neurons) {
+        Map<Neuron, Integer> map = new HashMap<Neuron, Integer>(
+                (int) (neurons.size() / 0.75) + 1);
+        int i = 0;
+        for (Neuron n : neurons) {
+            map.put(n, i++);
+        }
+        return map;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -600,6 +953,7 @@ public class SynapseGroup extends Group {
      * @return the deleted synapse
      */
     public Synapse removeSynapse(Synapse toDelete) {
+        expand();
         exSynapseSet.remove(toDelete);
         inSynapseSet.remove(toDelete);
         toDelete.getSource().removeEfferent(toDelete);
@@ -619,6 +973,7 @@ public class SynapseGroup extends Group {
      * Removes all synapses with weight 0 from the group.
      */
     public void prune() {
+        expand();
         for (Synapse s : this.getAllSynapses()) {
             if (s.getStrength() == 0) {
                 removeSynapse(s);
@@ -631,6 +986,12 @@ public class SynapseGroup extends Group {
      * synapses in this group.
      */
     public void clear() {
+        if (compactStorage != null) {
+            closeMapping(compactStorage);
+            compactStorage = null;
+            weightFile = null;
+            targetNeuronGroup.updateCompactFanIn();
+        }
         for (Synapse toDelete : exSynapseSet) {
             // Remove references to this synapse from parent neurons
             toDelete.getSource().removeEfferent(toDelete);
@@ -661,6 +1022,13 @@ public class SynapseGroup extends Group {
      * based on the parameters of this group.
      */
     public void addNewSynapse(final Synapse synapse) {
+        if (mappedBuilder != null) {
+            // Only the connection is recorded
+            synapse.getSource().removeEfferent(synapse);
+            synapse.getTarget().removeAfferent(synapse);
+            addNewConnection(synapse.getSource(), synapse.getTarget());
+            return;
+        }
         if (synapse.getSource().isPolarized()) {
             if (Polarity.EXCITATORY.equals(synapse.getSource().getPolarity())) {
                 addNewExcitatorySynapse(synapse);
@@ -670,7 +1038,7 @@ public class SynapseGroup extends Group {
                 addNewInhibitorySynapse(synapse);
             }
         } else {
-            double rand = Math.random();
+            double rand = RandomStreams.current().nextDouble();
             double correctionTerm = size() == 0 ? 0 : excitatoryRatio
                     - (exSynapseSet.size() / (double) size());
             if (rand < (excitatoryRatio + correctionTerm)) {
@@ -681,6 +1049,47 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Connect a neuron of the source group to a neuron of the target group,
+     * as {@link #addNewSynapse(Synapse)} does with a new synapse between
+     * them. While the group is being built with its weights in a file (see
+     * {@link #makeConnections(File)}) only the indices and strength of the
+     * connection are recorded, and no synapse is created.
+     *
+     * @param source the source neuron
+     * @param target the target neuron
+     */
+    public void addNewConnection(final Neuron source, final Neuron target) {
+        if (mappedBuilder == null) {
+            addNewSynapse(new Synapse(source, target));
+            return;
+        }
+        boolean excitatory;
+        if (source.isPolarized()) {
+            excitatory = Polarity.EXCITATORY.equals(source.getPolarity());
+        } else {
+            int n = mappedBuilder.size();
+            double correctionTerm = n == 0 ? 0 : excitatoryRatio
+                    - (mappedBuilder.getExcitatoryCount() / (double) n);
+            excitatory = RandomStreams.current()
+                    .nextDouble() < (excitatoryRatio + correctionTerm);
+        }
+        double strength;
+        if (excitatory) {
+            strength = exciteRand != null ? exciteRand.getRandom()
+                    : ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH;
+        } else {
+            strength = inhibRand != null ? inhibRand.getRandom()
+                    : ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH;
+        }
+        try {
+            mappedBuilder.add(sourceNeuronGroup.getNeuronIndex(source),
+                    targetNeuronGroup.getNeuronIndex(target), strength);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * @param synapse the blank excitatory synapse which will be added to the
      * group and have its parameters set based on the parameters of this group.
@@ -822,6 +1231,7 @@ public class SynapseGroup extends Group {
         if (excitatoryRatio == getExcitatoryRatioPrecise()) {
             return;
         }
+        expand();
         if (isEmpty()) {
             this.excitatoryRatio = excitatoryRatio;
             return;
@@ -903,6 +1313,9 @@ public class SynapseGroup extends Group {
      *         excitatory synapses divided by the total.
      */
     public double getExcitatoryRatioPrecise() {
+        if (compactStorage != null) {
+            return compactStorage.getExcitatoryCount() / (double) size();
+        }
         return exSynapseSet.size() / (double) size();
     }
 
@@ -911,6 +1324,9 @@ public class SynapseGroup extends Group {
      *         group. This list is a defensive copy.
      */
     public List<Synapse> getAllSynapses() {
+        if (compactStorage != null) {
+            return materializeSynapses(Polarity.BOTH);
+        }
         ArrayList<Synapse> flatList = new ArrayList<Synapse>(size());
         flatList.addAll(getExcitatorySynapses());
         flatList.addAll(getInhibitorySynapses());
@@ -921,6 +1337,10 @@ public class SynapseGroup extends Group {
      * @return the set of excitatory synapses
      */
     public Set<Synapse> getExcitatorySynapses() {
+        if (compactStorage != null) {
+            return new HashSet<Synapse>(
+                    materializeSynapses(Polarity.EXCITATORY));
+        }
         return new HashSet<Synapse>(exSynapseSet);
     }
 
@@ -928,6 +1348,10 @@ public class SynapseGroup extends Group {
      * @return the set of inhibitory synapses
      */
     public Set<Synapse> getInhibitorySynapses() {
+        if (compactStorage != null) {
+            return new HashSet<Synapse>(
+                    materializeSynapses(Polarity.INHIBITORY));
+        }
         return new HashSet<Synapse>(inSynapseSet);
     }
 
@@ -937,6 +1361,13 @@ public class SynapseGroup extends Group {
      * @return weights
      */
     public double[] getWeightVector() {
+        if (compactStorage != null) {
+            double[] ex = compactStorage.getStrengths(true);
+            double[] in = compactStorage.getStrengths(false);
+            double[] ret = Arrays.copyOf(ex, ex.length + in.length);
+            System.arraycopy(in, 0, ret, ex.length, in.length);
+            return ret;
+        }
         double[] retArray = new double[size()];
         int i = 0;
         for (Synapse synapse : exSynapseSet) {
@@ -952,6 +1383,9 @@ public class SynapseGroup extends Group {
      * @return the strengths of all the inhibitory synapses as a double array
      */
     public double[] getInhibitoryStrengths() {
+        if (compactStorage != null) {
+            return compactStorage.getStrengths(false);
+        }
         double[] retArray = new double[inSynapseSet.size()];
         int i = 0;
         for (Synapse synapse : inSynapseSet) {
@@ -964,6 +1398,9 @@ public class SynapseGroup extends Group {
      * @return the strengths of all the excitatory synapses as a double array
      */
     public double[] getExcitatoryStrengths() {
+        if (compactStorage != null) {
+            return compactStorage.getStrengths(true);
+        }
         double[] retArray = new double[exSynapseSet.size()];
         int i = 0;
         for (Synapse synapse : exSynapseSet) {
@@ -983,6 +1420,9 @@ public class SynapseGroup extends Group {
      * as a weight matrix between two activation vectors (neuron groups).
      */
     public double[][] getWeightMatrix() {
+        if (compactStorage != null) {
+            return compactStorage.toMatrix();
+        }
         double[][] weightMatrix =
                 new double[getSourceNeurons().size()][getTargetNeurons()
                         .size()];
@@ -1030,6 +1470,9 @@ public class SynapseGroup extends Group {
      *      1   2   .9
      */
     public double [][] getNumericIndices() {
+        if (compactStorage != null) {
+            return compactStorage.getNumericIndices();
+        }
         double[][] pairs = new double[size()][3];
         int i = 0;
         int j = 0;
@@ -1256,6 +1699,7 @@ public class SynapseGroup extends Group {
      *         it did not and thus failed to set the strength value.
      */
     public boolean setSynapseStrength(Synapse synapse, double newWeight) {
+        expand();
         if (synapse.getStrength() >= 0 && exSynapseSet.contains(synapse)) {
             synapse.setStrength(newWeight);
             if (newWeight < 0) {
@@ -1295,6 +1739,10 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeExcitatoryConnections() {
+        if (compactStorage != null) {
+            randomizeCompact(true);
+            return;
+        }
         ConnectionUtilities.randomizeExcitatorySynapsesUnsafe(exSynapseSet,
                 exciteRand);
     }
@@ -1307,10 +1755,36 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeInhibitoryConnections() {
+        if (compactStorage != null) {
+            randomizeCompact(false);
+            return;
+        }
         ConnectionUtilities.randomizeInhibitorySynapsesUnsafe(inSynapseSet,
                 inhibRand);
     }
 
+    /**
+     * Randomize the packed strengths of one polarity of a compact group.
+     *
+     * @param excitatory whether to randomize excitatory or inhibitory weights
+     */
+    private void randomizeCompact(boolean excitatory) {
+        CompactSynapseStorage storage = compactStorage;
+        for (int k = 0, n = storage.size(); k < n; k++) {
+            if ((storage.getStrength(k) > 0) != excitatory) {
+                continue;
+            }
+            if (excitatory) {
+                storage.setStrength(k, exciteRand != null ? exciteRand
+                        .getRandom()
+                        : ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH);
+            } else {
+                storage.setStrength(k, inhibRand != null ? inhibRand
+                        .getRandom()
+                        : ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH);
+            }
+        }
+    }
     /**
      * Sets the connection manager for this synapse group once and only once.
      * Subsequent attempts to modify the connection manager will fail, as
@@ -1389,7 +1863,7 @@ public class SynapseGroup extends Group {
      * @return the ratio of synapses in this group that are excitatory.
      */
     public double calculateExcitatoryRatio() {
-        excitatoryRatio = exSynapseSet.size() / (double) size();
+        excitatoryRatio = getExcitatoryRatioPrecise();
         if (Double.isNaN(excitatoryRatio)) {
             return 0;
         }
@@ -1437,10 +1911,16 @@ public class SynapseGroup extends Group {
     }
 
     public boolean hasExcitatory() {
+        if (compactStorage != null) {
+            return compactStorage.getExcitatoryCount() > 0;
+        }
         return !exSynapseSet.isEmpty();
     }
 
     public boolean hasInhibitory() {
+        if (compactStorage != null) {
+            return compactStorage.getExcitatoryCount() < size();
+        }
         return !inSynapseSet.isEmpty();
     }
 
@@ -1663,6 +2143,65 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Set the strength of every connection, clipped to the polarity of its
+     * source neuron and to the bounds of its synapse as in
+     * {@link Synapse#setStrength(double)}. Connections whose synapse is frozen
+     * are left alone. A compact group is written in place, using the
+     * prototype synapse matching the current sign of each connection.
+     *
+     * @param value the strength to set
+     */
+    public void setAllStrengths(double value) {
+        if (compactStorage == null) {
+            for (Synapse synapse : exSynapseSet) {
+                synapse.setStrength(value);
+            }
+            for (Synapse synapse : inSynapseSet) {
+                synapse.setStrength(value);
+            }
+            return;
+        }
+        CompactSynapseStorage storage = compactStorage;
+        List<Neuron> sources = getSourceNeurons();
+        for (int k = 0, n = storage.size(); k < n; k++) {
+            Synapse prototype = storage.getStrength(k) > 0
+                    ? excitatoryPrototype : inhibitoryPrototype;
+            if (prototype.isFrozen()) {
+                continue;
+            }
+            Neuron source = sources.get(storage.getSource(k));
+            storage.setStrength(k,
+                    prototype.clip(source.getPolarity().clip(value)));
+        }
+    }
+
+    /**
+     * Multiply the strength of every connection by a positive factor, e.g. to
+     * give a recurrent group a desired spectral radius. Synapse bounds are
+     * ignored.
+     *
+     * @param factor the factor
+     * @throws IllegalArgumentException if the factor is not positive, which
+     *             would change the polarity of the connections
+     */
+    public void scaleStrengths(double factor) {
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("Strengths can only be scaled"
+                    + " by a positive factor.");
+        }
+        if (compactStorage != null) {
+            CompactSynapseStorage storage = compactStorage;
+            for (int k = 0, n = storage.size(); k < n; k++) {
+                storage.setStrength(k, storage.getStrength(k) * factor);
+            }
+            return;
+        }
+        for (Synapse synapse : getAllSynapses()) {
+            synapse.forceSetStrength(synapse.getStrength() * factor);
+        }
+    }
+
     /**
      *
      * @param upperBound
@@ -1861,6 +2400,7 @@ public class SynapseGroup extends Group {
      */
     public <T> void setSynapses(SynapseParameterSetter<T> set, T val,
             Polarity polarity) {
+        expand();
         Collection<Synapse> synapses;
         if (Polarity.EXCITATORY == polarity) {
             synapses = exSynapseSet;
@@ -1890,20 +2430,42 @@ public class SynapseGroup extends Group {
      * Perform operations required before saving a synapse group.
      */
     public void preSaveInit() {
+        preSaveInit(true);
+    }
+
+    /**
+     * Perform operations required before saving a synapse group.
+     *
+     * @param encodeWeights if false, the weights of a group which is saved as
+     *            a weight matrix (see {@link #isSavedAsWeightMatrix()}) are
+     *            left out altogether, because the caller saves them itself
+     *            (see {@link #getPackedWeights()})
+     */
+    public void preSaveInit(final boolean encodeWeights) {
+        compactOnLoad = compactStorage != null;
+        if (isMapped()) {
+            // The weight file is saved in place of the weights
+            ((MappedSynapseStorage) compactStorage).flush();
+            compressedMatrixRep = null;
+            inTemp = inSynapseSet;
+            exTemp = exSynapseSet;
+            inSynapseSet = null;
+            exSynapseSet = null;
+            return;
+        }
         if (isUseFullRepOnSave()) {
             preSaveInitFull();
             return;
         }
-        if (isUseGroupLevelSettings()) {
-            long[] rowCompression = getRowCompressedMatrixRepresentation();
-            // long start = System.nanoTime();
-            // System.out.println("Begin Serialization... ");
-            compressedMatrixRep = GroupSerializer.rowCompMat2CompByteArray(
-                    rowCompression, Precision.FLOAT_32);
-            // long end = System.nanoTime();
-            // System.out.println("Serialization Time: "
-            // + SimbrainMath.roundDouble((end - start) / Math.pow(10, 9),
-            // 4) + " secs.");
+        if (isUseGroupLevelSettings() || compactOnLoad) {
+            if (encodeWeights) {
+                long[] rowCompression = getRowCompressedMatrixRepresentation();
+                compressedMatrixRep = GroupSerializer
+                        .rowCompMat2CompByteArray(rowCompression,
+                                Precision.FLOAT_32);
+            } else {
+                compressedMatrixRep = null;
+            }
 
             // Don't explicitly save the synapses.
             inTemp = inSynapseSet;
@@ -1965,7 +2527,7 @@ public class SynapseGroup extends Group {
      * process sets the synapse sets to null.
      */
     public void postSaveReInit() {
-        if (isUseGroupLevelSettings()) {
+        if (inTemp != null || exTemp != null) {
             inSynapseSet = inTemp;
             exSynapseSet = exTemp;
             inTemp = null;
@@ -1973,13 +2535,95 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * @return true if only the weights of this group are saved, the other
+     *         synapse parameters being taken from the prototype synapses
+     */
+    public boolean isSavedAsWeightMatrix() {
+        return !isUseFullRepOnSave() && !isMapped()
+                && (isUseGroupLevelSettings() || compactStorage != null);
+    }
+
+    /**
+     * Returns the weights of this group in packed form: the compact storage
+     * itself if this group is compact, otherwise a packed copy of the
+     * strengths of its synapses.
+     *
+     * @return the packed weights
+     */
+    public CompactSynapseStorage getPackedWeights() {
+        if (compactStorage != null) {
+            return compactStorage;
+        }
+        Map<Neuron, Integer> sourceMap = getIndexMap(getSourceNeurons());
+        Map<Neuron, Integer> targetMap = getIndexMap(getTargetNeurons());
+        int numSyns = size();
+        int[] src = new int[numSyns];
+        int[] tar = new int[numSyns];
+        double[] wts = new double[numSyns];
+        int k = 0;
+        for (Synapse s : getAllSynapses()) {
+            src[k] = sourceMap.get(s.getSource());
+            tar[k] = targetMap.get(s.getTarget());
+            wts[k++] = s.getStrength();
+        }
+        return new HeapSynapseStorage(sourceNeuronGroup.size(),
+                targetNeuronGroup.size(), src, tar, wts);
+    }
+
+    /**
+     * Replace the connections of this group with packed weights, e.g. ones
+     * read from a network archive. A compact group keeps the storage; other
+     * groups create synapses from the prototype synapses, as in
+     * {@link #expand()}.
+     *
+     * @param storage the weights
+     * @throws IllegalArgumentException if the storage does not match the
+     *             sizes of the source and target groups
+     */
+    public void setPackedWeights(final CompactSynapseStorage storage) {
+        if (storage.getNumSrc() != sourceNeuronGroup.size()
+                || storage.getNumTar() != targetNeuronGroup.size()) {
+            throw new IllegalArgumentException("Packed weights of size "
+                    + storage.getNumSrc() + " x " + storage.getNumTar()
+                    + " do not fit synapse group " + getLabel());
+        }
+        boolean compact = compactStorage != null;
+        clear();
+        compactStorage = storage;
+        if (compact) {
+            targetNeuronGroup.updateCompactFanIn();
+            getParentNetwork().fireGroupChanged(this, this, "compacted");
+        } else {
+            expand();
+        }
+    }
+
     /**
      * Perform operations required after opening a synapse group.
      */
     public void postUnmarshallingInit() {
 
+        // Weights saved separately, see preSaveInit(boolean)
+        if (exSynapseSet == null) {
+            exSynapseSet = new HashSet<Synapse>();
+        }
+        if (inSynapseSet == null) {
+            inSynapseSet = new HashSet<Synapse>();
+        }
+
+        if (weightFile != null) {
+            compactOnLoad = false;
+            openWeightFile();
+            if (connectionManager instanceof Sparse) {
+                ((Sparse) connectionManager).setPermitDensityEditing(false);
+            }
+            return;
+        }
+
         // Rebuild weight matrix if needed.
-        if (this.isUseGroupLevelSettings() && compressedMatrixRep != null) {
+        if ((this.isUseGroupLevelSettings() || compactOnLoad)
+                && compressedMatrixRep != null) {
             exSynapseSet = new HashSet<Synapse>();
             inSynapseSet = new HashSet<Synapse>();
             GroupDeserializer.reconstructCompressedSynapseStrengths(
@@ -2046,5 +2690,31 @@ public class SynapseGroup extends Group {
         if (connectionManager instanceof Sparse) {
             ((Sparse) connectionManager).setPermitDensityEditing(false);
         }
+        if (compactOnLoad) {
+            compactOnLoad = false;
+            compact();
+        }
+    }
+
+    /**
+     * Map the weight file of a group which was mapped when saved. The group
+     * is left empty if the file is missing or does not fit.
+     */
+    private void openWeightFile() {
+        try {
+            MappedSynapseStorage storage = MappedSynapseStorage
+                    .open(weightFile);
+            if (storage.getNumSrc() != sourceNeuronGroup.size()
+                    || storage.getNumTar() != targetNeuronGroup.size()) {
+                storage.close();
+                throw new IOException("Weight file " + weightFile
+                        + " does not fit synapse group " + getLabel());
+            }
+            compactStorage = storage;
+            targetNeuronGroup.updateCompactFanIn();
+        } catch (IOException e) {
+            e.printStackTrace();
+            weightFile = null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -22,7 +22,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dialog;
-import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
@@ -279,6 +278,12 @@ public class NetworkPanel extends JPanel {
     /** How much to nudge objects per key click. */
     private static double nudgeAmount = 2;
 
+    /** Maximum number of times per second nodes are redrawn while running. */
+    private static int maxFrameRate = 30;
+
+    /** Coalesces update events from the network into frames. */
+    private final ViewUpdateThrottle viewUpdates = new ViewUpdateThrottle(this);
+
     /**
      * Source elements (when setting a source node or group and then connecting
      * to a target).
@@ -498,11 +503,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes();
-                    }
-                });
+                viewUpdates.postNeurons();
             }
 
             @Override
@@ -510,11 +511,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes(neurons);
-                    }
-                });
+                viewUpdates.postNeurons(neurons);
             }
 
             @Override
@@ -522,11 +519,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes();
-                    }
-                });
+                viewUpdates.postSynapses();
             }
 
             @Override
@@ -534,11 +527,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes(synapses);
-                    }
-                });
+                viewUpdates.postSynapses(synapses);
             }
 
 			@Override
@@ -725,16 +714,74 @@ public class NetworkPanel extends JPanel {
                 if (!guiOn) {
                     return;
                 }
-                PNode groupNode = objectNodeMap.get(group);
-                if (groupNode != null) {
-                    ((GroupNode) groupNode).updateConstituentNodes();
-                }
+                viewUpdates.postGroup(group);
             }
 
         });
 
     }
 
+    /**
+     * Redraw the nodes of elements changed since the last frame. Called by
+     * {@link ViewUpdateThrottle} on the Swing thread. Nodes whose model
+     * element looks the same as when it was last drawn are skipped.
+     *
+     * @param allNeurons whether all neuron nodes should be checked
+     * @param neurons collections of neurons whose nodes should be checked
+     * @param allSynapses whether all synapse nodes should be checked
+     * @param synapses collections of synapses whose nodes should be checked
+     * @param groups groups whose nodes should be checked
+     */
+    void drawFrame(final boolean allNeurons,
+            final List<Collection<Neuron>> neurons, final boolean allSynapses,
+            final List<Collection<Synapse>> synapses, final List<Group> groups) {
+        if (allNeurons) {
+            for (NeuronNode node : getNeuronNodes()) {
+                node.updateIfChanged();
+            }
+        } else {
+            for (Collection<Neuron> collection : neurons) {
+                for (Neuron neuron : collection) {
+                    NeuronNode node = (NeuronNode) objectNodeMap.get(neuron);
+                    if (node != null) {
+                        node.updateIfChanged();
+                    }
+                }
+            }
+        }
+        if (allSynapses) {
+            for (SynapseNode node : getSynapseNodes()) {
+                if (node.getVisible()) {
+                    node.updateIfChanged();
+                }
+            }
+        } else {
+            for (Collection<Synapse> collection : synapses) {
+                for (Synapse synapse : collection) {
+                    SynapseNode node = (SynapseNode) objectNodeMap
+                        .get(synapse);
+                    if (node != null) {
+                        node.updateIfChanged();
+                    }
+                }
+            }
+        }
+        for (Group group : groups) {
+            PNode groupNode = objectNodeMap.get(group);
+            if (groupNode instanceof NeuronGroupNode) {
+                ((NeuronGroupNode) groupNode).updateChangedNodes();
+            } else if (groupNode instanceof SynapseGroupNodeVisible) {
+                ((SynapseGroupNodeVisible) groupNode).updateChangedNodes();
+            } else if (groupNode instanceof SubnetworkNode) {
+                ((SubnetworkNode) groupNode).updateChangedNodes();
+            } else if (groupNode != null) {
+                ((GroupNode) groupNode).updateConstituentNodes();
+            }
+        }
+        timeLabel.update();
+        updateComplete.set(0);
+    }
+
     /**
      * Update visible state of all neurons nodes. This is not used much
      * internally, because it is preferred to updated the specific nodes that
@@ -754,24 +801,6 @@ public class NetworkPanel extends JPanel {
         timeLabel.update();
     }
     
-    /**
-     * Update visible state of nodes corresponding to specified neurons.
-     *
-     * @param neurons the neurons whose corresponding pnode should be updated.
-     */
-    private void updateNeuronNodes(Collection<Neuron> neurons) {
-        // System.out.println("In update neuron nodes.  Updating " +
-        // neurons.size() + " neurons");
-        for (Neuron neuron : neurons) {
-            NeuronNode neuronNode = ((NeuronNode) objectNodeMap.get(neuron));
-            if (neuronNode != null) {
-                neuronNode.update();
-            }
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
     /**
      * Update visible state of group nodes.
      *
@@ -806,26 +835,6 @@ public class NetworkPanel extends JPanel {
         updateComplete.decrementAndGet();
     }
 
-    /**
-     * Update visible state of nodes corresponding to specified synapses.
-     *
-     * @param synapses the synapses whose corresponding pnodes should be
-     *            updated.
-     */
-    private void updateSynapseNodes(Collection<Synapse> synapses) {
-        // System.out.println("In update synapse nodes.  Updating " +
-        // synapses.size() + " synapses");
-        for (Synapse synapse : synapses) {
-            SynapseNode node = ((SynapseNode) objectNodeMap.get(synapse));
-            if (node != null) {
-                node.updateColor();
-                node.updateDiameter();
-            }
-        }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
-    }
-
     /**
      * Use the GUI to add a new neuron to the underlying network model.
      * 
@@ -2874,6 +2883,7 @@ public class NetworkPanel extends JPanel {
             network.setFireUpdates(true);
         } else {
         	network.setFireUpdates(false);
+        	viewUpdates.stop();
         }
         this.guiOn = guiOn;
     }
@@ -3158,6 +3168,24 @@ public class NetworkPanel extends JPanel {
         NetworkPanel.nudgeAmount = nudgeAmount;
     }
 
+    /**
+     * @return the maximum number of times per second nodes are redrawn while
+     *         the network runs
+     */
+    public static int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * Set the maximum number of times per second nodes are redrawn while the
+     * network runs. Lower values leave more time for the simulation.
+     *
+     * @param maxFrameRate the frame rate to set
+     */
+    public static void setMaxFrameRate(int maxFrameRate) {
+        NetworkPanel.maxFrameRate = maxFrameRate;
+    }
+
     /**
      * Creates the context menu for neurons. Overridden by
      * {@link org.simbrain.network.desktop.NetworkPanelDesktop} which adds a
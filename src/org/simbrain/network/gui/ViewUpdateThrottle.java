@@ -0,0 +1,221 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.Timer;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.Group;
+
+/**
+ * Collects the update events a network fires while it runs and passes them
+ * on to a {@link NetworkPanel} at most {@link NetworkPanel#getMaxFrameRate()}
+ * times a second. Posting an update from the simulation thread only records
+ * what changed and bumps an epoch counter; the nodes are redrawn later on the
+ * Swing thread, from the state of the model at that time. Repeated posts
+ * between two frames are coalesced, so the cost of drawing does not depend on
+ * how fast the network is updated.
+ * <p>
+ * The timer only runs while there are updates to draw.
+ */
+class ViewUpdateThrottle implements ActionListener {
+
+    /** The panel to draw. */
+    private final NetworkPanel panel;
+
+    /** Fires frames on the Swing thread. */
+    private final Timer timer;
+
+    /** Whether the timer is running or about to be started. */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /** Incremented by every post. */
+    private final AtomicLong epoch = new AtomicLong();
+
+    /** Epoch drawn by the last frame. Only used on the Swing thread. */
+    private long drawnEpoch;
+
+    /** Set when all neuron nodes must be updated. */
+    private final AtomicBoolean allNeurons = new AtomicBoolean();
+
+    /** Set when all synapse nodes must be updated. */
+    private final AtomicBoolean allSynapses = new AtomicBoolean();
+
+    /** Collections of neurons to update. Usually the same list every tick. */
+    private final Set<Collection<Neuron>> neurons = Collections
+            .synchronizedSet(Collections
+                    .newSetFromMap(new IdentityHashMap<Collection<Neuron>, Boolean>()));
+
+    /** Collections of synapses to update. */
+    private final Set<Collection<Synapse>> synapses = Collections
+            .synchronizedSet(Collections
+                    .newSetFromMap(new IdentityHashMap<Collection<Synapse>, Boolean>()));
+
+    /** Groups to update. */
+    private final Set<Group> groups = Collections.synchronizedSet(Collections
+            .newSetFromMap(new IdentityHashMap<Group, Boolean>()));
+
+    /**
+     * Create a throttle for a panel.
+     *
+     * @param panel the panel to draw
+     */
+    ViewUpdateThrottle(final NetworkPanel panel) {
+        this.panel = panel;
+        timer = new Timer(getPeriod(), this);
+        timer.setCoalesce(true);
+        timer.setInitialDelay(0);
+    }
+
+    /**
+     * @return the time between frames in milliseconds
+     */
+    private static int getPeriod() {
+        return 1000 / Math.max(1, NetworkPanel.getMaxFrameRate());
+    }
+
+    /**
+     * Request that all neuron nodes be updated.
+     */
+    void postNeurons() {
+        allNeurons.set(true);
+        post();
+    }
+
+    /**
+     * Request that the nodes of some neurons be updated.
+     *
+     * @param toUpdate the neurons
+     */
+    void postNeurons(final Collection<Neuron> toUpdate) {
+        neurons.add(toUpdate);
+        post();
+    }
+
+    /**
+     * Request that all synapse nodes be updated.
+     */
+    void postSynapses() {
+        allSynapses.set(true);
+        post();
+    }
+
+    /**
+     * Request that the nodes of some synapses be updated.
+     *
+     * @param toUpdate the synapses
+     */
+    void postSynapses(final Collection<Synapse> toUpdate) {
+        synapses.add(toUpdate);
+        post();
+    }
+
+    /**
+     * Request that the node of a group be updated.
+     *
+     * @param group the group
+     */
+    void postGroup(final Group group) {
+        groups.add(group);
+        post();
+    }
+
+    /**
+     * Record that something changed and make sure a frame will be drawn.
+     */
+    private void post() {
+        epoch.incrementAndGet();
+        if (running.compareAndSet(false, true)) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Draw a frame. Called by the timer on the Swing thread.
+     *
+     * @param e the timer event
+     */
+    @Override
+    public void actionPerformed(final ActionEvent e) {
+        long current = epoch.get();
+        if (current == drawnEpoch) {
+            // Nothing new; stop until the next post. Check again after
+            // releasing the flag, so a post in between is not lost.
+            timer.stop();
+            running.set(false);
+            if (epoch.get() != drawnEpoch
+                    && running.compareAndSet(false, true)) {
+                timer.start();
+            }
+            return;
+        }
+        drawnEpoch = current;
+        int period = getPeriod();
+        if (timer.getDelay() != period) {
+            timer.setDelay(period);
+        }
+        panel.drawFrame(allNeurons.getAndSet(false), drain(neurons),
+                allSynapses.getAndSet(false), drain(synapses), drain(groups));
+    }
+
+    /**
+     * Remove and return the contents of a pending set.
+     *
+     * @param set the set
+     * @param <T> the type of element
+     * @return the elements removed
+     */
+    private static <T> List<T> drain(final Set<T> set) {
+        synchronized (set) {
+            if (set.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<T> ret = new ArrayList<T>(set);
+            set.clear();
+            return ret;
+        }
+    }
+
+    /**
+     * Stop drawing and forget pending updates. Called on the Swing thread.
+     */
+    void stop() {
+        timer.stop();
+        allNeurons.set(false);
+        allSynapses.set(false);
+        neurons.clear();
+        synapses.clear();
+        groups.clear();
+        drawnEpoch = epoch.get();
+        running.set(false);
+    }
+
+}
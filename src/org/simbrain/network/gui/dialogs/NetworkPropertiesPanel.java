@@ -120,6 +120,9 @@ public class NetworkPropertiesPanel extends JPanel {
     /** Nudge amount text field. */
     private JTextField nudgeAmountField = new JTextField();
 
+    /** Maximum frame rate text field. */
+    private JTextField maxFrameRateField = new JTextField();
+
     /** Network time step text field. */
     private JTextField timeStepField = new JTextField();
 
@@ -190,6 +193,8 @@ public class NetworkPropertiesPanel extends JPanel {
         nudgeAmountField.setColumns(3);
         miscPanel.addItem("Nudge Amount", nudgeAmountField);
         miscPanel.addItem("Wand radius", wandRadiusField);
+        maxFrameRateField.setColumns(3);
+        miscPanel.addItem("Max redraws per second", maxFrameRateField);
 
         // Subsampling Stuff
         miscPanel.add(new JSeparator(JSeparator.HORIZONTAL));
@@ -314,6 +319,8 @@ public class NetworkPropertiesPanel extends JPanel {
                 .getTimeStep()));
         nudgeAmountField
                 .setText(Double.toString(NetworkPanel.getNudgeAmount()));
+        maxFrameRateField.setText(Integer.toString(NetworkPanel
+                .getMaxFrameRate()));
         tfSynapseVisibilityThreshold.setText(Integer.toString(Network
                 .getSynapseVisibilityThreshold()));
         cbUseSubSampling.setSelected(NeuronGroup.isUseSubSampling());
@@ -329,6 +336,8 @@ public class NetworkPropertiesPanel extends JPanel {
                 Double.parseDouble(timeStepField.getText()));
         NetworkPanel.setNudgeAmount(Double.parseDouble(nudgeAmountField
                 .getText()));
+        NetworkPanel.setMaxFrameRate(Integer.parseInt(maxFrameRateField
+                .getText()));
         Network.setSynapseVisibilityThreshold(Integer
                 .parseInt(tfSynapseVisibilityThreshold.getText()));
         EditMode.setWandRadius(Integer.parseInt(wandRadiusField.getText()));
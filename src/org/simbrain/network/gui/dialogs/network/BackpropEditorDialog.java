@@ -22,6 +22,7 @@ import org.simbrain.network.gui.NetworkPanel;
 import org.simbrain.network.gui.trainer.IterativeControlsPanel;
 import org.simbrain.network.subnetworks.BackpropNetwork;
 import org.simbrain.network.trainers.BackpropTrainer;
+import org.simbrain.network.trainers.MatrixBackpropTrainer;
 
 /**
  * <b>BackpropDialog</b> is a dialog box for editing a Backprop network.
@@ -55,7 +56,7 @@ public class BackpropEditorDialog extends SupervisedTrainingDialog {
         setTitle("Edit Backprop Network");
 
         // Trainer tab
-        trainer = new BackpropTrainer(backprop,
+        trainer = new MatrixBackpropTrainer(backprop,
             backprop.getNeuronGroupsAsList());
         IterativeControlsPanel iterativeControls = new IterativeControlsPanel(
             networkPanel, trainer);
@@ -220,6 +220,16 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 		}
 	}
 
+	/**
+	 * Update the neuron nodes whose neurons changed since they were last
+	 * drawn. Used while the network runs.
+	 */
+	public void updateChangedNodes() {
+		for (Object object : outlinedObjects.getChildrenReference()) {
+			((NeuronNode) object).updateIfChanged();
+		}
+	}
+
 	@Override
 	public void updateConstituentNodes() {
 		for (Object object : outlinedObjects.getChildrenReference()) {
@@ -409,6 +419,22 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
             }
 		};
 		menu.add(recordingAction);
+		if (!neuronGroup.isRecording()) {
+		    Action binaryRecordingAction = new AbstractAction(
+		            "Start Binary Recording") {
+		        @Override
+		        public void actionPerformed(ActionEvent e) {
+		            SFileChooser chooser = new SFileChooser(".",
+		                    "binary recording (rec)", "rec");
+		            File theFile = chooser.showSaveDialog("Recording_"
+		                    + Utils.getTimeString() + ".rec");
+		            if (theFile != null) {
+		                neuronGroup.startBinaryRecording(theFile);
+		            }
+		        }
+		    };
+		    menu.add(binaryRecordingAction);
+		}
 
 		// Add the menu
 		return menu;
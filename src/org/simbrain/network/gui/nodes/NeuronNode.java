@@ -124,6 +124,12 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
      */
     private boolean currentTextVisibility;
 
+    /** Activation when this node was last drawn by {@link #updateIfChanged()}. */
+    private double drawnActivation = java.lang.Double.NaN;
+
+    /** Spike state when this node was last drawn by {@link #updateIfChanged()}. */
+    private boolean drawnSpike;
+
     /**
      * Create a new neuron node.
      *
@@ -178,6 +184,23 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
         updateText();
     }
 
+    /**
+     * Update the neuron view only if the activation or spike state of the
+     * model neuron changed since this method last drew it.
+     */
+    public void updateIfChanged() {
+        double activation = neuron.getActivation();
+        boolean spike = neuron.isSpike();
+        if (java.lang.Double.doubleToLongBits(activation)
+                == java.lang.Double.doubleToLongBits(drawnActivation)
+                && spike == drawnSpike) {
+            return;
+        }
+        drawnActivation = activation;
+        drawnSpike = spike;
+        update();
+    }
+
     /**
      * Determine what font to use for this neuron based in its activation level.
      * TODO: Redo by scaling the text object.
@@ -313,6 +313,22 @@ public class SubnetworkNode extends PPath.Float implements GroupNode, PropertyCh
         }
     };
 
+    /**
+     * Update the nodes of member groups whose elements changed since they
+     * were last drawn. Used while the network runs.
+     */
+    public void updateChangedNodes() {
+        for (Object object : outlinedObjects.getChildrenReference()) {
+            if (object instanceof NeuronGroupNode) {
+                ((NeuronGroupNode) object).updateChangedNodes();
+            } else if (object instanceof SynapseGroupNodeVisible) {
+                ((SynapseGroupNodeVisible) object).updateChangedNodes();
+            } else if (object instanceof GroupNode) {
+                ((GroupNode) object).updateConstituentNodes();
+            }
+        }
+    }
+
     @Override
     public void updateConstituentNodes() {
         for (Object object : outlinedObjects.getChildrenReference()) {
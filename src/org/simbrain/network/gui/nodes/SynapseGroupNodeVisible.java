@@ -91,6 +91,16 @@ public class SynapseGroupNodeVisible extends SynapseGroupNode {
 
     }
 
+    /**
+     * Update the synapse nodes whose synapses changed since they were last
+     * drawn. Used while the network runs.
+     */
+    public void updateChangedNodes() {
+        for (Object node : outlinedObjects.getChildrenReference()) {
+            ((SynapseNode) node).updateIfChanged();
+        }
+    }
+
     @Override
     public void updateConstituentNodes() {
         for (Object node : outlinedObjects.getChildrenReference()) {
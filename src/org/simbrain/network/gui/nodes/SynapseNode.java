@@ -90,6 +90,15 @@ public final class SynapseNode extends ScreenElement {
     /** Color of lines in synapse representation. */
     private static Color lineColor = Color.black;
 
+    /** Strength when this node was last drawn by {@link #updateIfChanged()}. */
+    private double drawnStrength = java.lang.Double.NaN;
+
+    /**
+     * Source spike state when this node was last drawn by
+     * {@link #updateIfChanged()}.
+     */
+    private boolean drawnSpike;
+
     /**
      * Create a new synapse node connecting a source and target neuron.
      *
@@ -195,6 +204,24 @@ public final class SynapseNode extends ScreenElement {
         }
     }
 
+    /**
+     * Update color and diameter only if the strength of the synapse or the
+     * spike state of its source changed since this method last drew it.
+     */
+    public void updateIfChanged() {
+        double strength = synapse.getStrength();
+        boolean spike = source.getNeuron().isSpike();
+        if (java.lang.Double.doubleToLongBits(strength)
+                == java.lang.Double.doubleToLongBits(drawnStrength)
+                && spike == drawnSpike) {
+            return;
+        }
+        drawnStrength = strength;
+        drawnSpike = spike;
+        updateColor();
+        updateDiameter();
+    }
+
     /**
      * Calculates the color for a weight, based on its current strength.
      * Positive values are (for example) red, negative values blue.
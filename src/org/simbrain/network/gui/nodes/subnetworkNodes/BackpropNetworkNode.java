@@ -32,7 +32,7 @@ import org.simbrain.network.gui.nodes.SubnetworkNode;
 import org.simbrain.network.gui.trainer.IterativeTrainingPanel;
 import org.simbrain.network.gui.trainer.TrainerGuiActions;
 import org.simbrain.network.subnetworks.BackpropNetwork;
-import org.simbrain.network.trainers.BackpropTrainer;
+import org.simbrain.network.trainers.MatrixBackpropTrainer;
 import org.simbrain.resource.ResourceManager;
 import org.simbrain.util.StandardDialog;
 
@@ -105,7 +105,7 @@ public class BackpropNetworkNode extends SubnetworkNode {
         public void actionPerformed(ActionEvent arg0) {
             BackpropNetwork network = (BackpropNetwork) getSubnetwork();
             IterativeTrainingPanel trainingPanel = new IterativeTrainingPanel(
-                getNetworkPanel(), new BackpropTrainer(network,
+                getNetworkPanel(), new MatrixBackpropTrainer(network,
                     network.getNeuronGroupsAsList()));
             JDialog frame = getNetworkPanel().displayPanelInWindow(
                 trainingPanel, "Trainer");
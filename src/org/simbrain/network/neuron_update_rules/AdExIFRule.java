@@ -18,11 +18,13 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
+import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.SharedParameterRule;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -37,7 +39,7 @@ import org.simbrain.util.randomizer.Randomizer;
  *
  */
 public class AdExIFRule extends SpikingNeuronUpdateRule implements
-		NoisyUpdateRule {
+		NoisyUpdateRule, SharedParameterRule {
 
     /**
      * A converter from pA to nA, since most other sims in Simbrain use
@@ -120,6 +122,9 @@ public class AdExIFRule extends SpikingNeuronUpdateRule implements
 	 */
 	private double refractoryPeriod = 1.0;
 
+	/** Row of the shared state holding the adaptation variable. */
+	private static final int ADAPTATION = 1;
+
 	@Override
 	public void update(Neuron neuron) {
 	    // Retrieve integration time constant in case it has changed...
@@ -192,6 +197,87 @@ public class AdExIFRule extends SpikingNeuronUpdateRule implements
 
 	}
 
+	@Override
+	public int getStateSize() {
+		return 2;
+	}
+
+	@Override
+	public void getState(final double[][] state, final int index) {
+		state[LAST_SPIKE_TIME][index] = getLastSpikeTime();
+		state[ADAPTATION][index] = w;
+	}
+
+	@Override
+	public void setState(final double[][] state, final int index) {
+		setLastSpikeTime(state[LAST_SPIKE_TIME][index]);
+		w = state[ADAPTATION][index];
+	}
+
+	@Override
+	public void update(final Neuron neuron, final double[][] state,
+			final int index) {
+		step(neuron, state[ADAPTATION], state[LAST_SPIKE_TIME], index,
+				neuron.getNetwork().getTimeStep(), neuron.getNetwork()
+						.getTime());
+	}
+
+	@Override
+	public void updateAll(final Neuron[] neurons, final double[][] state) {
+		if (neurons.length == 0) {
+			return;
+		}
+		final Network network = neurons[0].getNetwork();
+		final double dt = network.getTimeStep();
+		final double time = network.getTime();
+		final double[] adapt = state[ADAPTATION];
+		final double[] spikeTimes = state[LAST_SPIKE_TIME];
+		for (int i = 0; i < neurons.length; i++) {
+			if (!neurons[i].isClamped()) {
+				step(neurons[i], adapt, spikeTimes, i, dt, time);
+			}
+		}
+	}
+
+	/**
+	 * Update one neuron of a group sharing this rule.
+	 *
+	 * @param neuron the neuron
+	 * @param adapt adaptation variable of each neuron
+	 * @param spikeTimes last spike time of each neuron
+	 * @param i the index of the neuron
+	 * @param dt the time step
+	 * @param time the current time
+	 */
+	private void step(final Neuron neuron, final double[] adapt,
+			final double[] spikeTimes, final int i, final double dt,
+			final double time) {
+		final double v = neuron.getActivation();
+		double[] ei = inputType.getSeparatedInput(neuron);
+		double current = g_e_bar * ei[0] * (exReversal - v)
+				- g_i_bar * ei[1] * (inReversal - v) + i_bg;
+		if (addNoise) {
+			current += noiseGenerator.getRandom();
+		}
+		final double wi = adapt[i];
+		double vNew = v + (g_L * slopeFactor * Math.exp((v - v_Th)
+				/ slopeFactor) + g_L * (leakReversal - v) + current - wi)
+				/ memCapacitance * dt;
+		double wNew = wi + (a * (v - leakReversal) - wi) / tauW * dt;
+		boolean spike = false;
+		if (vNew >= v_Peak) {
+			vNew = v_Reset;
+			wNew += b * CURRENT_CONVERTER;
+			if (spikeTimes[i] + refractoryPeriod < time) {
+				spikeTimes[i] = time;
+				spike = true;
+			}
+		}
+		adapt[i] = wNew;
+		neuron.setSpkBuffer(spike);
+		neuron.setBuffer(vNew);
+	}
+
 	@Override
 	public AdExIFRule deepCopy() {
 		AdExIFRule cpy = new AdExIFRule();
@@ -210,6 +296,13 @@ public class AdExIFRule extends SpikingNeuronUpdateRule implements
 		cpy.v_Reset = this.v_Reset;
 		cpy.v_Th = this.v_Th;
 		cpy.w = this.w;
+		cpy.v_Peak = this.v_Peak;
+		cpy.g_e_bar = this.g_e_bar;
+		cpy.g_i_bar = this.g_i_bar;
+		cpy.exReversal = this.exReversal;
+		cpy.inReversal = this.inReversal;
+		cpy.i_bg = this.i_bg;
+		cpy.refractoryPeriod = this.refractoryPeriod;
 		return cpy;
 	}
 
@@ -18,11 +18,11 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 
 /**
  * <b>BinaryNeuron</b> takes one of two values.
@@ -80,7 +80,7 @@ public class BinaryRule extends NeuronUpdateRule {
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
+        SplitRandomStream rand = RandomStreams.current();
         return rand.nextBoolean() ? getUpperBound() : getLowerBound();
     }
 
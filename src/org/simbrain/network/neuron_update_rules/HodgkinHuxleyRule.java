@@ -22,6 +22,7 @@ import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.SharedParameterRule;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -31,7 +32,16 @@ import org.simbrain.util.randomizer.Randomizer;
  * Vickrey.
  */
 public class HodgkinHuxleyRule extends NeuronUpdateRule
-        implements NoisyUpdateRule {
+        implements NoisyUpdateRule, SharedParameterRule {
+
+    /** Row of the shared state holding the potassium activation n. */
+    private static final int N = 0;
+
+    /** Row of the shared state holding the sodium activation m. */
+    private static final int M = 1;
+
+    /** Row of the shared state holding the sodium inactivation h. */
+    private static final int H = 2;
 
     /** Sodium Channels */
     private float perNaChannels = 100f;
@@ -127,6 +137,89 @@ public class HodgkinHuxleyRule extends NeuronUpdateRule
 
     }
     
+    @Override
+    public int getStateSize() {
+        return 3;
+    }
+
+    @Override
+    public void getState(final double[][] state, final int index) {
+        state[N][index] = n;
+        state[M][index] = m;
+        state[H][index] = h;
+    }
+
+    @Override
+    public void setState(final double[][] state, final int index) {
+        n = state[N][index];
+        m = state[M][index];
+        h = state[H][index];
+    }
+
+    @Override
+    public void update(final Neuron neuron, final double[][] state,
+            final int index) {
+        final double dt = neuron.getNetwork().getTimeStep();
+        neuron.setBuffer(step(inputType.getInput(neuron), state[N],
+                state[M], state[H], index, dt));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The diagnostic currents ({@link #get_na_current()} etc.) are not
+     * updated in this mode.
+     */
+    @Override
+    public void updateAll(final Neuron[] neurons, final double[][] state) {
+        final int len = neurons.length;
+        if (len == 0) {
+            return;
+        }
+        final double dt = neurons[0].getNetwork().getTimeStep();
+        final double[] ns = state[N];
+        final double[] ms = state[M];
+        final double[] hs = state[H];
+        for (int i = 0; i < len; i++) {
+            final Neuron neuron = neurons[i];
+            if (!neuron.isClamped()) {
+                neuron.setBuffer(step(inputType.getInput(neuron), ns, ms, hs,
+                        i, dt));
+            }
+        }
+    }
+
+    /**
+     * Advance the gating variables of one neuron by one time step.
+     *
+     * @param v the input voltage
+     * @param ns n of each neuron
+     * @param ms m of each neuron
+     * @param hs h of each neuron
+     * @param i the index of the neuron
+     * @param dt the time step
+     * @return the new buffer value
+     */
+    private double step(final double v, final double[] ns, final double[] ms,
+            final double[] hs, final int i, final double dt) {
+        final double ni = ns[i];
+        final double mi = ms[i];
+        final double hi = hs[i];
+        final double bhi = 1 / (Math.exp((v + 30) / 10) + 1);
+        final double ahi = 0.07 * Math.exp(v / 20);
+        final double bmi = 4 * Math.exp(v / 18);
+        final double ami = 0.1 * (v + 25) / (Math.exp((v + 25) / 10) - 1);
+        final double bni = 0.125 * Math.exp(v / 80);
+        final double ani = 0.01 * (v + 10) / (Math.exp((v + 10) / 10) - 1);
+        final double na = gna * mi * mi * mi * hi * (v - vna);
+        final double k = gk * ni * ni * ni * ni * (v - vk);
+        final double dvi = -1 * dt * (k + na + gl * (v - vl)) / cm;
+        hs[i] = hi + (ahi * (1 - hi) - bhi * hi) * dt;
+        ms[i] = mi + (ami * (1 - mi) - bmi * mi) * dt;
+        ns[i] = ni + (ani * (1 - ni) - bni * ni) * dt;
+        return -1 * (v + dvi + resting_v);
+    }
+
     // Initializer quickly hacked from old init. Zach this is in your hands to fix! :)
      {
         cm = 1.0;
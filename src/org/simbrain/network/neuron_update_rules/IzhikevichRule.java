@@ -18,9 +18,12 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
+import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.SharedParameterRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -30,7 +33,10 @@ import org.simbrain.util.randomizer.Randomizer;
  * faster/cooler. Just a thought.
  */
 public class IzhikevichRule extends SpikingNeuronUpdateRule implements
-    NoisyUpdateRule {
+    NoisyUpdateRule, SharedParameterRule {
+
+    /** Row of the shared state holding the recovery variable. */
+    private static final int RECOVERY = 1;
 
     /** Recovery. */
     private double recovery;
@@ -85,6 +91,8 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
         in.setiBg(getiBg());
         in.setAddNoise(getAddNoise());
         in.noiseGenerator = new Randomizer(noiseGenerator);
+        in.setThreshold(getThreshold());
+        in.setRefractoryPeriod(getRefractoryPeriod());
         return in;
     }
     /**
@@ -120,6 +128,80 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
         neuron.setBuffer(val);
     }
 
+    @Override
+    public int getStateSize() {
+        return 2;
+    }
+
+    @Override
+    public void getState(final double[][] state, final int index) {
+        state[LAST_SPIKE_TIME][index] = getLastSpikeTime();
+        state[RECOVERY][index] = recovery;
+    }
+
+    @Override
+    public void setState(final double[][] state, final int index) {
+        setLastSpikeTime(state[LAST_SPIKE_TIME][index]);
+        recovery = state[RECOVERY][index];
+    }
+
+    @Override
+    public void update(final Neuron neuron, final double[][] state,
+            final int index) {
+        step(neuron, state[RECOVERY], state[LAST_SPIKE_TIME], index,
+                neuron.getNetwork().getTimeStep(), neuron.getNetwork()
+                        .getTime());
+    }
+
+    @Override
+    public void updateAll(final Neuron[] neurons, final double[][] state) {
+        if (neurons.length == 0) {
+            return;
+        }
+        final Network network = neurons[0].getNetwork();
+        final double dt = network.getTimeStep();
+        final double time = network.getTime();
+        final double[] recov = state[RECOVERY];
+        final double[] spikeTimes = state[LAST_SPIKE_TIME];
+        for (int i = 0; i < neurons.length; i++) {
+            if (!neurons[i].isClamped()) {
+                step(neurons[i], recov, spikeTimes, i, dt, time);
+            }
+        }
+    }
+
+    /**
+     * Update one neuron of a group sharing this rule.
+     *
+     * @param neuron the neuron
+     * @param recov recovery variable of each neuron
+     * @param spikeTimes last spike time of each neuron
+     * @param i the index of the neuron
+     * @param dt the time step
+     * @param time the current time
+     */
+    private void step(final Neuron neuron, final double[] recov,
+            final double[] spikeTimes, final int i, final double dt,
+            final double time) {
+        double in = inputType.getInput(neuron) + iBg;
+        if (addNoise) {
+            in += noiseGenerator.getRandom();
+        }
+        final double v = neuron.getActivation();
+        double u = recov[i] + dt * (a * (b * v - recov[i]));
+        double vNew = v + dt * (.04 * v * v + 5 * v + 140 - u + in);
+        if (vNew >= threshold) {
+            vNew = c;
+            u += d;
+            spikeTimes[i] = time;
+            neuron.setSpkBuffer(true);
+        } else {
+            neuron.setSpkBuffer(false);
+        }
+        recov[i] = u;
+        neuron.setBuffer(vNew);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -127,7 +209,7 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
     public double getRandomValue() {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - c) * Math.random() + c;
+        return 2 * (threshold - c) * RandomStreams.current().nextDouble() + c;
     }
 
     /**
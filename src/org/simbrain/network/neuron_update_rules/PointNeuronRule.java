@@ -19,7 +19,6 @@
 package org.simbrain.network.neuron_update_rules;
 
 import java.util.ArrayList;
-import java.util.Random;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
@@ -29,7 +28,9 @@ import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
 
 /**
  * <b>PointNeuron</b> from O'Reilley and Munakata, Computational Explorations in
@@ -340,7 +341,7 @@ public class PointNeuronRule extends NeuronUpdateRule implements
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
+        SplitRandomStream rand = RandomStreams.current();
         if (outputFunction == OutputFunction.DISCRETE_SPIKING) {
             return rand.nextBoolean() ? 1.0 : 0.0;
         } else if (outputFunction == OutputFunction.RATE_CODE) {
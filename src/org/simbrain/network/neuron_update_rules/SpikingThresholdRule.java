@@ -18,11 +18,11 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -69,7 +69,7 @@ public class SpikingThresholdRule extends SpikingNeuronUpdateRule implements
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
+        SplitRandomStream rand = RandomStreams.current();
         return rand.nextBoolean() ? 1 : 0;
     }
 
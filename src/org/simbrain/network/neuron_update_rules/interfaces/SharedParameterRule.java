@@ -0,0 +1,82 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.neuron_update_rules.interfaces;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * An interface for neuron update rules which can be shared by all the neurons
+ * of a neuron group (see
+ * {@link org.simbrain.network.groups.NeuronGroup#setSharedRule}). A shared
+ * rule object holds the parameters of the whole group, and the variables
+ * which normally live in the rule object of each neuron (e.g. the recovery
+ * variable of an Izhikevich neuron) are held by the group in primitive
+ * arrays, one row per variable and one column per neuron.
+ * <p>
+ * For spiking rules row {@link #LAST_SPIKE_TIME} holds the time of the last
+ * spike of each neuron.
+ */
+public interface SharedParameterRule {
+
+    /** Row of the state of a spiking rule holding last spike times. */
+    int LAST_SPIKE_TIME = 0;
+
+    /**
+     * @return the number of per-neuron state variables, including the last
+     *         spike time for spiking rules
+     */
+    int getStateSize();
+
+    /**
+     * Copy the per-neuron variables held by this rule object into a column
+     * of a state array.
+     *
+     * @param state the state, with {@link #getStateSize()} rows
+     * @param index the column to write
+     */
+    void getState(double[][] state, int index);
+
+    /**
+     * Set the per-neuron variables held by this rule object from a column of
+     * a state array.
+     *
+     * @param state the state, with {@link #getStateSize()} rows
+     * @param index the column to read
+     */
+    void setState(double[][] state, int index);
+
+    /**
+     * Update one neuron, using a column of a state array in place of the
+     * variables held by this rule object.
+     *
+     * @param neuron the neuron to update
+     * @param state the state of the group
+     * @param index the column of the neuron
+     */
+    void update(Neuron neuron, double[][] state, int index);
+
+    /**
+     * Update a group of neurons in one loop. Clamped neurons are skipped.
+     *
+     * @param neurons the neurons, in column order
+     * @param state the state of the group
+     */
+    void updateAll(Neuron[] neurons, double[][] state);
+
+}
@@ -34,6 +34,7 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
 import org.simbrain.network.neuron_update_rules.SigmoidalRule;
 import org.simbrain.network.trainers.LMSOffline;
+import org.simbrain.network.trainers.StreamingReadoutTrainer;
 import org.simbrain.network.trainers.Trainable;
 import org.simbrain.network.trainers.Trainer;
 import org.simbrain.network.trainers.TrainerListener;
@@ -214,8 +215,7 @@ public class EchoStateNetwork extends Subnetwork {
         addNeuronGroup(neuronGroup);
         addSynapseGroup(synapseGroup);
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        SimnetUtils.scaleSpectralRadius(synapseGroup, spectralRadius);
     }
 
     /**
@@ -278,8 +278,9 @@ public class EchoStateNetwork extends Subnetwork {
         Sparse outToRes) {
 
         addSynapseGroup(connectNeuronGroups(inputLayer, reservoirLayer, inToRes));
-        addSynapseGroup(connectNeuronGroups(reservoirLayer, reservoirLayer,
-            resRecurrent));
+        SynapseGroup recurrent = connectNeuronGroups(reservoirLayer,
+            reservoirLayer, resRecurrent);
+        addSynapseGroup(recurrent);
 
         if (backWeights) {
             addSynapseGroup(connectNeuronGroups(outputLayer, reservoirLayer,
@@ -303,8 +304,7 @@ public class EchoStateNetwork extends Subnetwork {
         }
 
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        SimnetUtils.scaleSpectralRadius(recurrent, spectralRadius);
 
     }
 
@@ -339,27 +339,8 @@ public class EchoStateNetwork extends Subnetwork {
      */
     public Trainer getTrainer() {
 
-        // Exception if training data is not set properly at this point
-        if (targetData[0].length != outputLayer.getNeuronList().size()) {
-            throw new IllegalArgumentException("Output data length does not "
-                + "match the number of output nodes");
-        }
-
-        // Build the network to be used in state harvesting
-        final ArrayList<Neuron> full = new ArrayList<Neuron>();
-        if (directInOutWeights) {
-            for (Neuron node : getInputLayer().getNeuronList()) {
-                full.add(node);
-            }
-        }
-        for (Neuron node : reservoirLayer.getNeuronList()) {
-            full.add(node);
-        }
-        if (recurrentOutWeights) {
-            for (Neuron node : this.getOutputLayer().getNeuronList()) {
-                full.add(node);
-            }
-        }
+        checkTargetData();
+        final ArrayList<Neuron> full = getStateNeurons();
 
         // Handle non-linearities in the outputs.
         // If output layer neurons are sigmoidal, transform the desired
@@ -388,8 +369,84 @@ public class EchoStateNetwork extends Subnetwork {
         trainingSet.setInputData(harvestedData);
         trainingSet.setTargetData(targetData);
 
-        // Make Trainable object
-        Trainable trainable = new Trainable() {
+        // Create the offline trainer.
+        LMSOffline trainer = new LMSOffline(createTrainable(full,
+            trainingSet));
+        return trainer;
+
+    }
+
+    /**
+     * Return a trainer which trains the readout while the reservoir is
+     * harvested, without storing the harvested states. Memory use depends on
+     * the size of the reservoir but not on the length of the input data.
+     * Unlike {@link #getTrainer()} the target data is not modified; the
+     * trainer applies the inverse of sigmoidal outputs to each row.
+     *
+     * @return the trainer
+     */
+    public StreamingReadoutTrainer getStreamingTrainer() {
+        checkTargetData();
+        final TrainingSet trainingSet = new TrainingSet();
+        trainingSet.setTargetData(targetData);
+        return new StreamingReadoutTrainer(createTrainable(getStateNeurons(),
+            trainingSet), new StreamingReadoutTrainer.Harvester() {
+                @Override
+                public void harvest(final StreamingReadoutTrainer trainer) {
+                    EchoStateNetwork.this.harvest(new StateSink() {
+                        @Override
+                        public void accept(int row, double[] state) {
+                            trainer.addSample(state, targetData[row]);
+                        }
+                    });
+                }
+            });
+    }
+
+    /**
+     * Exception if training data is not set properly.
+     */
+    private void checkTargetData() {
+        if (targetData[0].length != outputLayer.getNeuronList().size()) {
+            throw new IllegalArgumentException("Output data length does not "
+                + "match the number of output nodes");
+        }
+    }
+
+    /**
+     * Collect the neurons whose states are harvested, in the order of the
+     * harvested columns.
+     *
+     * @return the neurons the readout weights connect from
+     */
+    private ArrayList<Neuron> getStateNeurons() {
+        final ArrayList<Neuron> full = new ArrayList<Neuron>();
+        if (directInOutWeights) {
+            for (Neuron node : getInputLayer().getNeuronList()) {
+                full.add(node);
+            }
+        }
+        for (Neuron node : reservoirLayer.getNeuronList()) {
+            full.add(node);
+        }
+        if (recurrentOutWeights) {
+            for (Neuron node : this.getOutputLayer().getNeuronList()) {
+                full.add(node);
+            }
+        }
+        return full;
+    }
+
+    /**
+     * Make the trainable object for the readout.
+     *
+     * @param full the neurons whose states are harvested
+     * @param trainingSet the training set
+     * @return the trainable
+     */
+    private Trainable createTrainable(final List<Neuron> full,
+        final TrainingSet trainingSet) {
+        return new Trainable() {
 
             @Override
             public List<Neuron> getInputNeurons() {
@@ -416,23 +473,50 @@ public class EchoStateNetwork extends Subnetwork {
             }
 
         };
-        // Create the offline trainer.
-        LMSOffline trainer = new LMSOffline(trainable);
-        return trainer;
+    }
 
+    /**
+     * Receives the rows of harvested state data.
+     */
+    private interface StateSink {
+
+        /**
+         * Take a harvested row. The array is reused for the next row.
+         *
+         * @param row the row of input data
+         * @param state the harvested states
+         */
+        void accept(int row, double[] state);
     }
 
     /**
      * A general method for harvesting state data for an arbitrary Echo-State
-     * Network. This method iterates through each row of input and teacher data
-     * (if the network possesses back weights and/or recurrent output weights),
-     * and updates the reservoir. Depending on the ESN's un-frozen connectivity
-     * the resulting return matrix will have rows consisting of concatenated
-     * input, reservoir, and (teacher-forced) output states in that order.
+     * Network. See {@link #harvest(StateSink)}.
      *
      * @return a matrix of data to be used for training
      */
     private double[][] harvestData() {
+        final double[][] returnMatrix = new double[inputData.length][];
+        harvest(new StateSink() {
+            @Override
+            public void accept(int row, double[] state) {
+                returnMatrix[row] = state.clone();
+            }
+        });
+        return returnMatrix;
+    }
+
+    /**
+     * Harvest state data, one row at a time. This method iterates through
+     * each row of input and teacher data (if the network possesses back
+     * weights and/or recurrent output weights), and updates the reservoir.
+     * Depending on the ESN's un-frozen connectivity the harvested rows will
+     * consist of concatenated input, reservoir, and (teacher-forced) output
+     * states in that order.
+     *
+     * @param sink receives the harvested rows
+     */
+    private void harvest(final StateSink sink) {
 
         // The minimum number of state matrix columns
         int columnNumber = numResNodes;
@@ -446,8 +530,8 @@ public class EchoStateNetwork extends Subnetwork {
             columnNumber += numOutputs;
         }
 
-        // State matrix
-        double[][] returnMatrix = new double[inputData.length][columnNumber];
+        // Current row of the state matrix
+        double[] state = new double[columnNumber];
 
         boolean harvest = false;
 
@@ -463,11 +547,11 @@ public class EchoStateNetwork extends Subnetwork {
                 // Clamp input neurons based on input data
                 for (Neuron neuron : getInputLayer().getNeuronList()) {
                     double clampValue = inputData[row][col];
-                    neuron.setActivation(clampValue);
+                    neuron.forceSetActivation(clampValue);
                     if (directInOutWeights && harvest) {
                         // Add input states to state matrix if direct in to out
                         // connections are desired
-                        returnMatrix[row][col] = neuron.getActivation();
+                        state[col] = neuron.getActivation();
                         col++;
                     }
 
@@ -500,7 +584,7 @@ public class EchoStateNetwork extends Subnetwork {
                     }
 
                     if (harvest) {
-                        returnMatrix[row][col] = n.getActivation();
+                        state[col] = n.getActivation();
                     }
                     col++;
                 }
@@ -510,15 +594,17 @@ public class EchoStateNetwork extends Subnetwork {
                 if (recurrentOutWeights && harvest) {
                     for (int i = 0; i < targetData[0].length; i++) {
                         // Teacher-forcing
-                        returnMatrix[row][col] = targetData[row][i];
+                        state[col] = targetData[row][i];
                         col++;
                     }
                 }
+
+                if (harvest) {
+                    sink.accept(row, state);
+                }
             }
             harvest = true;
         }
-
-        return returnMatrix;
     }
 
     /**
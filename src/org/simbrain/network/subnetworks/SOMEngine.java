@@ -0,0 +1,638 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.subnetworks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+
+/**
+ * Array-based engine behind {@link SOMGroup}. The incoming weights of the map
+ * are kept as a contiguous row-major codebook (one row per SOM neuron, one
+ * column per input neuron), the best matching unit is found by a partial
+ * distance search that is split over the common fork-join pool for large
+ * maps, and the neighborhood of a unit is read from a grid index of the
+ * neuron positions (e.g. as laid out by a hexagonal grid layout) instead of
+ * by measuring the distance to every neuron.
+ * <p>
+ * The engine describes a map whose neurons all receive one synapse from each
+ * of the same input neurons, none of which is in the map. {@link #create(List)} returns null for other
+ * maps, which are updated neuron by neuron instead.
+ */
+final class SOMEngine {
+
+    /**
+     * Distance computations (units times inputs) below which a search is not
+     * split into parallel tasks.
+     */
+    private static final long TASK_WORK = 1 << 18;
+
+    /** Number of inputs summed between checks against the best distance. */
+    private static final int CHECK_BLOCK = 16;
+
+    /** The SOM neurons. */
+    private final Neuron[] units;
+
+    /** The input neurons, in codebook column order. */
+    private final Neuron[] sources;
+
+    /** Synapses, row-major by unit then input. */
+    private final Synapse[] synapses;
+
+    /** Codebook, row-major by unit then input. */
+    private final double[] weights;
+
+    /** Lowest strength each synapse can be set to. */
+    private final double[] lower;
+
+    /** Highest strength each synapse can be set to. */
+    private final double[] upper;
+
+    /** X positions of the units when the engine was made. */
+    private final double[] x;
+
+    /** Y positions of the units when the engine was made. */
+    private final double[] y;
+
+    /** Left edge of the grid index. */
+    private final double minX;
+
+    /** Bottom edge of the grid index. */
+    private final double minY;
+
+    /** Side of a grid cell. */
+    private final double cellSize;
+
+    /** Columns of grid cells. */
+    private final int cols;
+
+    /** Rows of grid cells. */
+    private final int rows;
+
+    /** Start of each cell in {@link #cellUnits}, plus one end offset. */
+    private final int[] cellStart;
+
+    /** Unit indices sorted by cell. */
+    private final int[] cellUnits;
+
+    /** Current input vector. */
+    private final double[] input;
+
+    /** Scratch list of neighbors. */
+    private final int[] neighbors;
+
+    /**
+     * Make an engine from the neurons and synapses of a map.
+     *
+     * @param units the SOM neurons
+     * @param sources the input neurons
+     * @param synapses the synapses, row-major by unit then input
+     */
+    private SOMEngine(final Neuron[] units, final Neuron[] sources,
+            final Synapse[] synapses) {
+        this.units = units;
+        this.sources = sources;
+        this.synapses = synapses;
+        int n = units.length;
+        int d = sources.length;
+        weights = new double[n * d];
+        lower = new double[n * d];
+        upper = new double[n * d];
+        input = new double[d];
+        neighbors = new int[n];
+
+        x = new double[n];
+        y = new double[n];
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            x[i] = units[i].getX();
+            y[i] = units[i].getY();
+            lowX = Math.min(lowX, x[i]);
+            lowY = Math.min(lowY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        minX = lowX;
+        minY = lowY;
+
+        // Cells of about one neuron each, at most 4n cells in all
+        double width = maxX - minX;
+        double height = maxY - minY;
+        double side = Math.sqrt(width * height / n);
+        side = Math.max(side, Math.max(width, height) / (2 * n));
+        cellSize = side > 0 ? side : 1;
+        cols = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+        cellStart = new int[cols * rows + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = cellX(x[i]) + cellY(y[i]) * cols;
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cols * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellUnits = new int[n];
+        int[] fill = new int[cols * rows];
+        for (int i = 0; i < n; i++) {
+            cellUnits[cellStart[cellOf[i]] + fill[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * Make an engine for a map, if every neuron of the map has exactly one
+     * synapse from each of the same input neurons.
+     *
+     * @param neurons the SOM neurons
+     * @return the engine, or null if the map doesn't have that form
+     */
+    static SOMEngine create(final List<Neuron> neurons) {
+        int n = neurons.size();
+        if (n == 0) {
+            return null;
+        }
+        List<Synapse> first = neurons.get(0).getFanIn();
+        int d = first.size();
+        if (d == 0) {
+            return null;
+        }
+        Neuron[] sources = new Neuron[d];
+        Map<Neuron, Integer> column = new IdentityHashMap<Neuron, Integer>();
+        for (int k = 0; k < d; k++) {
+            sources[k] = first.get(k).getSource();
+            if (column.put(sources[k], k) != null) {
+                return null;
+            }
+        }
+        Neuron[] units = neurons.toArray(new Neuron[n]);
+        for (int i = 0; i < n; i++) {
+            if (column.containsKey(units[i])) {
+                return null;
+            }
+        }
+        Synapse[] synapses = new Synapse[n * d];
+        for (int i = 0; i < n; i++) {
+            List<Synapse> fanIn = units[i].getFanIn();
+            if (fanIn.size() != d) {
+                return null;
+            }
+            for (int k = 0; k < d; k++) {
+                Synapse s = fanIn.get(k);
+                Integer col = column.get(s.getSource());
+                if (col == null || synapses[i * d + col] != null) {
+                    return null;
+                }
+                synapses[i * d + col] = s;
+            }
+        }
+        return new SOMEngine(units, sources, synapses);
+    }
+
+    /**
+     * Check that the map still has the neurons, connectivity and positions
+     * this engine was made from. Synapses replaced one for one are not
+     * noticed.
+     *
+     * @param neurons the SOM neurons
+     * @return whether the engine can still be used
+     */
+    boolean isValid(final List<Neuron> neurons) {
+        if (neurons.size() != units.length) {
+            return false;
+        }
+        int d = sources.length;
+        for (int i = 0; i < units.length; i++) {
+            Neuron unit = units[i];
+            if (neurons.get(i) != unit || unit.getFanIn().size() != d
+                    || unit.getX() != x[i] || unit.getY() != y[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the input neurons, in codebook column order
+     */
+    Neuron[] getSources() {
+        return sources;
+    }
+
+    /**
+     * Copy the synapse strengths and bounds into the codebook.
+     */
+    void load() {
+        for (int k = 0; k < synapses.length; k++) {
+            Synapse s = synapses[k];
+            weights[k] = s.getStrength();
+            if (s.isFrozen()) {
+                lower[k] = weights[k];
+                upper[k] = weights[k];
+            } else {
+                // Clipping is monotone, so it clamps to these bounds
+                lower[k] = s.clip(s.getSource().getPolarity()
+                        .clip(-Double.MAX_VALUE));
+                upper[k] = s.clip(s.getSource().getPolarity()
+                        .clip(Double.MAX_VALUE));
+            }
+        }
+    }
+
+    /**
+     * Write the codebook back to the synapses.
+     */
+    void store() {
+        for (int k = 0; k < synapses.length; k++) {
+            if (!synapses[k].isFrozen()) {
+                synapses[k].forceSetStrength(weights[k]);
+            }
+        }
+    }
+
+    /**
+     * Do one online update from the current activations of the input
+     * neurons, reading and writing the synapses directly: find the unit
+     * whose weights are closest to the input and move the weights of every
+     * unit within the radius of it toward the input.
+     *
+     * @param alpha the learning rate
+     * @param radius the neighborhood size
+     * @return the index of the winning unit, or -1 if there is none
+     */
+    int updateLive(final double alpha, final double radius) {
+        for (int k = 0; k < sources.length; k++) {
+            input[k] = sources[k].getActivation();
+        }
+        int winner = findWinner(input, 0, true);
+        if (winner < 0) {
+            return winner;
+        }
+        int d = sources.length;
+        int count = findNeighbors(winner, radius, neighbors);
+        for (int j = 0; j < count; j++) {
+            int off = neighbors[j] * d;
+            for (int k = 0; k < d; k++) {
+                Synapse s = synapses[off + k];
+                double w = s.getStrength();
+                s.setStrength(w + alpha * (input[k] - w));
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Do one online update of the codebook. Call {@link #load()} first and
+     * {@link #store()} when done.
+     *
+     * @param data input vectors in codebook column order, row-major
+     * @param off offset of the input vector in data
+     * @param alpha the learning rate
+     * @param radius the neighborhood size
+     * @return the index of the winning unit, or -1 if there is none
+     */
+    int step(final double[] data, final int off, final double alpha,
+            final double radius) {
+        int winner = findWinner(data, off, false);
+        if (winner < 0) {
+            return winner;
+        }
+        int d = sources.length;
+        int count = findNeighbors(winner, radius, neighbors);
+        for (int j = 0; j < count; j++) {
+            int row = neighbors[j] * d;
+            for (int k = 0; k < d; k++) {
+                double w = weights[row + k];
+                weights[row + k] = clamp(w + alpha * (data[off + k] - w),
+                        row + k);
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * Do one epoch of the batch SOM algorithm: find the winner of every
+     * input vector with the codebook fixed, then set each unit's weights to
+     * the mean of the input vectors won by units within the radius of it.
+     * Units with no such inputs keep their weights. Call {@link #load()}
+     * first and {@link #store()} when done.
+     *
+     * @param data input vectors in codebook column order, row-major
+     * @param count the number of input vectors
+     * @param radius the neighborhood size
+     */
+    void batchEpoch(final double[] data, final int count,
+            final double radius) {
+        final int n = units.length;
+        final int d = sources.length;
+
+        // Winners, in parallel over chunks of rows
+        final int[] winners = new int[count];
+        int chunk = (int) Math.max(1, TASK_WORK / ((long) n * d));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < count; start += chunk) {
+            final int from = start;
+            final int to = Math.min(count, start + chunk);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int r = from; r < to; r++) {
+                        winners[r] = searchRange(data, r * d, 0, n, false)
+                                .index;
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+
+        // Sum of the input vectors won by each unit
+        final double[] sums = new double[n * d];
+        final int[] wins = new int[n];
+        for (int r = 0; r < count; r++) {
+            int unit = winners[r];
+            if (unit < 0) {
+                continue;
+            }
+            wins[unit]++;
+            for (int k = 0, row = unit * d, off = r * d; k < d; k++) {
+                sums[row + k] += data[off + k];
+            }
+        }
+
+        // New weights, in parallel over chunks of units. The new codebook is
+        // written to a copy so all units see the same winners.
+        final double[] next = weights.clone();
+        tasks.clear();
+        int parts = 4 * ForkJoinPool.getCommonPoolParallelism();
+        int unitChunk = Math.max(1, (n + parts - 1) / parts);
+        for (int start = 0; start < n; start += unitChunk) {
+            final int from = start;
+            final int to = Math.min(n, start + unitChunk);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int[] near = new int[n];
+                    double[] mean = new double[d];
+                    for (int i = from; i < to; i++) {
+                        int found = findNeighbors(i, radius, near);
+                        int total = 0;
+                        Arrays.fill(mean, 0);
+                        for (int j = 0; j < found; j++) {
+                            int unit = near[j];
+                            if (wins[unit] == 0) {
+                                continue;
+                            }
+                            total += wins[unit];
+                            for (int k = 0, row = unit * d; k < d; k++) {
+                                mean[k] += sums[row + k];
+                            }
+                        }
+                        if (total == 0) {
+                            continue;
+                        }
+                        for (int k = 0, row = i * d; k < d; k++) {
+                            next[row + k] = clamp(mean[k] / total, row + k);
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        System.arraycopy(next, 0, weights, 0, next.length);
+    }
+
+    /**
+     * Find the unit whose weights are closest to an input vector.
+     *
+     * @param data the input vector
+     * @param off offset of the input vector in data
+     * @param refresh whether to read the weights from the synapses first
+     * @return the index of the unit, or -1 if no distance is finite
+     */
+    int findWinner(final double[] data, final int off,
+            final boolean refresh) {
+        final int n = units.length;
+        final int d = sources.length;
+        long work = (long) n * d;
+        int parts = (int) Math.min(n,
+                Math.min(work / TASK_WORK,
+                        ForkJoinPool.getCommonPoolParallelism()));
+        if (parts <= 1) {
+            return searchRange(data, off, 0, n, refresh).index;
+        }
+        final Match[] matches = new Match[parts];
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int p = 0; p < parts; p++) {
+            final int part = p;
+            final int from = (int) ((long) n * p / parts);
+            final int to = (int) ((long) n * (p + 1) / parts);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    matches[part] = searchRange(data, off, from, to, refresh);
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        // Ties go to the lowest index, as in a serial search
+        Match best = matches[0];
+        for (int p = 1; p < parts; p++) {
+            if (matches[p].distance < best.distance) {
+                best = matches[p];
+            }
+        }
+        return best.index;
+    }
+
+    /**
+     * Search a range of units for the one closest to an input vector. The
+     * sum for a unit is abandoned once it reaches the best distance so far.
+     *
+     * @param data the input vector
+     * @param off offset of the input vector in data
+     * @param from first unit to search
+     * @param to end of the units to search
+     * @param refresh whether to read the weights from the synapses first
+     * @return the closest unit and its squared distance
+     */
+    private Match searchRange(final double[] data, final int off,
+            final int from, final int to, final boolean refresh) {
+        final int d = sources.length;
+        final double[] w = weights;
+        if (refresh) {
+            for (int k = from * d, end = to * d; k < end; k++) {
+                w[k] = synapses[k].getStrength();
+            }
+        }
+        Match ret = new Match();
+        for (int i = from; i < to; i++) {
+            int row = i * d;
+            double sum = 0;
+            for (int k = 0; k < d && sum < ret.distance; ) {
+                for (int end = Math.min(d, k + CHECK_BLOCK); k < end; k++) {
+                    double diff = w[row + k] - data[off + k];
+                    sum += diff * diff;
+                }
+            }
+            if (sum < ret.distance) {
+                ret.distance = sum;
+                ret.index = i;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Find the units within a distance of a unit, by their positions.
+     *
+     * @param center the unit at the center of the neighborhood
+     * @param radius the neighborhood size
+     * @param out receives the indices of the units found
+     * @return the number of units found
+     */
+    int findNeighbors(final int center, final double radius,
+            final int[] out) {
+        if (!(radius >= 0)) {
+            return 0;
+        }
+        double cx = x[center];
+        double cy = y[center];
+        int fromCol = cellX(cx - radius);
+        int toCol = cellX(cx + radius);
+        int fromRow = cellY(cy - radius);
+        int toRow = cellY(cy + radius);
+        int count = 0;
+        for (int r = fromRow; r <= toRow; r++) {
+            for (int c = fromCol; c <= toCol; c++) {
+                int cell = c + r * cols;
+                for (int j = cellStart[cell], end = cellStart[cell + 1];
+                        j < end; j++) {
+                    int unit = cellUnits[j];
+                    double dx = cx - x[unit];
+                    double dy = cy - y[unit];
+                    if (Math.sqrt(dx * dx + dy * dy) <= radius) {
+                        out[count++] = unit;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Set the activations of the units, one for the winner and zero for the
+     * rest.
+     *
+     * @param winner index of the winning unit, or -1
+     */
+    void setWinner(final int winner) {
+        for (int i = 0; i < units.length; i++) {
+            units[i].setActivation(i == winner ? 1 : 0);
+        }
+    }
+
+    /**
+     * @param px an x position
+     * @return the grid column of the position, clamped to the grid
+     */
+    private int cellX(final double px) {
+        double c = Math.floor((px - minX) / cellSize);
+        return (int) Math.max(0, Math.min(cols - 1, c));
+    }
+
+    /**
+     * @param py a y position
+     * @return the grid row of the position, clamped to the grid
+     */
+    private int cellY(final double py) {
+        double r = Math.floor((py - minY) / cellSize);
+        return (int) Math.max(0, Math.min(rows - 1, r));
+    }
+
+    /**
+     * Clamp a new weight to the bounds of its synapse.
+     *
+     * @param value the new weight
+     * @param k index of the synapse
+     * @return the clamped weight
+     */
+    private double clamp(final double value, final int k) {
+        return value > upper[k] ? upper[k] : value < lower[k] ? lower[k]
+                : value;
+    }
+
+    /**
+     * Run tasks on the common pool, or on this thread if there is only one.
+     *
+     * @param tasks the tasks
+     */
+    private static void run(final List<Callable<Void>> tasks) {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+        List<Future<Void>> results = ForkJoinPool.commonPool().invokeAll(
+                tasks);
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Result of a search for the closest unit.
+     */
+    private static final class Match {
+
+        /** Index of the closest unit, or -1. */
+        private int index = -1;
+
+        /** Squared distance of the closest unit. */
+        private double distance = Double.POSITIVE_INFINITY;
+    }
+
+}
@@ -19,7 +19,9 @@
 package org.simbrain.network.subnetworks;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
@@ -28,6 +30,7 @@ import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.layouts.HexagonalGridLayout;
 import org.simbrain.network.layouts.Layout;
 import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>SOM</b> implements a Self-Organizing Map network.
@@ -89,6 +92,12 @@ public class SOMGroup extends NeuronGroup {
     /** The amount that the neighborhood decrements. */
     private double neighborhoodDecayAmount = DEFAULT_NEIGHBORHOOD_DECAY_AMOUNT;
 
+    /**
+     * Array-based engine used to update the map, or null if it must be
+     * rebuilt.
+     */
+    private SOMEngine engine;
+
     /**
      * Default layout for neuron groups. Used to set layout defaults in SOM
      * Creation dialog. Overrides superclass DEFAULT_LAYOUT.
@@ -147,7 +156,8 @@ public class SOMGroup extends NeuronGroup {
         for (Neuron n : getNeuronList()) {
             for (Synapse s : n.getFanIn()) {
                 s.setLowerBound(0);
-                s.setStrength(s.getUpperBound() * Math.random());
+                s.setStrength(s.getUpperBound()
+                        * RandomStreams.current().nextDouble());
             }
         }
     }
@@ -198,6 +208,13 @@ public class SOMGroup extends NeuronGroup {
     @Override
     public void update() {
 
+        SOMEngine fast = getEngine();
+        if (fast != null) {
+            fast.setWinner(fast.updateLive(alpha, neighborhoodSize));
+            decay();
+            return;
+        }
+
         winDistance = Double.POSITIVE_INFINITY;
         // winner = 0;
         double physicalDistance;
@@ -232,7 +249,13 @@ public class SOMGroup extends NeuronGroup {
             }
         }
 
-        // Update alpha and neighborhood size
+        decay();
+    }
+
+    /**
+     * Update alpha and neighborhood size.
+     */
+    private void decay() {
         alpha = (alpha - alphaDecayRate * alpha);
         if (neighborhoodSize - neighborhoodDecayAmount > 0) {
             neighborhoodSize -= neighborhoodDecayAmount;
@@ -241,6 +264,88 @@ public class SOMGroup extends NeuronGroup {
         }
     }
 
+    /**
+     * Train the map on a data set in one call, without updating neurons and
+     * synapses between rows. Online training gives the same weights as
+     * setting the inputs to each row in turn and calling {@link #update()}.
+     * Batch training does one epoch of the batch SOM algorithm: every row is
+     * matched against the same weights, each neuron's weights are replaced
+     * by the mean of the rows won within its neighborhood, and alpha and the
+     * neighborhood size decay once. Afterwards the winner for the last row is
+     * active.
+     * <p>
+     * This needs every neuron in the map to be connected to every input
+     * neuron.
+     *
+     * @param inputs the input neurons, in the order of the data columns
+     * @param data the rows to train on
+     * @param batch whether to do batch training instead of online training
+     * @return false if the map is not connected so that this can be used
+     */
+    public boolean train(final List<Neuron> inputs, final double[][] data,
+            final boolean batch) {
+        SOMEngine fast = getEngine();
+        if (fast == null || data.length == 0) {
+            return false;
+        }
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+        for (int i = 0, n = inputs.size(); i < n; i++) {
+            index.put(inputs.get(i), i);
+        }
+        Neuron[] sources = fast.getSources();
+        int d = sources.length;
+        int[] column = new int[d];
+        for (int k = 0; k < d; k++) {
+            Integer col = index.get(sources[k]);
+            if (col == null) {
+                return false;
+            }
+            column[k] = col;
+        }
+        double[] rows = new double[data.length * d];
+        for (int r = 0; r < data.length; r++) {
+            if (data[r].length != inputs.size()) {
+                throw new IllegalArgumentException("Row " + r + " has "
+                        + data[r].length + " values but there are "
+                        + inputs.size() + " inputs");
+            }
+            for (int k = 0; k < d; k++) {
+                rows[r * d + k] = data[r][column[k]];
+            }
+        }
+
+        fast.load();
+        int winner;
+        if (batch) {
+            fast.batchEpoch(rows, data.length, neighborhoodSize);
+            decay();
+            winner = fast.findWinner(rows, (data.length - 1) * d, false);
+        } else {
+            winner = -1;
+            for (int r = 0; r < data.length; r++) {
+                winner = fast.step(rows, r * d, alpha, neighborhoodSize);
+                decay();
+            }
+        }
+        fast.store();
+        fast.setWinner(winner);
+        return true;
+    }
+
+    /**
+     * Return the engine for this map, rebuilding it if the neurons, their
+     * connections or their positions have changed.
+     *
+     * @return the engine, or null if the map is not fully connected to a
+     *         single set of inputs
+     */
+    private SOMEngine getEngine() {
+        if (engine == null || !engine.isValid(getNeuronList())) {
+            engine = SOMEngine.create(getNeuronList());
+        }
+        return engine;
+    }
+
     /**
      * Find the SOM neuron which is closest to the input vector.
      *
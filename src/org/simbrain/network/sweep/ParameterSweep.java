@@ -0,0 +1,512 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.sweep;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+import org.simbrain.network.util.io_utilities.NetworkArchive;
+import org.simbrain.network.util.io_utilities.NetworkArchiveWriter;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
+
+/**
+ * Runs a network for every combination of the values of some parameters,
+ * each combination a number of times with different seeds, and collects
+ * metrics of the runs in one table. For example
+ *
+ * <pre>
+ * ParameterSweep sweep = new ParameterSweep(network);
+ * sweep.addParameter(SweepParameter.neuronRule("a", 0.02, 0.1));
+ * sweep.addParameter(SweepParameter.learningRule("tau_plus",
+ *         SweepParameter.range(10, 40, 4)));
+ * sweep.addMetric(SweepMetric.spikesPerNeuron("spikes"));
+ * sweep.setSteps(2000);
+ * sweep.setReplicates(10);
+ * sweep.run().writeCsv(new File("sweep.csv"));
+ * </pre>
+ *
+ * Every trial runs its own copy of the network, so trials run concurrently
+ * on a fixed number of threads and the base network is never changed. The
+ * base network is written once to an in-memory network archive (see
+ * {@link NetworkArchive}) at full precision, and each trial reads its copy
+ * from it. Structural parameters (see {@link SweepParameter#isStructural()})
+ * are set on one copy for each combination of their values and each seed,
+ * which is written to an archive of its own and shared by the trials with
+ * that topology, so connections are made once rather than for every trial.
+ * Archives are dropped as soon as their last trial has started.
+ * <p>
+ * The trials of replicate <i>r</i> all use the same seed, derived from the
+ * seed of the sweep. A trial binds a stream made from its seed while its
+ * parameters are set, and its copy makes the streams of its groups from the
+ * seed too (see {@link Network#setRandomSeed(long)}), so the results only
+ * depend on the seed of the sweep, not on the number of threads or the
+ * order the trials run in.
+ */
+public class ParameterSweep {
+
+    /** Default number of steps per trial. */
+    public static final int DEFAULT_STEPS = 1000;
+
+    /** The network copied for each trial. */
+    private final Network network;
+
+    /** The parameters varied. */
+    private final List<SweepParameter> parameters =
+            new ArrayList<SweepParameter>();
+
+    /** The metrics collected. */
+    private final List<SweepMetric> metrics = new ArrayList<SweepMetric>();
+
+    /** Number of steps each trial runs. */
+    private int steps = DEFAULT_STEPS;
+
+    /** Number of times each combination of values is run. */
+    private int replicates = 1;
+
+    /** Seed the seeds of the replicates are derived from. */
+    private long seed = RandomStreams.getSeed();
+
+    /** Number of trials run at the same time. */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /** Number of trials of the current or last run that have finished. */
+    private final AtomicInteger completed = new AtomicInteger();
+
+    /**
+     * Create a sweep over copies of a network.
+     *
+     * @param network the network to copy for each trial
+     */
+    public ParameterSweep(final Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Add a parameter. The trials run every combination of the values of the
+     * parameters.
+     *
+     * @param parameter the parameter
+     */
+    public void addParameter(final SweepParameter parameter) {
+        parameters.add(parameter);
+    }
+
+    /**
+     * Add a metric, computed for each trial.
+     *
+     * @param metric the metric
+     */
+    public void addMetric(final SweepMetric metric) {
+        metrics.add(metric);
+    }
+
+    /**
+     * @param steps number of steps each trial runs
+     */
+    public void setSteps(final int steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("Steps must not be negative");
+        }
+        this.steps = steps;
+    }
+
+    /**
+     * @param replicates number of times each combination of values is run,
+     *            each time with a different seed
+     */
+    public void setReplicates(final int replicates) {
+        if (replicates < 1) {
+            throw new IllegalArgumentException(
+                    "Replicates must be positive");
+        }
+        this.replicates = replicates;
+    }
+
+    /**
+     * @param seed seed the seeds of the replicates are derived from. Defaults
+     *            to the seed of {@link RandomStreams} when the sweep is made.
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param threadCount number of trials run at the same time
+     */
+    public void setThreadCount(final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException(
+                    "Thread count must be positive");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return number of trials: the number of combinations of values times
+     *         the number of replicates
+     */
+    public int getTrialCount() {
+        long count = replicates;
+        for (SweepParameter parameter : parameters) {
+            count *= parameter.getValueCount();
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many trials: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * @return number of trials of the current or last run that have finished,
+     *         e.g. to show progress
+     */
+    public int getCompletedTrials() {
+        return completed.get();
+    }
+
+    /**
+     * Run all the trials. Blocks until they are done.
+     *
+     * @return the results, one row per trial
+     * @throws IOException if the network cannot be copied
+     * @throws InterruptedException if the calling thread is interrupted,
+     *             which also stops the trials
+     * @throws IllegalStateException if a trial fails
+     */
+    public SweepResults run() throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        final int trials = getTrialCount();
+        final SweepParameter[] params = parameters
+                .toArray(new SweepParameter[parameters.size()]);
+        final SweepMetric[] mets = metrics
+                .toArray(new SweepMetric[metrics.size()]);
+        List<String> parameterNames = new ArrayList<String>();
+        for (SweepParameter parameter : params) {
+            parameterNames.add(parameter.getName());
+        }
+        List<String> metricNames = new ArrayList<String>();
+        for (SweepMetric metric : mets) {
+            metricNames.add(metric.getName());
+        }
+        final SweepResults results = new SweepResults(parameterNames,
+                metricNames, trials);
+
+        // Seeds of the replicates
+        final long[] seeds = new long[replicates];
+        SplitRandomStream seeder = new SplitRandomStream(seed);
+        for (int r = 0; r < replicates; r++) {
+            seeds[r] = seeder.nextLong();
+        }
+
+        // Parameter values of each trial, the last parameter varying fastest,
+        // and the topology each trial runs
+        final byte[] baseArchive = write(network);
+        final int[] topologyOf = new int[trials];
+        List<Topology> topologyList = new ArrayList<Topology>();
+        int[] firstTrial = new int[trials];
+        Arrays.fill(firstTrial, -1);
+        double[] values = new double[params.length];
+        boolean structural = hasStructuralParameter(params);
+        for (int t = 0; t < trials; t++) {
+            int replicate = t % replicates;
+            int combination = t / replicates;
+            int key = 0;
+            for (int p = params.length - 1; p >= 0; p--) {
+                int count = params[p].getValueCount();
+                int index = combination % count;
+                combination /= count;
+                values[p] = params[p].getValue(index);
+                if (params[p].isStructural()) {
+                    key = key * count + index;
+                }
+            }
+            key = structural ? key * replicates + replicate : 0;
+            if (firstTrial[key] < 0) {
+                firstTrial[key] = topologyList.size();
+                topologyList.add(new Topology(t, baseArchive));
+            }
+            topologyOf[t] = firstTrial[key];
+            topologyList.get(topologyOf[t]).remaining.incrementAndGet();
+            results.setTrial(t, replicate, seeds[replicate], values);
+        }
+        final Topology[] topologies = topologyList
+                .toArray(new Topology[topologyList.size()]);
+
+        // Run the trials of each topology together, so that its archive can
+        // be dropped early
+        final int[] order = new int[trials];
+        int[] next = new int[topologies.length];
+        for (int k = 0, offset = 0; k < topologies.length; k++) {
+            next[k] = offset;
+            offset += topologies[k].remaining.get();
+        }
+        for (int t = 0; t < trials; t++) {
+            order[next[topologyOf[t]]++] = t;
+        }
+
+        completed.set(0);
+        final AtomicInteger nextTrial = new AtomicInteger();
+        final AtomicReference<IllegalStateException> failure =
+                new AtomicReference<IllegalStateException>();
+        int workers = Math.max(1, Math.min(threadCount, trials));
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        double[][] state = new double[mets.length][];
+                        for (int m = 0; m < mets.length; m++) {
+                            state[m] = new double[mets[m].getStateSize()];
+                        }
+                        while (failure.get() == null) {
+                            int i = nextTrial.getAndIncrement();
+                            if (i >= trials) {
+                                break;
+                            }
+                            int t = order[i];
+                            try {
+                                runTrial(t, topologies[topologyOf[t]],
+                                        params, mets, state, results);
+                            } catch (InterruptedException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                failure.compareAndSet(null,
+                                        new IllegalStateException("Trial "
+                                                + t + " failed", e));
+                            }
+                            completed.incrementAndGet();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, new IllegalStateException(
+                            "Sweep failed", e.getCause()));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        results.setNanos(System.nanoTime() - start);
+        return results;
+    }
+
+    /**
+     * @param params the parameters
+     * @return whether one of the parameters is structural
+     */
+    private static boolean hasStructuralParameter(
+            final SweepParameter[] params) {
+        for (SweepParameter parameter : params) {
+            if (parameter.isStructural()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run one trial and store its metrics.
+     *
+     * @param trial the trial
+     * @param topology the topology the trial runs
+     * @param params the parameters
+     * @param mets the metrics
+     * @param state running values of the metrics, reused between trials
+     * @param results the table to store the metrics in
+     * @throws IOException if the network cannot be copied
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void runTrial(final int trial, final Topology topology,
+            final SweepParameter[] params, final SweepMetric[] mets,
+            final double[][] state, final SweepResults results)
+            throws IOException, InterruptedException {
+        long trialSeed = results.getSeed(trial);
+        Network copy = read(topology.getArchive(params, results, trialSeed));
+        topology.release();
+        copy.setFireUpdates(false);
+        copy.setRandomSeed(trialSeed);
+        SplitRandomStream previous = RandomStreams.bind(RandomStreams
+                .newStream(trialSeed, "Trial"));
+        try {
+            for (int p = 0; p < params.length; p++) {
+                if (!params[p].isStructural()) {
+                    params[p].apply(copy, results.getParameter(trial, p));
+                }
+            }
+        } finally {
+            RandomStreams.bind(previous);
+        }
+        for (int m = 0; m < mets.length; m++) {
+            Arrays.fill(state[m], 0);
+        }
+        try {
+            for (int step = 0; step < steps; step++) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                copy.update();
+                for (int m = 0; m < mets.length; m++) {
+                    mets[m].update(copy, state[m]);
+                }
+            }
+            double[] row = results.getMetricRow(trial);
+            for (int m = 0; m < mets.length; m++) {
+                row[m] = mets[m].getValue(copy, state[m]);
+            }
+        } finally {
+            // Stop any worker threads the copy's update actions started
+            copy.getUpdateManager().dispose();
+        }
+    }
+
+    /**
+     * Write a network to an in-memory archive, at full precision and without
+     * compression.
+     *
+     * @param net the network
+     * @return the archive
+     * @throws IOException if the network cannot be written
+     */
+    private static byte[] write(final Network net) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NetworkArchiveWriter writer = new NetworkArchiveWriter(
+                Channels.newChannel(out));
+        writer.setPrecision(Precision.FLOAT_64);
+        writer.setCodec(NetworkArchive.Codec.NONE);
+        writer.write(net);
+        return out.toByteArray();
+    }
+
+    /**
+     * Read a network from an in-memory archive.
+     *
+     * @param archive the archive
+     * @return the network
+     * @throws IOException if the archive cannot be read
+     */
+    private static Network read(final byte[] archive) throws IOException {
+        return NetworkArchive.read(new ByteArrayInputStream(archive));
+    }
+
+    /**
+     * A network shared by the trials which only differ in parameters that
+     * are not structural, kept as an archive until its last trial starts.
+     */
+    private static final class Topology {
+
+        /** A trial with this topology. */
+        private final int trial;
+
+        /**
+         * The archive, or the base archive until the structural parameters
+         * are set. Null once the last trial has started.
+         */
+        private byte[] archive;
+
+        /** Whether the structural parameters have been set. */
+        private boolean built;
+
+        /** Number of trials with this topology that have not started. */
+        private final AtomicInteger remaining = new AtomicInteger();
+
+        /**
+         * Create a topology.
+         *
+         * @param trial a trial with this topology
+         * @param baseArchive archive of the base network
+         */
+        Topology(final int trial, final byte[] baseArchive) {
+            this.trial = trial;
+            this.archive = baseArchive;
+        }
+
+        /**
+         * Return the archive, setting the structural parameters on a copy of
+         * the base network the first time.
+         *
+         * @param params the parameters
+         * @param results table holding the parameter values of the trials
+         * @param trialSeed seed of the trials with this topology
+         * @return the archive
+         * @throws IOException if the network cannot be copied
+         */
+        synchronized byte[] getArchive(final SweepParameter[] params,
+                final SweepResults results, final long trialSeed)
+                throws IOException {
+            if (!built) {
+                built = true;
+                if (hasStructuralParameter(params)) {
+                    Network copy = read(archive);
+                    copy.setRandomSeed(trialSeed);
+                    SplitRandomStream previous = RandomStreams
+                            .bind(RandomStreams.newStream(trialSeed,
+                                    "Structure"));
+                    try {
+                        for (int p = 0; p < params.length; p++) {
+                            if (params[p].isStructural()) {
+                                params[p].apply(copy,
+                                        results.getParameter(trial, p));
+                            }
+                        }
+                    } finally {
+                        RandomStreams.bind(previous);
+                    }
+                    archive = write(copy);
+                }
+            }
+            return archive;
+        }
+
+        /**
+         * Record that a trial has read the archive, dropping it after the
+         * last one.
+         */
+        synchronized void release() {
+            if (remaining.decrementAndGet() == 0) {
+                archive = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.sweep;
+
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+
+/**
+ * A scalar computed from each trial of a {@link ParameterSweep}, e.g. a mean
+ * activation after the last step or a spike count over the run. One metric
+ * object is used by all the trials, which may run at the same time, so a
+ * metric that accumulates over a run keeps its running values in the state
+ * array it is passed rather than in fields. The array has
+ * {@link #getStateSize()} elements and is zeroed before each trial.
+ */
+public abstract class SweepMetric {
+
+    /** Name of the metric, used as a column name. */
+    private final String name;
+
+    /** Number of running values the metric keeps during a trial. */
+    private final int stateSize;
+
+    /**
+     * Create a metric computed only from the network after the last step.
+     *
+     * @param name name of the metric
+     */
+    public SweepMetric(final String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Create a metric.
+     *
+     * @param name name of the metric
+     * @param stateSize number of running values the metric keeps during a
+     *            trial
+     */
+    public SweepMetric(final String name, final int stateSize) {
+        if (stateSize < 0) {
+            throw new IllegalArgumentException(
+                    "State size must not be negative");
+        }
+        this.name = name;
+        this.stateSize = stateSize;
+    }
+
+    /**
+     * Called after each step of a trial. Does nothing by default.
+     *
+     * @param network the copy being run
+     * @param state running values of this metric for the trial
+     */
+    public void update(final Network network, final double[] state) {
+    }
+
+    /**
+     * Compute the metric at the end of a trial.
+     *
+     * @param network the copy that was run
+     * @param state running values of this metric for the trial
+     * @return the value of the metric
+     */
+    public abstract double getValue(Network network, double[] state);
+
+    /**
+     * @return name of the metric
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of running values the metric keeps during a trial
+     */
+    public int getStateSize() {
+        return stateSize;
+    }
+
+    /**
+     * The mean activation of all neurons after the last step.
+     *
+     * @param name name of the metric
+     * @return the metric
+     */
+    public static SweepMetric meanActivation(final String name) {
+        return new SweepMetric(name) {
+            @Override
+            public double getValue(final Network network,
+                    final double[] state) {
+                List<Neuron> neurons = network.getFlatNeuronList();
+                if (neurons.isEmpty()) {
+                    return 0;
+                }
+                double sum = 0;
+                for (int i = 0, n = neurons.size(); i < n; i++) {
+                    sum += neurons.get(i).getActivation();
+                }
+                return sum / neurons.size();
+            }
+        };
+    }
+
+    /**
+     * The number of spikes of all neurons over the run, divided by the
+     * number of neurons.
+     *
+     * @param name name of the metric
+     * @return the metric
+     */
+    public static SweepMetric spikesPerNeuron(final String name) {
+        return new SweepMetric(name, 1) {
+            @Override
+            public void update(final Network network, final double[] state) {
+                List<Neuron> neurons = network.getFlatNeuronList();
+                int spikes = 0;
+                for (int i = 0, n = neurons.size(); i < n; i++) {
+                    if (neurons.get(i).isSpike()) {
+                        spikes++;
+                    }
+                }
+                state[0] += spikes;
+            }
+
+            @Override
+            public double getValue(final Network network,
+                    final double[] state) {
+                int count = network.getFlatNeuronList().size();
+                return count == 0 ? 0 : state[0] / count;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.sweep;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+
+/**
+ * A parameter varied by a {@link ParameterSweep}: a name, the values it
+ * takes, and how to set a value on a copy of the network. For example
+ *
+ * <pre>
+ * sweep.addParameter(new SweepParameter("a", 0.02, 0.05, 0.1) {
+ *     public void apply(Network network, double value) {
+ *         ...
+ *     }
+ * });
+ * </pre>
+ *
+ * A parameter is <i>structural</i> if setting it changes which neurons,
+ * synapses or groups the network has, e.g. reconnecting a synapse group with
+ * a different {@link org.simbrain.network.connections.Radial} lambda.
+ * Structural parameters are set once for each combination of their values
+ * and each seed, and the resulting network is shared by all the trials which
+ * only differ in other parameters.
+ */
+public abstract class SweepParameter {
+
+    /** Name of the parameter, used as a column name. */
+    private final String name;
+
+    /** Values the parameter takes. */
+    private final double[] values;
+
+    /** Whether setting the parameter changes the topology of the network. */
+    private final boolean structural;
+
+    /**
+     * Create a parameter which does not change the topology of the network.
+     *
+     * @param name name of the parameter
+     * @param values values the parameter takes
+     */
+    public SweepParameter(final String name, final double... values) {
+        this(name, false, values);
+    }
+
+    /**
+     * Create a parameter.
+     *
+     * @param name name of the parameter
+     * @param structural whether setting the parameter changes the neurons,
+     *            synapses or groups of the network
+     * @param values values the parameter takes
+     */
+    public SweepParameter(final String name, final boolean structural,
+            final double... values) {
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("Parameter " + name
+                    + " has no values");
+        }
+        this.name = name;
+        this.structural = structural;
+        this.values = values.clone();
+    }
+
+    /**
+     * Set the parameter on a copy of the network. Called before the copy is
+     * run, on the thread that runs it, with the random stream of the trial
+     * bound (see {@link org.simbrain.util.math.RandomStreams}).
+     *
+     * @param network the copy
+     * @param value the value to set
+     */
+    public abstract void apply(Network network, double value);
+
+    /**
+     * @return name of the parameter
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of values the parameter takes
+     */
+    public int getValueCount() {
+        return values.length;
+    }
+
+    /**
+     * @param index index of a value
+     * @return the value
+     */
+    public double getValue(final int index) {
+        return values[index];
+    }
+
+    /**
+     * @return the values the parameter takes
+     */
+    public double[] getValues() {
+        return values.clone();
+    }
+
+    /**
+     * @return whether setting the parameter changes the topology of the
+     *         network
+     */
+    public boolean isStructural() {
+        return structural;
+    }
+
+    /**
+     * Evenly spaced values, both ends included.
+     *
+     * @param from first value
+     * @param to last value
+     * @param count number of values
+     * @return the values
+     */
+    public static double[] range(final double from, final double to,
+            final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive");
+        }
+        double[] ret = new double[count];
+        for (int i = 0; i < count; i++) {
+            ret[i] = count == 1 ? from : from + (to - from) * i / (count - 1);
+        }
+        return ret;
+    }
+
+    /**
+     * A parameter of the update rule of every neuron that has it, e.g. "a"
+     * to call <code>setA</code> of each
+     * {@link org.simbrain.network.neuron_update_rules.IzhikevichRule}.
+     *
+     * @param property name of the property, the part of the setter name
+     *            after "set"
+     * @param values values the parameter takes
+     * @return the parameter
+     */
+    public static SweepParameter neuronRule(final String property,
+            final double... values) {
+        return new PropertyParameter(property, values) {
+            @Override
+            public void apply(final Network network, final double value) {
+                int count = 0;
+                for (Neuron neuron : network.getFlatNeuronList()) {
+                    count += set(neuron.getUpdateRule(), value);
+                }
+                checkSet(count);
+            }
+        };
+    }
+
+    /**
+     * A parameter of the learning rule of every synapse that has it, e.g.
+     * "tau_plus" to call <code>setTau_plus</code> of each
+     * {@link org.simbrain.network.synapse_update_rules.STDPRule}.
+     *
+     * @param property name of the property, the part of the setter name
+     *            after "set"
+     * @param values values the parameter takes
+     * @return the parameter
+     */
+    public static SweepParameter learningRule(final String property,
+            final double... values) {
+        return new PropertyParameter(property, values) {
+            @Override
+            public void apply(final Network network, final double value) {
+                int count = 0;
+                for (Synapse synapse : network.getExpandedSynapseList()) {
+                    count += set(synapse.getLearningRule(), value);
+                }
+                checkSet(count);
+            }
+        };
+    }
+
+    /**
+     * A parameter set by calling a setter on the objects which have one.
+     */
+    private abstract static class PropertyParameter extends SweepParameter {
+
+        /** Setter of each class seen, or null if it has none. */
+        private final ConcurrentHashMap<Class<?>, Object> setters =
+                new ConcurrentHashMap<Class<?>, Object>();
+
+        /**
+         * Create the parameter.
+         *
+         * @param property name of the property
+         * @param values values the parameter takes
+         */
+        PropertyParameter(final String property, final double[] values) {
+            super(property, values);
+        }
+
+        /**
+         * Call the setter of an object if it has one.
+         *
+         * @param target the object
+         * @param value the value
+         * @return 1 if the object has the setter, 0 otherwise
+         */
+        int set(final Object target, final double value) {
+            Object setter = setters.get(target.getClass());
+            if (setter == null) {
+                setter = findSetter(target.getClass());
+                setters.put(target.getClass(), setter);
+            }
+            if (!(setter instanceof Method)) {
+                return 0;
+            }
+            try {
+                ((Method) setter).invoke(target, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("Cannot set "
+                        + getName() + " to " + value, e.getCause());
+            }
+            return 1;
+        }
+
+        /**
+         * Find the setter of a class.
+         *
+         * @param type the class
+         * @return the setter, or the class itself if it has none
+         */
+        private Object findSetter(final Class<?> type) {
+            String property = getName();
+            String[] names = {
+                "set" + Character.toUpperCase(property.charAt(0))
+                        + property.substring(1), "set" + property };
+            for (String methodName : names) {
+                try {
+                    return type.getMethod(methodName, double.class);
+                } catch (NoSuchMethodException e) {
+                    // Try the next name
+                }
+            }
+            return type;
+        }
+
+        /**
+         * Fail if nothing had the property.
+         *
+         * @param count number of objects set
+         */
+        void checkSet(final int count) {
+            if (count == 0) {
+                throw new IllegalArgumentException("Nothing in the network "
+                        + "has a property " + getName());
+            }
+        }
+    }
+
+}
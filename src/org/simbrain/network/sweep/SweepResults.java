@@ -0,0 +1,239 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.sweep;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The results of a {@link ParameterSweep}: one row per trial, in the order of
+ * the parameter grid (the last parameter varying fastest, then the
+ * replicate), whatever order the trials ran in. Each row holds the replicate
+ * number and seed of the trial, the value of each parameter and the value of
+ * each metric.
+ */
+public class SweepResults {
+
+    /** Names of the parameters. */
+    private final List<String> parameterNames;
+
+    /** Names of the metrics. */
+    private final List<String> metricNames;
+
+    /** Replicate number of each trial. */
+    private final int[] replicates;
+
+    /** Seed of each trial. */
+    private final long[] seeds;
+
+    /** Parameter values of each trial, one row per trial. */
+    private final double[][] parameters;
+
+    /** Metric values of each trial, one row per trial. */
+    private final double[][] metrics;
+
+    /** Wall-clock time of the sweep in nanoseconds. */
+    private long nanos;
+
+    /**
+     * Create an empty table.
+     *
+     * @param parameterNames names of the parameters
+     * @param metricNames names of the metrics
+     * @param trials number of trials
+     */
+    SweepResults(final List<String> parameterNames,
+            final List<String> metricNames, final int trials) {
+        this.parameterNames = Collections.unmodifiableList(parameterNames);
+        this.metricNames = Collections.unmodifiableList(metricNames);
+        replicates = new int[trials];
+        seeds = new long[trials];
+        parameters = new double[trials][parameterNames.size()];
+        metrics = new double[trials][metricNames.size()];
+    }
+
+    /**
+     * Record the parameters of a trial.
+     *
+     * @param trial the trial
+     * @param replicate replicate number of the trial
+     * @param seed seed of the trial
+     * @param values value of each parameter
+     */
+    void setTrial(final int trial, final int replicate, final long seed,
+            final double[] values) {
+        replicates[trial] = replicate;
+        seeds[trial] = seed;
+        System.arraycopy(values, 0, parameters[trial], 0, values.length);
+    }
+
+    /**
+     * @param trial a trial
+     * @return the array the metrics of the trial are stored in
+     */
+    double[] getMetricRow(final int trial) {
+        return metrics[trial];
+    }
+
+    /**
+     * @param nanos wall-clock time of the sweep in nanoseconds
+     */
+    void setNanos(final long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return number of trials
+     */
+    public int getTrialCount() {
+        return seeds.length;
+    }
+
+    /**
+     * @return names of the parameters
+     */
+    public List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * @return names of the metrics
+     */
+    public List<String> getMetricNames() {
+        return metricNames;
+    }
+
+    /**
+     * @param trial a trial
+     * @return replicate number of the trial, from 0
+     */
+    public int getReplicate(final int trial) {
+        return replicates[trial];
+    }
+
+    /**
+     * @param trial a trial
+     * @return seed of the trial
+     */
+    public long getSeed(final int trial) {
+        return seeds[trial];
+    }
+
+    /**
+     * @param trial a trial
+     * @param parameter index of a parameter
+     * @return value of the parameter in the trial
+     */
+    public double getParameter(final int trial, final int parameter) {
+        return parameters[trial][parameter];
+    }
+
+    /**
+     * @param trial a trial
+     * @param metric index of a metric
+     * @return value of the metric in the trial
+     */
+    public double getMetric(final int trial, final int metric) {
+        return metrics[trial][metric];
+    }
+
+    /**
+     * @param trial a trial
+     * @param metric name of a metric
+     * @return value of the metric in the trial
+     */
+    public double getMetric(final int trial, final String metric) {
+        int index = metricNames.indexOf(metric);
+        if (index < 0) {
+            throw new IllegalArgumentException("No metric " + metric);
+        }
+        return metrics[trial][index];
+    }
+
+    /**
+     * @return wall-clock time of the sweep in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Write the table as CSV, with a header row. The writer is not closed.
+     *
+     * @param out the writer
+     * @throws IOException if the table cannot be written
+     */
+    public void writeCsv(final Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder("trial,replicate,seed");
+        for (String name : parameterNames) {
+            sb.append(',').append(quote(name));
+        }
+        for (String name : metricNames) {
+            sb.append(',').append(quote(name));
+        }
+        out.write(sb.append('\n').toString());
+        for (int t = 0; t < seeds.length; t++) {
+            sb.setLength(0);
+            sb.append(t).append(',').append(replicates[t]).append(',')
+                    .append(seeds[t]);
+            for (double value : parameters[t]) {
+                sb.append(',').append(value);
+            }
+            for (double value : metrics[t]) {
+                sb.append(',').append(value);
+            }
+            out.write(sb.append('\n').toString());
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the table to a CSV file.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public void writeCsv(final File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeCsv(out);
+        }
+    }
+
+    /**
+     * Quote a CSV field if needed.
+     *
+     * @param field the field
+     * @return the field, quoted if it contains a comma or quote
+     */
+    private static String quote(final String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+}
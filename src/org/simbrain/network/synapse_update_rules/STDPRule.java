@@ -102,9 +102,11 @@ public class STDPRule extends SynapseUpdateRule {
             try {
                 final double str = synapse.getStrength();
                 final double delta_t = ((((SpikingNeuronUpdateRule) synapse
-                        .getSource().getUpdateRule()).getLastSpikeTime())
+                        .getSource().getUpdateRule()).getLastSpikeTime(synapse
+                        .getSource()))
                         - ((SpikingNeuronUpdateRule) synapse
-                        .getTarget().getUpdateRule()).getLastSpikeTime())
+                        .getTarget().getUpdateRule()).getLastSpikeTime(synapse
+                        .getTarget()))
                         * (hebbian ? 1 : -1);   // Reverse time window for
                                                 // anti-hebbian
                 if (delta_t < 0) {
@@ -19,6 +19,7 @@
 package org.simbrain.network.synapse_update_rules.spikeresponders;
 
 import org.simbrain.network.core.Synapse;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Probabilistic</b> spike responders produces a response with some
@@ -52,7 +53,8 @@ public class ProbabilisticResponder extends SpikeResponder {
      */
     public void update(Synapse s) {
         if (s.getSource().isSpike()) {
-            if (Math.random() > (1 - activationProbability)) {
+            if (RandomStreams.current()
+                    .nextDouble() > (1 - activationProbability)) {
                 value = responseValue * s.getStrength();
             } else {
                 value = 0;
@@ -0,0 +1,159 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Random;
+
+/**
+ * Rows held in memory, either in arrays or in a {@link TrainingSet}. A
+ * training set is read again at the start of each pass, so edits to its data
+ * are seen on the next epoch. Shuffling permutes the row order.
+ */
+public class ArrayRowSource implements RowSource {
+
+    /** Training set to read, or null if the data was given as arrays. */
+    private final TrainingSet trainingSet;
+
+    /** Input data of the current pass. */
+    private double[][] inputData;
+
+    /** Target data of the current pass. */
+    private double[][] targetData;
+
+    /** Order of the rows in the current pass. */
+    private int[] order;
+
+    /** Number of rows in the current pass. */
+    private int numRows;
+
+    /** Position in the current pass. */
+    private int position;
+
+    /**
+     * Create a source over arrays of data.
+     *
+     * @param inputData the input data
+     * @param targetData the target data, or null for unsupervised data
+     */
+    public ArrayRowSource(double[][] inputData, double[][] targetData) {
+        this.trainingSet = null;
+        this.inputData = inputData;
+        this.targetData = targetData;
+        numRows = countRows();
+    }
+
+    /**
+     * Create a source over a training set.
+     *
+     * @param trainingSet the training set
+     */
+    public ArrayRowSource(TrainingSet trainingSet) {
+        this.trainingSet = trainingSet;
+        readTrainingSet();
+    }
+
+    /**
+     * Take the current data of the training set.
+     */
+    private void readTrainingSet() {
+        inputData = trainingSet.getInputData();
+        targetData = trainingSet.getTargetData();
+        numRows = countRows();
+    }
+
+    /**
+     * @return the number of rows in whichever dataset has fewer rows
+     */
+    private int countRows() {
+        if (inputData == null) {
+            return 0;
+        }
+        if (targetData == null) {
+            return inputData.length;
+        }
+        return Math.min(inputData.length, targetData.length);
+    }
+
+    @Override
+    public int getInputSize() {
+        if (trainingSet != null) {
+            readTrainingSet();
+        }
+        return numRows == 0 ? 0 : inputData[0].length;
+    }
+
+    @Override
+    public int getTargetSize() {
+        if (trainingSet != null) {
+            readTrainingSet();
+        }
+        return numRows == 0 || targetData == null ? 0 : targetData[0].length;
+    }
+
+    @Override
+    public long getNumRows() {
+        if (trainingSet != null) {
+            readTrainingSet();
+        }
+        return numRows;
+    }
+
+    @Override
+    public void start(Random random) {
+        if (trainingSet != null) {
+            readTrainingSet();
+        }
+        if (order == null || order.length != numRows) {
+            order = new int[numRows];
+        }
+        for (int i = 0; i < numRows; i++) {
+            order[i] = i;
+        }
+        if (random != null) {
+            for (int i = numRows - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        position = 0;
+    }
+
+    @Override
+    public boolean next(double[] input, int inputOffset, double[] target,
+            int targetOffset) {
+        if (position >= numRows) {
+            return false;
+        }
+        int row = order[position++];
+        double[] in = inputData[row];
+        System.arraycopy(in, 0, input, inputOffset, in.length);
+        if (targetData != null && target != null) {
+            double[] tar = targetData[row];
+            System.arraycopy(tar, 0, target, targetOffset, tar.length);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads mini-batches of training rows from a {@link RowSource} on a
+ * background thread, so the next batches are ready while the current one is
+ * trained on. A fixed pool of {@link MiniBatch} buffers is cycled between the
+ * reading thread and the trainer, so no arrays are allocated per batch.
+ * <p>
+ * A pass over the data is started with {@link #startEpoch()}, batches are
+ * taken with {@link #take()} until it returns null, and each batch is handed
+ * back with {@link #recycle(MiniBatch)} when it is no longer needed. When
+ * shuffling, epoch n uses the order given by the seed plus n, so runs are
+ * repeatable.
+ */
+public class BatchPipeline implements Closeable {
+
+    /** Default number of batches read ahead. */
+    private static final int DEFAULT_PREFETCH = 4;
+
+    /** How long the reading thread waits before checking for a stop, in ms. */
+    private static final long WAIT = 100;
+
+    /** Marks the end of an epoch in the ready queue. */
+    private static final MiniBatch END = new MiniBatch(0, 0, 0);
+
+    /** The rows. */
+    private final RowSource source;
+
+    /** Rows per batch. */
+    private final int batchSize;
+
+    /** Number of batches read ahead. */
+    private int prefetch = DEFAULT_PREFETCH;
+
+    /** Whether to shuffle the rows each epoch. */
+    private boolean shuffle;
+
+    /** Seed of the shuffled orders. */
+    private long seed;
+
+    /** Number of epochs started. */
+    private int epoch;
+
+    /** Empty batches. */
+    private BlockingQueue<MiniBatch> free;
+
+    /** Filled batches, in order. */
+    private BlockingQueue<MiniBatch> ready;
+
+    /** Thread reading the current epoch, or null. */
+    private Thread reader;
+
+    /** Set to stop the reading thread. */
+    private volatile boolean cancelled;
+
+    /** Error that ended the current epoch, if any. */
+    private volatile IOException failure;
+
+    /**
+     * Create a pipeline.
+     *
+     * @param source the rows
+     * @param batchSize rows per batch
+     */
+    public BatchPipeline(RowSource source, int batchSize) {
+        this.source = source;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Start reading the next epoch. An epoch that was not read to the end is
+     * abandoned.
+     */
+    public void startEpoch() {
+        stopReader();
+        int inputSize = source.getInputSize();
+        int targetSize = source.getTargetSize();
+        MiniBatch sample = free == null ? null : free.peek();
+        if (sample == null || sample.getInputSize() != inputSize
+                || sample.getTargetSize() != targetSize) {
+            // One more buffer than read ahead, for the batch being trained
+            free = new ArrayBlockingQueue<MiniBatch>(prefetch + 1);
+            ready = new ArrayBlockingQueue<MiniBatch>(prefetch + 1);
+            for (int i = 0; i <= prefetch; i++) {
+                free.add(new MiniBatch(batchSize, inputSize, targetSize));
+            }
+        }
+        failure = null;
+        final Random random = shuffle ? new Random(seed + epoch) : null;
+        epoch++;
+        reader = new Thread(new Runnable() {
+            public void run() {
+                read(random);
+            }
+        }, "Training data reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Read one epoch into the ready queue. Runs on the reading thread. The
+     * thread is stopped with a flag rather than an interrupt, since an
+     * interrupt would close a file channel the source is reading.
+     *
+     * @param random the shuffled order, or null
+     */
+    private void read(final Random random) {
+        try {
+            try {
+                source.start(random);
+                while (!cancelled) {
+                    MiniBatch batch = free.poll(WAIT, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
+                        continue;
+                    }
+                    if (batch.fill(source) == 0) {
+                        free.put(batch);
+                        break;
+                    }
+                    if (!putReady(batch)
+                            || batch.size() < batch.getCapacity()) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            putReady(END);
+        } catch (InterruptedException e) {
+            // Epoch abandoned
+        }
+    }
+
+    /**
+     * Add a batch to the ready queue, waiting for space.
+     *
+     * @param batch the batch
+     * @return false if the epoch was abandoned first
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private boolean putReady(final MiniBatch batch)
+            throws InterruptedException {
+        while (!ready.offer(batch, WAIT, TimeUnit.MILLISECONDS)) {
+            if (cancelled) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take the next batch of the current epoch, waiting for it to be read.
+     *
+     * @return the batch, or null at the end of the epoch
+     * @throws IOException if the rows could not be read
+     */
+    public MiniBatch take() throws IOException {
+        if (reader == null) {
+            return null;
+        }
+        MiniBatch batch;
+        try {
+            batch = ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (batch == END) {
+            reader = null;
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return batch;
+    }
+
+    /**
+     * Hand a batch back for reuse.
+     *
+     * @param batch the batch, which must not be used afterwards
+     */
+    public void recycle(MiniBatch batch) {
+        if (batch != null && batch != END) {
+            free.offer(batch);
+        }
+    }
+
+    /**
+     * Stop the reading thread and return its batches to the pool.
+     */
+    private void stopReader() {
+        if (reader != null) {
+            cancelled = true;
+            try {
+                do {
+                    drainReady();
+                    reader.join(WAIT);
+                } while (reader.isAlive());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reader = null;
+            cancelled = false;
+        }
+        drainReady();
+    }
+
+    /**
+     * Return the batches in the ready queue to the pool.
+     */
+    private void drainReady() {
+        if (ready != null) {
+            MiniBatch batch;
+            while ((batch = ready.poll()) != null) {
+                recycle(batch);
+            }
+        }
+    }
+
+    /**
+     * Stop reading and close the source.
+     *
+     * @throws IOException if the source can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        stopReader();
+        source.close();
+    }
+
+    /**
+     * @return the rows
+     */
+    public RowSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return rows per batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return the number of batches read ahead
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Set the number of batches read ahead. Takes effect when the buffers
+     * are next allocated.
+     *
+     * @param prefetch the number of batches, at least one
+     */
+    public void setPrefetch(int prefetch) {
+        stopReader();
+        this.prefetch = Math.max(1, prefetch);
+        free = null;
+    }
+
+    /**
+     * @return whether the rows are shuffled each epoch
+     */
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * @param shuffle whether to shuffle the rows each epoch
+     */
+    public void setShuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+    }
+
+    /**
+     * @return the seed of the shuffled orders
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the shuffled orders and start counting epochs again.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        epoch = 0;
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+
+/**
+ * Rows read from a binary file of fixed-size records, for data sets that
+ * don't fit in memory. The file is read in chunks of rows, so only one chunk
+ * is held at a time. Shuffling visits the chunks in a random order and the
+ * rows of each chunk in a random order.
+ * <p>
+ * The file is little-endian. A 32 byte header holds {@link #MAGIC},
+ * {@link #VERSION}, a precision byte (0 for floats, 1 for doubles) at offset
+ * 8, and the input size, target size and number of rows at offsets 12, 16
+ * and 20 (the last as a long). Each record that follows holds the inputs and
+ * then the targets of one row. Files are written with
+ * {@link #write(File, RowSource, Precision)}.
+ */
+public class BinaryRowSource implements RowSource {
+
+    /** First int of a row file, "SBRW". */
+    public static final int MAGIC = 0x57524253;
+
+    /** Version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 32;
+
+    /** Target size of a chunk in bytes. */
+    private static final int CHUNK_BYTES = 1 << 22;
+
+    /** The file. */
+    private final File file;
+
+    /** Channel on the file. */
+    private final FileChannel channel;
+
+    /** Whether values are stored as floats. */
+    private final boolean singlePrecision;
+
+    /** Number of input values per row. */
+    private final int inputSize;
+
+    /** Number of target values per row. */
+    private final int targetSize;
+
+    /** Number of rows. */
+    private final long numRows;
+
+    /** Size of a record in bytes. */
+    private final int recordSize;
+
+    /** Number of rows per chunk. */
+    private final int chunkRows;
+
+    /** Buffer holding the current chunk. */
+    private final ByteBuffer chunk;
+
+    /** Order of the chunks in the current pass. */
+    private int[] chunkOrder;
+
+    /** Position in the chunk order. */
+    private int chunkPosition;
+
+    /** Order of the rows in the current chunk. */
+    private int[] rowOrder;
+
+    /** Number of rows in the current chunk. */
+    private int rowsInChunk;
+
+    /** Position in the current chunk. */
+    private int rowPosition;
+
+    /** Random order of the current pass, null to read in order. */
+    private Random random;
+
+    /**
+     * Open a row file.
+     *
+     * @param file the file
+     * @throws IOException if the file can't be read or is not a row file
+     */
+    public BinaryRowSource(File file) throws IOException {
+        this.file = file;
+        channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            ByteBuffer header = newBuffer(HEADER_SIZE);
+            readFully(channel, header, 0, file);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a row file: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported row file version "
+                        + version);
+            }
+            singlePrecision = header.get() == 0;
+            header.position(12);
+            inputSize = header.getInt();
+            targetSize = header.getInt();
+            numRows = header.getLong();
+            recordSize = (inputSize + targetSize) * (singlePrecision ? 4 : 8);
+            if (recordSize <= 0 || numRows < 0
+                    || HEADER_SIZE + numRows * recordSize > channel.size()) {
+                throw new IOException("Corrupt row file: " + file);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        chunkRows = Math.max(1, CHUNK_BYTES / recordSize);
+        chunk = newBuffer(chunkRows * recordSize);
+        rowOrder = new int[chunkRows];
+    }
+
+    /**
+     * Write the rows of a source to a file, in order. Use this to convert a
+     * text file that doesn't fit in memory, or to save generated data.
+     *
+     * @param file the file, which is overwritten
+     * @param source the rows to write
+     * @param precision precision of the stored values
+     * @throws IOException if the source can't be read or the file written
+     */
+    public static void write(File file, RowSource source, Precision precision)
+            throws IOException {
+        boolean single = precision == Precision.FLOAT_32;
+        int inputSize = source.getInputSize();
+        int targetSize = source.getTargetSize();
+        int valueSize = single ? 4 : 8;
+        int recordSize = (inputSize + targetSize) * valueSize;
+        int rowsPerWrite = Math.max(1, CHUNK_BYTES / recordSize);
+        double[] input = new double[inputSize];
+        double[] target = new double[targetSize];
+        ByteBuffer buf = newBuffer(rowsPerWrite * recordSize);
+        FileChannel out = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            out.truncate(0);
+            long position = HEADER_SIZE;
+            long rows = 0;
+            source.start(null);
+            while (source.next(input, 0, target, 0)) {
+                for (int i = 0; i < inputSize; i++) {
+                    put(buf, input[i], single);
+                }
+                for (int i = 0; i < targetSize; i++) {
+                    put(buf, target[i], single);
+                }
+                rows++;
+                if (!buf.hasRemaining()) {
+                    buf.flip();
+                    position += writeFully(out, buf, position);
+                    buf.clear();
+                }
+            }
+            buf.flip();
+            writeFully(out, buf, position);
+            ByteBuffer header = newBuffer(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.put((byte) (single ? 0 : 1));
+            header.position(12);
+            header.putInt(inputSize);
+            header.putInt(targetSize);
+            header.putLong(rows);
+            header.clear();
+            writeFully(out, header, 0);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Append a value to a buffer.
+     *
+     * @param buf the buffer
+     * @param value the value
+     * @param single whether to store it as a float
+     */
+    private static void put(ByteBuffer buf, double value, boolean single) {
+        if (single) {
+            buf.putFloat((float) value);
+        } else {
+            buf.putDouble(value);
+        }
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    @Override
+    public long getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public void start(Random random) {
+        this.random = random;
+        int numChunks = (int) ((numRows + chunkRows - 1) / chunkRows);
+        if (chunkOrder == null || chunkOrder.length != numChunks) {
+            chunkOrder = new int[numChunks];
+        }
+        for (int i = 0; i < numChunks; i++) {
+            chunkOrder[i] = i;
+        }
+        if (random != null) {
+            shuffle(chunkOrder, numChunks, random);
+        }
+        chunkPosition = 0;
+        rowsInChunk = 0;
+        rowPosition = 0;
+    }
+
+    /**
+     * Shuffle the start of an array in place.
+     *
+     * @param order the array
+     * @param n number of entries to shuffle
+     * @param random the random order
+     */
+    private static void shuffle(int[] order, int n, Random random) {
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    /**
+     * Read the next chunk of the current pass.
+     *
+     * @return false at the end of the pass
+     * @throws IOException if the file can't be read
+     */
+    private boolean nextChunk() throws IOException {
+        if (chunkPosition >= chunkOrder.length) {
+            return false;
+        }
+        long first = (long) chunkOrder[chunkPosition++] * chunkRows;
+        rowsInChunk = (int) Math.min(chunkRows, numRows - first);
+        chunk.clear();
+        chunk.limit(rowsInChunk * recordSize);
+        readFully(channel, chunk, HEADER_SIZE + first * recordSize, file);
+        for (int i = 0; i < rowsInChunk; i++) {
+            rowOrder[i] = i;
+        }
+        if (random != null) {
+            shuffle(rowOrder, rowsInChunk, random);
+        }
+        rowPosition = 0;
+        return true;
+    }
+
+    @Override
+    public boolean next(double[] input, int inputOffset, double[] target,
+            int targetOffset) throws IOException {
+        if (rowPosition >= rowsInChunk && !nextChunk()) {
+            return false;
+        }
+        int position = rowOrder[rowPosition++] * recordSize;
+        int valueSize = singlePrecision ? 4 : 8;
+        for (int i = 0; i < inputSize; i++, position += valueSize) {
+            input[inputOffset + i] = singlePrecision ? chunk
+                    .getFloat(position) : chunk.getDouble(position);
+        }
+        if (target != null) {
+            for (int i = 0; i < targetSize; i++, position += valueSize) {
+                target[targetOffset + i] = singlePrecision ? chunk
+                        .getFloat(position) : chunk.getDouble(position);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param capacity capacity in bytes
+     * @return a little-endian heap buffer
+     */
+    private static ByteBuffer newBuffer(final int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Fill a buffer from a file position.
+     *
+     * @param channel channel on the file
+     * @param buf the buffer
+     * @param position file position
+     * @param file the file, for messages
+     * @throws IOException if the file cannot be read or is too short
+     */
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buf, long position, final File file)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new IOException("Truncated row file: " + file);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Write the rest of a buffer at a file position.
+     *
+     * @param channel channel on the file
+     * @param buf the buffer
+     * @param position file position
+     * @return the number of bytes written
+     * @throws IOException if the file cannot be written
+     */
+    private static int writeFully(final FileChannel channel,
+            final ByteBuffer buf, long position) throws IOException {
+        int written = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.write(buf, position);
+            position += n;
+            written += n;
+        }
+        return written;
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Rows streamed from a comma-separated text file, one row per line. The
+ * first columns of each line are the inputs and the remaining columns the
+ * targets. Blank lines and lines starting with # are skipped. The file is
+ * read again on each pass, so it need not fit in memory.
+ * <p>
+ * Since a text file can only be read in order, shuffling uses a window: rows
+ * are read into a buffer of {@link #getShuffleWindow()} rows and returned
+ * from random positions in it. Rows move at most about a window away from
+ * their neighbors in the file, so files sorted by class should be converted
+ * with {@link BinaryRowSource#write} and shuffled from there.
+ */
+public class CsvRowSource implements RowSource {
+
+    /** Default size of the shuffle window, in rows. */
+    private static final int DEFAULT_SHUFFLE_WINDOW = 4096;
+
+    /** The file. */
+    private final File file;
+
+    /** Number of input columns. */
+    private final int inputSize;
+
+    /** Number of target columns. */
+    private final int targetSize;
+
+    /** Number of rows, or -1 until a pass has been completed. */
+    private long numRows = -1;
+
+    /** Size of the shuffle window. */
+    private int shuffleWindow = DEFAULT_SHUFFLE_WINDOW;
+
+    /** Reader of the current pass. */
+    private BufferedReader reader;
+
+    /** Rows read in the current pass. */
+    private long rowsRead;
+
+    /** Random order of the current pass, null to read in order. */
+    private Random random;
+
+    /** Rows waiting in the shuffle window. */
+    private double[][] window;
+
+    /** Number of rows in the shuffle window. */
+    private int windowCount;
+
+    /** Row buffer when reading in order. */
+    private double[] row;
+
+    /**
+     * Create a source over a file. The number of target columns is taken
+     * from the first row.
+     *
+     * @param file the file
+     * @param inputSize number of input columns
+     * @throws IOException if the file can't be read or has too few columns
+     */
+    public CsvRowSource(File file, int inputSize) throws IOException {
+        this.file = file;
+        this.inputSize = inputSize;
+        BufferedReader in = open();
+        try {
+            String line = nextLine(in);
+            if (line == null) {
+                throw new IOException("No data in " + file);
+            }
+            int columns = line.split(",").length;
+            if (columns < inputSize) {
+                throw new IOException("Expected at least " + inputSize
+                        + " columns in " + file);
+            }
+            targetSize = columns - inputSize;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return a reader on the file
+     * @throws IOException if the file can't be opened
+     */
+    private BufferedReader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(
+                file), Charset.forName("UTF-8")), 1 << 16);
+    }
+
+    /**
+     * Read the next line that holds data.
+     *
+     * @param in the reader
+     * @return the line, or null at the end of the file
+     * @throws IOException if the file can't be read
+     */
+    private static String nextLine(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0 && line.charAt(0) != '#') {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read and parse the next row of the file.
+     *
+     * @param values array to parse the row into
+     * @return false at the end of the file
+     * @throws IOException if the file can't be read or a line is malformed
+     */
+    private boolean readRow(double[] values) throws IOException {
+        String line = nextLine(reader);
+        if (line == null) {
+            return false;
+        }
+        int column = 0;
+        int start = 0;
+        for (int i = 0, n = line.length(); i <= n; i++) {
+            if (i == n || line.charAt(i) == ',') {
+                if (column == values.length) {
+                    throw new IOException("Too many columns in row "
+                            + (rowsRead + 1) + " of " + file);
+                }
+                try {
+                    values[column++] = Double.parseDouble(line.substring(
+                            start, i).trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad value in row "
+                            + (rowsRead + 1) + " of " + file, e);
+                }
+                start = i + 1;
+            }
+        }
+        if (column != values.length) {
+            throw new IOException("Too few columns in row " + (rowsRead + 1)
+                    + " of " + file);
+        }
+        rowsRead++;
+        return true;
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    @Override
+    public long getNumRows() {
+        return numRows;
+    }
+
+    @Override
+    public void start(Random random) throws IOException {
+        close();
+        reader = open();
+        rowsRead = 0;
+        this.random = random;
+        int columns = inputSize + targetSize;
+        if (random == null) {
+            row = new double[columns];
+            return;
+        }
+        if (window == null || window.length != shuffleWindow
+                || window[0].length != columns) {
+            window = new double[shuffleWindow][columns];
+        }
+        windowCount = 0;
+        while (windowCount < shuffleWindow && readRow(window[windowCount])) {
+            windowCount++;
+        }
+    }
+
+    @Override
+    public boolean next(double[] input, int inputOffset, double[] target,
+            int targetOffset) throws IOException {
+        if (reader == null) {
+            return false;
+        }
+        double[] values;
+        if (random == null) {
+            if (!readRow(row)) {
+                finish();
+                return false;
+            }
+            values = row;
+        } else {
+            if (windowCount == 0) {
+                finish();
+                return false;
+            }
+            // Swap a random row to the end of the window, return it and
+            // replace it with the next row of the file
+            int i = random.nextInt(windowCount);
+            int last = windowCount - 1;
+            double[] tmp = window[i];
+            window[i] = window[last];
+            window[last] = tmp;
+            values = tmp;
+            copy(values, input, inputOffset, target, targetOffset);
+            if (!readRow(window[last])) {
+                windowCount--;
+            }
+            return true;
+        }
+        copy(values, input, inputOffset, target, targetOffset);
+        return true;
+    }
+
+    /**
+     * Copy a parsed row to the caller's arrays.
+     *
+     * @param values the row
+     * @param input array to copy the inputs into
+     * @param inputOffset position of the inputs in the array
+     * @param target array to copy the targets into
+     * @param targetOffset position of the targets in the array
+     */
+    private void copy(double[] values, double[] input, int inputOffset,
+            double[] target, int targetOffset) {
+        System.arraycopy(values, 0, input, inputOffset, inputSize);
+        if (target != null) {
+            System.arraycopy(values, inputSize, target, targetOffset,
+                    targetSize);
+        }
+    }
+
+    /**
+     * Record the number of rows at the end of a pass and close the file.
+     *
+     * @throws IOException if the file can't be closed
+     */
+    private void finish() throws IOException {
+        numRows = rowsRead;
+        close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of rows in the shuffle window
+     */
+    public int getShuffleWindow() {
+        return shuffleWindow;
+    }
+
+    /**
+     * @param shuffleWindow the number of rows in the shuffle window
+     */
+    public void setShuffleWindow(int shuffleWindow) {
+        this.shuffleWindow = Math.max(1, shuffleWindow);
+    }
+
+}
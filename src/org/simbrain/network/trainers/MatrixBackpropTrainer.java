@@ -0,0 +1,797 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.DifferentiableUpdateRule;
+import org.simbrain.network.subnetworks.BackpropNetwork;
+import org.simbrain.util.math.MatrixKernels;
+import org.simbrain.util.math.SquashingFunction;
+
+/**
+ * Backprop trainer that works on whole layers at once. At the start of each
+ * epoch the weights between consecutive layers are copied into dense
+ * matrices, the training data is run through the network in mini-batches
+ * using matrix products (see {@link MatrixKernels}), and the new weights and
+ * biases are written back to the synapses and neurons at the end of the
+ * epoch.
+ * <p>
+ * Weight changes are averaged over each batch, so with a batch size of one
+ * this computes the same updates as {@link BackpropTrainer}, including
+ * momentum and synapse bounds. Layers must be fully described by their
+ * synapses from the previous layer and use noiseless discrete sigmoidal or
+ * linear neurons with weighted inputs. Networks that don't fit this are
+ * trained by {@link BackpropTrainer#apply()} instead.
+ * <p>
+ * Rows are read by a {@link BatchPipeline}, from the network's training set
+ * or from a {@link RowSource} set with {@link #setDataSource(RowSource)},
+ * which can stream data that doesn't fit in memory. Each batch is split into
+ * shards of {@value #SHARD_ROWS} rows whose gradients are computed in
+ * parallel and then summed in shard order, so the result doesn't depend on
+ * the number of cores.
+ */
+public class MatrixBackpropTrainer extends BackpropTrainer {
+
+    /** Default batch size. */
+    private static final int DEFAULT_BATCH_SIZE = 1;
+
+    /** Number of training rows per weight update. */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** Rows per shard of a batch. */
+    static final int SHARD_ROWS = 16;
+
+    /** Whether to shuffle the rows each epoch. */
+    private boolean shuffle;
+
+    /** Seed of the shuffled orders. */
+    private long seed;
+
+    /** Rows to train on, or null to use the network's training set. */
+    private RowSource dataSource;
+
+    /** Reads the rows. Replaced when the source or batch size changes. */
+    private BatchPipeline pipeline;
+
+    /** Current error. */
+    private double mse;
+
+    /** Internal representation of network. */
+    private final List<List<Neuron>> layers;
+
+    /**
+     * Weight deltas of the last update, for momentum. Indexed like the
+     * weight matrix of each layer. Kept between epochs.
+     */
+    private double[][] lastDeltas;
+
+    /**
+     * Construct the trainer.
+     *
+     * @param network the network
+     * @param layers the layers to train
+     */
+    public MatrixBackpropTrainer(Trainable network, List<List<Neuron>> layers) {
+        super(network, layers);
+        this.layers = layers;
+    }
+
+    /**
+     * Create a trainer for a backprop net.
+     *
+     * @param network the network to train.
+     */
+    public MatrixBackpropTrainer(BackpropNetwork network) {
+        super(network);
+        this.layers = network.getNeuronGroupsAsList();
+    }
+
+    @Override
+    public void apply() {
+        if (dataSource == null) {
+            int numRows = getMinimumNumRows(network);
+            int numInputs = network.getInputNeurons().size();
+            if ((numRows == 0) || (numInputs == 0)) {
+                return;
+            }
+        }
+        Layer[] net = extractLayers();
+        if (net == null) {
+            if (dataSource != null) {
+                throw new IllegalStateException("Only layered networks of "
+                        + "sigmoidal and linear neurons can be trained from "
+                        + "a data source");
+            }
+            // Not a plain layered network
+            super.apply();
+            mse = super.getError();
+            return;
+        }
+        int numInputs = net[0].nIn;
+        int numOutputs = net[net.length - 1].nOut;
+        BatchPipeline pipe = getPipeline();
+        RowSource source = pipe.getSource();
+        if (source.getInputSize() != numInputs
+                || source.getTargetSize() != numOutputs) {
+            throw new IllegalStateException("Training rows have "
+                    + source.getInputSize() + " inputs and "
+                    + source.getTargetSize() + " targets, but the network has "
+                    + numInputs + " inputs and " + numOutputs + " outputs");
+        }
+        network.initNetwork();
+
+        Shard[] shards = new Shard[(batchSize + SHARD_ROWS - 1) / SHARD_ROWS];
+        for (int s = 0; s < shards.length; s++) {
+            shards[s] = new Shard(net, Math.min(SHARD_ROWS, batchSize));
+        }
+        List<Shard> toRun = new ArrayList<Shard>();
+        double sqError = 0;
+        long numRows = 0;
+        Shard lastShard = null;
+        pipe.setShuffle(shuffle);
+        pipe.startEpoch();
+        try {
+            MiniBatch batch;
+            while ((batch = pipe.take()) != null) {
+                int b = batch.size();
+                int numShards = (b + SHARD_ROWS - 1) / SHARD_ROWS;
+                toRun.clear();
+                for (int s = 0; s < numShards; s++) {
+                    int first = s * SHARD_ROWS;
+                    shards[s].setRows(batch, first, Math.min(SHARD_ROWS, b
+                            - first));
+                    toRun.add(shards[s]);
+                }
+                run(toRun);
+                // Reduce in shard order, so results are repeatable
+                for (int s = 0; s < numShards; s++) {
+                    sqError += shards[s].sqError;
+                }
+                for (int l = 0; l < net.length; l++) {
+                    net[l].update(shards, numShards, b, getLearningRate(),
+                            getMomentum());
+                }
+                numRows += b;
+                lastShard = shards[numShards - 1];
+                pipe.recycle(batch);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read training data", e);
+        }
+
+        // Write back
+        for (int l = 0; l < net.length; l++) {
+            net[l].writeBack();
+        }
+        if (lastShard != null) {
+            for (int l = 0; l < net.length; l++) {
+                net[l].showActivations(lastShard.acts[l + 1],
+                        lastShard.rows - 1);
+            }
+        }
+
+        mse = numRows == 0 ? 0 : sqError / (numRows * numOutputs);
+        incrementIteration();
+        fireErrorUpdated();
+    }
+
+    /**
+     * @return the pipeline for the current data source and batch size
+     */
+    private BatchPipeline getPipeline() {
+        if (pipeline == null || pipeline.getBatchSize() != batchSize) {
+            RowSource source = dataSource;
+            if (source == null) {
+                source = new ArrayRowSource(network.getTrainingSet());
+            }
+            pipeline = new BatchPipeline(source, batchSize);
+            pipeline.setSeed(seed);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Compute the gradients of some shards, in parallel if there are more
+     * than one.
+     *
+     * @param toRun the shards
+     */
+    private static void run(final List<Shard> toRun) {
+        if (toRun.size() == 1) {
+            toRun.get(0).call();
+            return;
+        }
+        List<Future<Void>> results = ForkJoinPool.commonPool().invokeAll(
+                toRun);
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Copy the weights and parameters of each layer into matrices.
+     *
+     * @return the layers after the input layer, or null if the network can't
+     *         be trained with matrices
+     */
+    private Layer[] extractLayers() {
+        if (layers.size() < 2
+                || layers.get(0).size() != network.getInputNeurons().size()
+                || !layers.get(layers.size() - 1).equals(
+                        network.getOutputNeurons())) {
+            return null;
+        }
+        if (lastDeltas == null || lastDeltas.length != layers.size() - 1) {
+            lastDeltas = new double[layers.size() - 1][];
+        }
+        Layer[] ret = new Layer[layers.size() - 1];
+        for (int l = 1, n = layers.size(); l < n; l++) {
+            Layer layer = Layer.extract(l - 1, layers.get(l - 1),
+                    layers.get(l));
+            if (layer == null) {
+                return null;
+            }
+            double[] last = lastDeltas[l - 1];
+            if (last == null || last.length != layer.weights.length) {
+                last = new double[layer.weights.length];
+                lastDeltas[l - 1] = last;
+            }
+            layer.lastDeltas = last;
+            ret[l - 1] = layer;
+        }
+        return ret;
+    }
+
+    @Override
+    public void randomize() {
+        super.randomize();
+        lastDeltas = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getError() {
+        return mse;
+    }
+
+    /**
+     * @return the number of training rows per weight update
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the number of training rows per weight update. Larger batches
+     * make better use of the matrix products, but weight changes are
+     * averaged over the batch, so the learning rate usually has to be raised
+     * with the batch size.
+     *
+     * @param batchSize the batch size, at least one
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @return whether the rows are shuffled each epoch
+     */
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * @param shuffle whether to shuffle the rows each epoch
+     */
+    public void setShuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+    }
+
+    /**
+     * @return the seed of the shuffled orders
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed of the shuffled orders. Epochs are counted from the next
+     * one, so a run can be repeated by setting the same seed and weights.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        if (pipeline != null) {
+            pipeline.setSeed(seed);
+        }
+    }
+
+    /**
+     * @return the rows trained on, or null if the training set is used
+     */
+    public RowSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * Train on rows from a source instead of the network's training set,
+     * e.g. a {@link CsvRowSource} or {@link BinaryRowSource} over a file
+     * too large for memory. The source is not closed by the trainer.
+     *
+     * @param dataSource the rows, or null to use the training set again
+     */
+    public void setDataSource(RowSource dataSource) {
+        this.dataSource = dataSource;
+        pipeline = null;
+    }
+
+    /**
+     * The weights into one layer and the parameters of its neurons.
+     */
+    private static final class Layer {
+
+        /** Position of the layer, starting with the first after the input. */
+        private final int index;
+
+        /** Size of the previous layer. */
+        private final int nIn;
+
+        /** Size of this layer. */
+        private final int nOut;
+
+        /** Neurons of this layer. */
+        private final Neuron[] neurons;
+
+        /**
+         * Synapses from the previous layer, row-major by target. Null where
+         * there is no synapse.
+         */
+        private final Synapse[] synapses;
+
+        /** Weights, laid out like the synapses. */
+        private final double[] weights;
+
+        /**
+         * Lowest value of each weight. Missing and frozen synapses have
+         * equal bounds, so they don't change.
+         */
+        private final double[] lower;
+
+        /** Highest value of each weight. */
+        private final double[] upper;
+
+        /** Weight deltas of the last update. */
+        private double[] lastDeltas;
+
+        /** Rules of the neurons, where they are biased. */
+        private final BiasedUpdateRule[] biased;
+
+        /** Biases of the neurons. */
+        private final double[] biases;
+
+        /** Rules of the neurons, where they are differentiable. */
+        private final DifferentiableUpdateRule[] differentiable;
+
+        /** Squashing function of sigmoidal neurons, null for linear ones. */
+        private final SquashingFunction[] squash;
+
+        /** Upper bound of each neuron. */
+        private final double[] upperBound;
+
+        /** Lower bound of each neuron. */
+        private final double[] lowerBound;
+
+        /** Slope of each neuron. */
+        private final double[] slope;
+
+        /** Whether each linear neuron is clipped. */
+        private final boolean[] clipped;
+
+        /**
+         * Create an empty layer.
+         *
+         * @param index position of the layer
+         * @param nIn size of the previous layer
+         * @param nOut size of this layer
+         */
+        private Layer(final int index, final int nIn, final int nOut) {
+            this.index = index;
+            this.nIn = nIn;
+            this.nOut = nOut;
+            neurons = new Neuron[nOut];
+            synapses = new Synapse[nOut * nIn];
+            weights = new double[nOut * nIn];
+            lower = new double[nOut * nIn];
+            upper = new double[nOut * nIn];
+            biased = new BiasedUpdateRule[nOut];
+            biases = new double[nOut];
+            differentiable = new DifferentiableUpdateRule[nOut];
+            squash = new SquashingFunction[nOut];
+            upperBound = new double[nOut];
+            lowerBound = new double[nOut];
+            slope = new double[nOut];
+            clipped = new boolean[nOut];
+        }
+
+        /**
+         * Copy the weights between two layers and the parameters of the
+         * second.
+         *
+         * @param index position of the layer
+         * @param source the previous layer
+         * @param target the layer
+         * @return the layer, or null if it can't be represented
+         */
+        static Layer extract(final int index, final List<Neuron> source,
+                final List<Neuron> target) {
+            int nIn = source.size();
+            int nOut = target.size();
+            Map<Neuron, Integer> sourceIndex = new HashMap<Neuron, Integer>();
+            for (int i = 0; i < nIn; i++) {
+                sourceIndex.put(source.get(i), i);
+            }
+            Layer layer = new Layer(index, nIn, nOut);
+            for (int j = 0; j < nOut; j++) {
+                Neuron neuron = target.get(j);
+                if (neuron.getParentGroup() instanceof NeuronGroup
+                        && ((NeuronGroup) neuron.getParentGroup())
+                                .hasCompactFanIn()) {
+                    return null;
+                }
+                if (!layer.setRule(j, neuron.getUpdateRule())) {
+                    return null;
+                }
+                layer.neurons[j] = neuron;
+                for (Synapse synapse : neuron.getFanIn()) {
+                    Integer i = sourceIndex.get(synapse.getSource());
+                    if (i == null) {
+                        return null;
+                    }
+                    int k = j * nIn + i;
+                    double w = synapse.getStrength();
+                    layer.synapses[k] = synapse;
+                    layer.weights[k] = w;
+                    if (synapse.isFrozen()) {
+                        layer.lower[k] = w;
+                        layer.upper[k] = w;
+                    } else {
+                        // Synapse clipping is monotone, so its result is
+                        // determined by its values at the extremes
+                        layer.lower[k] = synapse.clip(synapse.getSource()
+                                .getPolarity().clip(-Double.MAX_VALUE));
+                        layer.upper[k] = synapse.clip(synapse.getSource()
+                                .getPolarity().clip(Double.MAX_VALUE));
+                    }
+                }
+            }
+            return layer;
+        }
+
+        /**
+         * Record the parameters of a neuron's rule.
+         *
+         * @param j index of the neuron
+         * @param rule the rule
+         * @return false if the rule is not supported
+         */
+        private boolean setRule(final int j, final NeuronUpdateRule rule) {
+            if (rule.getInputType() != InputType.WEIGHTED) {
+                return false;
+            }
+            if (rule instanceof SigmoidalRule) {
+                SigmoidalRule sr = (SigmoidalRule) rule;
+                if (sr.getAddNoise()) {
+                    return false;
+                }
+                squash[j] = sr.getSquashFunctionType();
+                upperBound[j] = sr.getUpperBound();
+                lowerBound[j] = sr.getLowerBound();
+                slope[j] = sr.getSlope();
+            } else if (rule instanceof LinearRule) {
+                LinearRule lr = (LinearRule) rule;
+                if (lr.getAddNoise()) {
+                    return false;
+                }
+                upperBound[j] = lr.getUpperBound();
+                lowerBound[j] = lr.getLowerBound();
+                slope[j] = lr.getSlope();
+                clipped[j] = lr.isClipped();
+            } else {
+                return false;
+            }
+            biased[j] = (BiasedUpdateRule) rule;
+            biases[j] = biased[j].getBias();
+            differentiable[j] = (DifferentiableUpdateRule) rule;
+            return true;
+        }
+
+        /**
+         * Compute the activations of this layer for some rows.
+         *
+         * @param in activations of the previous layer, rows x nIn
+         * @param inputs array for the weighted inputs, rows x nOut
+         * @param acts array for the activations, rows x nOut
+         * @param rows the number of rows
+         */
+        void forward(final double[] in, final double[] inputs,
+                final double[] acts, final int rows) {
+            MatrixKernels.multiplyTransposeB(in, weights, inputs, rows, nIn,
+                    nOut);
+            for (int r = 0; r < rows; r++) {
+                int off = r * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    double val = inputs[off + j];
+                    if (squash[j] != null) {
+                        val = squash[j].valueOf(val + biases[j],
+                                upperBound[j], lowerBound[j], slope[j]);
+                    } else {
+                        val = slope[j] * val + biases[j];
+                        if (clipped[j]) {
+                            if (val > upperBound[j]) {
+                                val = upperBound[j];
+                            } else if (val < lowerBound[j]) {
+                                val = lowerBound[j];
+                            }
+                        }
+                    }
+                    acts[off + j] = val;
+                }
+            }
+        }
+
+        /**
+         * Turn errors into error signals by multiplying them by the
+         * derivative at the weighted input, as in {@link BackpropTrainer}.
+         *
+         * @param inputs the weighted inputs, rows x nOut
+         * @param deltas the errors, replaced by the error signals
+         * @param rows the number of rows
+         */
+        void applyDerivative(final double[] inputs, final double[] deltas,
+                final int rows) {
+            for (int r = 0; r < rows; r++) {
+                int off = r * nOut;
+                for (int j = 0; j < nOut; j++) {
+                    deltas[off + j] *= differentiable[j]
+                            .getDerivative(inputs[off + j]);
+                }
+            }
+        }
+
+        /**
+         * Change the weights and biases using the gradients of the shards
+         * of a batch.
+         *
+         * @param shards the shards
+         * @param numShards the number of shards used by the batch
+         * @param b the number of rows in the batch
+         * @param learningRate the learning rate
+         * @param momentum the momentum
+         */
+        void update(final Shard[] shards, final int numShards, final int b,
+                final double learningRate, final double momentum) {
+            double rate = learningRate / b;
+            double[] gradient = shards[0].gradients[index];
+            for (int k = 0, n = weights.length; k < n; k++) {
+                double g = gradient[k];
+                for (int s = 1; s < numShards; s++) {
+                    g += shards[s].gradients[index][k];
+                }
+                double delta = rate * g + momentum * lastDeltas[k];
+                lastDeltas[k] = delta;
+                double w = weights[k] + delta;
+                if (w > upper[k]) {
+                    w = upper[k];
+                } else if (w < lower[k]) {
+                    w = lower[k];
+                }
+                weights[k] = w;
+            }
+            for (int j = 0; j < nOut; j++) {
+                double sum = 0;
+                for (int s = 0; s < numShards; s++) {
+                    sum += shards[s].biasGradients[index][j];
+                }
+                biases[j] += rate * sum;
+            }
+        }
+
+        /**
+         * Copy the weights and biases back to the network.
+         */
+        void writeBack() {
+            for (int k = 0, n = synapses.length; k < n; k++) {
+                if (synapses[k] != null) {
+                    synapses[k].forceSetStrength(weights[k]);
+                }
+            }
+            for (int j = 0; j < nOut; j++) {
+                biased[j].setBias(biases[j]);
+            }
+        }
+
+        /**
+         * Show the activations of one row on the neurons.
+         *
+         * @param acts the activations, rows x nOut
+         * @param row the row
+         */
+        void showActivations(final double[] acts, final int row) {
+            for (int j = 0; j < nOut; j++) {
+                neurons[j].forceSetActivation(acts[row * nOut + j]);
+            }
+        }
+    }
+
+    /**
+     * Work arrays for the forward and backward pass over a few rows of a
+     * batch, and the resulting gradients.
+     */
+    private static final class Shard implements Callable<Void> {
+
+        /** The layers. */
+        private final Layer[] net;
+
+        /**
+         * Activations of the input layer and then of each layer, rows x
+         * layer size.
+         */
+        private final double[][] acts;
+
+        /** Weighted inputs of each layer, rows x layer size. */
+        private final double[][] inputs;
+
+        /** Errors and error signals of each layer, rows x layer size. */
+        private final double[][] deltas;
+
+        /** Weight gradients of each layer, nOut x nIn. */
+        private final double[][] gradients;
+
+        /** Bias gradients of each layer. */
+        private final double[][] biasGradients;
+
+        /** The batch the rows are taken from. */
+        private MiniBatch batch;
+
+        /** First row of the batch. */
+        private int first;
+
+        /** Number of rows. */
+        private int rows;
+
+        /** Sum of squared output errors. */
+        private double sqError;
+
+        /**
+         * Allocate work arrays.
+         *
+         * @param net the layers
+         * @param capacity maximum number of rows
+         */
+        Shard(final Layer[] net, final int capacity) {
+            this.net = net;
+            acts = new double[net.length + 1][];
+            inputs = new double[net.length][];
+            deltas = new double[net.length][];
+            gradients = new double[net.length][];
+            biasGradients = new double[net.length][];
+            acts[0] = new double[capacity * net[0].nIn];
+            for (int l = 0; l < net.length; l++) {
+                int nOut = net[l].nOut;
+                acts[l + 1] = new double[capacity * nOut];
+                inputs[l] = new double[capacity * nOut];
+                deltas[l] = new double[capacity * nOut];
+                gradients[l] = new double[nOut * net[l].nIn];
+                biasGradients[l] = new double[nOut];
+            }
+        }
+
+        /**
+         * Set the rows to compute next.
+         *
+         * @param batch the batch
+         * @param first first row of the batch
+         * @param rows number of rows
+         */
+        void setRows(final MiniBatch batch, final int first, final int rows) {
+            this.batch = batch;
+            this.first = first;
+            this.rows = rows;
+        }
+
+        @Override
+        public Void call() {
+            int numInputs = net[0].nIn;
+            System.arraycopy(batch.getInputs(), first * numInputs, acts[0], 0,
+                    rows * numInputs);
+
+            // Forward pass
+            for (int l = 0; l < net.length; l++) {
+                net[l].forward(acts[l], inputs[l], acts[l + 1], rows);
+            }
+
+            // Output error
+            int top = net.length - 1;
+            int numOutputs = net[top].nOut;
+            double[] targets = batch.getTargets();
+            double[] outputs = acts[top + 1];
+            double[] delta = deltas[top];
+            int offset = first * numOutputs;
+            sqError = 0;
+            for (int k = 0, n = rows * numOutputs; k < n; k++) {
+                double error = targets[offset + k] - outputs[k];
+                sqError += error * error;
+                delta[k] = error;
+            }
+            net[top].applyDerivative(inputs[top], delta, rows);
+
+            // Backward pass. The weights are not changed until all shards
+            // are done.
+            for (int l = top; l >= 0; l--) {
+                Layer layer = net[l];
+                if (l > 0) {
+                    MatrixKernels.multiply(deltas[l], layer.weights,
+                            deltas[l - 1], rows, layer.nOut, layer.nIn);
+                    net[l - 1].applyDerivative(inputs[l - 1], deltas[l - 1],
+                            rows);
+                }
+                MatrixKernels.multiplyTransposeA(deltas[l], acts[l],
+                        gradients[l], layer.nOut, rows, layer.nIn);
+                double[] bias = biasGradients[l];
+                for (int j = 0; j < layer.nOut; j++) {
+                    double sum = 0;
+                    for (int r = 0; r < rows; r++) {
+                        sum += deltas[l][r * layer.nOut + j];
+                    }
+                    bias[j] = sum;
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.IOException;
+
+/**
+ * A block of training rows in reusable primitive buffers. Inputs and targets
+ * are stored row-major, one row after another, so a batch can be passed
+ * directly to matrix code. Batches are filled by a {@link BatchPipeline} and
+ * handed back to it with {@link BatchPipeline#recycle(MiniBatch)}.
+ */
+public class MiniBatch {
+
+    /** Input values, capacity x input size. */
+    private final double[] inputs;
+
+    /** Target values, capacity x target size. */
+    private final double[] targets;
+
+    /** Length of an input row. */
+    private final int inputSize;
+
+    /** Length of a target row. */
+    private final int targetSize;
+
+    /** Maximum number of rows. */
+    private final int capacity;
+
+    /** Number of rows held. */
+    private int size;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param capacity maximum number of rows
+     * @param inputSize length of an input row
+     * @param targetSize length of a target row
+     */
+    public MiniBatch(int capacity, int inputSize, int targetSize) {
+        this.capacity = capacity;
+        this.inputSize = inputSize;
+        this.targetSize = targetSize;
+        inputs = new double[capacity * inputSize];
+        targets = new double[capacity * targetSize];
+    }
+
+    /**
+     * @return the input values, row-major
+     */
+    public double[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * @return the target values, row-major
+     */
+    public double[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return the length of an input row
+     */
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return the length of a target row
+     */
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * @return the maximum number of rows
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows held
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Fill the batch from a source.
+     *
+     * @param source the source
+     * @return the number of rows read
+     * @throws IOException if the source can't be read
+     */
+    int fill(RowSource source) throws IOException {
+        size = 0;
+        while (size < capacity
+                && source.next(inputs, size * inputSize, targets, size
+                        * targetSize)) {
+            size++;
+        }
+        return size;
+    }
+
+}
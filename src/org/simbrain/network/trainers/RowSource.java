@@ -0,0 +1,74 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A sequence of training rows, each an input vector and a target vector,
+ * that can be read once per epoch. Unlike a {@link TrainingSet} the rows need
+ * not be held in memory, so a source can stream them from a file. Sources are
+ * read by one thread at a time, usually the prefetching thread of a
+ * {@link BatchPipeline}.
+ */
+public interface RowSource extends Closeable {
+
+    /**
+     * @return the length of each input vector
+     */
+    int getInputSize();
+
+    /**
+     * @return the length of each target vector, zero for unsupervised data
+     */
+    int getTargetSize();
+
+    /**
+     * Returns the number of rows, or -1 if it is not known yet, e.g. before
+     * a text file has been read once.
+     *
+     * @return the number of rows
+     */
+    long getNumRows();
+
+    /**
+     * Start a pass over the rows.
+     *
+     * @param random source of the shuffled order, or null to read the rows
+     *            in order
+     * @throws IOException if the data can't be read
+     */
+    void start(Random random) throws IOException;
+
+    /**
+     * Read the next row of the current pass.
+     *
+     * @param input array to copy the input vector into
+     * @param inputOffset position of the vector in the array
+     * @param target array to copy the target vector into
+     * @param targetOffset position of the vector in the array
+     * @return false at the end of the pass
+     * @throws IOException if the data can't be read
+     */
+    boolean next(double[] input, int inputOffset, double[] target,
+            int targetOffset) throws IOException;
+
+}
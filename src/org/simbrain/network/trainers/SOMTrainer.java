@@ -40,6 +40,12 @@ public class SOMTrainer extends Trainer {
     /** Iteration number. An epoch. */
     private int iteration = 0;
 
+    /**
+     * Whether each iteration is an epoch of the batch SOM algorithm rather
+     * than online updates.
+     */
+    private boolean batchMode;
+
     /**
      * Construct the UnsupervisedNeuronGroupTrainer trainer.
      *
@@ -59,11 +65,20 @@ public class SOMTrainer extends Trainer {
             throw new DataNotInitializedException("Input data not initalized");
         }
 
-        int numRows = network.getTrainingSet().getInputData().length;
-        for (int row = 0; row < numRows; row++) {
-            double[] inputs = network.getTrainingSet().getInputData()[row];
-            network.getInputLayer().forceSetActivations(inputs);
-            network.getSom().update(); // Call a function here to be overriden in subclasses?
+        double[][] data = network.getTrainingSet().getInputData();
+        int numRows = data.length;
+        if (network.getSom().train(network.getInputLayer().getNeuronList(),
+                data, batchMode)) {
+            network.getInputLayer().forceSetActivations(data[numRows - 1]);
+        } else if (batchMode) {
+            throw new IllegalStateException("Batch training needs every SOM "
+                    + "neuron connected to every input neuron");
+        } else {
+            for (int row = 0; row < numRows; row++) {
+                double[] inputs = data[row];
+                network.getInputLayer().forceSetActivations(inputs);
+                network.getSom().update(); // Call a function here to be overriden in subclasses?
+            }
         }
         incrementIteration();
 
@@ -72,6 +87,24 @@ public class SOMTrainer extends Trainer {
 
     }
 
+    /**
+     * @return whether iterations use the batch SOM algorithm
+     */
+    public boolean isBatchMode() {
+        return batchMode;
+    }
+
+    /**
+     * Set whether each iteration is an epoch of the batch SOM algorithm, in
+     * which the weights are set to neighborhood means of the data, rather
+     * than online updates row by row.
+     *
+     * @param batchMode whether to use the batch SOM algorithm
+     */
+    public void setBatchMode(final boolean batchMode) {
+        this.batchMode = batchMode;
+    }
+
     /**
      * @return boolean updated completed.
      */
@@ -0,0 +1,639 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.util.SimnetUtils;
+import org.simbrain.util.math.MatrixKernels;
+import org.simbrain.util.propertyeditor.ComboBoxWrapper;
+
+/**
+ * Least squares training of a linear readout from a stream of state rows,
+ * without keeping the rows. In ridge mode the correlation S'S of the states
+ * and the cross-correlation S'T of states and targets are accumulated as rows
+ * arrive, and the weights are solved for with a Cholesky factorization of
+ * S'S + alpha^2 I when they are needed. In recursive least squares mode the
+ * weights are updated after every row, with an optional forgetting factor
+ * for non-stationary data. Either way memory is O(states^2) however many rows
+ * there are.
+ * <p>
+ * Rows are collected in blocks, and each full block is folded into the
+ * statistics on the common fork-join pool while the next block is filled, so
+ * producing the rows (e.g. running a reservoir) overlaps with the
+ * arithmetic.
+ * <p>
+ * Rows come from a {@link Harvester} if one is given, and otherwise from the
+ * trainable's training set. Rows can also be pushed directly with
+ * {@link #begin(int, int)}, {@link #addSample(double[], double[])} and
+ * {@link #solve()}. As in {@link LMSOffline}, targets of sigmoidal output
+ * neurons are passed through the inverse of the sigmoid when training with
+ * {@link #apply()}.
+ */
+public class StreamingReadoutTrainer extends Trainer {
+
+    /** Number of rows folded into the statistics at once. */
+    private static final int BLOCK_ROWS = 64;
+
+    /**
+     * Regularization used to start recursive least squares when alpha is
+     * zero.
+     */
+    public static final double DEFAULT_RLS_REGULARIZATION = 1E-4;
+
+    /**
+     * Ways of computing the readout weights.
+     */
+    public enum Mode {
+
+        /**
+         * Accumulate correlations and solve at the end.
+         */
+        RIDGE {
+            @Override
+            public String toString() {
+                return "Ridge (Cholesky)";
+            }
+        },
+
+        /**
+         * Recursive least squares.
+         */
+        RLS {
+            @Override
+            public String toString() {
+                return "Recursive least squares";
+            }
+        }
+    }
+
+    /**
+     * Produces the rows to train on, e.g. by running a network over its
+     * input data.
+     */
+    public interface Harvester {
+
+        /**
+         * Pass every row to {@link StreamingReadoutTrainer#addSample(double[],
+         * double[])}.
+         *
+         * @param trainer the trainer to pass rows to
+         */
+        void harvest(StreamingReadoutTrainer trainer);
+    }
+
+    /** Source of rows, or null to read the training set. */
+    private final Harvester harvester;
+
+    /** Current mode. */
+    private Mode mode = Mode.RIDGE;
+
+    /** Mode of the current stream. */
+    private Mode streamMode;
+
+    /**
+     * The magnitude of the ridge regression. Alpha squared is added to the
+     * diagonal of the state correlation matrix, as in {@link LMSOffline}.
+     */
+    private double alpha;
+
+    /**
+     * Weight of past rows relative to the newest one in recursive least
+     * squares. One means all rows count the same.
+     */
+    private double forgettingFactor = 1;
+
+    /** Length of a state row. */
+    private int stateSize;
+
+    /** Length of a target row. */
+    private int targetSize;
+
+    /**
+     * Row-major state correlation S'S in ridge mode, or the inverse
+     * correlation estimate P in recursive least squares mode.
+     */
+    private double[] correlation;
+
+    /**
+     * Row-major cross-correlation S'T in ridge mode, or the current weights
+     * in recursive least squares mode.
+     */
+    private double[] crossCorrelation;
+
+    /** Scratch for the correlation of one block. */
+    private double[] product;
+
+    /** Scratch for the cross-correlation of one block. */
+    private double[] crossProduct;
+
+    /** Scratch for recursive least squares. */
+    private double[] gain;
+
+    /** Scratch for recursive least squares. */
+    private double[] error;
+
+    /** States of the block being filled. */
+    private double[] states;
+
+    /** Targets of the block being filled. */
+    private double[] targets;
+
+    /** States of the block being folded in. */
+    private double[] spareStates;
+
+    /** Targets of the block being folded in. */
+    private double[] spareTargets;
+
+    /** Rows in the block being filled. */
+    private int rows;
+
+    /** Rows added since {@link #begin(int, int)}. */
+    private long samples;
+
+    /** The block being folded in, or null. */
+    private Future<?> pending;
+
+    /**
+     * Sigmoidal output rules whose inverse is applied to the targets, or
+     * null.
+     */
+    private SigmoidalRule[] outputRules;
+
+    /**
+     * Construct a trainer that reads rows from the training set.
+     *
+     * @param network the trainable network to train
+     */
+    public StreamingReadoutTrainer(Trainable network) {
+        this(network, null);
+    }
+
+    /**
+     * Construct a trainer that gets its rows from a harvester.
+     *
+     * @param network the trainable network whose input neurons hold the
+     *            states and whose output neurons are trained
+     * @param harvester the source of rows
+     */
+    public StreamingReadoutTrainer(Trainable network, Harvester harvester) {
+        super(network);
+        this.harvester = harvester;
+    }
+
+    @Override
+    public void apply() throws DataNotInitializedException {
+        if (harvester == null) {
+            TrainingSet set = network.getTrainingSet();
+            if (set.getInputData() == null) {
+                throw new DataNotInitializedException(
+                        "Input data not initalized");
+            }
+            if (set.getTargetData() == null) {
+                throw new DataNotInitializedException(
+                        "Target data not initalized");
+            }
+        }
+        List<Neuron> inputs = network.getInputNeurons();
+        List<Neuron> outputs = network.getOutputNeurons();
+
+        fireTrainingBegin();
+        begin(inputs.size(), outputs.size());
+        for (int j = 0, m = outputs.size(); j < m; j++) {
+            if (outputs.get(j).getUpdateRule() instanceof SigmoidalRule) {
+                if (outputRules == null) {
+                    outputRules = new SigmoidalRule[m];
+                }
+                outputRules[j] = (SigmoidalRule) outputs.get(j)
+                        .getUpdateRule();
+            }
+        }
+
+        fireProgressUpdate("Harvesting states...", 0);
+        if (harvester != null) {
+            harvester.harvest(this);
+        } else {
+            double[][] inputData = network.getTrainingSet().getInputData();
+            double[][] targetData = network.getTrainingSet().getTargetData();
+            for (int i = 0; i < inputData.length; i++) {
+                addSample(inputData[i], targetData[i]);
+            }
+        }
+
+        fireProgressUpdate("Computing Weights...", 80);
+        double[][] wOut = solve();
+        fireProgressUpdate("Setting Weights...", 95);
+        SimnetUtils.setWeights(inputs, outputs, wOut);
+        if (network.getNetwork() instanceof SynapseGroup) {
+            ((SynapseGroup) network.getNetwork()).revalidateSynapseSets();
+        }
+        fireProgressUpdate("Done!", 100);
+        fireTrainingEnd();
+        revalidateSynapseGroups();
+    }
+
+    /**
+     * Start a new stream of rows, discarding any earlier statistics.
+     *
+     * @param stateSize the length of each state row
+     * @param targetSize the length of each target row
+     */
+    public void begin(final int stateSize, final int targetSize) {
+        if (stateSize < 1 || targetSize < 1) {
+            throw new IllegalArgumentException("Rows must not be empty");
+        }
+        await();
+        this.stateSize = stateSize;
+        this.targetSize = targetSize;
+        correlation = new double[stateSize * stateSize];
+        crossCorrelation = new double[stateSize * targetSize];
+        states = new double[BLOCK_ROWS * stateSize];
+        targets = new double[BLOCK_ROWS * targetSize];
+        spareStates = new double[BLOCK_ROWS * stateSize];
+        spareTargets = new double[BLOCK_ROWS * targetSize];
+        streamMode = mode;
+        if (streamMode == Mode.RIDGE) {
+            product = new double[stateSize * stateSize];
+            crossProduct = new double[stateSize * targetSize];
+            gain = null;
+            error = null;
+        } else {
+            product = null;
+            crossProduct = null;
+            gain = new double[stateSize];
+            error = new double[targetSize];
+            double p = 1 / getRlsRegularization();
+            for (int i = 0; i < stateSize; i++) {
+                correlation[i * stateSize + i] = p;
+            }
+        }
+        rows = 0;
+        samples = 0;
+        outputRules = null;
+    }
+
+    /**
+     * Add a row. The arrays are copied and can be reused by the caller.
+     *
+     * @param state the state row
+     * @param target the desired outputs for the state
+     */
+    public void addSample(final double[] state, final double[] target) {
+        if (states == null) {
+            throw new IllegalStateException("begin() has not been called");
+        }
+        if (state.length != stateSize || target.length != targetSize) {
+            throw new IllegalArgumentException("Expected rows of length "
+                    + stateSize + " and " + targetSize + " but got "
+                    + state.length + " and " + target.length);
+        }
+        System.arraycopy(state, 0, states, rows * stateSize, stateSize);
+        int off = rows * targetSize;
+        for (int j = 0; j < targetSize; j++) {
+            double t = target[j];
+            if (outputRules != null && outputRules[j] != null) {
+                t = outputRules[j].getInverse(t);
+            }
+            if (Double.isInfinite(t) || Double.isNaN(t)) {
+                throw new NumberFormatException("Invalid target values.");
+            }
+            targets[off + j] = t;
+        }
+        rows++;
+        samples++;
+        if (rows == BLOCK_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Compute the weights from the rows added so far. More rows can be added
+     * afterwards.
+     *
+     * @return the weights, indexed by state and then target
+     */
+    public double[][] solve() {
+        if (states == null) {
+            throw new IllegalStateException("begin() has not been called");
+        }
+        if (rows > 0) {
+            flush();
+        }
+        await();
+        double[] w = streamMode == Mode.RIDGE ? choleskySolve()
+                : crossCorrelation;
+        double[][] ret = new double[stateSize][targetSize];
+        for (int i = 0; i < stateSize; i++) {
+            System.arraycopy(w, i * targetSize, ret[i], 0, targetSize);
+        }
+        return ret;
+    }
+
+    /**
+     * Hand the block being filled to the pool and start filling the spare
+     * one.
+     */
+    private void flush() {
+        await();
+        final double[] blockStates = states;
+        final double[] blockTargets = targets;
+        final int count = rows;
+        states = spareStates;
+        targets = spareTargets;
+        spareStates = blockStates;
+        spareTargets = blockTargets;
+        rows = 0;
+        pending = ForkJoinPool.commonPool().submit(new Runnable() {
+            @Override
+            public void run() {
+                if (streamMode == Mode.RIDGE) {
+                    accumulate(blockStates, blockTargets, count);
+                } else {
+                    for (int r = 0; r < count; r++) {
+                        rlsUpdate(blockStates, r * stateSize, blockTargets,
+                                r * targetSize);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the block being folded in, if any.
+     */
+    private void await() {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    /**
+     * Add the correlations of a block of rows to the running sums.
+     *
+     * @param blockStates the states, row-major
+     * @param blockTargets the targets, row-major
+     * @param count the number of rows
+     */
+    private void accumulate(final double[] blockStates,
+            final double[] blockTargets, final int count) {
+        MatrixKernels.multiplyTransposeA(blockStates, blockStates, product,
+                stateSize, count, stateSize);
+        MatrixKernels.multiplyTransposeA(blockStates, blockTargets,
+                crossProduct, stateSize, count, targetSize);
+        for (int i = 0, n = correlation.length; i < n; i++) {
+            correlation[i] += product[i];
+        }
+        for (int i = 0, n = crossCorrelation.length; i < n; i++) {
+            crossCorrelation[i] += crossProduct[i];
+        }
+    }
+
+    /**
+     * Update the weights and inverse correlation estimate with one row.
+     *
+     * @param s states
+     * @param sOff offset of the row in s
+     * @param t targets
+     * @param tOff offset of the row in t
+     */
+    private void rlsUpdate(final double[] s, final int sOff, final double[] t,
+            final int tOff) {
+        final int n = stateSize;
+        final int m = targetSize;
+        final double[] p = correlation;
+        final double[] w = crossCorrelation;
+
+        // gain = P s / (lambda + s' P s); P is symmetric
+        double denom = forgettingFactor;
+        for (int i = 0; i < n; i++) {
+            double sum = 0;
+            for (int k = 0, row = i * n; k < n; k++) {
+                sum += p[row + k] * s[sOff + k];
+            }
+            gain[i] = sum;
+            denom += s[sOff + i] * sum;
+        }
+
+        // A priori error of the current weights
+        for (int j = 0; j < m; j++) {
+            error[j] = t[tOff + j];
+        }
+        for (int i = 0; i < n; i++) {
+            double si = s[sOff + i];
+            for (int j = 0, row = i * m; j < m; j++) {
+                error[j] -= w[row + j] * si;
+            }
+        }
+
+        // P = (P - P s s' P / denom) / lambda, W += gain * error'
+        double scale = 1 / forgettingFactor;
+        for (int i = 0; i < n; i++) {
+            double gi = gain[i] / denom;
+            for (int k = 0, row = i * n; k < n; k++) {
+                p[row + k] = (p[row + k] - gi * gain[k]) * scale;
+            }
+            for (int j = 0, row = i * m; j < m; j++) {
+                w[row + j] += gi * error[j];
+            }
+        }
+    }
+
+    /**
+     * Solve (S'S + alpha^2 I) W = S'T by Cholesky factorization.
+     *
+     * @return the weights, row-major
+     */
+    private double[] choleskySolve() {
+        final int n = stateSize;
+        final int m = targetSize;
+        double ridge = alpha * alpha;
+
+        // Lower triangle of L, with L L' = S'S + alpha^2 I
+        double[] l = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            int rowI = i * n;
+            for (int j = 0; j <= i; j++) {
+                int rowJ = j * n;
+                double sum = correlation[rowI + j];
+                for (int k = 0; k < j; k++) {
+                    sum -= l[rowI + k] * l[rowJ + k];
+                }
+                if (i == j) {
+                    sum += ridge;
+                    if (!(sum > 0)) {
+                        throw new IllegalStateException("State correlation "
+                                + "matrix is singular. Use ridge "
+                                + "regression, or check that target values "
+                                + "are in range of output units.");
+                    }
+                    l[rowI + i] = Math.sqrt(sum);
+                } else {
+                    l[rowI + j] = sum / l[rowJ + j];
+                }
+            }
+        }
+
+        // Forward substitution: L Y = S'T
+        double[] w = crossCorrelation.clone();
+        for (int i = 0; i < n; i++) {
+            int rowI = i * m;
+            for (int k = 0; k < i; k++) {
+                double lik = l[i * n + k];
+                if (lik != 0) {
+                    for (int j = 0, rowK = k * m; j < m; j++) {
+                        w[rowI + j] -= lik * w[rowK + j];
+                    }
+                }
+            }
+            double d = l[i * n + i];
+            for (int j = 0; j < m; j++) {
+                w[rowI + j] /= d;
+            }
+        }
+
+        // Back substitution: L' W = Y
+        for (int i = n - 1; i >= 0; i--) {
+            int rowI = i * m;
+            for (int k = i + 1; k < n; k++) {
+                double lki = l[k * n + i];
+                if (lki != 0) {
+                    for (int j = 0, rowK = k * m; j < m; j++) {
+                        w[rowI + j] -= lki * w[rowK + j];
+                    }
+                }
+            }
+            double d = l[i * n + i];
+            for (int j = 0; j < m; j++) {
+                w[rowI + j] /= d;
+            }
+        }
+        return w;
+    }
+
+    /**
+     * @return the regularization recursive least squares starts from
+     */
+    private double getRlsRegularization() {
+        return alpha == 0 ? DEFAULT_RLS_REGULARIZATION : alpha * alpha;
+    }
+
+    /**
+     * @return the number of rows added since the stream was started
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * @return the current mode
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Set the mode. Takes effect when the next stream is started.
+     *
+     * @param mode the mode to set
+     */
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return the mode, for the property editor
+     */
+    public ComboBoxWrapper getModeType() {
+        return new ComboBoxWrapper() {
+            public Object getCurrentObject() {
+                return mode;
+            }
+
+            public Object[] getObjects() {
+                return Mode.values();
+            }
+        };
+    }
+
+    /**
+     * @param mode the mode, from the property editor
+     */
+    public void setModeType(ComboBoxWrapper mode) {
+        setMode((Mode) mode.getCurrentObject());
+    }
+
+    /**
+     * @return the magnitude of the ridge regression
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Set the magnitude of the ridge regression. In recursive least squares
+     * mode alpha squared is the regularization the estimate starts from, and
+     * its effect fades as rows are added.
+     *
+     * @param alpha the alpha to set
+     */
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * @return the forgetting factor for recursive least squares
+     */
+    public double getForgettingFactor() {
+        return forgettingFactor;
+    }
+
+    /**
+     * Set the forgetting factor for recursive least squares, in (0, 1].
+     * Smaller values track recent rows more closely.
+     *
+     * @param forgettingFactor the forgetting factor to set
+     */
+    public void setForgettingFactor(double forgettingFactor) {
+        if (!(forgettingFactor > 0 && forgettingFactor <= 1)) {
+            throw new IllegalArgumentException(
+                    "Forgetting factor must be in (0, 1]");
+        }
+        this.forgettingFactor = forgettingFactor;
+    }
+
+}
@@ -0,0 +1,516 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.neuron_update_rules.BinaryRule;
+import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+import org.simbrain.util.math.SquashingFunction;
+import org.simbrain.util.randomizer.Randomizer;
+
+/**
+ * A "struct of arrays" snapshot of a set of neurons and the synapses which
+ * impinge on them. Activations, buffers, inputs and rule parameters are held
+ * in primitive arrays indexed by neuron position, and fan-in weights are held
+ * in compressed sparse row (CSR) form, so that a buffered update is a tight
+ * loop over arrays rather than a walk over the object graph.
+ * <p>
+ * Only neurons whose rule has an array kernel (linear, binary and discrete
+ * sigmoidal rules with weighted input and no synaptic delays) are computed on
+ * the arrays. All other neurons are "fallback" neurons: they are updated
+ * through their own {@link NeuronUpdateRule} and their activations are copied
+ * into the arrays after each update so compiled neurons can read them.
+ * <p>
+ * Neurons whose activations must be visible on the {@link Neuron} objects
+ * every tick (sources of fallback neurons or plastic synapses, neurons
+ * projecting to uncompiled neurons, and neurons in recording groups) are
+ * marked as "observed". See {@link CompiledUpdate} for when the other
+ * neurons are written back.
+ */
+public class CompiledNetwork {
+
+    /** Kernel code for neurons updated through their own rule object. */
+    static final byte FALLBACK = 0;
+
+    /** Kernel code for {@link LinearRule}. */
+    static final byte LINEAR = 1;
+
+    /** Kernel code for {@link BinaryRule}. */
+    static final byte BINARY = 2;
+
+    /** Kernel code for {@link SigmoidalRule}. */
+    static final byte SIGMOID = 3;
+
+    /** Kernel code for neurons whose activation is set externally. */
+    static final byte EXTERNAL = 4;
+
+    /** The neurons, in array order. */
+    private final Neuron[] neurons;
+
+    /** Activations of the neurons. */
+    private final double[] activations;
+
+    /**
+     * Activation each neuron object was last given or read at, to tell
+     * whether it has been edited since.
+     */
+    private final double[] synced;
+
+    /** Buffered activations computed in the first phase of an update. */
+    private final double[] buffers;
+
+    /** External inputs, pulled from the neurons each tick. */
+    private final double[] inputs;
+
+    /** Kernel code of each neuron. */
+    private final byte[] kernels;
+
+    /** Slope (linear and sigmoidal) of each neuron. */
+    private final double[] slopes;
+
+    /** Bias of each neuron. */
+    private final double[] biases;
+
+    /** Threshold (binary) of each neuron. */
+    private final double[] thresholds;
+
+    /** Upper bound of each neuron. */
+    private final double[] upperBounds;
+
+    /** Lower bound of each neuron. */
+    private final double[] lowerBounds;
+
+    /** Whether each (linear) neuron clips its activation. */
+    private final boolean[] clipping;
+
+    /** Squashing function of each sigmoidal neuron, null otherwise. */
+    private final SquashingFunction[] squashFunctions;
+
+    /** Noise source of each noisy neuron, null otherwise. */
+    private final Randomizer[] noise;
+
+    /** Whether each neuron must be written back every tick. */
+    private final boolean[] observed;
+
+    /** Row pointers into {@link #sources}/{@link #weights}, length n + 1. */
+    private final int[] rowPtr;
+
+    /** Index of the source neuron of each compiled synapse. */
+    private final int[] sources;
+
+    /** Strength of each compiled synapse. */
+    private final double[] weights;
+
+    /** The synapse objects backing {@link #weights}. */
+    private final Synapse[] synapses;
+
+    /** Indices into {@link #synapses} of synapses with a learning rule. */
+    private final int[] plastic;
+
+    /** Indices of fallback neurons. */
+    private final int[] fallbacks;
+
+    /**
+     * Compile the provided neurons. Synapses from neurons outside this list
+     * are not compiled; a neuron with such a synapse in its fan-in is a
+     * fallback neuron.
+     *
+     * @param neuronList the neurons to compile
+     * @param external neurons whose activations are set from outside the
+     *            network update (e.g. neuron groups in input mode)
+     * @param recorded neurons whose activations are read every tick by some
+     *            recorder
+     */
+    public CompiledNetwork(final List<Neuron> neuronList,
+            final List<Neuron> external, final List<Neuron> recorded) {
+        final int n = neuronList.size();
+        neurons = neuronList.toArray(new Neuron[n]);
+        activations = new double[n];
+        synced = new double[n];
+        buffers = new double[n];
+        inputs = new double[n];
+        kernels = new byte[n];
+        slopes = new double[n];
+        biases = new double[n];
+        thresholds = new double[n];
+        upperBounds = new double[n];
+        lowerBounds = new double[n];
+        clipping = new boolean[n];
+        squashFunctions = new SquashingFunction[n];
+        noise = new Randomizer[n];
+        observed = new boolean[n];
+        rowPtr = new int[n + 1];
+
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>(n);
+        for (int i = 0; i < n; i++) {
+            index.put(neurons[i], i);
+        }
+        Map<Neuron, Boolean> externalSet = new IdentityHashMap<Neuron, Boolean>();
+        for (Neuron neuron : external) {
+            externalSet.put(neuron, Boolean.TRUE);
+        }
+        for (Neuron neuron : recorded) {
+            Integer i = index.get(neuron);
+            if (i != null) {
+                observed[i] = true;
+            }
+        }
+
+        // First pass: kernels and the size of the CSR arrays
+        int nnz = 0;
+        List<Integer> fallbackList = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = neurons[i];
+            if (externalSet.containsKey(neuron)) {
+                kernels[i] = EXTERNAL;
+                continue;
+            }
+            kernels[i] = compileRule(i, neuron.getUpdateRule());
+            // Packed synapse groups are read by the neuron objects
+            NeuronGroup parent = neuron.getParentGroup() instanceof NeuronGroup
+                    ? (NeuronGroup) neuron.getParentGroup() : null;
+            if (parent != null && parent.hasCompactFanIn()) {
+                kernels[i] = FALLBACK;
+            }
+            if (kernels[i] != FALLBACK) {
+                for (Synapse s : neuron.getFanIn()) {
+                    if (s.getDelay() != 0 || !index.containsKey(s.getSource())) {
+                        kernels[i] = FALLBACK;
+                        break;
+                    }
+                }
+            }
+            if (kernels[i] == FALLBACK) {
+                fallbackList.add(i);
+                observed[i] = true;
+                for (Synapse s : neuron.getFanIn()) {
+                    markObserved(index, s.getSource());
+                }
+                if (parent != null && parent.hasCompactFanIn()) {
+                    for (SynapseGroup sg : parent.getIncomingSgs()) {
+                        if (sg.isCompact()) {
+                            for (Neuron source : sg.getSourceNeurons()) {
+                                markObserved(index, source);
+                            }
+                        }
+                    }
+                }
+            } else {
+                nnz += neuron.getFanIn().size();
+            }
+        }
+        fallbacks = new int[fallbackList.size()];
+        for (int k = 0; k < fallbacks.length; k++) {
+            fallbacks[k] = fallbackList.get(k);
+        }
+
+        // Second pass: fill the CSR arrays
+        sources = new int[nnz];
+        weights = new double[nnz];
+        synapses = new Synapse[nnz];
+        List<Integer> plasticList = new ArrayList<Integer>();
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            rowPtr[i] = k;
+            if (kernels[i] == FALLBACK || kernels[i] == EXTERNAL) {
+                continue;
+            }
+            for (Synapse s : neurons[i].getFanIn()) {
+                sources[k] = index.get(s.getSource());
+                weights[k] = s.isEnabled() ? s.getStrength() : 0;
+                synapses[k] = s;
+                if (!s.isFrozen()
+                        && !(s.getLearningRule() instanceof StaticSynapseRule)) {
+                    // Learning rules read activations off the objects
+                    plasticList.add(k);
+                    observed[i] = true;
+                    observed[sources[k]] = true;
+                }
+                k++;
+            }
+        }
+        rowPtr[n] = k;
+        plastic = new int[plasticList.size()];
+        for (int p = 0; p < plastic.length; p++) {
+            plastic[p] = plasticList.get(p);
+        }
+
+        // Neurons read by uncompiled neurons must always be written back
+        for (int i = 0; i < n; i++) {
+            for (Neuron target : neurons[i].getFanOut().keySet()) {
+                if (!index.containsKey(target)) {
+                    observed[i] = true;
+                    break;
+                }
+            }
+            activations[i] = neurons[i].getActivation();
+            synced[i] = activations[i];
+        }
+    }
+
+    /**
+     * Copy the parameters of a rule into the arrays at position i and return
+     * its kernel code, or {@link #FALLBACK} if the rule has no array kernel.
+     *
+     * @param i position of the neuron
+     * @param rule the rule to compile
+     * @return the kernel code
+     */
+    private byte compileRule(final int i, final NeuronUpdateRule rule) {
+        if (rule.getInputType() != InputType.WEIGHTED) {
+            return FALLBACK;
+        }
+        if (rule.getClass() == LinearRule.class) {
+            LinearRule lr = (LinearRule) rule;
+            slopes[i] = lr.getSlope();
+            biases[i] = lr.getBias();
+            upperBounds[i] = lr.getUpperBound();
+            lowerBounds[i] = lr.getLowerBound();
+            clipping[i] = lr.isClipped();
+            noise[i] = lr.getAddNoise() ? lr.getNoiseGenerator() : null;
+            return LINEAR;
+        } else if (rule.getClass() == BinaryRule.class) {
+            BinaryRule br = (BinaryRule) rule;
+            biases[i] = br.getBias();
+            thresholds[i] = br.getThreshold();
+            upperBounds[i] = br.getUpperBound();
+            lowerBounds[i] = br.getLowerBound();
+            return BINARY;
+        } else if (rule.getClass() == SigmoidalRule.class) {
+            SigmoidalRule sr = (SigmoidalRule) rule;
+            slopes[i] = sr.getSlope();
+            biases[i] = sr.getBias();
+            upperBounds[i] = sr.getUpperBound();
+            lowerBounds[i] = sr.getLowerBound();
+            squashFunctions[i] = sr.getSquashFunctionType();
+            noise[i] = sr.getAddNoise() ? sr.getNoiseGenerator() : null;
+            return SIGMOID;
+        }
+        return FALLBACK;
+    }
+
+    /**
+     * Mark a neuron as observed, if it is compiled.
+     *
+     * @param index neuron to position map
+     * @param neuron the neuron
+     */
+    private void markObserved(final Map<Neuron, Integer> index,
+            final Neuron neuron) {
+        Integer i = index.get(neuron);
+        if (i != null) {
+            observed[i] = true;
+        }
+    }
+
+    /**
+     * Mark every neuron as observed, so that all activations are written back
+     * every tick.
+     */
+    public void observeAll() {
+        Arrays.fill(observed, true);
+    }
+
+    /**
+     * Pull external inputs, and the activations of clamped, externally set
+     * and observed neurons, from the neuron objects. Observed neurons are
+     * written back every tick, so pulling them picks up values set from
+     * outside the network (e.g. by couplings). If pullAll is true the
+     * activations of all neurons are pulled, which picks up any edits made to
+     * neurons between updates.
+     *
+     * @param pullAll whether to pull all activations
+     */
+    public void gather(final boolean pullAll) {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            Neuron neuron = neurons[i];
+            inputs[i] = neuron.getInputValue();
+            if (pullAll || observed[i] || kernels[i] == EXTERNAL
+                    || neuron.isClamped()) {
+                activations[i] = neuron.getActivation();
+                synced[i] = activations[i];
+            }
+        }
+    }
+
+    /**
+     * First phase of a buffered update: compute the buffer of every neuron
+     * from current activations.
+     */
+    public void computeBuffers() {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            byte kernel = kernels[i];
+            if (kernel == EXTERNAL) {
+                continue;
+            }
+            if (kernel == FALLBACK) {
+                neurons[i].update();
+                continue;
+            }
+            double sum = inputs[i];
+            for (int k = rowPtr[i], end = rowPtr[i + 1]; k < end; k++) {
+                sum += weights[k] * activations[sources[k]];
+            }
+            double val;
+            switch (kernel) {
+            case LINEAR:
+                val = slopes[i] * sum + biases[i];
+                if (noise[i] != null) {
+                    val += noise[i].getRandom();
+                }
+                if (clipping[i]) {
+                    if (val > upperBounds[i]) {
+                        val = upperBounds[i];
+                    } else if (val < lowerBounds[i]) {
+                        val = lowerBounds[i];
+                    }
+                }
+                break;
+            case BINARY:
+                val = (sum + biases[i]) > thresholds[i] ? upperBounds[i]
+                        : lowerBounds[i];
+                break;
+            default: // SIGMOID
+                val = sum + biases[i];
+                if (noise[i] != null) {
+                    val += noise[i].getRandom();
+                }
+                val = squashFunctions[i].valueOf(val, upperBounds[i],
+                        lowerBounds[i], slopes[i]);
+                break;
+            }
+            buffers[i] = val;
+        }
+    }
+
+    /**
+     * Second phase of a buffered update: move buffers into activations.
+     * Fallback neurons commit on their objects and are copied back into the
+     * activation array.
+     */
+    public void commitBuffers() {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            byte kernel = kernels[i];
+            if (kernel == EXTERNAL || neurons[i].isClamped()) {
+                continue;
+            }
+            if (kernel == FALLBACK) {
+                neurons[i].setToBufferVals();
+                activations[i] = neurons[i].getActivation();
+            } else {
+                activations[i] = buffers[i];
+            }
+        }
+    }
+
+    /**
+     * Write activations back to the neuron objects.
+     *
+     * @param all if true write back every neuron, otherwise only observed
+     *            neurons
+     */
+    public void scatter(final boolean all) {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            byte kernel = kernels[i];
+            if (kernel == FALLBACK || kernel == EXTERNAL) {
+                continue;
+            }
+            if (all || observed[i]) {
+                neurons[i].setActivation(activations[i]);
+                synced[i] = activations[i];
+            }
+        }
+    }
+
+    /**
+     * Write activations back to the neuron objects which have not been edited
+     * since they were last written or read, e.g. before this snapshot is
+     * replaced. Edited neurons keep their new values.
+     */
+    public void scatterUnedited() {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            byte kernel = kernels[i];
+            if (kernel == FALLBACK || kernel == EXTERNAL) {
+                continue;
+            }
+            if (neurons[i].getActivation() == synced[i]) {
+                neurons[i].setActivation(activations[i]);
+                synced[i] = activations[i];
+            }
+        }
+    }
+
+    /**
+     * Pull the strengths of all compiled synapses into the weight array. Call
+     * this when strengths may have been set since they were last pulled;
+     * setting a strength fires no event.
+     */
+    public void refreshWeights() {
+        for (int k = 0, n = synapses.length; k < n; k++) {
+            Synapse s = synapses[k];
+            weights[k] = s.isEnabled() ? s.getStrength() : 0;
+        }
+    }
+
+    /**
+     * Pull the strengths of synapses with learning rules into the weight
+     * array, after they have been updated by their groups or the network.
+     */
+    public void pullPlasticWeights() {
+        for (int p = 0, n = plastic.length; p < n; p++) {
+            Synapse s = synapses[plastic[p]];
+            weights[plastic[p]] = s.isEnabled() ? s.getStrength() : 0;
+        }
+    }
+
+    /**
+     * @return the number of compiled neurons
+     */
+    public int getNeuronCount() {
+        return neurons.length;
+    }
+
+    /**
+     * @return the number of synapses in the CSR arrays
+     */
+    public int getSynapseCount() {
+        return weights.length;
+    }
+
+    /**
+     * @return the number of neurons updated through their own rule objects
+     */
+    public int getFallbackCount() {
+        return fallbacks.length;
+    }
+
+}
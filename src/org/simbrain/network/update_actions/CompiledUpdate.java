@@ -0,0 +1,471 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.NetworkUpdateManager.UpdateManagerListener;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.listeners.SynapseListener;
+
+/**
+ * An opt-in "compiled" update. The network is flattened into a
+ * {@link CompiledNetwork} (primitive activation, buffer and parameter arrays
+ * plus CSR fan-in weights) which is then updated as a single buffered update.
+ * The snapshot is rebuilt lazily, on the next invocation after any structural
+ * change is reported by the network (neurons, synapses or groups added,
+ * removed, or changed). Setting a synapse strength fires no event, so the
+ * compiled weights are pulled from the synapses again whenever the network
+ * reports that some strength has been set since they were last pulled.
+ * <p>
+ * This action takes over every item which is not already updated by some
+ * other action: loose neurons and synapses (unless a {@link BufferedUpdate}
+ * or {@link PriorityUpdate} is present) and plain top-level
+ * {@link NeuronGroup}s and {@link SynapseGroup}s (unless they have their own
+ * {@link UpdateGroup}). Subclasses of those groups and subnetworks have
+ * custom update logic and are left to their own actions. Use
+ * {@link #install(Network)} to replace the default actions with this one.
+ * <p>
+ * Note that all compiled neurons are updated synchronously, so unlike the
+ * default group-by-group update a group does not see the new activations of
+ * groups updated before it in the same iteration.
+ * <p>
+ * When lazy write-back is off (the default) or the network fires GUI
+ * updates, all activations are pulled from and written back to the
+ * {@link Neuron} objects every iteration. With lazy write-back on, only
+ * "observed" neurons are written back each iteration (see
+ * {@link CompiledNetwork}), plus the neurons the network reports as coupled
+ * (see {@link Network#getCoupledNeurons()}) and any neuron registered with
+ * {@link #addObservedNeuron(Neuron)}; the rest are written back by
+ * {@link #synchronize()}. Observed neurons are also pulled from the neuron
+ * objects each iteration, so values set on them by couplings are seen.
+ */
+public class CompiledUpdate implements NetworkUpdateAction, NeuronListener,
+        SynapseListener, GroupListener, UpdateManagerListener {
+
+    /** Reference to network to update. */
+    private final Network network;
+
+    /** Whether to write back only observed neurons each iteration. */
+    private boolean lazyWriteBack = false;
+
+    /** Neurons which must be written back every iteration. */
+    private List<Neuron> observedNeurons = new ArrayList<Neuron>();
+
+    /** The current snapshot, or null if none has been built. */
+    private volatile CompiledNetwork compiled;
+
+    /** Whether the snapshot must be rebuilt. */
+    private volatile boolean stale;
+
+    /** Groups in input mode whose inputs are read by this action. */
+    private List<NeuronGroup> inputGroups = new ArrayList<NeuronGroup>();
+
+    /** Groups which record their activations. */
+    private List<NeuronGroup> recordingGroups = new ArrayList<NeuronGroup>();
+
+    /** Synapse groups updated by this action. */
+    private List<SynapseGroup> synapseGroups = new ArrayList<SynapseGroup>();
+
+    /** Whether loose synapses are updated by this action. */
+    private boolean updateLooseSynapses;
+
+    /** Whether this action has registered its listeners. */
+    private boolean listening;
+
+    /** Strength edit count of the network when weights were last pulled. */
+    private long weightVersion;
+
+    /** Coupled objects version of the network when last compiled. */
+    private int coupledVersion;
+
+    /**
+     * Construct a compiled update. Listeners are registered with the network
+     * the first time the action is invoked.
+     *
+     * @param network the network to update
+     */
+    public CompiledUpdate(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Replace the default actions for loose items and plain groups with a
+     * single compiled update.
+     *
+     * @param network the network whose update manager to change
+     * @return the installed action
+     */
+    public static CompiledUpdate install(final Network network) {
+        List<NetworkUpdateAction> toRemove = new ArrayList<NetworkUpdateAction>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate
+                    || action instanceof CompiledUpdate
+                    || action instanceof PartitionedBufferedUpdate
+                    || action instanceof EventDrivenSpikingUpdate) {
+                toRemove.add(action);
+            } else if (action instanceof UpdateGroup
+                    && isCompilable(((UpdateGroup) action).getGroup())) {
+                toRemove.add(action);
+            }
+        }
+        for (NetworkUpdateAction action : toRemove) {
+            network.getUpdateManager().removeAction(action);
+        }
+        CompiledUpdate cu = new CompiledUpdate(network);
+        network.getUpdateManager().addAction(cu);
+        return cu;
+    }
+
+    /**
+     * Returns true if the group is a kind of group this action can update,
+     * i.e. a plain top-level neuron group or synapse group.
+     *
+     * @param group the group to check
+     * @return true if the group can be compiled
+     */
+    public static boolean isCompilable(final Group group) {
+        return group.isTopLevelGroup()
+                && (group.getClass() == NeuronGroup.class
+                || group.getClass() == SynapseGroup.class);
+    }
+
+    /**
+     * Register listeners. Called on the first invocation, including the first
+     * after the network is opened from xml.
+     */
+    private void init() {
+        if (observedNeurons == null) {
+            observedNeurons = new ArrayList<Neuron>();
+        }
+        inputGroups = new ArrayList<NeuronGroup>();
+        recordingGroups = new ArrayList<NeuronGroup>();
+        synapseGroups = new ArrayList<SynapseGroup>();
+        network.addNeuronListener(this);
+        network.addSynapseListener(this);
+        network.addGroupListener(this);
+        network.getUpdateManager().addListener(this);
+        listening = true;
+    }
+
+    /**
+     * Force the snapshot to be rebuilt on the next invocation. Call this after
+     * changing neuron or synapse parameters without firing network events
+     * (e.g. from a script).
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    @Override
+    public void invoke() {
+        CompiledNetwork cn = getCompiledNetwork();
+        for (int i = 0, n = inputGroups.size(); i < n; i++) {
+            inputGroups.get(i).readNextInputs();
+        }
+        boolean eager = !lazyWriteBack || network.isFireUpdates();
+        cn.gather(eager);
+        long edits = network.getStrengthEditCount();
+        if (edits != weightVersion) {
+            cn.refreshWeights();
+            weightVersion = edits;
+        }
+        cn.computeBuffers();
+        cn.commitBuffers();
+        cn.scatter(eager);
+        edits = network.getStrengthEditCount();
+        if (updateLooseSynapses) {
+            network.updateAllSynapses();
+        }
+        for (int i = 0, n = synapseGroups.size(); i < n; i++) {
+            synapseGroups.get(i).update();
+        }
+        if (edits == weightVersion) {
+            // Learning only changes plastic synapses, so pulling them
+            // brings the weights up to date
+            cn.pullPlasticWeights();
+            weightVersion = network.getStrengthEditCount();
+        }
+        for (int i = 0, n = recordingGroups.size(); i < n; i++) {
+            recordingGroups.get(i).writeActsToFile();
+        }
+    }
+
+    /**
+     * Write all compiled activations back to the neuron objects.
+     */
+    public void synchronize() {
+        CompiledNetwork cn = compiled;
+        if (cn != null) {
+            cn.scatter(true);
+        }
+    }
+
+    /**
+     * Write the activations back to the neurons, then drop the snapshot and
+     * the listeners, e.g. when the network is closed or this action is
+     * removed. Both are set up again if the action is invoked again.
+     */
+    public void dispose() {
+        synchronize();
+        compiled = null;
+        if (listening) {
+            network.removeNeuronListener(this);
+            network.removeSynapseListener(this);
+            network.removeGroupListener(this);
+            network.getUpdateManager().removeListener(this);
+            listening = false;
+        }
+    }
+
+    /**
+     * Build a snapshot of everything this action is responsible for.
+     *
+     * @return the new snapshot
+     */
+    private CompiledNetwork compile() {
+        boolean looseHandled = false;
+        List<Group> ownActions = new ArrayList<Group>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate) {
+                looseHandled = true;
+            } else if (action instanceof UpdateGroup) {
+                ownActions.add(((UpdateGroup) action).getGroup());
+            }
+        }
+        List<Neuron> neurons = new ArrayList<Neuron>();
+        List<Neuron> external = new ArrayList<Neuron>();
+        List<Neuron> recorded = new ArrayList<Neuron>(observedNeurons);
+        if (lazyWriteBack) {
+            recorded.addAll(network.getCoupledNeurons());
+        }
+        inputGroups.clear();
+        recordingGroups.clear();
+        synapseGroups.clear();
+        if (!looseHandled) {
+            neurons.addAll(network.getNeuronList());
+        }
+        updateLooseSynapses = !looseHandled;
+        for (Group group : network.getGroupList()) {
+            if (!isCompilable(group) || ownActions.contains(group)) {
+                continue;
+            }
+            if (group instanceof NeuronGroup) {
+                NeuronGroup ng = (NeuronGroup) group;
+                neurons.addAll(ng.getNeuronList());
+                if (ng.isInputMode()) {
+                    inputGroups.add(ng);
+                    external.addAll(ng.getNeuronList());
+                }
+                if (ng.isRecording()) {
+                    recordingGroups.add(ng);
+                    recorded.addAll(ng.getNeuronList());
+                }
+            } else {
+                synapseGroups.add((SynapseGroup) group);
+            }
+        }
+        CompiledNetwork cn = new CompiledNetwork(neurons, external, recorded);
+        if (!lazyWriteBack) {
+            cn.observeAll();
+        }
+        return cn;
+    }
+
+    /**
+     * @return the current snapshot, building it if needed
+     */
+    public CompiledNetwork getCompiledNetwork() {
+        if (!listening) {
+            init();
+        }
+        CompiledNetwork cn = compiled;
+        if (cn == null || stale
+                || coupledVersion != network.getCoupledObjectsVersion()) {
+            if (cn != null && lazyWriteBack) {
+                // The new snapshot reads activations off the neurons
+                cn.scatterUnedited();
+            }
+            stale = false;
+            coupledVersion = network.getCoupledObjectsVersion();
+            weightVersion = network.getStrengthEditCount();
+            cn = compile();
+            compiled = cn;
+        }
+        return cn;
+    }
+
+    /**
+     * Register a neuron whose activation is read from outside the network
+     * every iteration, so it is always written back. Neurons in couplings
+     * are registered automatically.
+     *
+     * @param neuron the neuron to observe
+     */
+    public void addObservedNeuron(final Neuron neuron) {
+        observedNeurons.add(neuron);
+        invalidate();
+    }
+
+    /**
+     * @param neuron the neuron to stop observing
+     */
+    public void removeObservedNeuron(final Neuron neuron) {
+        observedNeurons.remove(neuron);
+        invalidate();
+    }
+
+    /**
+     * @return whether only observed neurons are written back each iteration
+     */
+    public boolean isLazyWriteBack() {
+        return lazyWriteBack;
+    }
+
+    /**
+     * @param lazyWriteBack whether only observed neurons should be written
+     *            back each iteration
+     */
+    public void setLazyWriteBack(boolean lazyWriteBack) {
+        if (this.lazyWriteBack && !lazyWriteBack) {
+            synchronize();
+        }
+        this.lazyWriteBack = lazyWriteBack;
+        invalidate();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Compiled buffered update";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Buffered update of loose items and plain groups over "
+                + "primitive arrays";
+    }
+
+    @Override
+    public void neuronChanged(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void neuronTypeChanged(NetworkEvent<NeuronUpdateRule> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void labelChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void neuronMoved(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseChanged(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseTypeChanged(
+            NetworkEvent<SynapseUpdateRule> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void groupAdded(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupRemoved(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupChanged(NetworkEvent<Group> networkEvent,
+            String changeDescription) {
+        invalidate();
+    }
+
+    @Override
+    public void groupParameterChanged(NetworkEvent<Group> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+    }
+
+    @Override
+    public void actionAdded(NetworkUpdateAction action) {
+        invalidate();
+    }
+
+    @Override
+    public void actionRemoved(NetworkUpdateAction action) {
+        if (action == this) {
+            dispose();
+        }
+        invalidate();
+    }
+
+    @Override
+    public void actionOrderChanged() {
+    }
+
+}
@@ -25,8 +25,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -56,7 +58,9 @@ import org.simbrain.network.update_actions.concurrency_tools.Consumer;
 import org.simbrain.network.update_actions.concurrency_tools.Task;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
 import org.simbrain.util.randomizer.PolarizedRandomizer;
 import org.simbrain.util.randomizer.Randomizer;
 
@@ -122,6 +126,14 @@ public class ConcurrentBufferedUpdate implements NetworkUpdateAction,
 
     private CyclicTaskQueue taskSet;
 
+    /**
+     * Random stream of each neuron, kept across repartitions so that a
+     * neuron never starts its stream over. Weak so removed neurons are
+     * dropped.
+     */
+    private final Map<Neuron, SplitRandomStream> neuronStreams =
+            new WeakHashMap<Neuron, SplitRandomStream>();
+
     /** A count of the number of network changes which have taken place. */
     private AtomicInteger pendingOperations = new AtomicInteger(0);
 
@@ -415,6 +427,26 @@ public class ConcurrentBufferedUpdate implements NetworkUpdateAction,
         return Runtime.getRuntime().availableProcessors();
     }
 
+    /**
+     * Return the random stream of a neuron. It is made from a key naming the
+     * neuron, so the numbers a neuron draws do not depend on the number of
+     * threads or on which task updates it.
+     *
+     * @param neuron the neuron
+     * @return its stream, made for the current seed
+     */
+    private SplitRandomStream getNeuronStream(final Neuron neuron) {
+        synchronized (neuronStreams) {
+            SplitRandomStream stream = neuronStreams.get(neuron);
+            if (stream == null || !stream.isCurrent()) {
+                stream = network.newRandomStream(neuron.getId() == null
+                        ? "Neuron" : neuron.getId());
+                neuronStreams.put(neuron, stream);
+            }
+            return stream;
+        }
+    }
+
     private int decrementPendingOperations() {
         if (producer != null) {
             synchronized (producer) {
@@ -545,17 +577,43 @@ public class ConcurrentBufferedUpdate implements NetworkUpdateAction,
 
     }
 
-    private static class CallableTask implements Callable<Task> {
+    private class CallableTask implements Callable<Task> {
+
+    	public final BufferedUpdateTask t;
 
-    	public final Task t;
+    	/**
+    	 * Random streams of the host neurons, each bound while its neuron is
+    	 * updated. Null until the task is first performed.
+    	 */
+    	private SplitRandomStream[] streams;
     	
-    	public CallableTask(Task t) {
+    	public CallableTask(BufferedUpdateTask t) {
     		this.t = t;
     	}
     	
 		@Override
 		public Task call() throws Exception {
-			t.perform();
+			final Neuron[] hosts = t.getHosts();
+			if (streams == null || (streams.length > 0
+					&& !streams[0].isCurrent())) {
+				SplitRandomStream[] fresh =
+						new SplitRandomStream[hosts.length];
+				for (int i = 0; i < hosts.length && hosts[i] != null; i++) {
+					fresh[i] = getNeuronStream(hosts[i]);
+				}
+				streams = fresh;
+			}
+			SplitRandomStream previous = RandomStreams.bind(null);
+			try {
+				// As in BufferedUpdateTask.perform(), one stream per neuron
+				for (int i = 0; i < hosts.length && hosts[i] != null; i++) {
+					RandomStreams.bind(streams[i]);
+					hosts[i].update();
+					hosts[i].updateFanIn();
+				}
+			} finally {
+				RandomStreams.bind(previous);
+			}
 			return t;
 		}
     	
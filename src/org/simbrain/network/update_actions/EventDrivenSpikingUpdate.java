@@ -0,0 +1,386 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.NetworkUpdateManager.UpdateManagerListener;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+
+/**
+ * Buffered update of loose items and plain groups in which the synaptic input
+ * of spiking neurons is computed from spike events (see
+ * {@link SpikeEventNetwork}) rather than by calling the spike responder of
+ * every synapse on every tick. The per-tick cost of synaptic input drops from
+ * the number of synapses to the number of spikes times their fan-out, which
+ * is a large saving for sparsely firing networks. Neurons that don't qualify
+ * (non-spiking neurons, or spiking neurons with other spike responders) are
+ * updated as usual, and static synapses are not visited at all.
+ * <p>
+ * The event state is rebuilt when the network changes. Responses are
+ * carried over through the synapses, and spikes in flight and the recovery
+ * of rise and decay synapses are carried over from the old state. Responses
+ * are written back to the synapses when this action is removed, so the
+ * clock-driven update can take over. Call {@link #invalidate()} after
+ * changing responder parameters from a script.
+ */
+public class EventDrivenSpikingUpdate implements NetworkUpdateAction,
+        NeuronListener, SynapseListener, GroupListener, UpdateManagerListener {
+
+    /** Reference to network to update. */
+    private final Network network;
+
+    /** The current event state. Null when it must be rebuilt. */
+    private SpikeEventNetwork events;
+
+    /**
+     * The last event state, whose spikes in flight and rise and decay state
+     * are carried over.
+     */
+    private SpikeEventNetwork lastEvents;
+
+    /** Time step the event state was built with. */
+    private double timeStep;
+
+    /** Neurons updated by this action. */
+    private Neuron[] neurons;
+
+    /** Groups in input mode whose inputs are read by this action. */
+    private List<NeuronGroup> inputGroups = new ArrayList<NeuronGroup>();
+
+    /** Groups which record their activations. */
+    private List<NeuronGroup> recordingGroups = new ArrayList<NeuronGroup>();
+
+    /** Synapse groups updated by this action. */
+    private List<SynapseGroup> synapseGroups = new ArrayList<SynapseGroup>();
+
+    /** Loose synapses with a learning rule. */
+    private List<Synapse> plasticSynapses = new ArrayList<Synapse>();
+
+    /** Whether this action has registered its listeners. */
+    private boolean listening;
+
+    /**
+     * Construct an event-driven update. Listeners are registered with the
+     * network the first time the action is invoked.
+     *
+     * @param network the network to update
+     */
+    public EventDrivenSpikingUpdate(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Replace the default actions for loose items and plain groups with a
+     * single event-driven update.
+     *
+     * @param network the network whose update manager to change
+     * @return the installed action
+     */
+    public static EventDrivenSpikingUpdate install(final Network network) {
+        List<NetworkUpdateAction> toRemove = new ArrayList<NetworkUpdateAction>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate
+                    || action instanceof CompiledUpdate
+                    || action instanceof ConcurrentBufferedUpdate
+                    || action instanceof PartitionedBufferedUpdate
+                    || action instanceof EventDrivenSpikingUpdate) {
+                toRemove.add(action);
+            } else if (action instanceof UpdateGroup
+                    && CompiledUpdate.isCompilable(((UpdateGroup) action)
+                            .getGroup())) {
+                toRemove.add(action);
+            }
+        }
+        for (NetworkUpdateAction action : toRemove) {
+            network.getUpdateManager().removeAction(action);
+        }
+        EventDrivenSpikingUpdate edu = new EventDrivenSpikingUpdate(network);
+        network.getUpdateManager().addAction(edu);
+        return edu;
+    }
+
+    /**
+     * Register listeners. Called on the first invocation, including the first
+     * after the network is opened from xml.
+     */
+    private void init() {
+        inputGroups = new ArrayList<NeuronGroup>();
+        recordingGroups = new ArrayList<NeuronGroup>();
+        synapseGroups = new ArrayList<SynapseGroup>();
+        plasticSynapses = new ArrayList<Synapse>();
+        network.addNeuronListener(this);
+        network.addSynapseListener(this);
+        network.addGroupListener(this);
+        network.getUpdateManager().addListener(this);
+        listening = true;
+    }
+
+    /**
+     * Force the event state to be rebuilt on the next invocation. Call this
+     * after changing neuron, synapse or responder parameters without firing
+     * network events (e.g. from a script).
+     */
+    public void invalidate() {
+        if (events != null) {
+            events.release();
+            lastEvents = events;
+            events = null;
+        }
+    }
+
+    /**
+     * Drop the event state, including spikes in flight, and the listeners,
+     * e.g. when the network is closed or this action is removed. Both are set
+     * up again if the action is invoked again.
+     */
+    public void dispose() {
+        invalidate();
+        lastEvents = null;
+        if (listening) {
+            network.removeNeuronListener(this);
+            network.removeSynapseListener(this);
+            network.removeGroupListener(this);
+            network.getUpdateManager().removeListener(this);
+            listening = false;
+        }
+    }
+
+    @Override
+    public void invoke() {
+        SpikeEventNetwork sen = getSpikeEventNetwork();
+        for (int i = 0, n = inputGroups.size(); i < n; i++) {
+            inputGroups.get(i).readNextInputs();
+        }
+        sen.step();
+        final Neuron[] neurons = this.neurons;
+        for (int i = 0; i < neurons.length; i++) {
+            neurons[i].update();
+        }
+        for (int i = 0; i < neurons.length; i++) {
+            neurons[i].setToBufferVals();
+        }
+        for (int i = 0, n = plasticSynapses.size(); i < n; i++) {
+            plasticSynapses.get(i).update();
+        }
+        for (int i = 0, n = synapseGroups.size(); i < n; i++) {
+            synapseGroups.get(i).update();
+        }
+        for (int i = 0, n = recordingGroups.size(); i < n; i++) {
+            recordingGroups.get(i).writeActsToFile();
+        }
+    }
+
+    /**
+     * @return the current event state, building it if needed
+     */
+    public SpikeEventNetwork getSpikeEventNetwork() {
+        if (!listening) {
+            init();
+        }
+        if (events != null && timeStep != network.getTimeStep()) {
+            invalidate();
+        }
+        if (events == null) {
+            events = build();
+            if (lastEvents != null) {
+                events.takeStateFrom(lastEvents);
+                lastEvents = null;
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Collect everything this action is responsible for and build the event
+     * state.
+     *
+     * @return the new event state
+     */
+    private SpikeEventNetwork build() {
+        boolean looseHandled = false;
+        List<Group> ownActions = new ArrayList<Group>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate) {
+                looseHandled = true;
+            } else if (action instanceof UpdateGroup) {
+                ownActions.add(((UpdateGroup) action).getGroup());
+            }
+        }
+        List<Neuron> neuronList = new ArrayList<Neuron>();
+        inputGroups.clear();
+        recordingGroups.clear();
+        synapseGroups.clear();
+        plasticSynapses.clear();
+        if (!looseHandled) {
+            neuronList.addAll(network.getNeuronList());
+            for (Synapse s : network.getSynapseList()) {
+                if (s.getLearningRule().getClass() != StaticSynapseRule.class
+                        && !s.isFrozen()) {
+                    plasticSynapses.add(s);
+                }
+            }
+        }
+        for (Group group : network.getGroupList()) {
+            if (!CompiledUpdate.isCompilable(group)
+                    || ownActions.contains(group)) {
+                continue;
+            }
+            if (group instanceof NeuronGroup) {
+                NeuronGroup ng = (NeuronGroup) group;
+                if (ng.isInputMode()) {
+                    // Activations are set from the input data
+                    inputGroups.add(ng);
+                } else {
+                    neuronList.addAll(ng.getNeuronList());
+                }
+                if (ng.isRecording()) {
+                    recordingGroups.add(ng);
+                }
+            } else {
+                synapseGroups.add((SynapseGroup) group);
+            }
+        }
+        neurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        timeStep = network.getTimeStep();
+        return new SpikeEventNetwork(neuronList, timeStep);
+    }
+
+    @Override
+    public String getDescription() {
+        return "Event-driven spiking update";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Buffered update of loose items and plain groups, with the "
+                + "synaptic input of spiking neurons driven by spike events";
+    }
+
+    @Override
+    public void neuronChanged(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void neuronTypeChanged(NetworkEvent<NeuronUpdateRule> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void labelChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void neuronMoved(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseChanged(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseTypeChanged(
+            NetworkEvent<SynapseUpdateRule> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void groupAdded(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupRemoved(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupChanged(NetworkEvent<Group> networkEvent,
+            String changeDescription) {
+        invalidate();
+    }
+
+    @Override
+    public void groupParameterChanged(NetworkEvent<Group> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+    }
+
+    @Override
+    public void actionAdded(NetworkUpdateAction action) {
+        invalidate();
+    }
+
+    @Override
+    public void actionRemoved(NetworkUpdateAction action) {
+        if (action == this) {
+            dispose();
+        } else {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void actionOrderChanged() {
+    }
+
+}
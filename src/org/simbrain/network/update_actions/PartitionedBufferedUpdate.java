@@ -0,0 +1,799 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.simbrain.network.connections.Sparse;
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.NetworkUpdateManager.UpdateManagerListener;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.neuron_update_rules.IzhikevichRule;
+import org.simbrain.network.synapse_update_rules.spikeresponders.ConvolvedJumpAndDecay;
+import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
+import org.simbrain.util.math.SplitRandomStream;
+import org.simbrain.util.randomizer.PolarizedRandomizer;
+import org.simbrain.util.randomizer.Randomizer;
+
+/**
+ * A parallel buffered update using a fixed set of worker threads. Neurons are
+ * split into contiguous partitions of roughly equal estimated cost (one unit
+ * per neuron plus one per afferent synapse, so that neurons with large fan-in
+ * are spread out) rather than equal count. Each partition is owned by one
+ * thread; the thread invoking the network update owns the first and the
+ * others are owned by daemon workers which stay parked on a {@link Phaser}
+ * between updates. An update is two parallel phases separated by the phaser:
+ * every thread computes the buffers of its partition, then every thread
+ * commits the buffers of its partition. Nothing is allocated per update.
+ * <p>
+ * Each partition draws random numbers from its own stream, split from the
+ * network's stream (see {@link RandomStreams}), so runs with the same seed
+ * and the same number of threads are reproducible.
+ * <p>
+ * Partitions are rebuilt lazily, on the next invocation after any structural
+ * change is reported by the network. Like {@link CompiledUpdate}, this action
+ * takes over loose neurons and synapses (unless a {@link BufferedUpdate} or
+ * {@link PriorityUpdate} is present) and plain top-level neuron and synapse
+ * groups (unless they have their own {@link UpdateGroup}). Synapses are
+ * updated serially after the neurons. Use {@link #install(Network)} to
+ * replace the default actions with this one.
+ * <p>
+ * Wall-clock time of each phase is accumulated and can be read with
+ * {@link #getComputeNanos()}, {@link #getCommitNanos()} and
+ * {@link #getPartitionNanos()}. See {@link #main(String[])} for a scaling
+ * benchmark.
+ */
+public class PartitionedBufferedUpdate implements NetworkUpdateAction,
+        NeuronListener, SynapseListener, GroupListener, UpdateManagerListener {
+
+    /** Estimated cost of updating a neuron, in units of one synapse. */
+    private static final int NEURON_COST = 4;
+
+    /** Reference to network to update. */
+    private final Network network;
+
+    /** Number of threads, including the invoking thread. */
+    private int threadCount;
+
+    /** Neurons updated by this action, in partition order. */
+    private Neuron[] neurons = new Neuron[0];
+
+    /**
+     * Partition boundaries: partition p is neurons[bounds[p]] to
+     * neurons[bounds[p+1]-1].
+     */
+    private int[] bounds;
+
+    /** Whether the partitions must be rebuilt. */
+    private volatile boolean invalid = true;
+
+    /** Groups in input mode whose inputs are read by this action. */
+    private List<NeuronGroup> inputGroups = new ArrayList<NeuronGroup>();
+
+    /** Groups which record their activations. */
+    private List<NeuronGroup> recordingGroups = new ArrayList<NeuronGroup>();
+
+    /** Synapse groups updated by this action. */
+    private List<SynapseGroup> synapseGroups = new ArrayList<SynapseGroup>();
+
+    /** Whether loose synapses are updated by this action. */
+    private boolean updateLooseSynapses;
+
+    /** Whether this action has registered its listeners. */
+    private boolean listening;
+
+    /** Barrier between phases, shared with the workers. */
+    private Phaser phaser;
+
+    /** The worker threads, one per partition after the first. */
+    private Thread[] workers;
+
+    /**
+     * Set to make the current workers exit at their next start barrier. Each
+     * set of workers has its own flag, so workers being stopped never see the
+     * flag of the workers replacing them.
+     */
+    private AtomicBoolean stopped;
+
+    /** First exception thrown by a worker during the current update. */
+    private volatile Throwable workerError;
+
+    /** Total time spent in the compute phase, in nanoseconds. */
+    private long computeNanos;
+
+    /** Total time spent in the commit phase, in nanoseconds. */
+    private long commitNanos;
+
+    /**
+     * Total time each partition spent computing buffers, in nanoseconds. Each
+     * slot is only written by the thread owning the partition.
+     */
+    private long[] partitionNanos;
+
+    /** Number of updates since timings were last reset. */
+    private long updateCount;
+
+    /** Random stream of each partition. */
+    private SplitRandomStream[] streams;
+
+    /**
+     * Construct a partitioned update with one thread per available
+     * processor. Threads are started and listeners registered the first time
+     * the action is invoked.
+     *
+     * @param network the network to update
+     */
+    public PartitionedBufferedUpdate(Network network) {
+        this(network, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a partitioned update with a given number of threads.
+     *
+     * @param network the network to update
+     * @param threadCount number of threads, including the invoking thread
+     */
+    public PartitionedBufferedUpdate(Network network, int threadCount) {
+        this.network = network;
+        setThreadCount(threadCount);
+    }
+
+    /**
+     * Replace the default actions for loose items and plain groups with a
+     * single partitioned update.
+     *
+     * @param network the network whose update manager to change
+     * @param threadCount number of threads, including the invoking thread
+     * @return the installed action
+     */
+    public static PartitionedBufferedUpdate install(final Network network,
+            final int threadCount) {
+        List<NetworkUpdateAction> toRemove = new ArrayList<NetworkUpdateAction>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate
+                    || action instanceof CompiledUpdate
+                    || action instanceof ConcurrentBufferedUpdate
+                    || action instanceof PartitionedBufferedUpdate
+                    || action instanceof EventDrivenSpikingUpdate) {
+                toRemove.add(action);
+            } else if (action instanceof UpdateGroup
+                    && CompiledUpdate.isCompilable(((UpdateGroup) action)
+                            .getGroup())) {
+                toRemove.add(action);
+            }
+        }
+        for (NetworkUpdateAction action : toRemove) {
+            network.getUpdateManager().removeAction(action);
+        }
+        PartitionedBufferedUpdate pbu = new PartitionedBufferedUpdate(network,
+                threadCount);
+        network.getUpdateManager().addAction(pbu);
+        return pbu;
+    }
+
+    /**
+     * See {@link #install(Network, int)}. Uses one thread per available
+     * processor.
+     *
+     * @param network the network whose update manager to change
+     * @return the installed action
+     */
+    public static PartitionedBufferedUpdate install(final Network network) {
+        return install(network, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Register listeners and start the workers. Called on the first
+     * invocation, including the first after the network is opened from xml.
+     */
+    private void init() {
+        inputGroups = new ArrayList<NeuronGroup>();
+        recordingGroups = new ArrayList<NeuronGroup>();
+        synapseGroups = new ArrayList<SynapseGroup>();
+        network.addNeuronListener(this);
+        network.addSynapseListener(this);
+        network.addGroupListener(this);
+        network.getUpdateManager().addListener(this);
+        listening = true;
+        invalid = true;
+    }
+
+    /**
+     * Start one parked worker per partition after the first.
+     */
+    private void startWorkers() {
+        final Phaser ph = new Phaser(threadCount);
+        final AtomicBoolean stop = new AtomicBoolean();
+        phaser = ph;
+        stopped = stop;
+        partitionNanos = new long[threadCount];
+        workers = new Thread[threadCount - 1];
+        for (int i = 0; i < workers.length; i++) {
+            final int partition = i + 1;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(partition, ph, stop);
+                }
+            }, "Partitioned update worker " + partition);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Stop the worker threads and wait for them to exit. They are restarted
+     * on the next invocation.
+     */
+    public synchronized void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        stopped.set(true);
+        // Release the workers from their start barrier; they then deregister
+        phaser.arriveAndDeregister();
+        boolean interrupted = false;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        workers = null;
+        phaser = null;
+        stopped = null;
+    }
+
+    /**
+     * Stop the workers and unregister the listeners, e.g. when the network is
+     * closed or this action is removed. Both are set up again if the action
+     * is invoked again.
+     */
+    public synchronized void dispose() {
+        shutdown();
+        if (listening) {
+            network.removeNeuronListener(this);
+            network.removeSynapseListener(this);
+            network.removeGroupListener(this);
+            network.getUpdateManager().removeListener(this);
+            listening = false;
+        }
+    }
+
+    /**
+     * Body of a worker thread: wait for the start of an update, compute,
+     * wait for all partitions, commit, wait for all partitions.
+     *
+     * @param partition the partition owned by this worker
+     * @param ph the barrier of this set of workers
+     * @param stop the stop flag of this set of workers
+     */
+    private void workerLoop(final int partition, final Phaser ph,
+            final AtomicBoolean stop) {
+        while (true) {
+            ph.arriveAndAwaitAdvance();
+            if (stop.get()) {
+                ph.arriveAndDeregister();
+                return;
+            }
+            compute(partition);
+            ph.arriveAndAwaitAdvance();
+            commit(partition);
+            ph.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Compute the buffers of the neurons in one partition.
+     *
+     * @param partition the partition
+     */
+    private void compute(final int partition) {
+        long start = System.nanoTime();
+        SplitRandomStream previous = RandomStreams.bind(streams[partition]);
+        try {
+            final Neuron[] arr = neurons;
+            for (int i = bounds[partition], end = bounds[partition + 1];
+                    i < end; i++) {
+                arr[i].update();
+            }
+        } catch (Throwable t) {
+            workerError = t;
+        } finally {
+            RandomStreams.bind(previous);
+        }
+        partitionNanos[partition] += System.nanoTime() - start;
+    }
+
+    /**
+     * Move buffers into activations for the neurons in one partition.
+     *
+     * @param partition the partition
+     */
+    private void commit(final int partition) {
+        try {
+            final Neuron[] arr = neurons;
+            for (int i = bounds[partition], end = bounds[partition + 1];
+                    i < end; i++) {
+                arr[i].setToBufferVals();
+            }
+        } catch (Throwable t) {
+            workerError = t;
+        }
+    }
+
+    @Override
+    public synchronized void invoke() {
+        if (!listening) {
+            init();
+        }
+        if (invalid) {
+            partition();
+        }
+        if (workers == null) {
+            startWorkers();
+        }
+        if (streams == null || streams.length != threadCount
+                || !streams[0].isCurrent()) {
+            streams = new SplitRandomStream[threadCount];
+            SplitRandomStream stream = RandomStreams.current();
+            for (int i = 0; i < threadCount; i++) {
+                streams[i] = stream.split();
+            }
+        }
+        for (int i = 0, n = inputGroups.size(); i < n; i++) {
+            inputGroups.get(i).readNextInputs();
+        }
+        long start = System.nanoTime();
+        phaser.arriveAndAwaitAdvance();
+        compute(0);
+        phaser.arriveAndAwaitAdvance();
+        long mid = System.nanoTime();
+        commit(0);
+        phaser.arriveAndAwaitAdvance();
+        long end = System.nanoTime();
+        computeNanos += mid - start;
+        commitNanos += end - mid;
+        updateCount++;
+        if (workerError != null) {
+            Throwable t = workerError;
+            workerError = null;
+            throw new IllegalStateException("Exception while updating"
+                    + " neurons", t);
+        }
+        if (updateLooseSynapses) {
+            network.updateAllSynapses();
+        }
+        for (int i = 0, n = synapseGroups.size(); i < n; i++) {
+            synapseGroups.get(i).update();
+        }
+        for (int i = 0, n = recordingGroups.size(); i < n; i++) {
+            recordingGroups.get(i).writeActsToFile();
+        }
+    }
+
+    /**
+     * Collect everything this action is responsible for and split the
+     * neurons into partitions of roughly equal cost.
+     */
+    private void partition() {
+        invalid = false;
+        boolean looseHandled = false;
+        List<Group> ownActions = new ArrayList<Group>();
+        for (NetworkUpdateAction action : network.getUpdateManager()
+                .getActionList()) {
+            if (action instanceof BufferedUpdate
+                    || action instanceof PriorityUpdate) {
+                looseHandled = true;
+            } else if (action instanceof UpdateGroup) {
+                ownActions.add(((UpdateGroup) action).getGroup());
+            }
+        }
+        List<Neuron> neuronList = new ArrayList<Neuron>();
+        inputGroups.clear();
+        recordingGroups.clear();
+        synapseGroups.clear();
+        if (!looseHandled) {
+            neuronList.addAll(network.getNeuronList());
+        }
+        updateLooseSynapses = !looseHandled;
+        for (Group group : network.getGroupList()) {
+            if (!CompiledUpdate.isCompilable(group)
+                    || ownActions.contains(group)) {
+                continue;
+            }
+            if (group instanceof NeuronGroup) {
+                NeuronGroup ng = (NeuronGroup) group;
+                if (ng.isInputMode()) {
+                    // Activations are set from the input data
+                    inputGroups.add(ng);
+                } else {
+                    neuronList.addAll(ng.getNeuronList());
+                }
+                if (ng.isRecording()) {
+                    recordingGroups.add(ng);
+                }
+            } else {
+                synapseGroups.add((SynapseGroup) group);
+            }
+        }
+        neurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        bounds = computeBounds(neurons, threadCount);
+    }
+
+    /**
+     * Split an array of neurons into contiguous ranges of roughly equal
+     * estimated update cost.
+     *
+     * @param neurons the neurons
+     * @param parts the number of ranges
+     * @return the range boundaries, length parts + 1
+     */
+    static int[] computeBounds(final Neuron[] neurons, final int parts) {
+        long[] cumulative = new long[neurons.length + 1];
+        for (int i = 0; i < neurons.length; i++) {
+            cumulative[i + 1] = cumulative[i] + getCost(neurons[i]);
+        }
+        long total = cumulative[neurons.length];
+        int[] ret = new int[parts + 1];
+        int i = 0;
+        for (int p = 1; p < parts; p++) {
+            long target = total * p / parts;
+            while (i < neurons.length && cumulative[i] < target) {
+                i++;
+            }
+            ret[p] = i;
+        }
+        ret[parts] = neurons.length;
+        return ret;
+    }
+
+    /**
+     * @param neuron a neuron
+     * @return the estimated cost of updating the neuron
+     */
+    private static int getCost(final Neuron neuron) {
+        int cost = NEURON_COST + neuron.getFanIn().size();
+        if (neuron.getParentGroup() instanceof NeuronGroup) {
+            cost += ((NeuronGroup) neuron.getParentGroup())
+                    .getCompactFanInSize(neuron);
+        }
+        return cost;
+    }
+
+    /**
+     * Force the partitions to be rebuilt on the next invocation.
+     */
+    public void invalidate() {
+        invalid = true;
+    }
+
+    /**
+     * @return the number of threads, including the invoking thread
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Set the number of threads. Running workers are stopped and the new
+     * number are started on the next invocation.
+     *
+     * @param threadCount number of threads, including the invoking thread
+     */
+    public synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be at least"
+                    + " 1.");
+        }
+        shutdown();
+        this.threadCount = threadCount;
+        invalid = true;
+        resetTimings();
+    }
+
+    /**
+     * @return total wall-clock time of the compute phase since the last
+     *         reset, in nanoseconds
+     */
+    public long getComputeNanos() {
+        return computeNanos;
+    }
+
+    /**
+     * @return total wall-clock time of the commit phase since the last
+     *         reset, in nanoseconds
+     */
+    public long getCommitNanos() {
+        return commitNanos;
+    }
+
+    /**
+     * @return total compute time of each partition since the last reset, in
+     *         nanoseconds. The spread shows how well the work is balanced.
+     */
+    public long[] getPartitionNanos() {
+        return partitionNanos == null ? new long[threadCount]
+                : partitionNanos.clone();
+    }
+
+    /**
+     * @return number of updates since the last reset
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Reset the phase timings.
+     */
+    public synchronized void resetTimings() {
+        computeNanos = 0;
+        commitNanos = 0;
+        updateCount = 0;
+        if (partitionNanos != null) {
+            for (int i = 0; i < partitionNanos.length; i++) {
+                partitionNanos[i] = 0;
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Partitioned parallel update";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Buffered update of loose items and plain groups split across "
+                + threadCount + " threads";
+    }
+
+    @Override
+    public void neuronChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronTypeChanged(NetworkEvent<NeuronUpdateRule> networkEvent) {
+    }
+
+    @Override
+    public void labelChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void neuronMoved(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseRemoved(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseAdded(NetworkEvent<Synapse> networkEvent) {
+        invalidate();
+    }
+
+    @Override
+    public void synapseChanged(NetworkEvent<Synapse> networkEvent) {
+    }
+
+    @Override
+    public void synapseTypeChanged(
+            NetworkEvent<SynapseUpdateRule> networkEvent) {
+    }
+
+    @Override
+    public void groupAdded(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupRemoved(NetworkEvent<Group> e) {
+        invalidate();
+    }
+
+    @Override
+    public void groupChanged(NetworkEvent<Group> networkEvent,
+            String changeDescription) {
+        invalidate();
+    }
+
+    @Override
+    public void groupParameterChanged(NetworkEvent<Group> networkEvent) {
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+    }
+
+    @Override
+    public void actionAdded(NetworkUpdateAction action) {
+        invalidate();
+    }
+
+    @Override
+    public void actionRemoved(NetworkUpdateAction action) {
+        if (action == this) {
+            dispose();
+        }
+        invalidate();
+    }
+
+    @Override
+    public void actionOrderChanged() {
+    }
+
+    /**
+     * Scaling benchmark: times updates of a large sparse Izhikevich network
+     * (like the one in {@link ConcurrentBufferedUpdate#main(String[])}) with 1
+     * up to N threads. Arguments (all optional): number of neurons (default
+     * 100000), connection density (default 0.0005), timed iterations
+     * (default 200), maximum thread count (default: available processors).
+     * The default network has 5 million synapses, so give the JVM a few GB of
+     * heap.
+     *
+     * @param args see above
+     */
+    public static void main(String[] args) {
+        final int numNeurons = args.length > 0 ? Integer.parseInt(args[0])
+                : 100000;
+        final double density = args.length > 1 ? Double.parseDouble(args[1])
+                : 0.0005;
+        final int iterations = args.length > 2 ? Integer.parseInt(args[2])
+                : 200;
+        final int maxThreads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Begin Network Construction...");
+        long start = System.nanoTime();
+        Network net = new Network();
+        net.setFireUpdates(false);
+        net.setTimeStep(0.1);
+        NeuronGroup ng = new NeuronGroup(net, numNeurons);
+        Randomizer rand = new Randomizer(ProbDistribution.NORMAL);
+        for (Neuron neuron : ng.getNeuronList()) {
+            IzhikevichRule iz = new IzhikevichRule();
+            if (Math.random() < 0.2) {
+                neuron.setPolarity(Polarity.INHIBITORY);
+                iz.setRefractoryPeriod(1.0);
+                double rVal = Math.random();
+                iz.setA(0.02 + (0.08 * rVal));
+                iz.setB(0.25 - (0.05 * rVal));
+                iz.setC(-65);
+                iz.setD(2);
+            } else {
+                neuron.setPolarity(Polarity.EXCITATORY);
+                iz.setRefractoryPeriod(2.0);
+                iz.setA(0.02);
+                iz.setB(0.2);
+                double rVal = Math.random();
+                rVal *= rVal;
+                iz.setC(-65.0 + (15.0 * rVal));
+                iz.setD(8.0 - (6 * rVal));
+            }
+            rand.setParam2(1.2);
+            iz.setiBg(3.5);
+            iz.setAddNoise(true);
+            iz.setNoiseGenerator(rand);
+            neuron.setUpdateRule(iz);
+        }
+        PolarizedRandomizer exRand = new PolarizedRandomizer(
+                Polarity.EXCITATORY, ProbDistribution.LOGNORMAL);
+        PolarizedRandomizer inRand = new PolarizedRandomizer(
+                Polarity.INHIBITORY, ProbDistribution.LOGNORMAL);
+        exRand.setParam1(.25);
+        exRand.setParam2(1);
+        inRand.setParam1(2);
+        inRand.setParam2(2);
+        SynapseGroup sg = SynapseGroup.createSynapseGroup(ng, ng,
+                new Sparse(density, true, true), .8, exRand, inRand);
+        for (Synapse s : sg.getAllSynapses()) {
+            s.setFrozen(true);
+            s.forceSetStrength(s.getStrength() / 5);
+        }
+        sg.setSpikeResponder(new ConvolvedJumpAndDecay(), Polarity.EXCITATORY);
+        ConvolvedJumpAndDecay inhibJD = new ConvolvedJumpAndDecay();
+        inhibJD.setTimeConstant(6);
+        sg.setSpikeResponder(inhibJD, Polarity.INHIBITORY);
+        net.addGroup(ng);
+        net.addGroup(sg);
+        long end = System.nanoTime();
+        System.out.println("Time: "
+                + SimbrainMath.roundDouble((end - start) / Math.pow(10, 9), 6));
+        System.out.println(ng.size() + " neurons.");
+        System.out.println(sg.size() + " synapses.");
+
+        PartitionedBufferedUpdate pbu = install(net, 1);
+        double serialSecs = 0;
+        System.out.println("threads\tsecs\tspeedup\tcompute ms\tcommit ms"
+                + "\timbalance");
+        for (int t = 1; t <= maxThreads; t++) {
+            pbu.setThreadCount(t);
+            // Warm up
+            for (int i = 0; i < Math.max(10, iterations / 10); i++) {
+                net.update();
+            }
+            pbu.resetTimings();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                net.update();
+            }
+            end = System.nanoTime();
+            double secs = (end - start) / Math.pow(10, 9);
+            if (t == 1) {
+                serialSecs = secs;
+            }
+            long[] parts = pbu.getPartitionNanos();
+            long max = 0;
+            long sum = 0;
+            for (long p : parts) {
+                max = Math.max(max, p);
+                sum += p;
+            }
+            double imbalance = sum == 0 ? 1 : max / (sum / (double) t);
+            System.out.println(t + "\t"
+                    + SimbrainMath.roundDouble(secs, 4) + "\t"
+                    + SimbrainMath.roundDouble(serialSecs / secs, 3) + "\t"
+                    + SimbrainMath.roundDouble(pbu.getComputeNanos()
+                            / (1e6 * iterations), 4) + "\t"
+                    + SimbrainMath.roundDouble(pbu.getCommitNanos()
+                            / (1e6 * iterations), 4) + "\t"
+                    + SimbrainMath.roundDouble(imbalance, 3));
+        }
+        pbu.shutdown();
+    }
+
+}
@@ -0,0 +1,576 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
+import org.simbrain.network.synapse_update_rules.spikeresponders.RiseAndDecay;
+import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
+
+/**
+ * Event-driven state for the synaptic input of a set of spiking neurons.
+ * Rather than calling every fan-in synapse's spike responder on every tick,
+ * only the outgoing synapses of neurons which spiked are touched:
+ * <ul>
+ * <li>Each spike is scheduled on a delay wheel, a ring of buckets indexed by
+ * time step, in the bucket of the tick at which it reaches the target, so
+ * axonal delays cost nothing while a spike is in flight.</li>
+ * <li>{@link JumpAndDecay} responses are linear between spikes, so the
+ * responses onto a target are summed into a few "channels" (one per decay
+ * rate and sign) which are decayed with one multiplication per tick. When a
+ * spike resets a synapse's response, the synapse's old response, decayed in
+ * closed form from the tick it was last set, is swapped out of the channel
+ * sum. The closed form is that of the responder's own Euler step, so results
+ * match the clock-driven update up to rounding.</li>
+ * <li>{@link RiseAndDecay} responses saturate and so cannot be summed or
+ * decayed in closed form; each synapse's rise and decay is stepped only
+ * while it is active, i.e. from its first spike until the response has
+ * decayed to nothing. Each synapse keeps its own state, whereas the
+ * clock-driven update keeps it in the (possibly shared) responder.</li>
+ * </ul>
+ * Only "event" neurons, i.e. spiking neurons with synaptic input whose fan-in
+ * synapses all use one of these two responders, are handled here. Their
+ * excitatory and inhibitory input is written to
+ * {@link Neuron#setEventDrivenInput(double[])} each tick. See
+ * {@link EventDrivenSpikingUpdate} for how the neurons themselves are
+ * updated.
+ */
+public class SpikeEventNetwork {
+
+    /** Response magnitude below which a rise and decay synapse is idle. */
+    private static final double IDLE_THRESHOLD = 1E-12;
+
+    /** The event neurons. */
+    private final Neuron[] targets;
+
+    /** Excitatory and inhibitory input of each event neuron. */
+    private final double[][] inputs;
+
+    /** First channel of each event neuron, length targets + 1. */
+    private final int[] chanPtr;
+
+    /** Summed deviation from baseline of the responses in each channel. */
+    private final double[] chanDev;
+
+    /** Per-tick decay factor of each channel. */
+    private final double[] chanDecay;
+
+    /** Summed baseline of the responses in each channel. */
+    private final double[] chanBase;
+
+    /** Whether each channel contributes excitatory input. */
+    private final boolean[] chanExcitatory;
+
+    /** The synapses onto event neurons. */
+    private final Synapse[] synapses;
+
+    /** Index of each synapse, for carrying state over to a new snapshot. */
+    private final Map<Synapse, Integer> synapseIndex;
+
+    /** Whether each synapse uses a rise and decay responder. */
+    private final boolean[] rise;
+
+    /**
+     * Channel of each jump and decay synapse, or target index of each rise
+     * and decay synapse.
+     */
+    private final int[] synTarget;
+
+    /** Jump height of each jump and decay synapse. */
+    private final double[] jump;
+
+    /** Baseline of each jump and decay synapse. */
+    private final double[] base;
+
+    /**
+     * Deviation from baseline of each jump and decay synapse's response, as
+     * of {@link #synStep}.
+     */
+    private final double[] synDev;
+
+    /** Tick at which {@link #synDev} was set. */
+    private final long[] synStep;
+
+    /** Time step over time constant of each rise and decay synapse. */
+    private final double[] rate;
+
+    /** Maximum response of each rise and decay synapse. */
+    private final double[] maxResponse;
+
+    /** Recovery variable of each rise and decay synapse. */
+    private final double[] recovery;
+
+    /** Response (before weighting) of each rise and decay synapse. */
+    private final double[] response;
+
+    /** Whether each rise and decay synapse is in {@link #active}. */
+    private final boolean[] isActive;
+
+    /** Rise and decay synapses whose response is being stepped. */
+    private int[] active;
+
+    /** Number of entries in {@link #active}. */
+    private int numActive;
+
+    /** Neurons with at least one outgoing synapse onto an event neuron. */
+    private final Neuron[] sources;
+
+    /** First outgoing synapse of each source, length sources + 1. */
+    private final int[] outPtr;
+
+    /** Outgoing synapses of each source. */
+    private final int[] outSyn;
+
+    /** Delay of each synapse, in ticks. */
+    private final int[] delay;
+
+    /** Synapses scheduled for delivery at each tick of the wheel. */
+    private final int[][] wheelSyn;
+
+    /** Response scheduled with each entry of {@link #wheelSyn}. */
+    private final double[][] wheelVal;
+
+    /** Number of entries in each bucket of the wheel. */
+    private final int[] wheelCount;
+
+    /** Number of ticks processed. */
+    private long step;
+
+    /** Number of spikes delivered to synapses. */
+    private long deliveredCount;
+
+    /**
+     * Build the snapshot, seeding responses from the synapses.
+     *
+     * @param neuronList the neurons whose event input may be computed here
+     * @param timeStep the network time step
+     */
+    public SpikeEventNetwork(final List<Neuron> neuronList,
+            final double timeStep) {
+        List<Neuron> targetList = new ArrayList<Neuron>();
+        for (Neuron n : neuronList) {
+            if (isEventNeuron(n)) {
+                targetList.add(n);
+            }
+        }
+        targets = targetList.toArray(new Neuron[targetList.size()]);
+        inputs = new double[targets.length][2];
+        chanPtr = new int[targets.length + 1];
+
+        // Count synapses and assign channels
+        int numSyn = 0;
+        List<double[]> channelKeys = new ArrayList<double[]>();
+        for (int t = 0; t < targets.length; t++) {
+            chanPtr[t] = channelKeys.size();
+            for (Synapse s : targets[t].getFanIn()) {
+                numSyn++;
+                if (s.getSpikeResponder().getClass() != JumpAndDecay.class) {
+                    continue;
+                }
+                double[] key = jumpAndDecayKey(s, timeStep);
+                boolean found = false;
+                for (int c = chanPtr[t], n = channelKeys.size(); c < n; c++) {
+                    if (Arrays.equals(channelKeys.get(c), key)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    channelKeys.add(key);
+                }
+            }
+        }
+        int numChan = channelKeys.size();
+        chanPtr[targets.length] = numChan;
+        chanDev = new double[numChan];
+        chanDecay = new double[numChan];
+        chanBase = new double[numChan];
+        chanExcitatory = new boolean[numChan];
+        for (int c = 0; c < numChan; c++) {
+            chanDecay[c] = channelKeys.get(c)[0];
+            chanExcitatory[c] = channelKeys.get(c)[1] > 0;
+        }
+
+        synapses = new Synapse[numSyn];
+        synapseIndex = new IdentityHashMap<Synapse, Integer>(numSyn);
+        rise = new boolean[numSyn];
+        synTarget = new int[numSyn];
+        jump = new double[numSyn];
+        base = new double[numSyn];
+        synDev = new double[numSyn];
+        synStep = new long[numSyn];
+        rate = new double[numSyn];
+        maxResponse = new double[numSyn];
+        recovery = new double[numSyn];
+        response = new double[numSyn];
+        isActive = new boolean[numSyn];
+        active = new int[16];
+        delay = new int[numSyn];
+        int maxDelay = 0;
+        int m = 0;
+        for (int t = 0; t < targets.length; t++) {
+            targets[t].setEventDrivenInput(inputs[t]);
+            for (Synapse s : targets[t].getFanIn()) {
+                synapses[m] = s;
+                synapseIndex.put(s, m);
+                delay[m] = Math.max(0, s.getDelay());
+                maxDelay = Math.max(maxDelay, delay[m]);
+                SpikeResponder sr = s.getSpikeResponder();
+                if (sr.getClass() == JumpAndDecay.class) {
+                    JumpAndDecay jad = (JumpAndDecay) sr;
+                    double[] key = jumpAndDecayKey(s, timeStep);
+                    int c = chanPtr[t];
+                    while (!Arrays.equals(channelKeys.get(c), key)) {
+                        c++;
+                    }
+                    synTarget[m] = c;
+                    jump[m] = jad.getJumpHeight();
+                    base[m] = jad.getBaseLine();
+                    // The current response was set on the previous tick
+                    synStep[m] = -1;
+                    if (s.isEnabled()) {
+                        synDev[m] = s.getPsr() - base[m];
+                        chanDev[c] += synDev[m];
+                        chanBase[c] += base[m];
+                    }
+                } else {
+                    RiseAndDecay rad = (RiseAndDecay) sr;
+                    rise[m] = true;
+                    synTarget[m] = t;
+                    rate[m] = timeStep / rad.getTimeConstant();
+                    maxResponse[m] = rad.getMaximumResponse();
+                    if (s.isEnabled() && s.getStrength() != 0) {
+                        response[m] = s.getPsr() / s.getStrength();
+                        if (response[m] != 0) {
+                            activate(m);
+                        }
+                    }
+                }
+                m++;
+            }
+        }
+
+        // Outgoing synapses by source, in compressed row form
+        Map<Neuron, Integer> sourceIndex = new IdentityHashMap<Neuron, Integer>();
+        List<Neuron> sourceList = new ArrayList<Neuron>();
+        int[] srcOf = new int[numSyn];
+        for (int k = 0; k < numSyn; k++) {
+            Neuron src = synapses[k].getSource();
+            Integer i = sourceIndex.get(src);
+            if (i == null) {
+                i = sourceList.size();
+                sourceIndex.put(src, i);
+                sourceList.add(src);
+            }
+            srcOf[k] = i;
+        }
+        sources = sourceList.toArray(new Neuron[sourceList.size()]);
+        outPtr = new int[sources.length + 1];
+        outSyn = new int[numSyn];
+        for (int k = 0; k < numSyn; k++) {
+            if (synapses[k].isEnabled()) {
+                outPtr[srcOf[k] + 1]++;
+            }
+        }
+        for (int i = 0; i < sources.length; i++) {
+            outPtr[i + 1] += outPtr[i];
+        }
+        int[] fill = Arrays.copyOf(outPtr, sources.length);
+        for (int k = 0; k < numSyn; k++) {
+            if (synapses[k].isEnabled()) {
+                outSyn[fill[srcOf[k]]++] = k;
+            }
+        }
+
+        wheelSyn = new int[maxDelay + 1][16];
+        wheelVal = new double[maxDelay + 1][16];
+        wheelCount = new int[maxDelay + 1];
+    }
+
+    /**
+     * Returns true if a neuron's synaptic input can be computed from spike
+     * events: it must be a spiking neuron with synaptic input whose fan-in
+     * synapses all use a {@link JumpAndDecay} or {@link RiseAndDecay}
+     * responder.
+     *
+     * @param neuron the neuron to check
+     * @return true if the neuron is handled by event-driven input
+     */
+    public static boolean isEventNeuron(final Neuron neuron) {
+        NeuronUpdateRule rule = neuron.getUpdateRule();
+        if (!rule.isSpikingNeuron()
+                || rule.getInputType() != InputType.SYNAPTIC) {
+            return false;
+        }
+        for (Synapse s : neuron.getFanIn()) {
+            SpikeResponder sr = s.getSpikeResponder();
+            if (sr == null || (sr.getClass() != JumpAndDecay.class
+                    && sr.getClass() != RiseAndDecay.class)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The channel of a jump and decay synapse is determined by its decay
+     * factor and the sign of its response.
+     *
+     * @param s the synapse
+     * @param timeStep the network time step
+     * @return per-tick decay factor and sign of the response
+     */
+    private static double[] jumpAndDecayKey(final Synapse s,
+            final double timeStep) {
+        JumpAndDecay jad = (JumpAndDecay) s.getSpikeResponder();
+        return new double[] { 1 - timeStep / jad.getTimeConstant(),
+                jad.getJumpHeight() * s.getStrength() > 0 ? 1 : -1 };
+    }
+
+    /**
+     * Deliver the spikes due this tick and compute the input to every event
+     * neuron. Call once per tick, before the neurons are updated. Spikes
+     * are read from {@link Neuron#isSpike()} of the source neurons.
+     */
+    public void step() {
+        for (int c = 0; c < chanDev.length; c++) {
+            chanDev[c] *= chanDecay[c];
+        }
+        final int wheelSize = wheelCount.length;
+        final int slot = (int) (step % wheelSize);
+        for (int i = 0; i < sources.length; i++) {
+            if (!sources[i].isSpike()) {
+                continue;
+            }
+            for (int k = outPtr[i], end = outPtr[i + 1]; k < end; k++) {
+                int m = outSyn[k];
+                double value = rise[m] ? 0 : jump[m]
+                        * synapses[m].getStrength() - base[m];
+                if (delay[m] == 0) {
+                    deliver(m, value);
+                } else {
+                    schedule((slot + delay[m]) % wheelSize, m, value);
+                }
+            }
+        }
+        int[] due = wheelSyn[slot];
+        double[] dueVal = wheelVal[slot];
+        for (int k = 0, n = wheelCount[slot]; k < n; k++) {
+            deliver(due[k], dueVal[k]);
+        }
+        wheelCount[slot] = 0;
+
+        for (int t = 0; t < targets.length; t++) {
+            double ex = 0;
+            double in = 0;
+            for (int c = chanPtr[t], end = chanPtr[t + 1]; c < end; c++) {
+                if (chanExcitatory[c]) {
+                    ex += chanDev[c] + chanBase[c];
+                } else {
+                    in += chanDev[c] + chanBase[c];
+                }
+            }
+            inputs[t][0] = ex;
+            inputs[t][1] = in;
+        }
+        stepRiseAndDecay();
+        step++;
+    }
+
+    /**
+     * Add a spike to a bucket of the wheel.
+     *
+     * @param slot the bucket
+     * @param m the synapse
+     * @param value the response to set on delivery (jump and decay only)
+     */
+    private void schedule(final int slot, final int m, final double value) {
+        int n = wheelCount[slot];
+        if (n == wheelSyn[slot].length) {
+            wheelSyn[slot] = Arrays.copyOf(wheelSyn[slot], n * 2);
+            wheelVal[slot] = Arrays.copyOf(wheelVal[slot], n * 2);
+        }
+        wheelSyn[slot][n] = m;
+        wheelVal[slot][n] = value;
+        wheelCount[slot] = n + 1;
+    }
+
+    /**
+     * A spike reaches a synapse. Jump and decay responses are reset to the
+     * scheduled value; rise and decay synapses are set to full recovery.
+     *
+     * @param m the synapse
+     * @param value the new deviation from baseline (jump and decay only)
+     */
+    private void deliver(final int m, final double value) {
+        deliveredCount++;
+        if (rise[m]) {
+            recovery[m] = 1;
+            activate(m);
+            return;
+        }
+        int c = synTarget[m];
+        double old = synDev[m];
+        if (old != 0) {
+            old *= Math.pow(chanDecay[c], step - synStep[m]);
+        }
+        chanDev[c] += value - old;
+        synDev[m] = value;
+        synStep[m] = step;
+    }
+
+    /**
+     * @param m a rise and decay synapse to step every tick
+     */
+    private void activate(final int m) {
+        if (isActive[m]) {
+            return;
+        }
+        if (numActive == active.length) {
+            active = Arrays.copyOf(active, numActive * 2);
+        }
+        active[numActive++] = m;
+        isActive[m] = true;
+    }
+
+    /**
+     * Take one Euler step of each active rise and decay synapse, as in
+     * {@link RiseAndDecay#update(Synapse)}, add its response to its target's
+     * input, and drop synapses whose response has decayed.
+     */
+    private void stepRiseAndDecay() {
+        int kept = 0;
+        for (int k = 0; k < numActive; k++) {
+            int m = active[k];
+            double r = recovery[m] - rate[m] * recovery[m];
+            double v = response[m];
+            v += rate[m] * (Math.E * maxResponse[m] * r * (1 - v) - v);
+            recovery[m] = r;
+            response[m] = v;
+            double psr = v * synapses[m].getStrength();
+            if (psr > 0) {
+                inputs[synTarget[m]][0] += psr;
+            } else {
+                inputs[synTarget[m]][1] += psr;
+            }
+            if (Math.abs(r) < IDLE_THRESHOLD && Math.abs(v) < IDLE_THRESHOLD) {
+                recovery[m] = 0;
+                response[m] = 0;
+                isActive[m] = false;
+            } else {
+                active[kept++] = m;
+            }
+        }
+        numActive = kept;
+    }
+
+    /**
+     * Carry over the state of another snapshot which can't be written back to
+     * the synapses: the recovery of rise and decay synapses, and spikes still
+     * in flight. Only synapses present in both snapshots, with the same kind
+     * of responder, are carried over. Used when the snapshot is rebuilt.
+     *
+     * @param old the previous snapshot
+     */
+    public void takeStateFrom(final SpikeEventNetwork old) {
+        for (int k = 0; k < old.numActive; k++) {
+            int o = old.active[k];
+            Integer m = synapseIndex.get(old.synapses[o]);
+            if (m != null && rise[m]) {
+                recovery[m] = old.recovery[o];
+                response[m] = old.response[o];
+                activate(m);
+            }
+        }
+        final int oldSize = old.wheelCount.length;
+        final int oldSlot = (int) (old.step % oldSize);
+        final int wheelSize = wheelCount.length;
+        final int slot = (int) (step % wheelSize);
+        for (int s = 0; s < oldSize; s++) {
+            int remaining = (s - oldSlot + oldSize) % oldSize;
+            if (remaining >= wheelSize) {
+                continue;
+            }
+            for (int k = 0, n = old.wheelCount[s]; k < n; k++) {
+                int o = old.wheelSyn[s][k];
+                Integer m = synapseIndex.get(old.synapses[o]);
+                if (m != null && rise[m] == old.rise[o]) {
+                    schedule((slot + remaining) % wheelSize, m,
+                            old.wheelVal[s][k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write each synapse's current response back to
+     * {@link Synapse#setPsr(double)} and return the event neurons to
+     * computing their input from their fan-in.
+     */
+    public void release() {
+        for (int m = 0; m < synapses.length; m++) {
+            if (!synapses[m].isEnabled()) {
+                continue;
+            }
+            if (rise[m]) {
+                synapses[m].setPsr(response[m] * synapses[m].getStrength());
+            } else {
+                synapses[m].setPsr(base[m] + synDev[m]
+                        * Math.pow(chanDecay[synTarget[m]], step - 1
+                                - synStep[m]));
+            }
+        }
+        for (int t = 0; t < targets.length; t++) {
+            if (targets[t].getEventDrivenInput() == inputs[t]) {
+                targets[t].setEventDrivenInput(null);
+            }
+        }
+    }
+
+    /**
+     * @return the number of neurons whose input is computed from events
+     */
+    public int getEventNeuronCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return the number of synapses onto event neurons
+     */
+    public int getSynapseCount() {
+        return synapses.length;
+    }
+
+    /**
+     * @return the number of spikes delivered to synapses so far
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+}
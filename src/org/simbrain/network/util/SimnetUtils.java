@@ -15,11 +15,16 @@ package org.simbrain.network.util;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
 import org.ojalgo.access.Access2D.Builder;
 import org.ojalgo.matrix.BasicMatrix;
 import org.ojalgo.matrix.BasicMatrix.Factory;
@@ -28,6 +33,8 @@ import org.ojalgo.scalar.ComplexNumber;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.CompactSynapseStorage;
+import org.simbrain.network.groups.SynapseGroup;
 
 /**
  * <b>SimnetUtils</b> provides utility classes relating to Simbrain networks.
@@ -37,6 +44,24 @@ import org.simbrain.network.core.Synapse;
  */
 public class SimnetUtils {
 
+    /**
+     * Weight matrices up to this size have their spectral radius computed
+     * from a full eigenvalue decomposition.
+     */
+    private static final int DENSE_SPECTRUM_SIZE = 256;
+
+    /** Dimension of the Krylov subspace between Arnoldi restarts. */
+    private static final int KRYLOV_SIZE = 80;
+
+    /** Steps between convergence checks within an Arnoldi cycle. */
+    private static final int CHECK_INTERVAL = 10;
+
+    /** Default relative tolerance of the spectral radius. */
+    public static final double DEFAULT_SPECTRAL_TOLERANCE = 1E-4;
+
+    /** Default maximum number of matrix-vector products. */
+    public static final int DEFAULT_SPECTRAL_ITERATIONS = 2000;
+
     /**
      * Returns the weights connecting two lists of neurons as an N x M matrix of
      * doubles, where N is the number of source neurons, and M is the number of
@@ -190,6 +215,206 @@ public class SimnetUtils {
         scaleWeights(src, tar, desiredEigen / maxEigen);
     }
 
+    /**
+     * Scale the weights of a recurrent synapse group so that its spectral
+     * radius, the largest modulus of the eigenvalues of its weight matrix, is
+     * the desired value. Works on the sparse structure of the group, see
+     * {@link #findSpectralRadius(CompactSynapseStorage, double, int)}. A
+     * group without weights is left alone.
+     *
+     * @param group a group whose source and target are the same neurons
+     * @param desiredRadius the new spectral radius
+     */
+    public static void scaleSpectralRadius(SynapseGroup group,
+            double desiredRadius) {
+        double radius = findSpectralRadius(group.getPackedWeights(),
+                DEFAULT_SPECTRAL_TOLERANCE, DEFAULT_SPECTRAL_ITERATIONS);
+        if (radius > 0) {
+            group.scaleStrengths(desiredRadius / radius);
+        }
+    }
+
+    /**
+     * Estimate the spectral radius of a square sparse weight matrix, the
+     * largest modulus of its eigenvalues. Small matrices get a full
+     * eigenvalue decomposition. Larger ones are reduced with a restarted
+     * Arnoldi iteration that only needs matrix-vector products, so time and
+     * memory grow with the number of connections rather than the square of
+     * the number of neurons.
+     *
+     * @param weights the weights
+     * @param tolerance relative accuracy at which to stop, measured by the
+     *            residual of the dominant Ritz pair
+     * @param maxIterations maximum number of matrix-vector products
+     * @return the spectral radius, or the best estimate when the iteration
+     *         budget runs out
+     * @throws IllegalArgumentException if the matrix is not square
+     */
+    public static double findSpectralRadius(CompactSynapseStorage weights,
+            double tolerance, int maxIterations) {
+        int n = weights.getNumTar();
+        if (weights.getNumSrc() != n) {
+            throw new IllegalArgumentException(
+                    "Spectral radius of a non-square weight matrix");
+        }
+        if (n == 0 || weights.size() == 0) {
+            return 0;
+        }
+        if (n <= DENSE_SPECTRUM_SIZE) {
+            EigenvalueDecomposition eig = new Matrix(weights.toMatrix())
+                    .eig();
+            double[] re = eig.getRealEigenvalues();
+            double[] im = eig.getImagEigenvalues();
+            double max = 0;
+            for (int i = 0; i < n; i++) {
+                max = Math.max(max, Math.hypot(re[i], im[i]));
+            }
+            return max;
+        }
+        int m = Math.min(KRYLOV_SIZE, n);
+        double[][] q = new double[m + 1][n];
+        double[][] h = new double[m + 1][m];
+        // Fixed seed, so the same weights always give the same estimate
+        Random random = new Random(n);
+        double[] start = new double[n];
+        for (int i = 0; i < n; i++) {
+            start[i] = random.nextDouble() - .5;
+        }
+        double estimate = 0;
+        int used = 0;
+        while (true) {
+            double norm = Math.sqrt(dot(start, start));
+            for (int i = 0; i < n; i++) {
+                q[0][i] = start[i] / norm;
+            }
+            for (double[] row : h) {
+                Arrays.fill(row, 0);
+            }
+            int k = 0;
+            boolean invariant = false;
+            while (k < m && used < maxIterations) {
+                double[] w = q[k + 1];
+                weights.propagate(q[k], w);
+                used++;
+                double size = Math.sqrt(dot(w, w));
+                // Gram-Schmidt, repeated once to keep the basis orthogonal
+                for (int pass = 0; pass < 2; pass++) {
+                    for (int i = 0; i <= k; i++) {
+                        double c = dot(w, q[i]);
+                        h[i][k] += c;
+                        double[] qi = q[i];
+                        for (int j = 0; j < n; j++) {
+                            w[j] -= c * qi[j];
+                        }
+                    }
+                }
+                double len = Math.sqrt(dot(w, w));
+                h[k + 1][k] = len;
+                k++;
+                if (len <= 1E-10 * size) {
+                    // The Krylov space is invariant, so its eigenvalues are
+                    // exact
+                    invariant = true;
+                    break;
+                }
+                for (int j = 0; j < n; j++) {
+                    w[j] /= len;
+                }
+                if (k % CHECK_INTERVAL == 0 || k == m
+                        || used == maxIterations) {
+                    double[] ritz = dominantRitzPair(h, k, q, start);
+                    estimate = ritz[0];
+                    if (ritz[1] <= tolerance * estimate
+                            || used == maxIterations) {
+                        return estimate;
+                    }
+                }
+            }
+            if (invariant) {
+                return dominantRitzPair(h, k, q, start)[0];
+            }
+            if (used >= maxIterations) {
+                return estimate;
+            }
+            // Restart from the dominant Ritz vector, left in start
+        }
+    }
+
+    /**
+     * Find the largest eigenvalue of the leading k x k block of an Arnoldi
+     * Hessenberg matrix, and the residual of its Ritz pair. The Ritz vector
+     * (the sum of its real and imaginary parts, for a complex pair) is
+     * stored in <code>ritzVector</code>.
+     *
+     * @param h the Hessenberg matrix
+     * @param k the size of the block
+     * @param q the Arnoldi basis
+     * @param ritzVector array for the Ritz vector
+     * @return the modulus of the eigenvalue and the norm of the residual
+     */
+    private static double[] dominantRitzPair(double[][] h, int k,
+            double[][] q, double[] ritzVector) {
+        Matrix block = new Matrix(k, k);
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < k; j++) {
+                block.set(i, j, h[i][j]);
+            }
+        }
+        EigenvalueDecomposition eig = block.eig();
+        double[] re = eig.getRealEigenvalues();
+        double[] im = eig.getImagEigenvalues();
+        int best = 0;
+        for (int i = 1; i < k; i++) {
+            if (Math.hypot(re[i], im[i]) > Math.hypot(re[best], im[best])) {
+                best = i;
+            }
+        }
+        // A complex pair is held in two columns of V, as real and imaginary
+        // parts
+        double[][] v = eig.getV().getArray();
+        int reCol = best;
+        int imCol = -1;
+        if (im[best] > 0) {
+            imCol = best + 1;
+        } else if (im[best] < 0) {
+            reCol = best - 1;
+            imCol = best;
+        }
+        double yNorm = 0;
+        double[] y = new double[k];
+        for (int i = 0; i < k; i++) {
+            double a = v[i][reCol];
+            double b = imCol < 0 ? 0 : v[i][imCol];
+            yNorm += a * a + b * b;
+            y[i] = a + b;
+        }
+        double last = Math.hypot(v[k - 1][reCol], imCol < 0 ? 0
+                : v[k - 1][imCol]);
+        double residual = Math.abs(h[k][k - 1]) * last / Math.sqrt(yNorm);
+        Arrays.fill(ritzVector, 0);
+        for (int i = 0; i < k; i++) {
+            double[] qi = q[i];
+            double yi = y[i];
+            for (int j = 0; j < ritzVector.length; j++) {
+                ritzVector[j] += yi * qi[j];
+            }
+        }
+        return new double[] { Math.hypot(re[best], im[best]), residual };
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector of the same length
+     * @return the dot product of the vectors
+     */
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
     /**
      * Return the upper left corner of a list of objects, based on neurons.
      *
@@ -0,0 +1,351 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+
+/**
+ * Records the activations or spikes of a list of neurons to a binary file.
+ * The updating thread only copies a primitive snapshot of the neurons into
+ * the next slot of a single-producer single-consumer ring buffer; a
+ * background thread encodes the slots into a direct little-endian
+ * {@link ByteBuffer} and writes it through a {@link FileChannel}. If the
+ * writer falls behind by a full ring, the updating thread waits for it, so no
+ * data is lost.
+ * <p>
+ * File layout (little-endian): a header of {@link #MAGIC} (int),
+ * {@link #VERSION} (int), a mode byte ({@link #MODE_FLOAT_32},
+ * {@link #MODE_FLOAT_64} or {@link #MODE_SPIKES}) and the number of neurons
+ * (int), followed by records. In the activation modes each record is the
+ * time (double) followed by one float or double per neuron. In spike mode
+ * each record is one spike event: the time (double) and the neuron index
+ * (int). Use {@link ActivityRecordingReader} to read the files back.
+ */
+public class ActivityRecorder {
+
+    /** File signature, "SBRC". */
+    public static final int MAGIC = 0x53425243;
+
+    /** File format version. */
+    public static final int VERSION = 1;
+
+    /** Mode byte for 32 bit activation records. */
+    public static final byte MODE_FLOAT_32 = 0;
+
+    /** Mode byte for 64 bit activation records. */
+    public static final byte MODE_FLOAT_64 = 1;
+
+    /** Mode byte for spike event records. */
+    public static final byte MODE_SPIKES = 2;
+
+    /** Size of the file header in bytes. */
+    public static final int HEADER_SIZE = 13;
+
+    /** Default number of slots in the ring buffer. */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** Size of the output buffer, if larger than one record. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Number of neurons recorded. */
+    private final int numNeurons;
+
+    /** Whether spikes rather than activations are recorded. */
+    private final boolean spikes;
+
+    /** Precision of recorded activations. */
+    private final Precision precision;
+
+    /** Time of each slot. */
+    private final double[] slotTimes;
+
+    /** Activations of each slot, in activation mode. */
+    private final double[][] slotValues;
+
+    /** Indices of spiking neurons of each slot, in spike mode. */
+    private final int[][] slotSpikes;
+
+    /** Number of spikes in each slot, in spike mode. */
+    private final int[] slotSpikeCounts;
+
+    /** Number of slots published by the updating thread. */
+    private volatile long head;
+
+    /** Number of slots consumed by the writer. */
+    private volatile long tail;
+
+    /** Set when no more slots will be published. */
+    private volatile boolean closed;
+
+    /** Set by the writer before it parks on an empty ring. */
+    private volatile boolean writerParked;
+
+    /** Exception thrown by the writer, if any. */
+    private volatile IOException writerError;
+
+    /** The output channel. */
+    private final FileChannel channel;
+
+    /** Encoding buffer, only used by the writer thread. */
+    private final ByteBuffer buffer;
+
+    /** The background writer. */
+    private final Thread writer;
+
+    /**
+     * Open a recording file and start the writer.
+     *
+     * @param file the file to write
+     * @param numNeurons number of neurons recorded
+     * @param spikes whether to record spike events rather than activations
+     * @param precision precision of activations; ignored for spikes
+     * @param capacity number of slots in the ring buffer
+     * @throws IOException if the file cannot be opened
+     */
+    @SuppressWarnings("resource")
+    public ActivityRecorder(final File file, final int numNeurons,
+            final boolean spikes, final Precision precision,
+            final int capacity) throws IOException {
+        this.numNeurons = numNeurons;
+        this.spikes = spikes;
+        this.precision = precision;
+        slotTimes = new double[capacity];
+        if (spikes) {
+            slotValues = null;
+            slotSpikes = new int[capacity][numNeurons];
+            slotSpikeCounts = new int[capacity];
+        } else {
+            slotValues = new double[capacity][numNeurons];
+            slotSpikes = null;
+            slotSpikeCounts = null;
+        }
+        int recordSize = spikes ? 12 : 8 + numNeurons
+                * (precision == Precision.FLOAT_32 ? 4 : 8);
+        buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, recordSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        channel = new FileOutputStream(file).getChannel();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.put(spikes ? MODE_SPIKES
+                : precision == Precision.FLOAT_32 ? MODE_FLOAT_32
+                        : MODE_FLOAT_64);
+        buffer.putInt(numNeurons);
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Activity recorder " + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Open a recording file with the default ring buffer capacity.
+     *
+     * @param file the file to write
+     * @param numNeurons number of neurons recorded
+     * @param spikes whether to record spike events rather than activations
+     * @param precision precision of activations; ignored for spikes
+     * @throws IOException if the file cannot be opened
+     */
+    public ActivityRecorder(final File file, final int numNeurons,
+            final boolean spikes, final Precision precision)
+            throws IOException {
+        this(file, numNeurons, spikes, precision, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Copy the state of the neurons into the ring buffer. Called from the
+     * updating thread. Extra neurons are ignored and missing ones are
+     * recorded as zero.
+     *
+     * @param time the network time
+     * @param neurons the neurons to record
+     * @throws IllegalStateException if the recorder is closed or the writer
+     *             has failed
+     */
+    public void record(final double time, final List<Neuron> neurons) {
+        if (closed) {
+            throw new IllegalStateException("Recorder is closed.");
+        }
+        final int capacity = slotTimes.length;
+        long h = head;
+        while (h - tail >= capacity) {
+            if (writerError != null || !writer.isAlive()) {
+                throw new IllegalStateException("Recording failed.",
+                        writerError);
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50000);
+        }
+        int slot = (int) (h % capacity);
+        slotTimes[slot] = time;
+        int n = Math.min(numNeurons, neurons.size());
+        if (spikes) {
+            int[] indices = slotSpikes[slot];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                if (neurons.get(i).isSpike()) {
+                    indices[count++] = i;
+                }
+            }
+            slotSpikeCounts[slot] = count;
+        } else {
+            double[] values = slotValues[slot];
+            for (int i = 0; i < n; i++) {
+                values[i] = neurons.get(i).getActivation();
+            }
+            for (int i = n; i < numNeurons; i++) {
+                values[i] = 0;
+            }
+        }
+        head = h + 1;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Body of the writer thread: encode published slots until closed and
+     * drained, then flush.
+     */
+    private void writeLoop() {
+        try {
+            final int capacity = slotTimes.length;
+            while (true) {
+                long t = tail;
+                if (t == head) {
+                    if (closed && t == head) {
+                        break;
+                    }
+                    writerParked = true;
+                    if (t == head && !closed) {
+                        LockSupport.parkNanos(this, 1000000);
+                    }
+                    writerParked = false;
+                    continue;
+                }
+                encode((int) (t % capacity));
+                tail = t + 1;
+            }
+            flush();
+        } catch (IOException e) {
+            writerError = e;
+        }
+    }
+
+    /**
+     * Encode one slot into the output buffer, flushing it when full.
+     *
+     * @param slot the slot
+     * @throws IOException if the buffer cannot be written
+     */
+    private void encode(final int slot) throws IOException {
+        double time = slotTimes[slot];
+        if (spikes) {
+            int[] indices = slotSpikes[slot];
+            for (int k = 0, n = slotSpikeCounts[slot]; k < n; k++) {
+                if (buffer.remaining() < 12) {
+                    flush();
+                }
+                buffer.putDouble(time);
+                buffer.putInt(indices[k]);
+            }
+        } else {
+            double[] values = slotValues[slot];
+            int size = 8 + numNeurons
+                    * (precision == Precision.FLOAT_32 ? 4 : 8);
+            if (buffer.remaining() < size) {
+                flush();
+            }
+            buffer.putDouble(time);
+            if (precision == Precision.FLOAT_32) {
+                for (int i = 0; i < numNeurons; i++) {
+                    buffer.putFloat((float) values[i]);
+                }
+            } else {
+                for (int i = 0; i < numNeurons; i++) {
+                    buffer.putDouble(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the contents of the output buffer to the channel.
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Wait for the writer to write everything recorded so far, then close the
+     * file.
+     *
+     * @throws IOException if writing or closing the file failed
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writerError != null) {
+            throw writerError;
+        }
+    }
+
+    /**
+     * @return number of neurons recorded
+     */
+    public int getNumNeurons() {
+        return numNeurons;
+    }
+
+    /**
+     * @return whether spikes rather than activations are recorded
+     */
+    public boolean isSpikes() {
+        return spikes;
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+
+/**
+ * Reads files written by {@link ActivityRecorder}, one record at a time. For
+ * activation recordings call {@link #readFrame(double[])}; for spike
+ * recordings call {@link #readSpike()}. In both cases {@link #getTime()}
+ * gives the time of the last record read.
+ */
+public class ActivityRecordingReader implements Closeable {
+
+    /** Size of the read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The input channel. */
+    private final FileChannel channel;
+
+    /** Read buffer. */
+    private final ByteBuffer buffer;
+
+    /** Mode byte read from the header. */
+    private final byte mode;
+
+    /** Number of neurons read from the header. */
+    private final int numNeurons;
+
+    /** Size of one record in bytes. */
+    private final int recordSize;
+
+    /** Time of the last record read. */
+    private double time;
+
+    /** Neuron index of the last spike read. */
+    private int index;
+
+    /**
+     * Open a recording and read its header.
+     *
+     * @param file the recording
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    @SuppressWarnings("resource")
+    public ActivityRecordingReader(final File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer header = ByteBuffer
+                    .allocate(ActivityRecorder.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Not an activity recording: "
+                            + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != ActivityRecorder.MAGIC) {
+                throw new IOException("Not an activity recording: " + file);
+            }
+            int version = header.getInt();
+            if (version != ActivityRecorder.VERSION) {
+                throw new IOException("Unsupported recording version "
+                        + version);
+            }
+            mode = header.get();
+            numNeurons = header.getInt();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (mode == ActivityRecorder.MODE_SPIKES) {
+            recordSize = 12;
+        } else if (mode == ActivityRecorder.MODE_FLOAT_32) {
+            recordSize = 8 + 4 * numNeurons;
+        } else {
+            recordSize = 8 + 8 * numNeurons;
+        }
+        buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, recordSize))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+    }
+
+    /**
+     * Make sure the buffer holds at least one full record.
+     *
+     * @return false at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    private boolean fill() throws IOException {
+        if (buffer.remaining() >= recordSize) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < recordSize) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= recordSize;
+    }
+
+    /**
+     * Read the next frame of an activation recording.
+     *
+     * @param values array to read activations into, of length at least
+     *            {@link #getNumNeurons()}
+     * @return false at the end of the recording
+     * @throws IOException if the file cannot be read
+     */
+    public boolean readFrame(final double[] values) throws IOException {
+        if (isSpikeRecording()) {
+            throw new IllegalStateException("Recording holds spikes.");
+        }
+        if (!fill()) {
+            return false;
+        }
+        time = buffer.getDouble();
+        if (mode == ActivityRecorder.MODE_FLOAT_32) {
+            for (int i = 0; i < numNeurons; i++) {
+                values[i] = buffer.getFloat();
+            }
+        } else {
+            for (int i = 0; i < numNeurons; i++) {
+                values[i] = buffer.getDouble();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the next event of a spike recording. Its time and neuron index are
+     * then available from {@link #getTime()} and {@link #getIndex()}.
+     *
+     * @return false at the end of the recording
+     * @throws IOException if the file cannot be read
+     */
+    public boolean readSpike() throws IOException {
+        if (!isSpikeRecording()) {
+            throw new IllegalStateException("Recording holds activations.");
+        }
+        if (!fill()) {
+            return false;
+        }
+        time = buffer.getDouble();
+        index = buffer.getInt();
+        return true;
+    }
+
+    /**
+     * Write the rest of the recording in the text formats used by
+     * {@link org.simbrain.network.groups.NeuronGroup#startRecording(File)}:
+     * one comma separated line of activations per frame, or one line per
+     * time step listing the time followed by the indices of the neurons that
+     * spiked.
+     *
+     * @param file the csv file to write
+     * @throws IOException if either file cannot be accessed
+     */
+    public void exportToCsv(final File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileOutputStream(file))) {
+            if (isSpikeRecording()) {
+                boolean first = true;
+                double lineTime = 0;
+                while (readSpike()) {
+                    if (first || time != lineTime) {
+                        if (!first) {
+                            out.println();
+                        }
+                        out.print(time + " ");
+                        lineTime = time;
+                        first = false;
+                    }
+                    out.print(index + " ");
+                }
+                if (!first) {
+                    out.println();
+                }
+            } else {
+                double[] values = new double[numNeurons];
+                while (readFrame(values)) {
+                    for (int i = 0; i < numNeurons; i++) {
+                        if (i > 0) {
+                            out.print(", ");
+                        }
+                        out.print(values[i]);
+                    }
+                    out.println();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return whether the recording holds spikes rather than activations
+     */
+    public boolean isSpikeRecording() {
+        return mode == ActivityRecorder.MODE_SPIKES;
+    }
+
+    /**
+     * @return the number of neurons recorded
+     */
+    public int getNumNeurons() {
+        return numNeurons;
+    }
+
+    /**
+     * @return the precision of an activation recording
+     */
+    public Precision getPrecision() {
+        return mode == ActivityRecorder.MODE_FLOAT_32 ? Precision.FLOAT_32
+                : Precision.FLOAT_64;
+    }
+
+    /**
+     * @return time of the last record read
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @return neuron index of the last spike read
+     */
+    public int getIndex() {
+        return index;
+    }
+
+}
@@ -19,11 +19,12 @@
 package org.simbrain.network.util.io_utilities;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.simbrain.network.connections.Sparse;
@@ -57,39 +58,65 @@ public class GroupSerializer {
         FLOAT_32 {
             @Override
             public byte[] asByteArray(double d) {
-                ByteBuffer b = ByteBuffer.allocate(4);
-                b.putInt(Float.floatToIntBits((float) d));
-                return b.array();
+                return toBytes(Float.floatToIntBits((float) d), 4);
             }
 
             @Override
             public byte[] asByteArray(long l) {
-                double d = Double.longBitsToDouble(l);
-                ByteBuffer b = ByteBuffer.allocate(4);
-                b.putInt(Float.floatToIntBits((float) d));
-                return b.array();
+                return asByteArray(Double.longBitsToDouble(l));
+            }
+
+            @Override
+            void write(DataOutput out, long l) throws IOException {
+                out.writeFloat((float) Double.longBitsToDouble(l));
             }
 
         },
         FLOAT_64 {
             @Override
             public byte[] asByteArray(double d) {
-                ByteBuffer b = ByteBuffer.allocate(8);
-                b.putLong(Double.doubleToLongBits(d));
-                return b.array();
+                return asByteArray(Double.doubleToLongBits(d));
             }
 
             @Override
             public byte[] asByteArray(long l) {
-                ByteBuffer b = ByteBuffer.allocate(8);
-                b.putLong(l);
-                return b.array();
+                return toBytes(l, 8);
+            }
+
+            @Override
+            void write(DataOutput out, long l) throws IOException {
+                out.writeLong(l);
             }
         };
 
         public abstract byte[] asByteArray(double d);
 
         public abstract byte[] asByteArray(long l);
+
+        /**
+         * Write a double given as long bits in this precision.
+         *
+         * @param out where to write
+         * @param l the bits of the double
+         * @throws IOException if the output cannot be written
+         */
+        abstract void write(DataOutput out, long l) throws IOException;
+
+        /**
+         * Big-endian bytes of the low bytes of a long.
+         *
+         * @param bits the value
+         * @param numBytes number of bytes
+         * @return the bytes
+         */
+        private static byte[] toBytes(long bits, int numBytes) {
+            byte[] ret = new byte[numBytes];
+            for (int i = numBytes - 1; i >= 0; i--) {
+                ret[i] = (byte) bits;
+                bits >>>= 8;
+            }
+            return ret;
+        }
     }
 
     /**
@@ -139,91 +166,73 @@ public class GroupSerializer {
     public static byte[] rowCompMat2CompByteArray(long[] riCompressedMat,
             Precision precision) {
         final byte maxByte = -1;
-        List<Byte> preByteArray = new ArrayList<Byte>();
-        boolean switchedToShorts = false;
-        boolean switchedToInts = false;
-        ByteBuffer buff = ByteBuffer.allocate(4);
-        buff.putInt((int) riCompressedMat[0]);
-        for (byte b : buff.array()) {
-            preByteArray.add(b);
-        }
-        int numNonZero = 0;
-        for (int i = 1, n = riCompressedMat.length; i < n; i++) {
-            if (numNonZero < riCompressedMat[0]) {
-                if (riCompressedMat[i] == -1) { // Blank row
-                    // New Row code
-                    for (int k = 0; k < 4; k++) {
-                        preByteArray.add(maxByte);
-                    }
-                    switchedToShorts = false;
-                    switchedToInts = false;
-                    continue;
-                }
-                if (i > 1) {
-                    if (riCompressedMat[i - 1] >= riCompressedMat[i]) {
-                        // New row code
-                        for (int k = 0; k < 4; k++) {
-                            preByteArray.add(maxByte);
-                        }
+        // Index and weight bytes, with no per value allocation
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                riCompressedMat.length);
+        DataOutputStream preByteArray = new DataOutputStream(bytes);
+        try {
+            boolean switchedToShorts = false;
+            boolean switchedToInts = false;
+            preByteArray.writeInt((int) riCompressedMat[0]);
+            int numNonZero = 0;
+            for (int i = 1, n = riCompressedMat.length; i < n; i++) {
+                if (numNonZero < riCompressedMat[0]) {
+                    if (riCompressedMat[i] == -1) { // Blank row
+                        // New Row code
+                        preByteArray.writeInt(-1);
                         switchedToShorts = false;
                         switchedToInts = false;
+                        continue;
+                    }
+                    if (i > 1) {
+                        if (riCompressedMat[i - 1] >= riCompressedMat[i]) {
+                            // New row code
+                            preByteArray.writeInt(-1);
+                            switchedToShorts = false;
+                            switchedToInts = false;
+                        }
                     }
-                }
 
-                if (!switchedToShorts && !switchedToInts) {
-                    if (riCompressedMat[i] > Byte.MAX_VALUE * 2) {
-                        switchedToShorts = true;
-                        preByteArray.add(maxByte);
-                        if (riCompressedMat[i] > Short.MAX_VALUE * 2) {
-                            switchedToInts = true;
-                            preByteArray.add(maxByte);
-                            preByteArray.add(maxByte);
+                    if (!switchedToShorts && !switchedToInts) {
+                        if (riCompressedMat[i] > Byte.MAX_VALUE * 2) {
+                            switchedToShorts = true;
+                            preByteArray.writeByte(maxByte);
+                            if (riCompressedMat[i] > Short.MAX_VALUE * 2) {
+                                switchedToInts = true;
+                                preByteArray.writeByte(maxByte);
+                                preByteArray.writeByte(maxByte);
+                            }
+                        } else {
+                            preByteArray.writeByte((int) riCompressedMat[i]);
+                            numNonZero++;
                         }
-                    } else {
-                        preByteArray
-                                .add((byte) (((int) riCompressedMat[i]) << 24
-                                >>> 24));
-                        numNonZero++;
                     }
-                }
 
-                if (switchedToShorts && !switchedToInts) {
-                    if (riCompressedMat[i] > Short.MAX_VALUE * 2) {
-                        switchedToInts = true;
-                        // No longer using shorts end code
-                        preByteArray.add(maxByte);
-                        preByteArray.add(maxByte);
-                    } else {
-                        ByteBuffer b = ByteBuffer.allocate(2);
-                        b.putShort((short) (((int) riCompressedMat[i]) << 16 >>> 16));
-                        numNonZero++;
-                        for (byte sec : b.array()) {
-                            preByteArray.add(sec);
+                    if (switchedToShorts && !switchedToInts) {
+                        if (riCompressedMat[i] > Short.MAX_VALUE * 2) {
+                            switchedToInts = true;
+                            // No longer using shorts end code
+                            preByteArray.writeByte(maxByte);
+                            preByteArray.writeByte(maxByte);
+                        } else {
+                            preByteArray.writeShort((int) riCompressedMat[i]);
+                            numNonZero++;
                         }
                     }
-                }
 
-                if (switchedToInts) {
-                    ByteBuffer b = ByteBuffer.allocate(4);
-                    b.putInt((int) riCompressedMat[i]);
-                    numNonZero++;
-                    for (byte sec : b.array()) {
-                        preByteArray.add(sec);
+                    if (switchedToInts) {
+                        preByteArray.writeInt((int) riCompressedMat[i]);
+                        numNonZero++;
                     }
-                }
-            } else {
-                byte[] bytes = precision.asByteArray(riCompressedMat[i]);
-                for (byte b : bytes) {
-                    preByteArray.add(b);
+                } else {
+                    precision.write(preByteArray, riCompressedMat[i]);
                 }
             }
+        } catch (IOException e) {
+            // Not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
         }
-        byte[] byteArr = new byte[preByteArray.size()];
-        int i = 0;
-        for (Byte b : preByteArray) {
-            byteArr[i++] = b.byteValue();
-        }
-        return byteArr;
+        return bytes.toByteArray();
     }
 
     /**
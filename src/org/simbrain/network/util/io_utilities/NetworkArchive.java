@@ -0,0 +1,220 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+import org.simbrain.network.core.Network;
+
+/**
+ * Binary network archive format. Compared to saving a network as xml, bulk
+ * data is kept out of the xml tree and written in binary blocks, and all of
+ * it is streamed through NIO channels in bounded chunks, so saving and
+ * opening large networks neither builds a DOM nor holds a second copy of the
+ * model in memory.
+ * <p>
+ * File layout (little-endian): a header of {@link #MAGIC} (int) and
+ * {@link #VERSION} (int), followed by chunks. Each chunk starts with a type
+ * byte, a codec byte (see {@link Codec}), the length of its uncompressed
+ * payload (int) and the length of its stored payload (int). The chunks are:
+ * <ul>
+ * <li>{@link #STRUCTURE} chunks, which together hold the network as xml,
+ * written with a streaming driver. Synapse groups which are saved as weight
+ * matrices (see
+ * {@link org.simbrain.network.groups.SynapseGroup#isSavedAsWeightMatrix()})
+ * are written without their synapses.</li>
+ * <li>{@link #SYNAPSE_BLOCK} chunks, which hold the weights of those groups
+ * in compressed sparse column form, a range of target neurons at a time
+ * (see {@link NetworkArchiveWriter}).</li>
+ * <li>One {@link #INDEX} chunk, which lists the position of the first block
+ * of each synapse group, so groups can be loaded lazily (see
+ * {@link NetworkArchiveReader#readStructure()}).</li>
+ * </ul>
+ * The file ends with the position of the index chunk (long) and
+ * {@link #MAGIC} (int).
+ */
+public final class NetworkArchive {
+
+    /** File signature, "SBNA" on disk. */
+    public static final int MAGIC = 0x414E4253;
+
+    /** File format version. */
+    public static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    public static final int HEADER_SIZE = 8;
+
+    /** Size of a chunk header in bytes. */
+    public static final int CHUNK_HEADER_SIZE = 10;
+
+    /** Size of the file trailer in bytes. */
+    public static final int TRAILER_SIZE = 12;
+
+    /** Chunk type of a piece of the network xml. */
+    public static final byte STRUCTURE = 1;
+
+    /** Chunk type of a block of synapse weights. */
+    public static final byte SYNAPSE_BLOCK = 2;
+
+    /** Chunk type of the synapse group index. */
+    public static final byte INDEX = 3;
+
+    /** Default file extension of network archives. */
+    public static final String EXTENSION = "snb";
+
+    /**
+     * How the payload of a chunk is stored.
+     */
+    public enum Codec {
+
+        /** Stored as is. */
+        NONE(0),
+
+        /** Compressed with {@link java.util.zip.Deflater}. */
+        DEFLATE(1);
+
+        /** The codec byte written to the file. */
+        private final byte id;
+
+        /**
+         * @param id the codec byte
+         */
+        Codec(final int id) {
+            this.id = (byte) id;
+        }
+
+        /**
+         * @return the codec byte written to the file
+         */
+        public byte getId() {
+            return id;
+        }
+
+        /**
+         * Find the codec for a codec byte.
+         *
+         * @param id the codec byte
+         * @return the codec
+         * @throws IOException if the codec is unknown
+         */
+        public static Codec forId(final byte id) throws IOException {
+            for (Codec codec : values()) {
+                if (codec.id == id) {
+                    return codec;
+                }
+            }
+            throw new IOException("Unsupported chunk codec " + id);
+        }
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private NetworkArchive() {
+    }
+
+    /**
+     * Check whether a stream holds a network archive, without consuming it.
+     *
+     * @param input the stream, which must support mark and reset
+     * @return true if the stream starts with {@link #MAGIC}
+     * @throws IOException if the stream cannot be read
+     */
+    public static boolean isArchive(final InputStream input)
+            throws IOException {
+        input.mark(4);
+        int magic = 0;
+        int i = 0;
+        for (int b; i < 4 && (b = input.read()) >= 0; i++) {
+            magic |= b << (8 * i);
+        }
+        input.reset();
+        return i == 4 && magic == MAGIC;
+    }
+
+    /**
+     * Write a network to a stream, which is not closed.
+     *
+     * @param network the network
+     * @param output the stream
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(final Network network, final OutputStream output)
+            throws IOException {
+        NetworkArchiveWriter writer = new NetworkArchiveWriter(
+                Channels.newChannel(output));
+        writer.write(network);
+    }
+
+    /**
+     * Write a network to a file.
+     *
+     * @param network the network
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(final Network network, final File file)
+            throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            new NetworkArchiveWriter(channel).write(network);
+        }
+    }
+
+    /**
+     * Read a network, with all its weights, from a stream, which is not
+     * closed. If the stream is a {@link FileInputStream} its channel is read
+     * directly.
+     *
+     * @param input the stream
+     * @return the network
+     * @throws IOException if the stream cannot be read or is not an archive
+     */
+    @SuppressWarnings("resource")
+    public static Network read(final InputStream input) throws IOException {
+        ReadableByteChannel channel;
+        if (input instanceof FileInputStream) {
+            channel = ((FileInputStream) input).getChannel();
+        } else {
+            channel = Channels.newChannel(input);
+        }
+        return new NetworkArchiveReader(channel).readNetwork();
+    }
+
+    /**
+     * Read a network, with all its weights, from a file.
+     *
+     * @param file the file
+     * @return the network
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    public static Network read(final File file) throws IOException {
+        try (NetworkArchiveReader reader = new NetworkArchiveReader(file)) {
+            return reader.readNetwork();
+        }
+    }
+
+}
@@ -0,0 +1,575 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.groups.HeapSynapseStorage;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.util.io_utilities.NetworkArchive.Codec;
+
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+
+/**
+ * Reads networks in the {@link NetworkArchive} format. {@link #readNetwork()}
+ * reads an archive front to back and works on any channel. On a file,
+ * {@link #readStructure()} reads only the network structure, after which the
+ * weights of synapse groups can be loaded one at a time with
+ * {@link #loadSynapseGroup(SynapseGroup)}.
+ */
+public class NetworkArchiveReader implements Closeable {
+
+    /** The input channel. */
+    private final ReadableByteChannel channel;
+
+    /** Position of the channel. */
+    private long position;
+
+    /** Decompressor. */
+    private final Inflater inflater = new Inflater();
+
+    /** Buffer for chunk headers. */
+    private final ByteBuffer header = ByteBuffer
+            .allocate(NetworkArchive.CHUNK_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Stored payload of the current chunk, grown as needed. */
+    private ByteBuffer stored = ByteBuffer.allocate(0);
+
+    /** Uncompressed payload of the current chunk, grown as needed. */
+    private ByteBuffer payload = ByteBuffer.allocate(0);
+
+    /** Type of the chunk whose header was read, or -1. */
+    private int pendingType = -1;
+
+    /** Codec of the chunk whose header was read. */
+    private Codec pendingCodec;
+
+    /** Uncompressed length of the chunk whose header was read. */
+    private int pendingRawLength;
+
+    /** Stored length of the chunk whose header was read. */
+    private int pendingStoredLength;
+
+    /**
+     * Position of the first block of each synapse group, by group id. Read
+     * by {@link #readStructure()}.
+     */
+    private Map<String, Long> index;
+
+    /**
+     * Open an archive file.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    @SuppressWarnings("resource")
+    public NetworkArchiveReader(final File file) throws IOException {
+        this(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * Open an archive on a channel, which must be positioned at its start.
+     * The channel is closed by {@link #close()}.
+     *
+     * @param channel the channel
+     * @throws IOException if the channel cannot be read or does not hold an
+     *             archive
+     */
+    public NetworkArchiveReader(final ReadableByteChannel channel)
+            throws IOException {
+        this.channel = channel;
+        ByteBuffer fileHeader = ByteBuffer
+                .allocate(NetworkArchive.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            readFully(fileHeader);
+        } catch (EOFException e) {
+            throw new IOException("Not a network archive.");
+        }
+        fileHeader.flip();
+        if (fileHeader.getInt() != NetworkArchive.MAGIC) {
+            throw new IOException("Not a network archive.");
+        }
+        int version = fileHeader.getInt();
+        if (version != NetworkArchive.VERSION) {
+            throw new IOException("Unsupported network archive version "
+                    + version);
+        }
+    }
+
+    /**
+     * Read the network with the weights of all its synapse groups.
+     *
+     * @return the network
+     * @throws IOException if the archive cannot be read
+     */
+    public Network readNetwork() throws IOException {
+        if (position != NetworkArchive.HEADER_SIZE) {
+            seek(NetworkArchive.HEADER_SIZE);
+        }
+        Network network = readXml();
+        PendingGroup group = null;
+        while (nextChunk() == NetworkArchive.SYNAPSE_BLOCK) {
+            group = readBlock(group);
+            if (group.isComplete()) {
+                setWeights(network, group);
+                group = null;
+            }
+        }
+        if (group != null) {
+            throw new IOException("Truncated synapse group " + group.id);
+        }
+        return network;
+    }
+
+    /**
+     * Read the network without the weights of synapse groups saved as weight
+     * matrices, which stay empty until loaded with
+     * {@link #loadSynapseGroup(SynapseGroup)}. Only works on files.
+     *
+     * @return the network
+     * @throws IOException if the archive cannot be read
+     */
+    public Network readStructure() throws IOException {
+        SeekableByteChannel file = getSeekableChannel();
+        ByteBuffer trailer = ByteBuffer
+                .allocate(NetworkArchive.TRAILER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        seek(file.size() - NetworkArchive.TRAILER_SIZE);
+        readFully(trailer);
+        trailer.flip();
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != NetworkArchive.MAGIC) {
+            throw new IOException("Truncated network archive.");
+        }
+        seek(indexOffset);
+        if (nextChunk() != NetworkArchive.INDEX) {
+            throw new IOException("Missing network archive index.");
+        }
+        ByteBuffer buf = readPayload();
+        int numGroups = buf.getInt();
+        index = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < numGroups; i++) {
+            String id = getString(buf);
+            index.put(id, buf.getLong());
+            buf.getInt(); // Number of blocks
+        }
+        seek(NetworkArchive.HEADER_SIZE);
+        return readXml();
+    }
+
+    /**
+     * Load the weights of a synapse group of a network read by
+     * {@link #readStructure()}.
+     *
+     * @param group the group
+     * @return false if the weights of the group are not stored separately,
+     *         i.e. they were read with the structure
+     * @throws IOException if the archive cannot be read
+     */
+    public boolean loadSynapseGroup(final SynapseGroup group)
+            throws IOException {
+        if (index == null) {
+            throw new IllegalStateException("Call readStructure() first.");
+        }
+        Long offset = index.get(group.getId());
+        if (offset == null) {
+            return false;
+        }
+        seek(offset);
+        PendingGroup pending = null;
+        do {
+            if (nextChunk() != NetworkArchive.SYNAPSE_BLOCK) {
+                throw new IOException("Truncated synapse group "
+                        + group.getId());
+            }
+            pending = readBlock(pending);
+        } while (!pending.isComplete());
+        group.setPackedWeights(HeapSynapseStorage.fromColumns(
+                pending.numSrc, pending.colPtr, pending.rowIdx,
+                pending.strengths));
+        return true;
+    }
+
+    /**
+     * @return the ids of the synapse groups whose weights are stored
+     *         separately, in the order they are stored. Available after
+     *         {@link #readStructure()}.
+     */
+    public List<String> getSynapseGroupIds() {
+        if (index == null) {
+            throw new IllegalStateException("Call readStructure() first.");
+        }
+        return new ArrayList<String>(index.keySet());
+    }
+
+    /**
+     * Read the network xml from the structure chunks.
+     *
+     * @return the network, without weights stored separately
+     * @throws IOException if the archive cannot be read
+     */
+    private Network readXml() throws IOException {
+        StructureInputStream in = new StructureInputStream();
+        Network network;
+        try {
+            network = (Network) Network.getXStream(new StaxDriver())
+                    .fromXML(in);
+        } catch (RuntimeException e) {
+            // XStream wraps read errors
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        // Skip anything the parser left
+        while (in.skip(Long.MAX_VALUE) > 0) {
+            continue;
+        }
+        return network;
+    }
+
+    /**
+     * Read a synapse block.
+     *
+     * @param pending the group read so far, or null at the first block of a
+     *            group
+     * @return the group read so far
+     * @throws IOException if the archive cannot be read or the block does not
+     *             continue the group
+     */
+    private PendingGroup readBlock(PendingGroup pending) throws IOException {
+        ByteBuffer buf = readPayload();
+        String id = getString(buf);
+        int numSrc = buf.getInt();
+        int numTar = buf.getInt();
+        int size = buf.getInt();
+        int first = buf.getInt();
+        int numCols = buf.getInt();
+        boolean singlePrecision = buf.get() == 0;
+        if (first == 0) {
+            if (pending != null) {
+                throw new IOException("Truncated synapse group "
+                        + pending.id);
+            }
+            pending = new PendingGroup(id, numSrc, numTar, size);
+        } else if (pending == null || !pending.id.equals(id)
+                || pending.next != first) {
+            throw new IOException("Synapse block out of order: " + id);
+        }
+        int[] colPtr = pending.colPtr;
+        for (int j = first, last = first + numCols; j < last; j++) {
+            colPtr[j + 1] = colPtr[j] + buf.getInt();
+        }
+        int start = colPtr[first];
+        int end = colPtr[first + numCols];
+        if (end > size) {
+            throw new IOException("Corrupt synapse block: " + id);
+        }
+        buf.asIntBuffer().get(pending.rowIdx, start, end - start);
+        buf.position(buf.position() + 4 * (end - start));
+        double[] strengths = pending.strengths;
+        if (singlePrecision) {
+            for (int k = start; k < end; k++) {
+                strengths[k] = buf.getFloat();
+            }
+        } else {
+            buf.asDoubleBuffer().get(strengths, start, end - start);
+        }
+        pending.next = first + numCols;
+        return pending;
+    }
+
+    /**
+     * Give a synapse group of a network its weights.
+     *
+     * @param network the network
+     * @param pending the weights read
+     * @throws IOException if the network has no such group
+     */
+    private static void setWeights(final Network network,
+            final PendingGroup pending) throws IOException {
+        Group group = network.getGroup(pending.id);
+        if (!(group instanceof SynapseGroup)) {
+            throw new IOException("No synapse group " + pending.id);
+        }
+        ((SynapseGroup) group).setPackedWeights(HeapSynapseStorage
+                .fromColumns(pending.numSrc, pending.colPtr, pending.rowIdx,
+                        pending.strengths));
+    }
+
+    /**
+     * Read the header of the next chunk, unless it was already read.
+     *
+     * @return the chunk type
+     * @throws IOException if the channel cannot be read
+     */
+    private int nextChunk() throws IOException {
+        if (pendingType < 0) {
+            header.clear();
+            readFully(header);
+            header.flip();
+            pendingType = header.get();
+            pendingCodec = Codec.forId(header.get());
+            pendingRawLength = header.getInt();
+            pendingStoredLength = header.getInt();
+        }
+        return pendingType;
+    }
+
+    /**
+     * Read and decompress the payload of the chunk whose header was read.
+     *
+     * @return the payload, in a buffer which is reused by the next call
+     * @throws IOException if the channel cannot be read
+     */
+    private ByteBuffer readPayload() throws IOException {
+        nextChunk();
+        pendingType = -1;
+        if (pendingCodec == Codec.NONE) {
+            payload = clear(payload, pendingStoredLength);
+            readFully(payload);
+            payload.flip();
+            return payload;
+        }
+        stored = clear(stored, pendingStoredLength);
+        readFully(stored);
+        payload = clear(payload, pendingRawLength);
+        inflater.reset();
+        inflater.setInput(stored.array(), 0, pendingStoredLength);
+        try {
+            int length = 0;
+            while (length < pendingRawLength && !inflater.finished()) {
+                int n = inflater.inflate(payload.array(), length,
+                        pendingRawLength - length);
+                if (n == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != pendingRawLength) {
+                throw new IOException("Corrupt network archive chunk.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt network archive chunk.", e);
+        }
+        payload.limit(pendingRawLength);
+        return payload;
+    }
+
+    /**
+     * Clear a buffer and limit it to a length, replacing it if it is too
+     * small.
+     *
+     * @param buf the buffer
+     * @param length the length
+     * @return the buffer
+     */
+    private static ByteBuffer clear(final ByteBuffer buf, final int length) {
+        ByteBuffer ret = buf;
+        if (ret.capacity() < length) {
+            ret = ByteBuffer.allocate(Math.max(length, ret.capacity() * 2))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ret.clear();
+        ret.limit(length);
+        return ret;
+    }
+
+    /**
+     * Read a string written as a short length and UTF-8 bytes.
+     *
+     * @param buf the buffer to read from
+     * @return the string
+     */
+    private static String getString(final ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xffff];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fill a buffer from the channel.
+     *
+     * @param buf the buffer
+     * @throws IOException if the channel cannot be read or ends
+     */
+    private void readFully(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf);
+            if (n < 0) {
+                throw new EOFException("Truncated network archive.");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Move to a position in the archive.
+     *
+     * @param newPosition the position
+     * @throws IOException if the channel cannot be positioned
+     */
+    private void seek(final long newPosition) throws IOException {
+        getSeekableChannel().position(newPosition);
+        position = newPosition;
+        pendingType = -1;
+    }
+
+    /**
+     * @return the channel, if it is seekable
+     */
+    private SeekableByteChannel getSeekableChannel() {
+        if (!(channel instanceof SeekableByteChannel)) {
+            throw new IllegalStateException(
+                    "Network archive is not read from a file.");
+        }
+        return (SeekableByteChannel) channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Weights of a synapse group, filled in one block at a time.
+     */
+    private static class PendingGroup {
+
+        /** Id of the group. */
+        private final String id;
+
+        /** Number of source neurons. */
+        private final int numSrc;
+
+        /** Column pointers. */
+        private final int[] colPtr;
+
+        /** Source index of each connection. */
+        private final int[] rowIdx;
+
+        /** Strength of each connection. */
+        private final double[] strengths;
+
+        /** First target neuron not read yet. */
+        private int next;
+
+        /**
+         * @param id id of the group
+         * @param numSrc number of source neurons
+         * @param numTar number of target neurons
+         * @param size number of connections
+         */
+        PendingGroup(final String id, final int numSrc, final int numTar,
+                final int size) {
+            this.id = id;
+            this.numSrc = numSrc;
+            colPtr = new int[numTar + 1];
+            rowIdx = new int[size];
+            strengths = new double[size];
+        }
+
+        /**
+         * @return whether all target neurons were read
+         */
+        boolean isComplete() {
+            return next == colPtr.length - 1;
+        }
+    }
+
+    /**
+     * Reads the xml out of consecutive structure chunks, ending at the first
+     * chunk of another type.
+     */
+    private class StructureInputStream extends InputStream {
+
+        /** Payload of the current chunk. */
+        private ByteBuffer buf = ByteBuffer.allocate(0);
+
+        /**
+         * Make sure there are bytes to read.
+         *
+         * @return false at the end of the structure chunks
+         * @throws IOException if the channel cannot be read
+         */
+        private boolean fill() throws IOException {
+            while (!buf.hasRemaining()) {
+                if (nextChunk() != NetworkArchive.STRUCTURE) {
+                    return false;
+                }
+                buf = readPayload();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            if (n <= 0 || !fill()) {
+                return 0;
+            }
+            int skipped = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + skipped);
+            return skipped;
+        }
+    }
+
+}
@@ -0,0 +1,454 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.groups.CompactSynapseStorage;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
+import org.simbrain.network.util.io_utilities.NetworkArchive.Codec;
+
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+
+/**
+ * Writes networks in the {@link NetworkArchive} format to a channel. Memory
+ * use is bounded by the size of one chunk, apart from the packed copy of the
+ * weights of one synapse group at a time (compact groups are written from
+ * their own storage).
+ * <p>
+ * The payload of a {@link NetworkArchive#SYNAPSE_BLOCK} chunk is the id of
+ * the group (short length and UTF-8 bytes), the number of source neurons,
+ * the number of target neurons, the total number of connections of the
+ * group, the index of the first target neuron in the block and the number
+ * of target neurons in the block (ints), a precision byte (0 for 32 bit
+ * weights, 1 for 64 bit), the number of connections to each target neuron
+ * in the block (ints), the source index of each connection (ints) and the
+ * weight of each connection.
+ */
+public class NetworkArchiveWriter {
+
+    /** Default number of connections per synapse block. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    /** Uncompressed size of a structure chunk. */
+    private static final int STRUCTURE_CHUNK_SIZE = 1 << 20;
+
+    /** The output channel. */
+    private final WritableByteChannel channel;
+
+    /** Number of bytes written so far. */
+    private long position;
+
+    /** How chunk payloads are stored. */
+    private Codec codec = Codec.DEFLATE;
+
+    /** Compression level used by {@link Codec#DEFLATE}. */
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    /** Precision of the weights. */
+    private Precision precision = Precision.FLOAT_32;
+
+    /**
+     * Maximum number of connections per synapse block, unless a single target
+     * neuron has more.
+     */
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /** Compressor, created on first use. */
+    private Deflater deflater;
+
+    /** Output of the compressor. */
+    private byte[] compressed = new byte[0];
+
+    /** Buffer for chunk headers. */
+    private final ByteBuffer header = ByteBuffer
+            .allocate(NetworkArchive.CHUNK_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    /** Buffer for uncompressed payloads, grown as needed. */
+    private ByteBuffer payload = ByteBuffer.allocate(0);
+
+    /**
+     * Create a writer. The channel is not closed by the writer.
+     *
+     * @param channel the channel to write to
+     */
+    public NetworkArchiveWriter(final WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Write a network.
+     *
+     * @param network the network
+     * @throws IOException if the channel cannot be written
+     */
+    public void write(final Network network) throws IOException {
+        try {
+            ByteBuffer fileHeader = ByteBuffer
+                    .allocate(NetworkArchive.HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            fileHeader.putInt(NetworkArchive.MAGIC);
+            fileHeader.putInt(NetworkArchive.VERSION);
+            fileHeader.flip();
+            writeFully(fileHeader);
+
+            List<SynapseGroup> groups = new ArrayList<SynapseGroup>();
+            for (SynapseGroup group : network.getSynapseGroups()) {
+                if (group.isSavedAsWeightMatrix()) {
+                    groups.add(group);
+                }
+            }
+
+            network.preSaveInit(false);
+            try {
+                StructureOutputStream out = new StructureOutputStream();
+                Network.getXStream(new StaxDriver()).toXML(network, out);
+                out.finish();
+            } finally {
+                network.postSaveReInit();
+            }
+
+            int numGroups = groups.size();
+            long[] offsets = new long[numGroups];
+            int[] blockCounts = new int[numGroups];
+            for (int i = 0; i < numGroups; i++) {
+                offsets[i] = position;
+                blockCounts[i] = writeSynapseGroup(groups.get(i));
+            }
+
+            long indexOffset = position;
+            ByteBuffer buf = allocate(4);
+            buf.putInt(numGroups);
+            for (int i = 0; i < numGroups; i++) {
+                byte[] id = getIdBytes(groups.get(i));
+                buf = ensureCapacity(buf, 2 + id.length + 12);
+                buf.putShort((short) id.length);
+                buf.put(id);
+                buf.putLong(offsets[i]);
+                buf.putInt(blockCounts[i]);
+            }
+            writeChunk(NetworkArchive.INDEX, buf);
+
+            ByteBuffer trailer = ByteBuffer
+                    .allocate(NetworkArchive.TRAILER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putLong(indexOffset);
+            trailer.putInt(NetworkArchive.MAGIC);
+            trailer.flip();
+            writeFully(trailer);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+                deflater = null;
+            }
+        }
+    }
+
+    /**
+     * Write the weights of a synapse group as one or more blocks.
+     *
+     * @param group the group
+     * @return the number of blocks written
+     * @throws IOException if the channel cannot be written
+     */
+    private int writeSynapseGroup(final SynapseGroup group)
+            throws IOException {
+        CompactSynapseStorage storage = group.getPackedWeights();
+        int[] colPtr = storage.getColPtr();
+        int numTar = storage.getNumTar();
+        byte[] id = getIdBytes(group);
+        boolean singlePrecision = precision == Precision.FLOAT_32;
+        int weightSize = singlePrecision ? 4 : 8;
+        int blocks = 0;
+        int first = 0;
+        do {
+            // Take whole target neurons until the block is full
+            int last = first + 1;
+            while (last < numTar
+                    && colPtr[last + 1] - colPtr[first] <= blockSize) {
+                last++;
+            }
+            last = Math.min(last, numTar);
+            int numCols = last - first;
+            int start = colPtr[first];
+            int end = colPtr[last];
+            ByteBuffer buf = allocate(2 + id.length + 21 + 4 * numCols
+                    + (end - start) * (4 + weightSize));
+            buf.putShort((short) id.length);
+            buf.put(id);
+            buf.putInt(storage.getNumSrc());
+            buf.putInt(numTar);
+            buf.putInt(storage.size());
+            buf.putInt(first);
+            buf.putInt(numCols);
+            buf.put((byte) (singlePrecision ? 0 : 1));
+            for (int j = first; j < last; j++) {
+                buf.putInt(colPtr[j + 1] - colPtr[j]);
+            }
+            // Entries are read one at a time, since the storage need not
+            // hold them in arrays (see MappedSynapseStorage)
+            for (int k = start; k < end; k++) {
+                buf.putInt(storage.getSource(k));
+            }
+            if (singlePrecision) {
+                for (int k = start; k < end; k++) {
+                    buf.putFloat((float) storage.getStrength(k));
+                }
+            } else {
+                for (int k = start; k < end; k++) {
+                    buf.putDouble(storage.getStrength(k));
+                }
+            }
+            writeChunk(NetworkArchive.SYNAPSE_BLOCK, buf);
+            blocks++;
+            first = last;
+        } while (first < numTar);
+        return blocks;
+    }
+
+    /**
+     * @param group a synapse group
+     * @return the UTF-8 bytes of its id
+     */
+    private static byte[] getIdBytes(final SynapseGroup group) {
+        return group.getId().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Clear the payload buffer, growing it if needed.
+     *
+     * @param capacity the required capacity
+     * @return the payload buffer
+     */
+    private ByteBuffer allocate(final int capacity) {
+        if (payload.capacity() < capacity) {
+            payload = ByteBuffer.allocate(capacity).order(
+                    ByteOrder.LITTLE_ENDIAN);
+        }
+        payload.clear();
+        return payload;
+    }
+
+    /**
+     * Make sure the payload buffer has room for more bytes, keeping its
+     * contents.
+     *
+     * @param buf the payload buffer
+     * @param needed number of bytes to be added
+     * @return the payload buffer
+     */
+    private ByteBuffer ensureCapacity(final ByteBuffer buf, final int needed) {
+        if (buf.remaining() >= needed) {
+            return buf;
+        }
+        ByteBuffer grown = ByteBuffer
+                .allocate(Math.max(2 * buf.capacity(),
+                        buf.position() + needed))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.flip();
+        grown.put(buf);
+        payload = grown;
+        return grown;
+    }
+
+    /**
+     * Write a chunk. Compressed payloads which turn out larger than the raw
+     * payload are stored as is.
+     *
+     * @param type the chunk type
+     * @param raw the payload, written from the start to the current position
+     * @throws IOException if the channel cannot be written
+     */
+    private void writeChunk(final byte type, final ByteBuffer raw)
+            throws IOException {
+        raw.flip();
+        int rawLength = raw.remaining();
+        ByteBuffer stored = raw;
+        Codec used = Codec.NONE;
+        if (codec == Codec.DEFLATE && rawLength > 0) {
+            if (deflater == null) {
+                deflater = new Deflater(compressionLevel);
+            }
+            deflater.reset();
+            deflater.setInput(raw.array(), raw.arrayOffset(), rawLength);
+            deflater.finish();
+            if (compressed.length < rawLength) {
+                compressed = new byte[rawLength];
+            }
+            int length = 0;
+            while (!deflater.finished() && length < rawLength) {
+                length += deflater.deflate(compressed, length, rawLength
+                        - length);
+            }
+            if (deflater.finished() && length < rawLength) {
+                stored = ByteBuffer.wrap(compressed, 0, length);
+                used = Codec.DEFLATE;
+            }
+        }
+        header.clear();
+        header.put(type);
+        header.put(used.getId());
+        header.putInt(rawLength);
+        header.putInt(stored.remaining());
+        header.flip();
+        writeFully(header);
+        writeFully(stored);
+    }
+
+    /**
+     * Write the rest of a buffer to the channel.
+     *
+     * @param buf the buffer
+     * @throws IOException if the channel cannot be written
+     */
+    private void writeFully(final ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf);
+        }
+    }
+
+    /**
+     * @return how chunk payloads are stored
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @param codec how chunk payloads are stored
+     */
+    public void setCodec(final Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return compression level used by {@link Codec#DEFLATE}
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel compression level used by
+     *            {@link Codec#DEFLATE}, see {@link Deflater}
+     */
+    public void setCompressionLevel(final int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return precision of the weights
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @param precision precision of the weights. 32 bit weights are what
+     *            xml saving uses.
+     */
+    public void setPrecision(final Precision precision) {
+        this.precision = precision;
+    }
+
+    /**
+     * @return maximum number of connections per synapse block
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param blockSize maximum number of connections per synapse block. A
+     *            block always holds at least one target neuron.
+     */
+    public void setBlockSize(final int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Cuts the xml written to it into structure chunks.
+     */
+    private class StructureOutputStream extends OutputStream {
+
+        /** Uncompressed contents of the next chunk. */
+        private final byte[] buffer = new byte[STRUCTURE_CHUNK_SIZE];
+
+        /** Number of bytes in the buffer. */
+        private int count;
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (count == buffer.length) {
+                writeBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] b, int off, int len)
+                throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeBuffer();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Write the last chunk.
+         *
+         * @throws IOException if the channel cannot be written
+         */
+        void finish() throws IOException {
+            if (count > 0) {
+                writeBuffer();
+            }
+        }
+
+        /**
+         * Write the buffer as a chunk.
+         *
+         * @throws IOException if the channel cannot be written
+         */
+        private void writeBuffer() throws IOException {
+            ByteBuffer buf = allocate(count);
+            buf.put(buffer, 0, count);
+            writeChunk(NetworkArchive.STRUCTURE, buf);
+            count = 0;
+        }
+    }
+
+}
@@ -26,6 +26,7 @@ import org.simbrain.plot.ChartModel;
 import org.simbrain.util.projection.DataPoint;
 import org.simbrain.util.projection.Dataset;
 import org.simbrain.util.projection.NTree;
+import org.simbrain.util.projection.ProjectSammon;
 import org.simbrain.util.projection.ProjectionMethod;
 import org.simbrain.util.projection.Projector;
 import org.simbrain.util.projection.ProjectorListener;
@@ -151,6 +152,13 @@ public class ProjectionModel extends ChartModel {
         xstream.omitField(Dataset.class, "distances");
         xstream.omitField(Dataset.class, "logger");
         xstream.omitField(NTree.class, "logger");
+        xstream.omitField(ProjectSammon.class, "engine");
+        // Working arrays of older versions, skipped when reading old files
+        for (String field : new String[] {"yArray", "xI", "xJ", "yI", "yJ",
+                "yM", "yN", "yNew", "dstar", "d", "dstarSum", "partialSum",
+                "e"}) {
+            xstream.omitField(ProjectSammon.class, field);
+        }
         return xstream;
     }
 
@@ -18,8 +18,12 @@
  */
 package org.simbrain.plot.rasterchart;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.jfree.data.xy.XYSeries;
 import org.jfree.data.xy.XYSeriesCollection;
+import org.simbrain.network.util.io_utilities.ActivityRecordingReader;
 import org.simbrain.plot.ChartModel;
 
 import com.thoughtworks.xstream.XStream;
@@ -231,6 +235,33 @@ public class RasterModel extends ChartModel {
         getDataset().getSeries(dataSourceIndex).add(time, value);
     }
 
+    /**
+     * Add every spike of a binary spike recording (see
+     * {@link org.simbrain.network.groups.NeuronGroup#startBinaryRecording(java.io.File)})
+     * to one data source, as (time, neuron index) points. Listeners are
+     * notified once, after all spikes are added.
+     *
+     * @param file the recording
+     * @param dataSourceIndex index of data source to use
+     * @throws IOException if the recording cannot be read or does not hold
+     *             spikes
+     */
+    public void addSpikeRecording(final File file, final int dataSourceIndex)
+            throws IOException {
+        XYSeries series = getDataset().getSeries(dataSourceIndex);
+        try (ActivityRecordingReader reader = new ActivityRecordingReader(
+                file)) {
+            if (!reader.isSpikeRecording()) {
+                throw new IOException("Not a spike recording: " + file);
+            }
+            while (reader.readSpike()) {
+                series.add(reader.getTime(), reader.getIndex(), false);
+            }
+        } finally {
+            series.fireSeriesChanged();
+        }
+    }
+
     /**
      * Update the model; currently used to remove unused data when in
      * "fixed width" mode.
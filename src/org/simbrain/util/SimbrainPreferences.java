@@ -80,6 +80,7 @@ public class SimbrainPreferences {
         DEFAULT_MAP.put("networkNudgeAmount", 2d);
         DEFAULT_MAP.put("networkSynapseVisibilityThreshold", 200);
         DEFAULT_MAP.put("networkWandRadius", 40);
+        DEFAULT_MAP.put("networkMaxFrameRate", 30);
         DEFAULT_MAP.put("networkTableDirectory", "." + FS + "simulations" + FS
                 + "tables");
         DEFAULT_MAP.put("projectorTolerance", .1);
@@ -19,6 +19,7 @@
 package org.simbrain.util;
 
 import java.awt.Color;
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -99,14 +100,12 @@ public class Utils {
             theParser = new CSVParser(new FileInputStream(theFile), "", "", "#");
             stringMatrix = theParser.getAllValues();
         } catch (java.io.FileNotFoundException e) {
-            JOptionPane.showMessageDialog(null, "Could not find the file \n"
-                    + theFile, "Warning", JOptionPane.ERROR_MESSAGE);
+            showErrorMessage("Could not find the file \n" + theFile);
 
             return null;
         } catch (Exception e) {
-            JOptionPane.showMessageDialog(null,
-                    "There was a problem opening the file \n" + theFile,
-                    "Warning", JOptionPane.ERROR_MESSAGE);
+            showErrorMessage("There was a problem opening the file \n"
+                    + theFile);
             e.printStackTrace();
 
             return null;
@@ -115,6 +114,21 @@ public class Utils {
         return stringMatrix;
     }
 
+    /**
+     * Show an error message in a dialog, or print it to standard error when
+     * there is no display (e.g. in a batch run), where a dialog would throw.
+     *
+     * @param message the message
+     */
+    private static void showErrorMessage(final String message) {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println("Warning: " + message.replace('\n', ' '));
+        } else {
+            JOptionPane.showMessageDialog(null, message, "Warning",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     /**
      * Write a matrix of doubles to a file.
      *
@@ -0,0 +1,369 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.math;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dense matrix products on row-major <code>double[]</code> arrays, for
+ * numerical code that works on whole layers at once instead of single
+ * neurons and synapses. Each product is computed in square blocks small
+ * enough to stay in cache, and large products are split by rows of the
+ * result over the common fork-join pool. The output array is overwritten
+ * and must not be one of the inputs.
+ */
+public final class MatrixKernels {
+
+    /** Side of a cache block, in elements. */
+    private static final int BLOCK = 64;
+
+    /**
+     * Products with fewer multiply-adds than this per task are not split
+     * any further.
+     */
+    private static final long TASK_WORK = 1 << 18;
+
+    /** The kinds of product. */
+    private enum Kind {
+
+        /** C = A * B. */
+        PLAIN,
+
+        /** C = A * B'. */
+        TRANSPOSE_B,
+
+        /** C = A' * B. */
+        TRANSPOSE_A
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private MatrixKernels() {
+    }
+
+    /**
+     * Compute C = A * B.
+     *
+     * @param a the m x k matrix A
+     * @param b the k x n matrix B
+     * @param c the m x n result
+     * @param m rows of A and C
+     * @param k columns of A and rows of B
+     * @param n columns of B and C
+     */
+    public static void multiply(final double[] a, final double[] b,
+            final double[] c, final int m, final int k, final int n) {
+        run(Kind.PLAIN, a, b, c, m, k, n);
+    }
+
+    /**
+     * Compute C = A * B', where B' is the transpose of B. With the rows of A
+     * holding input vectors and the rows of B holding the fan-in weights of
+     * each neuron, this computes the net input of each neuron for every
+     * input.
+     *
+     * @param a the m x k matrix A
+     * @param b the n x k matrix B
+     * @param c the m x n result
+     * @param m rows of A and C
+     * @param k columns of A and B
+     * @param n rows of B and columns of C
+     */
+    public static void multiplyTransposeB(final double[] a, final double[] b,
+            final double[] c, final int m, final int k, final int n) {
+        run(Kind.TRANSPOSE_B, a, b, c, m, k, n);
+    }
+
+    /**
+     * Compute C = A' * B, where A' is the transpose of A. This sums outer
+     * products of the rows of A and B, e.g. weight gradients over a batch.
+     *
+     * @param a the k x m matrix A
+     * @param b the k x n matrix B
+     * @param c the m x n result
+     * @param m columns of A and rows of C
+     * @param k rows of A and B
+     * @param n columns of B and C
+     */
+    public static void multiplyTransposeA(final double[] a, final double[] b,
+            final double[] c, final int m, final int k, final int n) {
+        run(Kind.TRANSPOSE_A, a, b, c, m, k, n);
+    }
+
+    /**
+     * Check sizes and compute a product, in parallel if it is large enough.
+     *
+     * @param kind the kind of product
+     * @param a the first operand
+     * @param b the second operand
+     * @param c the result
+     * @param m rows of the result
+     * @param k length of the summed dimension
+     * @param n columns of the result
+     */
+    private static void run(final Kind kind, final double[] a,
+            final double[] b, final double[] c, final int m, final int k,
+            final int n) {
+        if (a.length < (long) m * k || b.length < (long) k * n
+                || c.length < (long) m * n) {
+            throw new IllegalArgumentException("Arrays too small for a " + m
+                    + "x" + k + " by " + k + "x" + n + " product");
+        }
+        if (a == c || b == c) {
+            throw new IllegalArgumentException(
+                    "The result may not be an operand");
+        }
+        long work = (long) m * k * n;
+        if (work <= TASK_WORK || m < 2
+                || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            compute(kind, a, b, c, 0, m, m, k, n);
+        } else {
+            ForkJoinPool.commonPool().invoke(
+                    new Task(kind, a, b, c, 0, m, m, k, n));
+        }
+    }
+
+    /**
+     * Compute a range of rows of a product.
+     *
+     * @param kind the kind of product
+     * @param a the first operand
+     * @param b the second operand
+     * @param c the result
+     * @param from first row of the result
+     * @param to row after the last row of the result
+     * @param m rows of the result
+     * @param k length of the summed dimension
+     * @param n columns of the result
+     */
+    private static void compute(final Kind kind, final double[] a,
+            final double[] b, final double[] c, final int from, final int to,
+            final int m, final int k, final int n) {
+        for (int i = from; i < to; i++) {
+            int ci = i * n;
+            for (int j = 0; j < n; j++) {
+                c[ci + j] = 0;
+            }
+        }
+        for (int i0 = from; i0 < to; i0 += BLOCK) {
+            int i1 = Math.min(i0 + BLOCK, to);
+            for (int p0 = 0; p0 < k; p0 += BLOCK) {
+                int p1 = Math.min(p0 + BLOCK, k);
+                for (int j0 = 0; j0 < n; j0 += BLOCK) {
+                    int j1 = Math.min(j0 + BLOCK, n);
+                    switch (kind) {
+                    case PLAIN:
+                        blockPlain(a, b, c, i0, i1, p0, p1, j0, j1, k, n);
+                        break;
+                    case TRANSPOSE_B:
+                        blockTransposeB(a, b, c, i0, i1, p0, p1, j0, j1, k,
+                                n);
+                        break;
+                    default:
+                        blockTransposeA(a, b, c, i0, i1, p0, p1, j0, j1, m,
+                                n);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Add one block of A * B to C.
+     *
+     * @param a A, row-major with k columns
+     * @param b B, row-major with n columns
+     * @param c C, row-major with n columns
+     * @param i0 first row of C
+     * @param i1 row after the last row of C
+     * @param p0 first index of the summed dimension
+     * @param p1 index after the last of the summed dimension
+     * @param j0 first column of C
+     * @param j1 column after the last column of C
+     * @param k columns of A
+     * @param n columns of B and C
+     */
+    private static void blockPlain(final double[] a, final double[] b,
+            final double[] c, final int i0, final int i1, final int p0,
+            final int p1, final int j0, final int j1, final int k,
+            final int n) {
+        for (int i = i0; i < i1; i++) {
+            int ai = i * k;
+            int ci = i * n;
+            for (int p = p0; p < p1; p++) {
+                double aip = a[ai + p];
+                if (aip == 0) {
+                    continue;
+                }
+                int bp = p * n;
+                for (int j = j0; j < j1; j++) {
+                    c[ci + j] += aip * b[bp + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Add one block of A * B' to C.
+     *
+     * @param a A, row-major with k columns
+     * @param b B, row-major with k columns
+     * @param c C, row-major with n columns
+     * @param i0 first row of C
+     * @param i1 row after the last row of C
+     * @param p0 first index of the summed dimension
+     * @param p1 index after the last of the summed dimension
+     * @param j0 first column of C
+     * @param j1 column after the last column of C
+     * @param k columns of A and B
+     * @param n columns of C
+     */
+    private static void blockTransposeB(final double[] a, final double[] b,
+            final double[] c, final int i0, final int i1, final int p0,
+            final int p1, final int j0, final int j1, final int k,
+            final int n) {
+        for (int i = i0; i < i1; i++) {
+            int ai = i * k;
+            int ci = i * n;
+            for (int j = j0; j < j1; j++) {
+                int bj = j * k;
+                double sum = 0;
+                for (int p = p0; p < p1; p++) {
+                    sum += a[ai + p] * b[bj + p];
+                }
+                c[ci + j] += sum;
+            }
+        }
+    }
+
+    /**
+     * Add one block of A' * B to C.
+     *
+     * @param a A, row-major with m columns
+     * @param b B, row-major with n columns
+     * @param c C, row-major with n columns
+     * @param i0 first row of C
+     * @param i1 row after the last row of C
+     * @param p0 first index of the summed dimension
+     * @param p1 index after the last of the summed dimension
+     * @param j0 first column of C
+     * @param j1 column after the last column of C
+     * @param m columns of A
+     * @param n columns of B and C
+     */
+    private static void blockTransposeA(final double[] a, final double[] b,
+            final double[] c, final int i0, final int i1, final int p0,
+            final int p1, final int j0, final int j1, final int m,
+            final int n) {
+        for (int p = p0; p < p1; p++) {
+            int ap = p * m;
+            int bp = p * n;
+            for (int i = i0; i < i1; i++) {
+                double api = a[ap + i];
+                if (api == 0) {
+                    continue;
+                }
+                int ci = i * n;
+                for (int j = j0; j < j1; j++) {
+                    c[ci + j] += api * b[bp + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes a range of rows of a product, splitting it in half while
+     * there is enough work.
+     */
+    private static class Task extends RecursiveAction {
+
+        /** Serial version id. */
+        private static final long serialVersionUID = 1L;
+
+        /** The kind of product. */
+        private final Kind kind;
+
+        /** The first operand. */
+        private final double[] a;
+
+        /** The second operand. */
+        private final double[] b;
+
+        /** The result. */
+        private final double[] c;
+
+        /** First row of the result. */
+        private final int from;
+
+        /** Row after the last row of the result. */
+        private final int to;
+
+        /** Rows of the result. */
+        private final int m;
+
+        /** Length of the summed dimension. */
+        private final int k;
+
+        /** Columns of the result. */
+        private final int n;
+
+        /**
+         * Create a task.
+         *
+         * @param kind the kind of product
+         * @param a the first operand
+         * @param b the second operand
+         * @param c the result
+         * @param from first row of the result
+         * @param to row after the last row of the result
+         * @param m rows of the result
+         * @param k length of the summed dimension
+         * @param n columns of the result
+         */
+        Task(final Kind kind, final double[] a, final double[] b,
+                final double[] c, final int from, final int to, final int m,
+                final int k, final int n) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.from = from;
+            this.to = to;
+            this.m = m;
+            this.k = k;
+            this.n = n;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = to - from;
+            if (rows < 2 || (long) rows * k * n <= TASK_WORK) {
+                MatrixKernels.compute(kind, a, b, c, from, to, m, k, n);
+                return;
+            }
+            int mid = from + rows / 2;
+            invokeAll(new Task(kind, a, b, c, from, mid, m, k, n), new Task(
+                    kind, a, b, c, mid, to, m, k, n));
+        }
+    }
+
+}
@@ -18,8 +18,6 @@
  */
 package org.simbrain.util.math;
 
-import java.util.concurrent.ThreadLocalRandom;
-
 import umontreal.iro.lecuyer.probdist.Distribution;
 import umontreal.iro.lecuyer.probdist.ExponentialDist;
 import umontreal.iro.lecuyer.probdist.GammaDist;
@@ -40,7 +38,7 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double lambda, double nullVar) {
-            return ExponentialGen.nextDouble(DEFAULT_RANDOM_STREAM, lambda);
+            return ExponentialGen.nextDouble(RandomStreams.current(), lambda);
         }
 
         @Override
@@ -98,7 +96,7 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double shape, double scale) {
-            return GammaGen.nextDouble(DEFAULT_RANDOM_STREAM, shape, scale);
+            return GammaGen.nextDouble(RandomStreams.current(), shape, scale);
         }
 
         @Override
@@ -156,7 +154,7 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double location, double scale) {
-            return LognormalGen.nextDouble(DEFAULT_RANDOM_STREAM, location,
+            return LognormalGen.nextDouble(RandomStreams.current(), location,
                     scale);
         }
 
@@ -219,7 +217,7 @@ public enum ProbDistribution {
          */
         @Override
         public double nextRand(double mean, double std) {
-            return (ThreadLocalRandom.current().nextGaussian() * std) + mean;
+            return (RandomStreams.current().nextGaussian() * std) + mean;
         }
 
         /**
@@ -281,7 +279,7 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double slope, double min) {
-            return ParetoGen.nextDouble(DEFAULT_RANDOM_STREAM, slope, min);
+            return ParetoGen.nextDouble(RandomStreams.current(), slope, min);
         }
 
         @Override
@@ -343,7 +341,8 @@ public enum ProbDistribution {
          */
         @Override
         public double nextRand(double floor, double ceil) {
-            return ThreadLocalRandom.current().nextDouble(floor, ceil);
+            return floor
+                    + (ceil - floor) * RandomStreams.current().nextDouble();
         }
 
         /**
@@ -498,6 +497,13 @@ public enum ProbDistribution {
     // }
     // };
 
+    /**
+     * A shared random stream.
+     *
+     * @deprecated not thread-safe or reproducible; use
+     *             {@link RandomStreams#current()}
+     */
+    @Deprecated
     public static final RandomStream DEFAULT_RANDOM_STREAM = new LFSR113();
 
     public abstract double nextRand(double var1, double var2);
@@ -0,0 +1,232 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.math;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out independent, reproducible random streams derived from one seed.
+ * <p>
+ * Code that needs random numbers calls {@link #current()}, which returns the
+ * stream bound to the calling thread. Whoever schedules work binds a stream
+ * for it first: the network binds its own stream while it updates, neuron and
+ * synapse groups bind theirs while they update or make connections, and
+ * parallel update actions bind one stream per partition. Threads with no
+ * binding get a default stream of their own.
+ * <p>
+ * Every stream is derived from the seed and a key (e.g. a group id), so
+ * setting the same seed and building and running the same workspace draws
+ * the same numbers, whichever thread does the work. Owners with a stable,
+ * unique key (components, networks and groups) use {@link #streamFor(String)},
+ * whose result doesn't depend on the order in which streams are made.
+ */
+public final class RandomStreams {
+
+    /** The seed all streams are derived from. */
+    private static volatile long seed = System.nanoTime()
+            ^ System.currentTimeMillis() << 20;
+
+    /** Incremented when the seed is set, so old streams can be refreshed. */
+    private static volatile int generation;
+
+    /** Number of streams made for each key since the seed was set. */
+    private static final ConcurrentHashMap<String, AtomicLong> occurrences =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Streams bound to each thread. */
+    private static final ThreadLocal<SplitRandomStream> bound =
+            new ThreadLocal<SplitRandomStream>();
+
+    /** Default streams of threads with no binding. */
+    private static final ThreadLocal<SplitRandomStream> threadDefault =
+            new ThreadLocal<SplitRandomStream>();
+
+    /** Not instantiable. */
+    private RandomStreams() {
+    }
+
+    /**
+     * @return the seed all streams are derived from
+     */
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Set the seed and start deriving streams afresh. Streams made before
+     * are refreshed the next time they are used (see
+     * {@link SplitRandomStream#isCurrent()}).
+     *
+     * @param newSeed the new seed
+     */
+    public static synchronized void setSeed(final long newSeed) {
+        seed = newSeed;
+        occurrences.clear();
+        generation++;
+    }
+
+    /**
+     * @return the number of times the seed has been set
+     */
+    static int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Make a new stream for a key. The n-th stream made for a key after the
+     * seed is set is always the same, and streams for different keys are
+     * independent.
+     *
+     * @param key the key, e.g. the id of the object that will use the stream
+     * @return the new stream
+     */
+    public static SplitRandomStream newStream(final String key) {
+        AtomicLong count = occurrences.get(key);
+        if (count == null) {
+            AtomicLong fresh = new AtomicLong();
+            count = occurrences.putIfAbsent(key, fresh);
+            if (count == null) {
+                count = fresh;
+            }
+        }
+        return derive(seed, key, count.getAndIncrement());
+    }
+
+    /**
+     * Make the stream for a key. The same key always gives the same stream
+     * for the same seed, however many other streams were made before and in
+     * whatever order, so the key must identify its owner uniquely and stably,
+     * e.g. the name of a component and the id of a group in it.
+     *
+     * @param key the key
+     * @return the new stream
+     */
+    public static SplitRandomStream streamFor(final String key) {
+        return derive(seed, key, 0);
+    }
+
+    /**
+     * Make the stream for a key from a given seed rather than the seed of
+     * this class. The result only depends on the seed and the key, so that
+     * e.g. copies of a network can be given reproducible streams of their
+     * own.
+     *
+     * @param streamSeed the seed
+     * @param key the key
+     * @return the new stream
+     */
+    public static SplitRandomStream newStream(final long streamSeed,
+            final String key) {
+        return derive(streamSeed, key, 0);
+    }
+
+    /**
+     * Derive a stream.
+     *
+     * @param streamSeed the seed
+     * @param key the key
+     * @param occurrence number of streams made for the key before
+     * @return the stream
+     */
+    private static SplitRandomStream derive(final long streamSeed,
+            final String key, final long occurrence) {
+        int gen = generation;
+        long base = SplitRandomStream.mix64(streamSeed)
+                ^ SplitRandomStream.mix64(hash(key));
+        long start = SplitRandomStream
+                .mix64(base + occurrence * 0x9e3779b97f4a7c15L);
+        return new SplitRandomStream(start,
+                SplitRandomStream.mixGamma(start + base), gen);
+    }
+
+    /**
+     * Return a stream, making a new one for a key if the old one is null or
+     * was made for an earlier seed. Holders of streams use this to keep
+     * their stream in step with the seed.
+     *
+     * @param stream the stream held, or null
+     * @param key key to make a new stream with
+     * @return the stream to use
+     */
+    public static SplitRandomStream refresh(final SplitRandomStream stream,
+            final String key) {
+        if (stream == null || !stream.isCurrent()) {
+            return newStream(key);
+        }
+        return stream;
+    }
+
+    /**
+     * @return the stream to draw from on the calling thread
+     */
+    public static SplitRandomStream current() {
+        SplitRandomStream stream = bound.get();
+        if (stream != null) {
+            return stream;
+        }
+        stream = threadDefault.get();
+        if (stream == null || !stream.isCurrent()) {
+            stream = newStream("thread");
+            threadDefault.set(stream);
+        }
+        return stream;
+    }
+
+    /**
+     * Bind a stream to the calling thread. Restore the previous binding when
+     * done:
+     *
+     * <pre>
+     * SplitRandomStream previous = RandomStreams.bind(stream);
+     * try {
+     *     ...
+     * } finally {
+     *     RandomStreams.bind(previous);
+     * }
+     * </pre>
+     *
+     * @param stream the stream, or null to remove the binding
+     * @return the stream bound before
+     */
+    public static SplitRandomStream bind(final SplitRandomStream stream) {
+        SplitRandomStream previous = bound.get();
+        if (stream == null) {
+            bound.remove();
+        } else {
+            bound.set(stream);
+        }
+        return previous;
+    }
+
+    /**
+     * A 64 bit hash of a key, the same on every run.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    private static long hash(final String key) {
+        long h = 0x3c6ef372fe94f82bL;
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+}
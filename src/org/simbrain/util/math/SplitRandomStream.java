@@ -0,0 +1,261 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.math;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
+
+/**
+ * A fast, splittable random stream based on the SplitMix64 generator (the
+ * generator behind {@link java.util.SplittableRandom}). It implements SSJ's
+ * {@link RandomStream}, so it can be passed to SSJ's random variate
+ * generators. A stream is not thread-safe; each thread should draw from its
+ * own stream (see {@link RandomStreams}).
+ * <p>
+ * Substreams are independent streams derived from the start of the stream,
+ * and {@link #split()} derives a new independent stream from the current
+ * state.
+ */
+public final class SplitRandomStream implements RandomStream {
+
+    /** The odd increment used to derive streams. */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /** Scale from 53 random bits to a double in [0, 1). */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /** State at the start of the stream. */
+    private final long startState;
+
+    /** Increment of the state, which must be odd. */
+    private final long gamma;
+
+    /** State at the start of the current substream. */
+    private long substreamState;
+
+    /** Current state. */
+    private long state;
+
+    /** Seed generation this stream was made for. */
+    private final int generation;
+
+    /** Whether {@link #savedGaussian} holds an unused value. */
+    private boolean haveGaussian;
+
+    /** The second value of the last pair of Gaussian values. */
+    private double savedGaussian;
+
+    /**
+     * Create a stream.
+     *
+     * @param seed the starting state
+     * @param gamma the increment; made odd if it is not
+     * @param generation the seed generation the stream was made for
+     */
+    SplitRandomStream(final long seed, final long gamma,
+            final int generation) {
+        this.startState = seed;
+        this.gamma = gamma | 1L;
+        this.generation = generation;
+        substreamState = seed;
+        state = seed;
+    }
+
+    /**
+     * Create a stream from a seed, independently of {@link RandomStreams}.
+     *
+     * @param seed the seed
+     */
+    public SplitRandomStream(final long seed) {
+        this(mix64(seed), mixGamma(seed + GOLDEN_GAMMA), -1);
+    }
+
+    /**
+     * @return whether this stream was made for the current seed of
+     *         {@link RandomStreams}
+     */
+    public boolean isCurrent() {
+        return generation == RandomStreams.getGeneration();
+    }
+
+    /**
+     * @return a new stream, independent of this one, derived from the
+     *         current state of this stream
+     */
+    public SplitRandomStream split() {
+        return new SplitRandomStream(mix64(nextSeed()),
+                mixGamma(nextSeed()), generation);
+    }
+
+    /**
+     * Derive an independent stream for an index, without changing this
+     * stream. The same index always gives the same stream, so work can be
+     * split into indexed pieces (e.g. one per source neuron) whose results
+     * do not depend on which thread handles which piece.
+     *
+     * @param index the index
+     * @return the stream for the index
+     */
+    public SplitRandomStream substream(final long index) {
+        long seed = mix64(startState + (index + 1) * GOLDEN_GAMMA);
+        return new SplitRandomStream(seed, mixGamma(seed + gamma),
+                generation);
+    }
+
+    /**
+     * @return the next 64 random bits
+     */
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    /**
+     * @return a random double in the open interval (0, 1)
+     */
+    @Override
+    public double nextDouble() {
+        return ((nextLong() >>> 11) + 0.5) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param bound the upper bound, exclusive
+     * @return a random integer from 0 to bound - 1
+     */
+    public int nextInt(final int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive");
+        }
+        return (int) (nextDouble() * bound);
+    }
+
+    /**
+     * @return a random boolean
+     */
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * @param i the lower bound, inclusive
+     * @param j the upper bound, inclusive
+     * @return a random integer from i to j
+     */
+    @Override
+    public int nextInt(final int i, final int j) {
+        return i + (int) (nextDouble() * (j - i + 1.0));
+    }
+
+    /**
+     * @return a normally distributed value with mean 0 and standard
+     *         deviation 1
+     */
+    public double nextGaussian() {
+        if (haveGaussian) {
+            haveGaussian = false;
+            return savedGaussian;
+        }
+        // Polar method, as in java.util.Random
+        double v1;
+        double v2;
+        double s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        savedGaussian = v2 * multiplier;
+        haveGaussian = true;
+        return v1 * multiplier;
+    }
+
+    @Override
+    public void nextArrayOfDouble(final double[] u, final int start,
+            final int n) {
+        for (int i = start; i < start + n; i++) {
+            u[i] = nextDouble();
+        }
+    }
+
+    @Override
+    public void nextArrayOfInt(final int i, final int j, final int[] u,
+            final int start, final int n) {
+        for (int k = start; k < start + n; k++) {
+            u[k] = nextInt(i, j);
+        }
+    }
+
+    @Override
+    public void resetStartStream() {
+        substreamState = startState;
+        resetStartSubstream();
+    }
+
+    @Override
+    public void resetStartSubstream() {
+        state = substreamState;
+        haveGaussian = false;
+    }
+
+    @Override
+    public void resetNextSubstream() {
+        substreamState = mix64(substreamState + GOLDEN_GAMMA);
+        resetStartSubstream();
+    }
+
+    @Override
+    public String toString() {
+        return "SplitMix64 stream, start " + Long.toHexString(startState)
+                + ", increment " + Long.toHexString(gamma);
+    }
+
+    /**
+     * @return the next state
+     */
+    private long nextSeed() {
+        return state += gamma;
+    }
+
+    /**
+     * The SplitMix64 output function (Stafford's variant 13).
+     *
+     * @param z a value
+     * @return the mixed value
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Make an increment with enough bit transitions to give a good stream,
+     * as {@link java.util.SplittableRandom} does.
+     *
+     * @param z a value
+     * @return an odd increment
+     */
+    static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+
+}
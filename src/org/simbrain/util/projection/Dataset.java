@@ -20,12 +20,16 @@ package org.simbrain.util.projection;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.simbrain.network.util.io_utilities.ActivityRecordingReader;
 
 import Jama.Matrix;
 
@@ -94,6 +98,38 @@ public class Dataset {
         }
     }
 
+    /**
+     * Creates a dataset from a binary recording written by
+     * {@link org.simbrain.network.groups.NeuronGroup#startBinaryRecording(File)}.
+     * An activation recording gives one point per frame, with one dimension per
+     * neuron. A spike recording gives one two dimensional (time, neuron index)
+     * point per spike.
+     *
+     * @param file the recording
+     * @return the dataset
+     * @throws IOException if the recording cannot be read
+     */
+    public static Dataset fromActivityRecording(final File file)
+            throws IOException {
+        try (ActivityRecordingReader reader = new ActivityRecordingReader(
+                file)) {
+            if (reader.isSpikeRecording()) {
+                Dataset dataset = new Dataset(2);
+                while (reader.readSpike()) {
+                    dataset.addPoint(new DataPoint(new double[] {
+                            reader.getTime(), reader.getIndex() }));
+                }
+                return dataset;
+            }
+            Dataset dataset = new Dataset(reader.getNumNeurons());
+            double[] values = new double[reader.getNumNeurons()];
+            while (reader.readFrame(values)) {
+                dataset.addPoint(new DataPoint(values.clone()));
+            }
+            return dataset;
+        }
+    }
+
     /**
      * Get a specified point in the dataset.
      *
@@ -122,11 +158,13 @@ public class Dataset {
     }
 
     /**
-     * Makes sure there is enough space in the distances array
+     * Makes sure there is enough space in the distances array. The array is
+     * only grown when distances are looked up by index, so datasets that are
+     * only added to don't pay for a quadratic cache.
      */
     private void ensureDistances() {
         if (getDistanceEnd() > distances.length) {
-            int newLength = distances.length * 4;
+            int newLength = Math.max(getDistanceEnd(), distances.length * 4);
             double[] newDistances = new double[newLength];
             System.arraycopy(distances, 0, newDistances, 0, distances.length);
             Arrays.fill(newDistances, distances.length, newLength, -1);
@@ -145,7 +183,6 @@ public class Dataset {
         if (existingPoint != null) {
             return existingPoint;
         }
-        ensureDistances();
         lastAddedPoint = point;
         return null;
     }
@@ -192,7 +229,26 @@ public class Dataset {
      */
     private void _setPoint(int index, DataPoint point) {
         ntree.set(index, point);
-        ensureDistances();
+        forgetDistances(index);
+    }
+
+    /**
+     * Clears the cached distances to a point that has moved.
+     *
+     * @param point the index of the point
+     */
+    private void forgetDistances(int point) {
+        int start = getDistanceIndex(point);
+        for (int i = 0; i < point && start + i < distances.length; i++) {
+            distances[start + i] = -1;
+        }
+        for (int i = point + 1, n = getNumPoints(); i < n; i++) {
+            start = getDistanceIndex(i);
+            if (start + point >= distances.length) {
+                break;
+            }
+            distances[start + point] = -1;
+        }
     }
 
     /**
@@ -280,6 +336,7 @@ public class Dataset {
      * @param point the point to calculate distances for
      */
     private void calculateDistances(int point) {
+        ensureDistances();
         int start = getDistanceIndex(point);
 
         for (int i = 0; i < point; i++) {
@@ -317,6 +374,7 @@ public class Dataset {
                 data[j] = Math.random() * upperBound;
             }
             getPoint(i).setData(data);
+            ntree.set(i, getPoint(i));
         }
 
         Arrays.fill(distances, -1);
@@ -395,23 +453,38 @@ public class Dataset {
      * @param factor Distance to perturb
      */
     public void perturbOverlappingPoints(final double factor) {
-        double distance;
-        boolean repeat;
         int numPoints = getNumPoints();
-
+        // A point is perturbed if an identical point follows it, or if it or
+        // a point after it has an undefined coordinate (whose distance to
+        // anything is NaN)
+        Map<List<Double>, Integer> lastIndex = new HashMap<List<Double>, Integer>();
+        int lastNaN = -1;
         for (int i = 0; i < numPoints; i++) {
-            repeat = false;
-            // look for repeated points by computing distance to
-            // previous points
-
-            for (int j = i + 1; j < numPoints; j++) {
-                distance = getDistance(i, j);
-
-                if ((distance == 0) || (Double.isNaN(distance))) {
-                    repeat = true;
+            double[] data = getPoint(i).getVector();
+            List<Double> key = new ArrayList<Double>(dimensions);
+            for (int k = 0; k < dimensions; k++) {
+                // Treat -0.0 and 0.0 as the same, as the distance does
+                key.add(data[k] + 0.0);
+                if (Double.isNaN(data[k])) {
+                    lastNaN = i;
+                }
+            }
+            lastIndex.put(key, i);
+        }
 
-                    continue;
+        for (int i = 0; i < numPoints; i++) {
+            DataPoint point = getPoint(i);
+            double[] data = point.getVector();
+            boolean repeat = i < lastNaN;
+            if (!repeat) {
+                List<Double> key = new ArrayList<Double>(dimensions);
+                for (int k = 0; k < dimensions; k++) {
+                    key.add(data[k] + 0.0);
+                    if (Double.isNaN(data[k]) && i < numPoints - 1) {
+                        repeat = true;
+                    }
                 }
+                repeat |= lastIndex.get(key) > i;
             }
 
             // if point is repeated assume a random perturbation will fix it
@@ -419,12 +492,10 @@ public class Dataset {
                 double[] newPoint = new double[dimensions];
 
                 for (int k = 0; k < dimensions; k++) {
-                    newPoint[k] = getComponent(i, k)
-                            + ((Math.random() - 0.5) * factor);
-                    getPoint(i).setData(newPoint);
+                    newPoint[k] = data[k] + ((Math.random() - 0.5) * factor);
                 }
-            } else {
-                continue;
+                point.setData(newPoint);
+                _setPoint(i, point);
             }
         }
     }
@@ -513,8 +584,7 @@ public class Dataset {
      * @return the index of the point closest to this one in the dataset
      */
     public int getClosestIndex(final DataPoint point) {
-        DataPoint closest = ntree.getClosestPoint(point);
-        return ntree.getIndex(closest);
+        return ntree.getClosestIndex(point);
     }
 
     /**
@@ -529,14 +599,22 @@ public class Dataset {
         if (k >= this.getNumPoints()) {
             return null;
         }
+        return ntree.getClosestIndices(k, point);
+    }
 
-        int[] nearest = new int[k];
-        List<DataPoint> neighbors = ntree.getClosestPoints(k, point);
-        for (int i = 0; i < k; i++) {
-            nearest[i] = ntree.getIndex(neighbors.get(i));
+    /**
+     * returns the k nearest neighbors of a point in the dataset, not counting
+     * the point itself. The 0th item is the closest.
+     *
+     * @param k the number of points to retrieve
+     * @param index the index of the point to find neighbors for
+     * @return the indices of the neighbors
+     */
+    public int[] getKNearestNeighbors(final int k, final int index) {
+        if (k >= this.getNumPoints()) {
+            return null;
         }
-
-        return nearest;
+        return ntree.getClosestIndices(k, ntree.get(index), index);
     }
 
     /**
@@ -572,6 +650,7 @@ public class Dataset {
             index1 = swap;
         }
 
+        ensureDistances();
         double d = distances[getDistanceIndex(index1) + index2];
 
         if (d < 0) {
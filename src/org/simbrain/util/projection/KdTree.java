@@ -0,0 +1,779 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.projection;
+
+import java.util.Arrays;
+
+/**
+ * A k-d tree over points kept in a flat <code>double[]</code> store, for
+ * nearest neighbor and radius searches. Points are referred to by the order
+ * in which they were added. Each point is inserted into the leaf that covers
+ * it, and a leaf that grows too large is split at the middle of the dimension
+ * in which its points are most spread out. The whole tree is rebuilt with
+ * median splits when the number of points has doubled or a leaf ends up too
+ * deep, so a stream of insertions (e.g. a trajectory) does not leave it
+ * badly unbalanced.
+ * <p>
+ * Searches keep the best candidates in a bounded priority queue and skip
+ * subtrees that cannot contain a better one. Points at the same distance are
+ * ordered by index, so results are reproducible.
+ */
+public class KdTree {
+
+    /** Number of points a leaf holds before it is split. */
+    private static final int LEAF_SIZE = 32;
+
+    /** Number of points in the store before it first grows. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The number of dimensions of each point. */
+    private final int dimensions;
+
+    /** Coordinates of the points, row-major. */
+    private double[] coords;
+
+    /** Number of points. */
+    private int size;
+
+    /** The leaf holding each point. */
+    private Leaf[] leafOf;
+
+    /** The root node. */
+    private Node root = new Leaf();
+
+    /** Number of points when the tree was last rebuilt. */
+    private int builtSize;
+
+    /** Depth beyond which the tree is rebuilt. */
+    private int maxDepth;
+
+    /**
+     * Construct an empty tree.
+     *
+     * @param dimensions the number of dimensions of each point
+     */
+    public KdTree(final int dimensions) {
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("Points must have at least "
+                    + "one dimension");
+        }
+        this.dimensions = dimensions;
+        coords = new double[INITIAL_CAPACITY * dimensions];
+        leafOf = new Leaf[INITIAL_CAPACITY];
+        updateMaxDepth();
+    }
+
+    /**
+     * @return the number of dimensions of each point
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of points in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get one coordinate of a point.
+     *
+     * @param index the index of the point
+     * @param dimension the dimension
+     * @return the coordinate
+     */
+    public double get(final int index, final int dimension) {
+        checkIndex(index);
+        return coords[index * dimensions + dimension];
+    }
+
+    /**
+     * Add a point. The coordinates are copied.
+     *
+     * @param point the coordinates of the point
+     * @return the index of the new point
+     */
+    public int add(final double[] point) {
+        checkDimension(point);
+        if (size == leafOf.length) {
+            int capacity = leafOf.length * 2;
+            coords = Arrays.copyOf(coords, capacity * dimensions);
+            leafOf = Arrays.copyOf(leafOf, capacity);
+        }
+        int index = size++;
+        System.arraycopy(point, 0, coords, index * dimensions, dimensions);
+        if (size > 2 * builtSize && size > LEAF_SIZE) {
+            rebuild();
+        } else {
+            insert(index);
+        }
+        return index;
+    }
+
+    /**
+     * Move a point. The coordinates are copied.
+     *
+     * @param index the index of the point
+     * @param point the new coordinates of the point
+     */
+    public void set(final int index, final double[] point) {
+        checkIndex(index);
+        checkDimension(point);
+        leafOf[index].remove(index);
+        System.arraycopy(point, 0, coords, index * dimensions, dimensions);
+        insert(index);
+    }
+
+    /**
+     * Find the points closest to a query point.
+     *
+     * @param point the query point
+     * @param k the number of points to find
+     * @return the indices of up to k points, closest first
+     */
+    public int[] nearest(final double[] point, final int k) {
+        return nearest(point, k, -1);
+    }
+
+    /**
+     * Find the points closest to a query point, leaving one point out. This
+     * finds the neighbors of a point in the tree without the point itself.
+     *
+     * @param point the query point
+     * @param k the number of points to find
+     * @param exclude the index of a point to leave out, or -1
+     * @return the indices of up to k points, closest first
+     */
+    public int[] nearest(final double[] point, final int k,
+            final int exclude) {
+        checkDimension(point);
+        if (k <= 0) {
+            return new int[0];
+        }
+        Queue queue = new Queue(Math.min(k, size), Double.POSITIVE_INFINITY);
+        search(root, point, queue, exclude);
+        return queue.sorted();
+    }
+
+    /**
+     * Find the point closest to a query point, if it is closer than a given
+     * distance.
+     *
+     * @param point the query point
+     * @param radius the distance
+     * @return the index of the closest point, or -1 if no point is closer
+     *         than the radius
+     */
+    public int nearestWithin(final double[] point, final double radius) {
+        checkDimension(point);
+        if (!(radius > 0)) {
+            return -1;
+        }
+        Queue queue = new Queue(1, radius * radius);
+        search(root, point, queue, -1);
+        return queue.count == 0 ? -1 : queue.index[0];
+    }
+
+    /**
+     * Find all points closer to a query point than a given distance.
+     *
+     * @param point the query point
+     * @param radius the distance
+     * @return the indices of the points found, in increasing order
+     */
+    public int[] within(final double[] point, final double radius) {
+        checkDimension(point);
+        if (!(radius > 0)) {
+            return new int[0];
+        }
+        Collector found = new Collector(radius * radius);
+        collect(root, point, found);
+        int[] ret = Arrays.copyOf(found.index, found.count);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Rebuild the tree with median splits.
+     */
+    public void rebuild() {
+        int[] all = new int[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = i;
+        }
+        builtSize = size;
+        updateMaxDepth();
+        root = build(all, 0, size, 0);
+    }
+
+    /**
+     * Put a point in the leaf that covers it, splitting the leaf if it is
+     * full.
+     *
+     * @param index the index of the point
+     */
+    private void insert(final int index) {
+        Branch parent = null;
+        boolean onLeft = false;
+        Node node = root;
+        int depth = 0;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            parent = branch;
+            onLeft = coords[index * dimensions + branch.dimension]
+                    < branch.split;
+            node = onLeft ? branch.left : branch.right;
+            depth++;
+        }
+        Leaf leaf = (Leaf) node;
+        leaf.add(index);
+        leafOf[index] = leaf;
+        if (leaf.count <= LEAF_SIZE) {
+            return;
+        }
+        Node split = split(leaf, depth);
+        if (split == leaf) {
+            return;
+        }
+        if (parent == null) {
+            root = split;
+        } else if (onLeft) {
+            parent.left = split;
+        } else {
+            parent.right = split;
+        }
+        if (depth + 1 > maxDepth) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Split a full leaf in two at the middle of its widest dimension.
+     *
+     * @param leaf the leaf
+     * @param depth the depth of the leaf
+     * @return the new branch, or the leaf if its points all coincide
+     */
+    private Node split(final Leaf leaf, final int depth) {
+        int dim = -1;
+        double low = 0;
+        double high = 0;
+        double spread = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < leaf.count; i++) {
+                double v = coords[leaf.items[i] * dimensions + d];
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (max - min > spread) {
+                spread = max - min;
+                dim = d;
+                low = min;
+                high = max;
+            }
+        }
+        if (dim < 0) {
+            return leaf;
+        }
+        double mid = low + (high - low) / 2;
+        if (!(mid > low)) {
+            mid = high;
+        }
+        Branch branch = new Branch(dim, mid);
+        Leaf left = new Leaf();
+        Leaf right = new Leaf();
+        for (int i = 0; i < leaf.count; i++) {
+            int index = leaf.items[i];
+            Leaf to = coords[index * dimensions + dim] < mid ? left : right;
+            to.add(index);
+            leafOf[index] = to;
+        }
+        branch.left = left;
+        branch.right = right;
+        return branch;
+    }
+
+    /**
+     * Build a balanced subtree over some points.
+     *
+     * @param idx indices of the points, reordered in place
+     * @param from start of the points in idx
+     * @param to end of the points in idx
+     * @param depth the depth of the subtree
+     * @return the subtree
+     */
+    private Node build(final int[] idx, final int from, final int to,
+            final int depth) {
+        int dim = -1;
+        double spread = 0;
+        if (to - from > LEAF_SIZE) {
+            for (int d = 0; d < dimensions; d++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    double v = coords[idx[i] * dimensions + d];
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+                if (max - min > spread) {
+                    spread = max - min;
+                    dim = d;
+                }
+            }
+        }
+        if (dim < 0) {
+            Leaf leaf = new Leaf();
+            for (int i = from; i < to; i++) {
+                leaf.add(idx[i]);
+                leafOf[idx[i]] = leaf;
+            }
+            return leaf;
+        }
+        double split = select(idx, from, to, (from + to) >>> 1, dim);
+        int mid = partition(idx, from, to, dim, split);
+        if (mid == from) {
+            // The median is the smallest value; split above it instead
+            double next = Double.POSITIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double v = coords[idx[i] * dimensions + dim];
+                if (v > split && v < next) {
+                    next = v;
+                }
+            }
+            split = next;
+            mid = partition(idx, from, to, dim, split);
+        }
+        Branch branch = new Branch(dim, split);
+        branch.left = build(idx, from, mid, depth + 1);
+        branch.right = build(idx, mid, to, depth + 1);
+        return branch;
+    }
+
+    /**
+     * Find the value of a coordinate that would be at a given position if
+     * the points were sorted by it, moving points around as needed.
+     *
+     * @param idx indices of the points
+     * @param from start of the points in idx
+     * @param to end of the points in idx
+     * @param nth the position
+     * @param dim the dimension
+     * @return the value at the position
+     */
+    private double select(final int[] idx, final int from, final int to,
+            final int nth, final int dim) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            double pivot = coords[idx[(lo + hi) >>> 1] * dimensions + dim];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coords[idx[i] * dimensions + dim] < pivot) {
+                    i++;
+                }
+                while (coords[idx[j] * dimensions + dim] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = idx[i];
+                    idx[i] = idx[j];
+                    idx[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                hi = j;
+            } else if (nth >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return coords[idx[nth] * dimensions + dim];
+    }
+
+    /**
+     * Move the points below a value to the front of a range.
+     *
+     * @param idx indices of the points
+     * @param from start of the points in idx
+     * @param to end of the points in idx
+     * @param dim the dimension
+     * @param split the value
+     * @return the end of the points below the value
+     */
+    private int partition(final int[] idx, final int from, final int to,
+            final int dim, final double split) {
+        int mid = from;
+        for (int i = from; i < to; i++) {
+            if (coords[idx[i] * dimensions + dim] < split) {
+                int swap = idx[i];
+                idx[i] = idx[mid];
+                idx[mid++] = swap;
+            }
+        }
+        return mid;
+    }
+
+    /**
+     * Offer the points in a subtree to a queue of nearest points.
+     *
+     * @param node the subtree
+     * @param point the query point
+     * @param queue the queue
+     * @param exclude a point to leave out, or -1
+     */
+    private void search(final Node node, final double[] point,
+            final Queue queue, final int exclude) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.count; i++) {
+                int index = leaf.items[i];
+                if (index != exclude) {
+                    queue.offer(distanceSquared(point, index, queue.bound()),
+                            index);
+                }
+            }
+            return;
+        }
+        Branch branch = (Branch) node;
+        double diff = point[branch.dimension] - branch.split;
+        Node near = diff < 0 ? branch.left : branch.right;
+        Node far = diff < 0 ? branch.right : branch.left;
+        search(near, point, queue, exclude);
+        // Equal distances can still displace a higher index
+        if (diff * diff <= queue.bound()) {
+            search(far, point, queue, exclude);
+        }
+    }
+
+    /**
+     * Collect the points in a subtree that are within a distance.
+     *
+     * @param node the subtree
+     * @param point the query point
+     * @param found the points found so far
+     */
+    private void collect(final Node node, final double[] point,
+            final Collector found) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.count; i++) {
+                int index = leaf.items[i];
+                if (distanceSquared(point, index, found.limit) < found.limit) {
+                    found.add(index);
+                }
+            }
+            return;
+        }
+        Branch branch = (Branch) node;
+        double diff = point[branch.dimension] - branch.split;
+        if (diff < 0 || diff * diff < found.limit) {
+            collect(branch.left, point, found);
+        }
+        if (diff >= 0 || diff * diff < found.limit) {
+            collect(branch.right, point, found);
+        }
+    }
+
+    /**
+     * Squared distance from a query point to a point in the tree. The sum is
+     * abandoned once it passes a bound.
+     *
+     * @param point the query point
+     * @param index the index of the point in the tree
+     * @param bound the bound
+     * @return the squared distance, or some value above the bound
+     */
+    private double distanceSquared(final double[] point, final int index,
+            final double bound) {
+        int off = index * dimensions;
+        double sum = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double diff = point[d] - coords[off + d];
+            sum += diff * diff;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Set the depth beyond which the tree is rebuilt.
+     */
+    private void updateMaxDepth() {
+        int leaves = Math.max(1, 2 * Math.max(size, builtSize) / LEAF_SIZE);
+        maxDepth = 2 * (32 - Integer.numberOfLeadingZeros(leaves)) + 8;
+    }
+
+    /**
+     * @param index an index to check
+     */
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index
+                    + " out of range for " + size + " points");
+        }
+    }
+
+    /**
+     * @param point a point to check
+     */
+    private void checkDimension(final double[] point) {
+        if (point.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "points of different dimensions cannot be compared: "
+                            + point.length + ", " + dimensions);
+        }
+    }
+
+    /**
+     * Base class for nodes.
+     */
+    private abstract static class Node {
+    }
+
+    /**
+     * A node that divides points by one coordinate. Points below the split
+     * value go left and the rest go right.
+     */
+    private static final class Branch extends Node {
+
+        /** The dimension split on. */
+        private final int dimension;
+
+        /** The split value. */
+        private final double split;
+
+        /** Points below the split value. */
+        private Node left;
+
+        /** Points at or above the split value. */
+        private Node right;
+
+        /**
+         * @param dimension the dimension split on
+         * @param split the split value
+         */
+        Branch(final int dimension, final double split) {
+            this.dimension = dimension;
+            this.split = split;
+        }
+    }
+
+    /**
+     * A node that holds points.
+     */
+    private static final class Leaf extends Node {
+
+        /** Indices of the points. */
+        private int[] items = new int[LEAF_SIZE + 1];
+
+        /** Number of points. */
+        private int count;
+
+        /**
+         * @param index the index of a point to add
+         */
+        void add(final int index) {
+            if (count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+            }
+            items[count++] = index;
+        }
+
+        /**
+         * @param index the index of a point to remove
+         */
+        void remove(final int index) {
+            for (int i = 0; i < count; i++) {
+                if (items[i] == index) {
+                    items[i] = items[--count];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bounded max-heap of the closest points found so far, ordered by
+     * distance and then index.
+     */
+    private static final class Queue {
+
+        /** Squared distances. */
+        private final double[] distance;
+
+        /** Indices. */
+        private final int[] index;
+
+        /** Number of entries. */
+        private int count;
+
+        /** Squared distance a point must be below to be taken. */
+        private final double limit;
+
+        /**
+         * @param capacity the number of points to keep
+         * @param limit squared distance a point must be below to be taken
+         */
+        Queue(final int capacity, final double limit) {
+            distance = new double[capacity];
+            index = new int[capacity];
+            this.limit = limit;
+        }
+
+        /**
+         * @return the squared distance beyond which points can be ignored
+         */
+        double bound() {
+            return count < distance.length ? limit : distance[0];
+        }
+
+        /**
+         * Offer a point.
+         *
+         * @param d the squared distance of the point
+         * @param i the index of the point
+         */
+        void offer(final double d, final int i) {
+            if (!(d < limit) || distance.length == 0) {
+                return;
+            }
+            if (count < distance.length) {
+                // Sift up
+                int pos = count++;
+                while (pos > 0) {
+                    int parent = (pos - 1) >>> 1;
+                    if (!worse(d, i, distance[parent], index[parent])) {
+                        break;
+                    }
+                    distance[pos] = distance[parent];
+                    index[pos] = index[parent];
+                    pos = parent;
+                }
+                distance[pos] = d;
+                index[pos] = i;
+                return;
+            }
+            if (!worse(distance[0], index[0], d, i)) {
+                return;
+            }
+            // Replace the worst and sift down
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count
+                        && worse(distance[child + 1], index[child + 1],
+                                distance[child], index[child])) {
+                    child++;
+                }
+                if (!worse(distance[child], index[child], d, i)) {
+                    break;
+                }
+                distance[pos] = distance[child];
+                index[pos] = index[child];
+                pos = child;
+            }
+            distance[pos] = d;
+            index[pos] = i;
+        }
+
+        /**
+         * @param d1 a squared distance
+         * @param i1 its index
+         * @param d2 another squared distance
+         * @param i2 its index
+         * @return whether the first entry is farther than the second
+         */
+        private static boolean worse(final double d1, final int i1,
+                final double d2, final int i2) {
+            return d1 > d2 || (d1 == d2 && i1 > i2);
+        }
+
+        /**
+         * @return the indices, closest first
+         */
+        int[] sorted() {
+            int[] ret = new int[count];
+            double[] d = Arrays.copyOf(distance, count);
+            int[] i = Arrays.copyOf(index, count);
+            // Selection from the small heap copy; k is usually tiny
+            for (int r = 0; r < count; r++) {
+                int best = r;
+                for (int j = r + 1; j < count; j++) {
+                    if (worse(d[best], i[best], d[j], i[j])) {
+                        best = j;
+                    }
+                }
+                double swapD = d[r];
+                d[r] = d[best];
+                d[best] = swapD;
+                int swapI = i[r];
+                i[r] = i[best];
+                i[best] = swapI;
+                ret[r] = i[r];
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Growable list of the points found by a radius search.
+     */
+    private static final class Collector {
+
+        /** Squared radius. */
+        private final double limit;
+
+        /** Indices found. */
+        private int[] index = new int[16];
+
+        /** Number found. */
+        private int count;
+
+        /**
+         * @param limit squared radius
+         */
+        Collector(final double limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * @param i index of a point found
+         */
+        void add(final int i) {
+            if (count == index.length) {
+                index = Arrays.copyOf(index, count * 2);
+            }
+            index[count++] = i;
+        }
+    }
+
+}
@@ -85,7 +85,7 @@ public class ProjectNNSubspace extends ProjectionMethod {
         case 1: {
             System.out.println("Only one point upstairs");
             point1Index = projector.getUpstairs().getKNearestNeighbors(1,
-                    lastAddedUpstairs)[0];
+                    numPoints)[0];
             point1Up = projector.getUpstairs().getPoint(point1Index);
             point1Down = projector.getDownstairs().getPoint(point1Index);
 
@@ -100,7 +100,7 @@ public class ProjectNNSubspace extends ProjectionMethod {
         case 2: {
             System.out.println("Only two points upstairs");
             int[] neighbors = projector.getUpstairs().getKNearestNeighbors(2,
-                    lastAddedUpstairs);
+                    numPoints);
             point1Index = neighbors[0];
             point2Index = neighbors[1];
             point1Up = projector.getUpstairs().getPoint(point1Index);
@@ -126,7 +126,7 @@ public class ProjectNNSubspace extends ProjectionMethod {
         }
         default: {
             int[] neighbors = projector.getUpstairs().getKNearestNeighbors(3,
-                    lastAddedUpstairs); // KNN returning identical points
+                    numPoints);
             point1Index = neighbors[0];
             point2Index = neighbors[1];
             point3Index = neighbors[2];
@@ -18,21 +18,29 @@
  */
 package org.simbrain.util.projection;
 
-import java.util.ArrayList;
-
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
 
 /**
  * <B>ProjectSammon.java</B> implements gradient descent to compute image of
  * Sammon projection.
- *
- * TODO: Possibly convert all arrays to datapoints.
+ * <p>
+ * The upstairs distances are kept by a {@link SammonEngine} and only extended
+ * when points are added. Up to {@link #getMaxExactPoints()} points, every
+ * pair of points is used, as in the classic Sammon map. Beyond that, each
+ * point is only compared with its nearest upstairs neighbors and a fixed
+ * random sample of other points, which keeps large projections interactive.
  */
 public class ProjectSammon extends IterableProjectionMethod {
 
-    /** Array of datasets. */
-    private ArrayList<DataPoint> yArray;
+    /** Default number of points up to which all pairs are used. */
+    public static final int DEFAULT_MAX_EXACT_POINTS = 4000;
+
+    /** Default number of nearest neighbors compared with each point. */
+    public static final int DEFAULT_NUM_NEIGHBORS = 10;
+
+    /** Default number of random points compared with each point. */
+    public static final int DEFAULT_NUM_RANDOM_PAIRS = 40;
 
     /** Amount by which to perturb overlapping points. */
     protected double perturbationAmount;
@@ -42,44 +50,20 @@ public class ProjectSammon extends IterableProjectionMethod {
      */
     private double epsilon;
 
-    /** Temporary variables. */
-    private double[] xI;
-
-    /** Temporary variables. */
-    private double[] xJ;
-
-    /** Temporary variables. */
-    private double[] yI;
-
-    /** Temporary variables. */
-    private double[] yJ;
-
-    /** Temporary variables. */
-    private double[] yM;
-
-    /** Temporary variables. */
-    private double[] yN;
-
-    /** Temporary variables. */
-    private double[] yNew;
-
-    /** Matrix of "upstairs" interpoint distances. */
-    private double[][] dstar;
+    /** Current closeness of datapoints. */
+    private double currentCloseness;
 
-    /** Matrix of "downstairs" interpoint distances. */
-    private double[][] d;
+    /** Number of points up to which all pairs of points are used. */
+    private int maxExactPoints = DEFAULT_MAX_EXACT_POINTS;
 
-    /** Sum distances. */
-    private double dstarSum;
+    /** Number of nearest neighbors compared with each point when sampling. */
+    private int numNeighbors = DEFAULT_NUM_NEIGHBORS;
 
-    /** Parital sum. */
-    private double partialSum;
+    /** Number of random points compared with each point when sampling. */
+    private int numRandomPairs = DEFAULT_NUM_RANDOM_PAIRS;
 
-    /** Current closeness of datapoints. */
-    private double currentCloseness;
-
-    /** Temporary variable. */
-    private double e;
+    /** Upstairs distances and the gradient step. */
+    private SammonEngine engine;
 
     /**
      * Default sammon projector constructor.
@@ -89,16 +73,37 @@ public class ProjectSammon extends IterableProjectionMethod {
         super(projector);
     }
 
+    /**
+     * Fill in settings missing from older files.
+     *
+     * @return Initialized object.
+     */
+    private Object readResolve() {
+        if (maxExactPoints == 0) {
+            maxExactPoints = DEFAULT_MAX_EXACT_POINTS;
+        }
+        if (numNeighbors == 0 && numRandomPairs == 0) {
+            numNeighbors = DEFAULT_NUM_NEIGHBORS;
+            numRandomPairs = DEFAULT_NUM_RANDOM_PAIRS;
+        }
+        return this;
+    }
+
     @Override
     public void init() {
         try {
             perturbationAmount = SimbrainPreferences.getDouble("projectorSammonPerturbationAmount");
-            perturbationAmount = SimbrainPreferences.getDouble("projectorSammonEpsilon");
+            epsilon = SimbrainPreferences.getDouble("projectorSammonEpsilon");
         } catch (PropertyNotFoundException e) {
             e.printStackTrace();
         }
-        dstar = projector.getUpstairs().getDistances();
-        dstarSum = projector.getUpstairs().getSumDistances();
+        Dataset upstairs = projector.getUpstairs();
+        boolean exact = upstairs.getNumPoints() <= maxExactPoints;
+        if (engine == null || !engine.isFor(upstairs, exact)) {
+            engine = new SammonEngine(upstairs, exact, numNeighbors,
+                    numRandomPairs);
+        }
+        engine.update();
         projector.getDownstairs().perturbOverlappingPoints(perturbationAmount);
         setNeedsReInit(false);
     }
@@ -115,50 +120,13 @@ public class ProjectSammon extends IterableProjectionMethod {
         }
 
         // If new points were added re-initialize
-        if (needsReInit()) {
+        if (needsReInit() || engine == null) {
             init();
         }
 
-        yArray = projector.getDownstairs().getDatasetCopy();
-        d = projector.getDownstairs().getDistances();
-
-        // Computes partials
-        for (int m = 0; m < projector.getNumPoints(); m++) {
-            yM = yArray.get(m).getVector();
-            yNew = new double[projector.getDownstairs().getDimensions()];
-
-            for (int n = 0; n < projector.getDownstairs().getDimensions(); n++) {
-                partialSum = 0;
-
-                for (int i = 0; i < projector.getNumPoints(); i++) {
-                    if (i == m) {
-                        continue;
-                    }
-
-                    yI = yArray.get(i).getVector();
-                    partialSum += (((dstar[i][m] - d[i][m]) * (yI[n] - yM[n]))
-                            / dstar[i][m] / d[i][m]);
-                }
-
-                yNew[n] = yM[n] - ((epsilon * 2 * partialSum) / dstarSum);
-            }
-
-            projector.getDownstairs().getPoint(m).setData(yNew);
-        }
-
-        // Computes Closeness
-        e = 0;
-        for (int i = 0; i < projector.getNumPoints(); i++) {
-            for (int j = i + 1; j < projector.getNumPoints(); j++) {
-                e += ((dstar[i][j] - d[i][j]) * (dstar[i][j] - d[i][j]))
-                        / dstar[i][j];
-            }
-        }
-
-        currentCloseness = e / dstarSum;
+        currentCloseness = engine.iterate(projector.getDownstairs(), epsilon);
         setError(currentCloseness);
         projector.fireProjectorDataChanged();
-        // System.out.println("currentCloseness = " + currentCloseness);
     }
 
     /**
@@ -176,4 +144,54 @@ public class ProjectSammon extends IterableProjectionMethod {
         this.epsilon = epsilon;
     }
 
+    /**
+     * @return the number of points up to which all pairs of points are used
+     */
+    public int getMaxExactPoints() {
+        return maxExactPoints;
+    }
+
+    /**
+     * @param maxExactPoints the number of points up to which all pairs of
+     *            points are used
+     */
+    public void setMaxExactPoints(int maxExactPoints) {
+        this.maxExactPoints = maxExactPoints;
+        setNeedsReInit(true);
+    }
+
+    /**
+     * @return the number of nearest neighbors compared with each point when
+     *         sampling
+     */
+    public int getNumNeighbors() {
+        return numNeighbors;
+    }
+
+    /**
+     * @param numNeighbors the number of nearest neighbors compared with each
+     *            point when sampling
+     */
+    public void setNumNeighbors(int numNeighbors) {
+        this.numNeighbors = numNeighbors;
+        engine = null;
+    }
+
+    /**
+     * @return the number of random points compared with each point when
+     *         sampling
+     */
+    public int getNumRandomPairs() {
+        return numRandomPairs;
+    }
+
+    /**
+     * @param numRandomPairs the number of random points compared with each
+     *            point when sampling
+     */
+    public void setNumRandomPairs(int numRandomPairs) {
+        this.numRandomPairs = numRandomPairs;
+        engine = null;
+    }
+
 }
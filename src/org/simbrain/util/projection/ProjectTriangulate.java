@@ -77,9 +77,9 @@ public class ProjectTriangulate extends ProjectionMethod {
         case 1:
             System.out.println("Only one point upstairs");
             point1Index = projector.getUpstairs().getKNearestNeighbors(1,
-                    lastAddedUpstairs)[0];
+                    numPoints)[0];
             point1Up = projector.getUpstairs().getPoint(point1Index);
-            point1Down = projector.getUpstairs().getPoint(point1Index);
+            point1Down = projector.getDownstairs().getPoint(point1Index);
 
             dist = projector.getUpstairs().getDistance(point1Up,
                     lastAddedUpstairs);
@@ -91,7 +91,7 @@ public class ProjectTriangulate extends ProjectionMethod {
         case 2:
             System.out.println("Only two points upstairs");
             int[] neighbors = projector.getUpstairs().getKNearestNeighbors(2,
-                    lastAddedUpstairs);
+                    numPoints);
             point1Index = neighbors[0];
             point2Index = neighbors[1];
             point1Up = projector.getUpstairs().getPoint(point1Index);
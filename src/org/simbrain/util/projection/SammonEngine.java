@@ -0,0 +1,468 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.projection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Array-based engine behind {@link ProjectSammon}. The "upstairs" distances
+ * are computed once and kept, and new points only add their own distances.
+ * Small datasets keep all pairwise distances in a condensed lower triangle
+ * (row i holds the distances to points 0 to i - 1), so each iteration is the
+ * same as the classic Sammon update. Larger datasets keep, for each point,
+ * the distances to its nearest upstairs neighbors and to a fixed random
+ * sample of other points, so memory and time per iteration grow linearly
+ * with the number of points.
+ * <p>
+ * Each iteration moves all points at once from their previous positions and
+ * is split over the common fork-join pool for large datasets.
+ */
+final class SammonEngine {
+
+    /** Distance computations below which work is not split into tasks. */
+    private static final long TASK_WORK = 1 << 16;
+
+    /** Seed for the random pairs of sampled engines. */
+    private static final long SEED = 0x5A3310L;
+
+    /** The dataset whose distances are kept. */
+    private final Dataset upstairs;
+
+    /** Whether all pairwise distances are kept. */
+    private final boolean exact;
+
+    /** Number of nearest neighbors kept per point when sampling. */
+    private final int neighbors;
+
+    /** Number of random points kept per point when sampling. */
+    private final int randomPairs;
+
+    /** Number of points whose distances have been computed. */
+    private int size;
+
+    /** The last point whose distances have been computed. */
+    private DataPoint lastPoint;
+
+    /**
+     * Upstairs distances. Condensed lower triangle when exact, otherwise one
+     * entry per pair in {@link #pairIndex}.
+     */
+    private double[] dstar = new double[0];
+
+    /** Start of the pairs of each point. Only used when sampling. */
+    private int[] pairStart = new int[] {0};
+
+    /** The other point of each pair. Only used when sampling. */
+    private int[] pairIndex = new int[0];
+
+    /**
+     * Half the sum of the upstairs distances over the pairs of all points.
+     * When exact this is the sum of all interpoint distances.
+     */
+    private double dstarSum;
+
+    /**
+     * Create an engine. Distances are computed by {@link #update()}.
+     *
+     * @param upstairs the dataset whose distances are kept
+     * @param exact whether to keep all pairwise distances
+     * @param neighbors nearest neighbors per point when sampling
+     * @param randomPairs random points per point when sampling
+     */
+    SammonEngine(final Dataset upstairs, final boolean exact,
+            final int neighbors, final int randomPairs) {
+        this.upstairs = upstairs;
+        this.exact = exact;
+        this.neighbors = Math.max(0, neighbors);
+        this.randomPairs = Math.max(0, randomPairs);
+    }
+
+    /**
+     * @param dataset an upstairs dataset
+     * @param exactMode whether all pairwise distances should be kept
+     * @return whether this engine can be updated to serve the dataset
+     */
+    boolean isFor(final Dataset dataset, final boolean exactMode) {
+        return dataset == upstairs && exactMode == exact
+                && size <= dataset.getNumPoints()
+                && (size == 0 || dataset.getPoint(size - 1) == lastPoint);
+    }
+
+    /**
+     * @return whether all pairwise distances are kept
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return the number of points whose distances have been computed
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Compute the distances of points added to the dataset since the last
+     * update.
+     */
+    void update() {
+        final int from = size;
+        final int to = upstairs.getNumPoints();
+        if (to <= from) {
+            return;
+        }
+        if (exact) {
+            updateExact(from, to);
+        } else {
+            updateSampled(from, to);
+        }
+        size = to;
+        lastPoint = upstairs.getPoint(to - 1);
+    }
+
+    /**
+     * Add the condensed rows of new points.
+     *
+     * @param from first new point
+     * @param to end of the new points
+     */
+    private void updateExact(final int from, final int to) {
+        long length = (long) to * (to - 1) / 2;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many points (" + to
+                    + ") to keep all distances");
+        }
+        if (length > dstar.length) {
+            dstar = Arrays.copyOf(dstar, (int) Math.min(
+                    Integer.MAX_VALUE - 8, Math.max(length, 2L * dstar.length)));
+        }
+        final int dims = upstairs.getDimensions();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int start = from;
+        long work = 0;
+        for (int i = from; i < to; i++) {
+            work += (long) i * dims;
+            if (work >= TASK_WORK || i == to - 1) {
+                final int lo = start;
+                final int hi = i + 1;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int r = lo; r < hi; r++) {
+                            double[] a = upstairs.getPoint(r).getVector();
+                            int off = rowStart(r);
+                            for (int c = 0; c < r; c++) {
+                                dstar[off + c] = distance(a,
+                                        upstairs.getPoint(c).getVector());
+                            }
+                        }
+                        return null;
+                    }
+                });
+                start = i + 1;
+                work = 0;
+            }
+        }
+        run(tasks);
+        for (int i = rowStart(from), n = rowStart(to); i < n; i++) {
+            dstarSum += dstar[i];
+        }
+    }
+
+    /**
+     * Pick and measure the pairs of new points.
+     *
+     * @param from first new point
+     * @param to end of the new points
+     */
+    private void updateSampled(final int from, final int to) {
+        final int others = to - 1;
+        final int k = Math.min(neighbors, others);
+        final int r = Math.min(randomPairs, others - k);
+        int end = pairStart[from];
+        pairStart = Arrays.copyOf(pairStart, to + 1);
+        for (int i = from; i < to; i++) {
+            pairStart[i + 1] = end += k + r;
+        }
+        if (end > pairIndex.length) {
+            int capacity = Math.max(end, 2 * pairIndex.length);
+            pairIndex = Arrays.copyOf(pairIndex, capacity);
+            dstar = Arrays.copyOf(dstar, capacity);
+        }
+        if (k > 0) {
+            // Build the search tree before it is shared between tasks
+            upstairs.getKNearestNeighbors(1, from);
+        }
+        final int dims = upstairs.getDimensions();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int perTask = (int) Math.max(1,
+                TASK_WORK / Math.max(1, (long) (k + r) * dims));
+        for (int lo = from; lo < to; lo += perTask) {
+            final int first = lo;
+            final int last = Math.min(to, lo + perTask);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = first; i < last; i++) {
+                        pickPairs(i, k, r);
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        for (int i = pairStart[from]; i < end; i++) {
+            dstarSum += dstar[i] / 2;
+        }
+    }
+
+    /**
+     * Fill in the pairs of one point: its nearest neighbors first, then
+     * random other points. When every other point is needed they are all
+     * taken in order.
+     *
+     * @param i the point
+     * @param k number of neighbors
+     * @param r number of random points
+     */
+    private void pickPairs(final int i, final int k, final int r) {
+        int off = pairStart[i];
+        int count = pairStart[i + 1] - off;
+        int numPoints = upstairs.getNumPoints();
+        if (count == numPoints - 1) {
+            for (int j = 0, p = off; j < numPoints; j++) {
+                if (j != i) {
+                    pairIndex[p++] = j;
+                }
+            }
+        } else {
+            if (k > 0) {
+                int[] nearest = upstairs.getKNearestNeighbors(k, i);
+                System.arraycopy(nearest, 0, pairIndex, off, k);
+            }
+            Random random = new Random(SEED + i);
+            for (int p = off + k, end = off + count; p < end; p++) {
+                int j;
+                do {
+                    j = random.nextInt(numPoints);
+                } while (j == i || contains(pairIndex, off, p, j));
+                pairIndex[p] = j;
+            }
+        }
+        double[] a = upstairs.getPoint(i).getVector();
+        for (int p = off, end = off + count; p < end; p++) {
+            dstar[p] = distance(a, upstairs.getPoint(pairIndex[p]).getVector());
+        }
+    }
+
+    /**
+     * Move every point one gradient step from its current position.
+     *
+     * @param downstairs the low dimensional dataset, whose points are replaced
+     * @param epsilon the step size ("magic factor")
+     * @return the Sammon stress before the step
+     */
+    double iterate(final Dataset downstairs, final double epsilon) {
+        final int numPoints = Math.min(size, downstairs.getNumPoints());
+        final int dims = downstairs.getDimensions();
+        final double[] y = new double[numPoints * dims];
+        for (int i = 0; i < numPoints; i++) {
+            System.arraycopy(downstairs.getPoint(i).getVector(), 0, y,
+                    i * dims, dims);
+        }
+        final double[] next = new double[y.length];
+        final double step = dstarSum > 0 ? epsilon * 2 / dstarSum : 0;
+        long rowWork = exact ? (long) numPoints * dims
+                : (long) (pairStart[size] / Math.max(1, size) + 1) * dims;
+        int perTask = (int) Math.max(1, TASK_WORK / Math.max(1, rowWork));
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        final List<double[]> errors = new ArrayList<double[]>();
+        for (int lo = 0; lo < numPoints; lo += perTask) {
+            final int first = lo;
+            final int last = Math.min(numPoints, lo + perTask);
+            final double[] error = new double[1];
+            errors.add(error);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    double[] partial = new double[dims];
+                    for (int m = first; m < last; m++) {
+                        error[0] += gradient(m, y, numPoints, dims, partial);
+                        for (int n = 0; n < dims; n++) {
+                            next[m * dims + n] = y[m * dims + n]
+                                    - step * partial[n];
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        run(tasks);
+        for (int i = 0; i < numPoints; i++) {
+            downstairs.getPoint(i).setData(
+                    Arrays.copyOfRange(next, i * dims, (i + 1) * dims));
+        }
+        double e = 0;
+        for (double[] error : errors) {
+            e += error[0];
+        }
+        // Each pair is seen from both ends when exact
+        return dstarSum > 0 ? e / 2 / dstarSum : 0;
+    }
+
+    /**
+     * Compute the partial derivatives of the stress with respect to the
+     * position of one point (up to a constant factor).
+     *
+     * @param m the point
+     * @param y the current positions
+     * @param numPoints number of points to use
+     * @param dims number of low dimensions
+     * @param partial receives the partial derivatives
+     * @return the stress summed over the pairs of the point
+     */
+    private double gradient(final int m, final double[] y,
+            final int numPoints, final int dims, final double[] partial) {
+        Arrays.fill(partial, 0);
+        double error = 0;
+        int offM = m * dims;
+        int count;
+        int off = 0;
+        if (exact) {
+            count = numPoints;
+        } else {
+            off = pairStart[m];
+            count = pairStart[m + 1] - off;
+        }
+        for (int p = 0; p < count; p++) {
+            int i;
+            double ds;
+            if (exact) {
+                i = p;
+                if (i == m) {
+                    continue;
+                }
+                ds = i < m ? dstar[rowStart(m) + i] : dstar[rowStart(i) + m];
+            } else {
+                i = pairIndex[off + p];
+                if (i >= numPoints) {
+                    continue;
+                }
+                ds = dstar[off + p];
+            }
+            int offI = i * dims;
+            double d = 0;
+            for (int n = 0; n < dims; n++) {
+                double diff = y[offI + n] - y[offM + n];
+                d += diff * diff;
+            }
+            d = Math.sqrt(d);
+            if (ds == 0 || d == 0) {
+                // Coincident points have no direction to move in
+                continue;
+            }
+            double c = (ds - d) / ds / d;
+            for (int n = 0; n < dims; n++) {
+                partial[n] += c * (y[offI + n] - y[offM + n]);
+            }
+            error += (ds - d) * (ds - d) / ds;
+        }
+        return error;
+    }
+
+    /**
+     * @param row a point
+     * @return the start of its row in the condensed distances
+     */
+    private static int rowStart(final int row) {
+        return (int) ((long) row * (row - 1) / 2);
+    }
+
+    /**
+     * @param a a point
+     * @param b another point
+     * @return the Euclidean distance between them
+     */
+    private static double distance(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @param values an array
+     * @param from start of the range to search
+     * @param to end of the range to search
+     * @param value the value to look for
+     * @return whether the range holds the value
+     */
+    private static boolean contains(final int[] values, final int from,
+            final int to, final int value) {
+        for (int i = from; i < to; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run tasks on the common pool, or directly if there is only one.
+     *
+     * @param tasks the tasks
+     */
+    private static void run(final List<Callable<Void>> tasks) {
+        if (tasks.size() == 1) {
+            try {
+                tasks.get(0).call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+        List<Future<Void>> results = ForkJoinPool.commonPool().invokeAll(
+                tasks);
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+}
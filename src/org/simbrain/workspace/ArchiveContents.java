@@ -393,7 +393,8 @@ class ArchiveContents {
             private ArchivedDesktopComponent(final ArchivedComponent parent,
                     final org.simbrain.workspace.gui.GuiComponent<?> dc) {
                 this.className = dc.getClass().getCanonicalName();
-                this.format = dc.getWorkspaceComponent().getDefaultFormat();
+                // Desktop components always save their bounds as xml
+                this.format = "xml";
                 this.uri = "guis/" + parent.id + '_'
                         + parent.name.replaceAll("\\s", "_") + '.' + format;
             }
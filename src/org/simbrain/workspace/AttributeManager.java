@@ -17,8 +17,16 @@
  */
 package org.simbrain.workspace;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ToDoubleFunction;
 
 /**
  * The main usage of this class by API users is to create potential attributes
@@ -50,6 +58,21 @@ public class AttributeManager {
     /** Reference to parent component. */
     private WorkspaceComponent parentComponent;
 
+    /** Empty auxiliary argument list. */
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    /** Getters by method, shared by all producers. */
+    private static final Map<Method, MethodHandle> GETTERS =
+            new ConcurrentHashMap<Method, MethodHandle>();
+
+    /** Setters by method, shared by all consumers. */
+    private static final Map<Method, MethodHandle> SETTERS =
+            new ConcurrentHashMap<Method, MethodHandle>();
+
+    /** Generated double getters and setters by method. */
+    private static final Map<Method, Object> DOUBLE_ACCESSORS =
+            new ConcurrentHashMap<Method, Object>();
+
     /**
      * @param parentComponent
      */
@@ -74,102 +97,33 @@ public class AttributeManager {
             final Class<?>[] argumentDataTypes, final Object[] argumentValues,
             final String description) {
 
-        Producer<?> producer = new Producer() {
-
-            private Method theMethod;
-
-            // Static initializer
-            {
-                try {
-                    if (argumentDataTypes == null) {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName);
-                    } else {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName, argumentDataTypes);
-                    }
-                } catch (SecurityException e1) {
-                    e1.printStackTrace();
-                } catch (NoSuchMethodException e1) {
-                    System.err.println("Could not find method " + methodName
-                            + " with return type of "
-                            + dataType.getCanonicalName());
-                    e1.printStackTrace();
-                }
-
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object getValue() {
-                try {
-                    return theMethod.invoke(parentObject, argumentValues);
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-                return null;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public WorkspaceComponent getParentComponent() {
-                return parentComponent;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object getBaseObject() {
-                return parentObject;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getMethodName() {
-                return methodName;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?> getDataType() {
-                return dataType;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?>[] getArgumentDataTypes() {
-                return argumentDataTypes;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object[] getArgumentValues() {
-                return argumentValues;
+        Method theMethod = null;
+        try {
+            if (argumentDataTypes == null) {
+                theMethod = parentObject.getClass().getMethod(methodName);
+            } else {
+                theMethod = parentObject.getClass().getMethod(methodName,
+                        argumentDataTypes);
             }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getDescription() {
-                return description;
+        } catch (SecurityException e1) {
+            e1.printStackTrace();
+        } catch (NoSuchMethodException e1) {
+            System.err.println("Could not find method " + methodName
+                    + " with return type of " + dataType.getCanonicalName());
+            e1.printStackTrace();
+        }
+        if (theMethod != null && theMethod.getReturnType() == double.class
+                && theMethod.getParameterTypes().length == 0) {
+            ToDoubleFunction<Object> doubleGetter = getDoubleGetter(theMethod);
+            if (doubleGetter != null) {
+                return new DoubleMethodProducer(parentObject, methodName,
+                        argumentDataTypes, argumentValues, description,
+                        getGetter(theMethod), doubleGetter);
             }
-
-        };
-        return producer;
-
+        }
+        return new MethodProducer<Object>(parentObject, methodName, dataType,
+                argumentDataTypes, argumentValues, description,
+                getGetter(theMethod));
     }
 
     /**
@@ -208,126 +162,482 @@ public class AttributeManager {
             final String methodName, final Class<?>[] argumentDataTypes,
             final Object[] argumentValues, final String description) {
 
-        Consumer<?> consumer = new Consumer() {
-
-            private Method theMethod;
-
-            // Static initializer
-            {
-                // System.out.println(Arrays.asList(argumentDataTypes));
-                try {
-                    theMethod = parentObject.getClass().getMethod(methodName,
-                            argumentDataTypes);
-                } catch (SecurityException e1) {
-                    e1.printStackTrace();
-                } catch (NoSuchMethodException e1) {
-                    System.err.print("Could not find method " + methodName
-                            + " ");
-                    if (argumentDataTypes != null) {
-                        System.err.print("with arguments of type ");
-                        for (Class<?> type : argumentDataTypes) {
-                            System.err.print(type.getCanonicalName());
-                        }
-                        System.err.println();
-                    }
-                    e1.printStackTrace();
+        Method theMethod = null;
+        // System.out.println(Arrays.asList(argumentDataTypes));
+        try {
+            theMethod = parentObject.getClass().getMethod(methodName,
+                    argumentDataTypes);
+        } catch (SecurityException e1) {
+            e1.printStackTrace();
+        } catch (NoSuchMethodException e1) {
+            System.err.print("Could not find method " + methodName + " ");
+            if (argumentDataTypes != null) {
+                System.err.print("with arguments of type ");
+                for (Class<?> type : argumentDataTypes) {
+                    System.err.print(type.getCanonicalName());
                 }
+                System.err.println();
             }
-
-            /**
-             * {@inheritDoc}
-             */
-            public void setValue(Object value) {
-                try {
-
-                    if (argumentDataTypes.length == 1) {
-                        theMethod.invoke(parentObject, new Object[] { value });
-                    } else {
-                        Object[] concatArray = new Object[argumentValues.length + 1];
-                        concatArray[0] = value;
-                        System.arraycopy(argumentValues, 0, concatArray, 1,
-                                argumentValues.length);
-                        theMethod.invoke(parentObject, concatArray);
-                    }
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
+            e1.printStackTrace();
+        }
+        if (theMethod != null && argumentDataTypes.length == 1
+                && argumentDataTypes[0] == double.class) {
+            ObjDoubleConsumer<Object> doubleSetter = getDoubleSetter(theMethod);
+            if (doubleSetter != null) {
+                return new DoubleMethodConsumer(parentObject, methodName,
+                        argumentDataTypes, argumentValues, description,
+                        getSetter(theMethod), doubleSetter);
             }
+        }
+        return new MethodConsumer<Object>(parentObject, methodName,
+                argumentDataTypes, argumentValues, description,
+                getSetter(theMethod));
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public WorkspaceComponent getParentComponent() {
-                return parentComponent;
-            }
+    /**
+     * Create an actual consumer from a potential consumer.
+     *
+     * @param potentialAttribute the potential attribute to actualize
+     * @return the resulting consumer
+     */
+    protected Consumer<?> createConsumer(
+            final PotentialAttribute potentialAttribute) {
+        return createConsumer(potentialAttribute.getBaseObject(),
+                potentialAttribute.getMethodName(),
+                potentialAttribute.getArgumentDataTypes(),
+                potentialAttribute.getArgumentValues(),
+                potentialAttribute.getDescription());
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public Object getBaseObject() {
-                return parentObject;
+    /**
+     * Returns a getter of type (Object, Object[])Object for a method, shared by
+     * all producers which use the method. The array holds the auxiliary
+     * arguments.
+     *
+     * @param method the method, possibly null
+     * @return the getter, or null if there is no method or it cannot be
+     *         accessed
+     */
+    private static MethodHandle getGetter(final Method method) {
+        if (method == null) {
+            return null;
+        }
+        MethodHandle getter = GETTERS.get(method);
+        if (getter == null) {
+            getter = unreflect(method);
+            if (getter == null) {
+                return null;
             }
+            getter = getter.asSpreader(Object[].class,
+                    method.getParameterTypes().length).asType(
+                    MethodType.methodType(Object.class, Object.class,
+                            Object[].class));
+            GETTERS.put(method, getter);
+        }
+        return getter;
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public String getMethodName() {
-                return methodName;
+    /**
+     * Returns a setter of type (Object, Object, Object[])void for a method,
+     * shared by all consumers which use the method. The second argument is the
+     * value consumed and the array holds the auxiliary arguments.
+     *
+     * @param method the method, possibly null
+     * @return the setter, or null if there is no method or it cannot be
+     *         accessed
+     */
+    private static MethodHandle getSetter(final Method method) {
+        if (method == null) {
+            return null;
+        }
+        MethodHandle setter = SETTERS.get(method);
+        if (setter == null) {
+            setter = unreflect(method);
+            if (setter == null) {
+                return null;
             }
+            setter = setter.asSpreader(Object[].class,
+                    method.getParameterTypes().length - 1).asType(
+                    MethodType.methodType(void.class, Object.class,
+                            Object.class, Object[].class));
+            SETTERS.put(method, setter);
+        }
+        return setter;
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?>[] getArgumentDataTypes() {
-                return argumentDataTypes;
-            }
+    /**
+     * Returns a method handle for a method found by reflection, or null if it
+     * cannot be accessed.
+     *
+     * @param method the method
+     * @return the method handle
+     */
+    private static MethodHandle unreflect(final Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // Public method of a non-public class
+        }
+        try {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public Object[] getArgumentValues() {
-                return argumentValues;
+    /**
+     * Returns a function calling a public double getter of a public class,
+     * generated once per method, or null if one cannot be generated.
+     *
+     * @param method the getter
+     * @return the function
+     */
+    @SuppressWarnings("unchecked")
+    private static ToDoubleFunction<Object> getDoubleGetter(
+            final Method method) {
+        Object getter = DOUBLE_ACCESSORS.get(method);
+        if (getter == null && isLinkable(method)) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                getter = LambdaMetafactory.metafactory(lookup,
+                        "applyAsDouble",
+                        MethodType.methodType(ToDoubleFunction.class),
+                        MethodType.methodType(double.class, Object.class),
+                        lookup.unreflect(method),
+                        MethodType.methodType(double.class,
+                                method.getDeclaringClass())).getTarget()
+                        .invoke();
+                DOUBLE_ACCESSORS.put(method, getter);
+            } catch (Throwable e) {
+                // Fall back to the method handle
+                return null;
             }
+        }
+        return (ToDoubleFunction<Object>) getter;
+    }
 
-            /**
-             * {@inheritDoc}
-             */
-            public String getDescription() {
-                return description;
+    /**
+     * Returns a function calling a public double setter of a public class,
+     * generated once per method, or null if one cannot be generated.
+     *
+     * @param method the setter
+     * @return the function
+     */
+    @SuppressWarnings("unchecked")
+    private static ObjDoubleConsumer<Object> getDoubleSetter(
+            final Method method) {
+        Object setter = DOUBLE_ACCESSORS.get(method);
+        if (setter == null && isLinkable(method)) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                setter = LambdaMetafactory.metafactory(lookup, "accept",
+                        MethodType.methodType(ObjDoubleConsumer.class),
+                        MethodType.methodType(void.class, Object.class,
+                                double.class),
+                        lookup.unreflect(method),
+                        MethodType.methodType(void.class,
+                                method.getDeclaringClass(), double.class))
+                        .getTarget().invoke();
+                DOUBLE_ACCESSORS.put(method, setter);
+            } catch (Throwable e) {
+                return null;
             }
+        }
+        return (ObjDoubleConsumer<Object>) setter;
+    }
+
+    /**
+     * Whether generated code can call a method directly: it must be a public
+     * instance method of a public class.
+     *
+     * @param method the method
+     * @return whether the method can be linked
+     */
+    private static boolean isLinkable(final Method method) {
+        return Modifier.isPublic(method.getModifiers())
+                && !Modifier.isStatic(method.getModifiers())
+                && Modifier.isPublic(method.getDeclaringClass()
+                        .getModifiers());
+    }
 
-            /**
-             * Assume first argument datatype is the "main" data type.
-             */
-            public Class<?> getDataType() {
-                return argumentDataTypes[0];
+    /**
+     * Producer which calls its getter through a method handle shared by all
+     * producers of the same method, so values are read without reflection or
+     * new argument arrays.
+     *
+     * @param <E> the type of value produced
+     */
+    private class MethodProducer<E> implements Producer<E> {
+
+        /** Base object. */
+        private final Object parentObject;
+
+        /** Name of the getter. */
+        private final String methodName;
+
+        /** Data type of produced values. */
+        private final Class<?> dataType;
+
+        /** Data types of auxiliary arguments. */
+        private final Class<?>[] argumentDataTypes;
+
+        /** Auxiliary arguments. */
+        private final Object[] argumentValues;
+
+        /** Auxiliary arguments passed to the getter; never null. */
+        private final Object[] arguments;
+
+        /** Description of the producer. */
+        private final String description;
+
+        /**
+         * Getter of type (Object, Object[])Object, or null if the method could
+         * not be found.
+         */
+        private final MethodHandle getter;
+
+        /**
+         * Create the producer.
+         *
+         * @param parentObject base object
+         * @param methodName name of method
+         * @param dataType data type of produced values
+         * @param argumentDataTypes data types of auxiliary arguments
+         * @param argumentValues auxiliary arguments
+         * @param description description of the producer
+         * @param getter getter of type (Object, Object[])Object, or null
+         */
+        MethodProducer(final Object parentObject, final String methodName,
+                final Class<?> dataType, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle getter) {
+            this.parentObject = parentObject;
+            this.methodName = methodName;
+            this.dataType = dataType;
+            this.argumentDataTypes = argumentDataTypes;
+            this.argumentValues = argumentValues;
+            this.arguments = argumentValues == null ? NO_ARGUMENTS
+                    : argumentValues;
+            this.description = description;
+            this.getter = getter;
+        }
+
+        @SuppressWarnings("unchecked")
+        public E getValue() {
+            if (getter == null) {
+                return null;
             }
+            try {
+                Object value = (Object) getter.invokeExact(parentObject,
+                        arguments);
+                return (E) value;
+            } catch (Throwable e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
 
-        };
-        return consumer;
+        public WorkspaceComponent getParentComponent() {
+            return parentComponent;
+        }
+
+        public Object getBaseObject() {
+            return parentObject;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public Class<?> getDataType() {
+            return dataType;
+        }
+
+        public Class<?>[] getArgumentDataTypes() {
+            return argumentDataTypes;
+        }
+
+        public Object[] getArgumentValues() {
+            return argumentValues;
+        }
+
+        public String getDescription() {
+            return description;
+        }
 
     }
 
     /**
-     * Create an actual consumer from a potential consumer.
+     * Producer of double values, which can also be read without boxing.
+     */
+    private final class DoubleMethodProducer extends MethodProducer<Double>
+            implements DoubleProducer {
+
+        /** Generated getter. */
+        private final ToDoubleFunction<Object> doubleGetter;
+
+        /**
+         * Create the producer.
+         *
+         * @param parentObject base object
+         * @param methodName name of method
+         * @param argumentDataTypes data types of auxiliary arguments
+         * @param argumentValues auxiliary arguments
+         * @param description description of the producer
+         * @param getter getter of type (Object, Object[])Object
+         * @param doubleGetter generated getter
+         */
+        DoubleMethodProducer(final Object parentObject,
+                final String methodName, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle getter,
+                final ToDoubleFunction<Object> doubleGetter) {
+            super(parentObject, methodName, double.class, argumentDataTypes,
+                    argumentValues, description, getter);
+            this.doubleGetter = doubleGetter;
+        }
+
+        public double getDoubleValue() {
+            return doubleGetter.applyAsDouble(getBaseObject());
+        }
+
+    }
+
+    /**
+     * Consumer which calls its setter through a method handle shared by all
+     * consumers of the same method.
      *
-     * @param potentialAttribute the potential attribute to actualize
-     * @return the resulting consumer
+     * @param <E> the type of value consumed
      */
-    protected Consumer<?> createConsumer(
-            final PotentialAttribute potentialAttribute) {
-        return createConsumer(potentialAttribute.getBaseObject(),
-                potentialAttribute.getMethodName(),
-                potentialAttribute.getArgumentDataTypes(),
-                potentialAttribute.getArgumentValues(),
-                potentialAttribute.getDescription());
+    private class MethodConsumer<E> implements Consumer<E> {
+
+        /** Base object. */
+        private final Object parentObject;
+
+        /** Name of the setter. */
+        private final String methodName;
+
+        /** Data types of all arguments, the first being the consumed value. */
+        private final Class<?>[] argumentDataTypes;
+
+        /** Auxiliary arguments. */
+        private final Object[] argumentValues;
+
+        /** Auxiliary arguments passed to the setter; never null. */
+        private final Object[] arguments;
+
+        /** Description of the consumer. */
+        private final String description;
+
+        /**
+         * Setter of type (Object, Object, Object[])void, or null if the method
+         * could not be found.
+         */
+        private final MethodHandle setter;
+
+        /**
+         * Create the consumer.
+         *
+         * @param parentObject base object
+         * @param methodName name of method
+         * @param argumentDataTypes data types of all arguments
+         * @param argumentValues auxiliary arguments
+         * @param description description of the consumer
+         * @param setter setter of type (Object, Object, Object[])void, or null
+         */
+        MethodConsumer(final Object parentObject, final String methodName,
+                final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle setter) {
+            this.parentObject = parentObject;
+            this.methodName = methodName;
+            this.argumentDataTypes = argumentDataTypes;
+            this.argumentValues = argumentValues;
+            this.arguments = argumentDataTypes.length == 1 ? NO_ARGUMENTS
+                    : argumentValues;
+            this.description = description;
+            this.setter = setter;
+        }
+
+        public void setValue(final E value) {
+            if (setter == null) {
+                return;
+            }
+            try {
+                setter.invokeExact(parentObject, (Object) value, arguments);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        public WorkspaceComponent getParentComponent() {
+            return parentComponent;
+        }
+
+        public Object getBaseObject() {
+            return parentObject;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public Class<?>[] getArgumentDataTypes() {
+            return argumentDataTypes;
+        }
+
+        public Object[] getArgumentValues() {
+            return argumentValues;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public Class<?> getDataType() {
+            return argumentDataTypes[0];
+        }
+
+    }
+
+    /**
+     * Consumer of double values, which can also be set without boxing.
+     */
+    private final class DoubleMethodConsumer extends MethodConsumer<Double>
+            implements DoubleConsumer {
+
+        /** Generated setter. */
+        private final ObjDoubleConsumer<Object> doubleSetter;
+
+        /**
+         * Create the consumer.
+         *
+         * @param parentObject base object
+         * @param methodName name of method
+         * @param argumentDataTypes data types of all arguments
+         * @param argumentValues auxiliary arguments
+         * @param description description of the consumer
+         * @param setter setter of type (Object, Object, Object[])void
+         * @param doubleSetter generated setter
+         */
+        DoubleMethodConsumer(final Object parentObject,
+                final String methodName, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle setter,
+                final ObjDoubleConsumer<Object> doubleSetter) {
+            super(parentObject, methodName, argumentDataTypes, argumentValues,
+                    description, setter);
+            this.doubleSetter = doubleSetter;
+        }
+
+        public void setDoubleValue(final double value) {
+            doubleSetter.accept(getBaseObject(), value);
+        }
+
     }
 
     // ////////////////////////////////////////
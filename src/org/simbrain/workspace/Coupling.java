@@ -59,8 +59,48 @@ public final class Coupling<E> {
     /** Consuming attribute for this coupling. */
     private Consumer<E> consumer;
 
-    /** Value of buffer. */
-    public E buffer;
+    /**
+     * Value of buffer for couplings which are not primitive. Read it with
+     * {@link #getBuffer()}, which covers both kinds.
+     */
+    private E buffer;
+
+    /**
+     * Whether producer and consumer both pass doubles without boxing, in which
+     * case values are buffered in {@link #doubleBuffer}.
+     */
+    private boolean primitive;
+
+    /** Value of buffer for primitive couplings. */
+    private double doubleBuffer;
+
+    /** Whether couplings record how long they take. */
+    private static volatile boolean timingEnabled;
+
+    /** Time spent reading the producer, in nanoseconds. */
+    private long readNanos;
+
+    /** Time spent writing the consumer, in nanoseconds. */
+    private long writeNanos;
+
+    /** Number of values written to the consumer while timing. */
+    private long timedUpdates;
+
+    /** Reads the producer; allocated once so locking does not allocate. */
+    private final Callable<E> readTask = new Callable<E>() {
+        public E call() throws Exception {
+            read();
+            return null;
+        }
+    };
+
+    /** Writes the consumer. */
+    private final Callable<E> writeTask = new Callable<E>() {
+        public E call() throws Exception {
+            write();
+            return null;
+        }
+    };
 
     /**
      * Create a coupling between a specified consuming attribute, without yet
@@ -100,6 +140,7 @@ public final class Coupling<E> {
 
         this.producer = Producer;
         this.consumer = Consumer;
+        primitive = isPrimitive();
     }
 
     /**
@@ -114,6 +155,16 @@ public final class Coupling<E> {
         LOGGER.debug("new Coupling");
         this.producer = (Producer<E>) producer.createProducer();
         this.consumer = (Consumer<E>) consumer.createConsumer();
+        primitive = isPrimitive();
+    }
+
+    /**
+     * @return whether values can be passed from producer to consumer without
+     *         boxing
+     */
+    private boolean isPrimitive() {
+        return producer instanceof DoubleProducer
+                && consumer instanceof DoubleConsumer;
     }
 
     /**
@@ -124,18 +175,12 @@ public final class Coupling<E> {
                 .getParentComponent();
 
         try {
-            buffer = Workspace.syncRest(
-                    producerComponent.getLocks().iterator(), new Callable<E>() {
-                        public E call() throws Exception {
-                            return producer.getValue();
-                        }
-                    });
+            Workspace.syncRest(producerComponent.getLocks().iterator(),
+                    readTask);
         } catch (Exception e) {
             // TODO exception service?
             e.printStackTrace();
         }
-
-        LOGGER.debug("buffer set: " + buffer);
     }
 
     /**
@@ -147,20 +192,7 @@ public final class Coupling<E> {
                     .getParentComponent();
             try {
                 Workspace.syncRest(consumerComponent.getLocks().iterator(),
-                        new Callable<E>() {
-                            public E call() throws Exception {
-                                consumer.setValue(buffer);
-                                LOGGER.debug(consumer.getParentComponent()
-                                        .getName()
-                                        + " just consumed "
-                                        + producer.getValue()
-                                        + " from "
-                                        + producer.getParentComponent()
-                                                .getName());
-
-                                return null;
-                            }
-                        });
+                        writeTask);
             } catch (Exception e) {
                 // TODO exception service?
                 e.printStackTrace();
@@ -168,6 +200,111 @@ public final class Coupling<E> {
         }
     }
 
+    /**
+     * Read the producer into the buffer. The caller must hold the locks of
+     * the producer's component; see {@link CouplingManager#updateCouplings}.
+     */
+    void read() {
+        long start = timingEnabled ? System.nanoTime() : 0;
+        if (primitive) {
+            doubleBuffer = ((DoubleProducer) producer).getDoubleValue();
+        } else {
+            buffer = producer.getValue();
+            LOGGER.debug("buffer set: " + buffer);
+        }
+        if (timingEnabled) {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Write the buffer to the consumer. The caller must hold the locks of the
+     * consumer's component.
+     */
+    void write() {
+        if ((consumer == null) || (producer == null)) {
+            return;
+        }
+        long start = timingEnabled ? System.nanoTime() : 0;
+        if (primitive) {
+            ((DoubleConsumer) consumer).setDoubleValue(doubleBuffer);
+        } else {
+            consumer.setValue(buffer);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(consumer.getParentComponent().getName()
+                        + " just consumed " + buffer + " from "
+                        + producer.getParentComponent().getName());
+            }
+        }
+        if (timingEnabled) {
+            writeNanos += System.nanoTime() - start;
+            timedUpdates++;
+        }
+    }
+
+    /**
+     * Returns the value last read from the producer.
+     *
+     * @return the buffered value
+     */
+    @SuppressWarnings("unchecked")
+    public E getBuffer() {
+        if (primitive) {
+            return (E) Double.valueOf(doubleBuffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return whether couplings record how long they take
+     */
+    public static boolean isTimingEnabled() {
+        return timingEnabled;
+    }
+
+    /**
+     * Set whether couplings record how long reading their producer and
+     * writing their consumer takes. Off by default, since reading the clock
+     * costs about as much as a primitive coupling.
+     *
+     * @param timingEnabled whether to record timings
+     */
+    public static void setTimingEnabled(final boolean timingEnabled) {
+        Coupling.timingEnabled = timingEnabled;
+    }
+
+    /**
+     * @return time spent reading the producer while timing was enabled, in
+     *         nanoseconds
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return time spent writing the consumer while timing was enabled, in
+     *         nanoseconds
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * @return number of values written while timing was enabled
+     */
+    public long getTimedUpdates() {
+        return timedUpdates;
+    }
+
+    /**
+     * Reset the timing counters.
+     */
+    public void resetTiming() {
+        readNanos = 0;
+        writeNanos = 0;
+        timedUpdates = 0;
+    }
+
     /**
      * @return the Producer
      */
@@ -24,8 +24,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.log4j.Logger;
@@ -74,6 +76,15 @@ public class CouplingManager {
     /** Priority of this component; used in priority based workspace update. */
     private int priority = DEFAULT_PRIORITY;
 
+    /**
+     * Couplings of {@link #couplingList} grouped into batches by component, or
+     * null when they must be regrouped.
+     */
+    private volatile Batch[][] batches;
+
+    /** Incremented whenever couplings are added or removed. */
+    private volatile int changeCount;
+
     /** List of listeners to fire updates when couplings are changed. */
     private List<CouplingListener> couplingListeners = new ArrayList<CouplingListener>();
 
@@ -172,6 +183,8 @@ public class CouplingManager {
      */
     public void clearCouplings() {
         couplingList.clear();
+        batches = null;
+        changeCount++;
     }
 
     /**
@@ -201,14 +214,47 @@ public class CouplingManager {
      */
     public void updateAllCouplings() {
         LOGGER.debug("updating all couplings");
-        for (Coupling<?> coupling : getCouplings()) {
-            LOGGER.trace(coupling.getClass());
-            coupling.setBuffer();
+        Batch[][] current = batches;
+        if (current == null) {
+            current = makeBatches(couplingList);
+            batches = current;
         }
+        runBatches(current);
+    }
 
-        for (Coupling<?> coupling : getCouplings()) {
-            coupling.update();
-        }
+    /**
+     * Returns a number which changes whenever couplings are added or removed,
+     * so that schedules built from the couplings can tell when they are out
+     * of date.
+     *
+     * @return the number of changes to the couplings
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Read the producers of some couplings into their buffers, holding the
+     * locks of the component the producers belong to.
+     *
+     * @param component the component of the producers
+     * @param couplings the couplings
+     */
+    public static void readProducers(final WorkspaceComponent component,
+            final Coupling<?>[] couplings) {
+        runBatch(new Batch(component, couplings, true));
+    }
+
+    /**
+     * Write the buffers of some couplings to their consumers, holding the
+     * locks of the component the consumers belong to.
+     *
+     * @param component the component of the consumers
+     * @param couplings the couplings
+     */
+    public static void writeConsumers(final WorkspaceComponent component,
+            final Coupling<?>[] couplings) {
+        runBatch(new Batch(component, couplings, false));
     }
 
     /**
@@ -323,6 +369,8 @@ public class CouplingManager {
             throw new UmatchedAttributesException(warning);
         }
         couplingList.add(coupling);
+        batches = null;
+        changeCount++;
 
         // Populate source / target maps (used to return lists of couplings
         // connecting particular workspace components together)
@@ -470,6 +518,8 @@ public class CouplingManager {
         // consumingAttributes.remove(coupling.getConsumingAttribute());
 
         couplingList.remove(coupling);
+        batches = null;
+        changeCount++;
 
         removeCouplingFromList(sourceTargetCouplings.get(sourceTarget),
                 coupling);
@@ -622,12 +672,158 @@ public class CouplingManager {
      * @param couplingList the list of couplings to be updated
      */
     public void updateCouplings(List<Coupling<?>> couplingList) {
-        for (Coupling<?> coupling : couplingList) {
-            coupling.setBuffer();
+        runBatches(makeBatches(couplingList));
+    }
+
+    /**
+     * Group couplings into batches which read producers of the same component
+     * and batches which write consumers of the same component, so the locks
+     * of each component are acquired once per batch rather than once per
+     * coupling. Couplings keep their relative order within a batch.
+     *
+     * @param couplings the couplings to group
+     * @return the read batches followed by the write batches
+     */
+    private static Batch[][] makeBatches(
+            final List<? extends Coupling<?>> couplings) {
+        Map<WorkspaceComponent, List<Coupling<?>>> producers =
+                new LinkedHashMap<WorkspaceComponent, List<Coupling<?>>>();
+        Map<WorkspaceComponent, List<Coupling<?>>> consumers =
+                new LinkedHashMap<WorkspaceComponent, List<Coupling<?>>>();
+        for (Coupling<?> coupling : couplings) {
+            addToBatch(producers, coupling.getProducer().getParentComponent(),
+                    coupling);
+            if (coupling.getConsumer() != null) {
+                addToBatch(consumers, coupling.getConsumer()
+                        .getParentComponent(), coupling);
+            }
+        }
+        return new Batch[][] { toBatches(producers, true),
+                toBatches(consumers, false) };
+    }
+
+    /**
+     * Add a coupling to the list for a component.
+     *
+     * @param map lists of couplings by component
+     * @param component the component
+     * @param coupling the coupling
+     */
+    private static void addToBatch(
+            final Map<WorkspaceComponent, List<Coupling<?>>> map,
+            final WorkspaceComponent component, final Coupling<?> coupling) {
+        List<Coupling<?>> list = map.get(component);
+        if (list == null) {
+            list = new ArrayList<Coupling<?>>();
+            map.put(component, list);
+        }
+        list.add(coupling);
+    }
+
+    /**
+     * Convert lists of couplings by component to batches.
+     *
+     * @param map lists of couplings by component
+     * @param read whether the batches read producers or write consumers
+     * @return the batches
+     */
+    private static Batch[] toBatches(
+            final Map<WorkspaceComponent, List<Coupling<?>>> map,
+            final boolean read) {
+        Batch[] ret = new Batch[map.size()];
+        int i = 0;
+        for (Map.Entry<WorkspaceComponent, List<Coupling<?>>> entry : map
+                .entrySet()) {
+            ret[i++] = new Batch(entry.getKey(), entry.getValue(), read);
+        }
+        return ret;
+    }
+
+    /**
+     * Read all producers, then write all consumers.
+     *
+     * @param toRun read batches followed by write batches
+     */
+    private static void runBatches(final Batch[][] toRun) {
+        for (Batch[] phase : toRun) {
+            for (Batch batch : phase) {
+                runBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Run a batch holding the locks of its component.
+     *
+     * @param batch the batch
+     */
+    private static void runBatch(final Batch batch) {
+        try {
+            Workspace.syncRest(batch.component.getLocks().iterator(), batch);
+        } catch (Exception e) {
+            // TODO exception service?
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Couplings whose producers (or consumers) belong to one component, and
+     * which are therefore read (or written) under a single acquisition of
+     * that component's locks.
+     */
+    private static final class Batch implements Callable<Object> {
+
+        /** The component whose locks are held. */
+        private final WorkspaceComponent component;
+
+        /** The couplings. */
+        private final Coupling<?>[] couplings;
+
+        /** Whether to read producers rather than write consumers. */
+        private final boolean read;
+
+        /**
+         * Create a batch.
+         *
+         * @param component the component whose locks are held
+         * @param couplings the couplings
+         * @param read whether to read producers rather than write consumers
+         */
+        Batch(final WorkspaceComponent component,
+                final List<Coupling<?>> couplings, final boolean read) {
+            this(component, couplings.toArray(new Coupling<?>[couplings
+                    .size()]), read);
         }
 
-        for (Coupling<?> coupling : couplingList) {
-            coupling.update();
+        /**
+         * Create a batch from an array of couplings, which is not copied.
+         *
+         * @param component the component whose locks are held
+         * @param couplings the couplings
+         * @param read whether to read producers rather than write consumers
+         */
+        Batch(final WorkspaceComponent component,
+                final Coupling<?>[] couplings, final boolean read) {
+            this.component = component;
+            this.couplings = couplings;
+            this.read = read;
+        }
+
+        @Override
+        public Object call() {
+            for (Coupling<?> coupling : couplings) {
+                try {
+                    if (read) {
+                        coupling.read();
+                    } else {
+                        coupling.write();
+                    }
+                } catch (RuntimeException e) {
+                    // One broken coupling should not stop the others
+                    e.printStackTrace();
+                }
+            }
+            return null;
         }
     }
 
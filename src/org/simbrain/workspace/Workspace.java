@@ -19,7 +19,6 @@
 package org.simbrain.workspace;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,6 +34,7 @@ import java.util.concurrent.CountDownLatch;
 import org.apache.log4j.Logger;
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.workspace.updater.TaskSynchronizationManager;
 import org.simbrain.workspace.updater.UpdateAction;
 import org.simbrain.workspace.updater.WorkspaceUpdater;
@@ -99,6 +99,13 @@ public class Workspace {
      */
     private int updateDelay = 0;
 
+    /**
+     * A persistence representation of the seed of the random streams (see
+     * {@link RandomStreams}), so that a workspace opened again draws the same
+     * numbers. Null in workspaces saved without one.
+     */
+    private Long randomSeed;
+
     /**
      * The updater used to manage component updates.
      */
@@ -406,6 +413,7 @@ public class Workspace {
                 toRemove.add(component);
             }
             for (WorkspaceComponent component : toRemove) {
+                component.closing();
                 removeWorkspaceComponent(component);
             }
         }
@@ -715,6 +723,32 @@ public class Workspace {
         this.updateDelay = updateDelay;
     }
 
+    /**
+     * @return the seed the random streams of all components are derived from
+     */
+    public long getRandomSeed() {
+        return RandomStreams.getSeed();
+    }
+
+    /**
+     * Set the seed the random streams of all components are derived from.
+     * Building and running the same simulation after setting the same seed
+     * gives the same results.
+     *
+     * @param seed the seed
+     */
+    public void setRandomSeed(long seed) {
+        randomSeed = seed;
+        RandomStreams.setSeed(seed);
+    }
+
+    /**
+     * @return the seed saved with this workspace, or null if none was saved
+     */
+    Long getSavedRandomSeed() {
+        return randomSeed;
+    }
+
     /**
      * Actions required prior to proper serialization.
      */
@@ -731,6 +765,7 @@ public class Workspace {
             }
         });
         savedTime = getTime();
+        randomSeed = RandomStreams.getSeed();
     }
 
     /**
@@ -743,7 +778,7 @@ public class Workspace {
         try {
             if (theFile != null) {
                 clearWorkspace();
-                serializer.deserialize(new FileInputStream(theFile));
+                serializer.deserialize(theFile);
                 setCurrentFile(theFile);
                 setWorkspaceChanged(false);
                 fireNewWorkspaceOpened();
@@ -27,6 +27,8 @@ import java.util.HashSet;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 import org.simbrain.workspace.gui.ComponentPanel;
 import org.simbrain.workspace.updater.ComponentUpdatePart;
 
@@ -90,6 +92,9 @@ public abstract class WorkspaceComponent {
      */
     private int serializePriority = 0;
 
+    /** Random stream bound while this component updates. */
+    private SplitRandomStream randomStream;
+
     /**
      * Initializer
      */
@@ -375,6 +380,21 @@ public abstract class WorkspaceComponent {
         return name;
     }
 
+    /**
+     * Return the random stream bound while this component updates. It is
+     * made from the seed of {@link RandomStreams} and the name of this
+     * component, so it doesn't depend on which thread updates the component
+     * or on the order in which components first draw numbers.
+     *
+     * @return the random stream of this component, made for the current seed
+     */
+    public synchronized SplitRandomStream getRandomStream() {
+        if (randomStream == null || !randomStream.isCurrent()) {
+            randomStream = RandomStreams.streamFor("Component/" + name);
+        }
+        return randomStream;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -18,9 +18,9 @@
  */
 package org.simbrain.workspace;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -28,12 +28,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import org.simbrain.workspace.gui.GuiComponent;
@@ -55,15 +55,9 @@ import com.thoughtworks.xstream.io.xml.DomDriver;
  */
 public class WorkspaceSerializer {
 
-    /** The number of bytes to attempt to read at a time from an InputStream. */
-    private static final int BUFFER_SIZE = 1024;
-
     /** The current workspace. */
     private final Workspace workspace;
 
-    /** The desktop component for the workspace. */
-    private final SimbrainDesktop desktop;
-
     /**
      * Creates a new serializer.
      *
@@ -71,7 +65,6 @@ public class WorkspaceSerializer {
      */
     public WorkspaceSerializer(final Workspace workspace) {
         this.workspace = workspace;
-        this.desktop = SimbrainDesktop.getDesktop(workspace);
     }
 
     /**
@@ -160,49 +153,80 @@ public class WorkspaceSerializer {
     }
 
     /**
-     * Creates a workspace from a zip compressed input stream.
+     * Creates a workspace from a zip compressed input stream. The stream is
+     * copied to a temporary file, so that the entries can be read one at a
+     * time rather than held in memory; use {@link #deserialize(File)} when
+     * the workspace is in a file.
      *
      * @param stream The stream to read from. This is expected to be zip
      *            compressed.
      * @param exclude The list of uris to ignore on import.
      * @throws IOException if an IO error occurs.
      */
-    @SuppressWarnings("unchecked")
     public void deserialize(final InputStream stream,
             final Collection<? extends String> exclude) throws IOException {
-        Map<String, byte[]> entries = new HashMap<String, byte[]>();
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-
-        byte[] buffer = new byte[BUFFER_SIZE];
-
-        for (int read; (read = stream.read(buffer)) >= 0;) {
-            bytes.write(buffer, 0, read);
+        File temp = File.createTempFile("workspace", ".zip");
+        try {
+            Files.copy(stream, temp.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            deserialize(temp, exclude);
+        } finally {
+            temp.delete();
         }
+    }
 
-        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(
-                bytes.toByteArray()));
-        ArchiveContents contents = null;
-        WorkspaceComponentDeserializer componentDeserializer = new WorkspaceComponentDeserializer();
-
-        ZipEntry entry = zip.getNextEntry();
+    /**
+     * Creates a workspace from a zip file.
+     *
+     * @param file The file to read from.
+     * @throws IOException if an IO error occurs.
+     */
+    public void deserialize(final File file) throws IOException {
+        Collection<? extends String> empty = Collections.emptySet();
+        deserialize(file, empty);
+    }
 
-        for (ZipEntry next; entry != null; entry = next) {
-            next = zip.getNextEntry();
-            entries.put(entry.getName(), new byte[(int) entry.getSize()]);
+    /**
+     * Creates a workspace from a zip file. Entries are read straight from the
+     * file as they are needed.
+     *
+     * @param file The file to read from.
+     * @param exclude The list of uris to ignore on import.
+     * @throws IOException if an IO error occurs.
+     */
+    public void deserialize(final File file,
+            final Collection<? extends String> exclude) throws IOException {
+        try (ZipFile zip = new ZipFile(file)) {
+            deserialize(zip, exclude);
         }
+    }
 
-        zip = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()));
-
-        while ((entry = zip.getNextEntry()) != null) {
-            byte[] data = entries.get(entry.getName());
-            read(zip, data);
-        }
+    /**
+     * Creates a workspace from an open zip file.
+     *
+     * @param zip The zip file to read from.
+     * @param exclude The list of uris to ignore on import.
+     * @throws IOException if an IO error occurs.
+     */
+    @SuppressWarnings("unchecked")
+    private void deserialize(final ZipFile zip,
+            final Collection<? extends String> exclude) throws IOException {
+        WorkspaceComponentDeserializer componentDeserializer = new WorkspaceComponentDeserializer();
 
         // Get the archived contents file.
-        contents = (ArchiveContents) ArchiveContents.xstream().fromXML(
-                new ByteArrayInputStream(entries.get("contents.xml")));
+        ArchiveContents contents = (ArchiveContents) ArchiveContents.xstream()
+                .fromXML(getEntry(zip, "contents.xml"));
 
         // Add Components
+        // Set the saved seed before components are made, so that they draw
+        // the same numbers as the saved workspace
+        if (contents.getWorkspaceParameters() != null
+                && contents.getWorkspaceParameters()
+                        .getSavedRandomSeed() != null) {
+            workspace.setRandomSeed(contents.getWorkspaceParameters()
+                    .getSavedRandomSeed());
+        }
+
         if (contents.getArchivedComponents() != null) {
             for (ArchiveContents.ArchivedComponent archivedComponent : contents
                     .getArchivedComponents()) {
@@ -213,21 +237,27 @@ public class WorkspaceSerializer {
                 WorkspaceComponent wc = componentDeserializer
                         .deserializeWorkspaceComponent(
                                 archivedComponent,
-                                new ByteArrayInputStream(entries
-                                        .get(archivedComponent.getUri())));
+                                getEntry(zip, archivedComponent.getUri()));
 
                 // This will cause a desktop component (GuiComponent) to be
                 // created
                 workspace.addWorkspaceComponent(wc);
 
-                if (archivedComponent.getDesktopComponent() != null) {
-                    Rectangle bounds = (Rectangle) new XStream(new DomDriver())
-                            .fromXML(new ByteArrayInputStream(entries
-                                    .get(archivedComponent
-                                            .getDesktopComponent().getUri())));
-                    GuiComponent<?> desktopComponent = desktop
-                            .getDesktopComponent(wc);
-                    desktopComponent.getParentFrame().setBounds(bounds);
+                // Without a desktop (e.g. in a headless batch run) the
+                // window bounds are ignored, so no gui classes are touched
+                if (archivedComponent.getDesktopComponent() != null
+                        && !GraphicsEnvironment.isHeadless()) {
+                    SimbrainDesktop desktop = SimbrainDesktop
+                            .getDesktop(workspace);
+                    if (desktop != null) {
+                        Rectangle bounds = (Rectangle) new XStream(
+                                new DomDriver()).fromXML(getEntry(zip,
+                                archivedComponent.getDesktopComponent()
+                                        .getUri()));
+                        GuiComponent<?> desktopComponent = desktop
+                                .getDesktopComponent(wc);
+                        desktopComponent.getParentFrame().setBounds(bounds);
+                    }
                 }
             }
         }
@@ -312,23 +342,20 @@ public class WorkspaceSerializer {
     }
 
     /**
-     * Helper method that will read the InputStream repeatedly until the given
-     * array is filled.
+     * Returns a stream for reading an entry of a zip file.
      *
-     * @param istream the InputStream to read from.
-     * @param bytes the array to write to
-     * @throws IOException if there is an IO error
+     * @param zip the zip file
+     * @param name the name of the entry
+     * @return the stream
+     * @throws IOException if there is no such entry or it cannot be read
      */
-    private static void read(final InputStream istream, final byte[] bytes)
+    private static InputStream getEntry(final ZipFile zip, final String name)
             throws IOException {
-        int pos = 0;
-        while (pos < bytes.length) {
-            int read = istream.read(bytes, pos, bytes.length - pos);
-            if (read < 0) {
-                throw new RuntimeException("premature EOF");
-            }
-            pos += read;
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Missing archive entry: " + name);
         }
+        return new BufferedInputStream(zip.getInputStream(entry));
     }
 
     /**
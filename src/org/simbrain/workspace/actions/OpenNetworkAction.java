@@ -24,6 +24,7 @@ import java.io.File;
 import javax.swing.AbstractAction;
 
 import org.simbrain.network.NetworkComponent;
+import org.simbrain.network.util.io_utilities.NetworkArchive;
 import org.simbrain.resource.ResourceManager;
 import org.simbrain.util.SFileChooser;
 import org.simbrain.util.SimbrainPreferences;
@@ -61,6 +62,7 @@ public final class OpenNetworkAction extends WorkspaceAction {
         }
         SFileChooser chooser = new SFileChooser(defaultDirectory,
                 "xml file", "xml");
+        chooser.addExtension("network archive", NetworkArchive.EXTENSION);
         File theFile = chooser.showOpenDialog();
         if (theFile != null) {
             NetworkComponent networkComponent = (NetworkComponent) WorkspaceSerializer
@@ -0,0 +1,480 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.simbrain.network.NetworkComponent;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.workspace.Workspace;
+import org.simbrain.workspace.WorkspaceSerializer;
+import org.simbrain.workspace.updater.WorkspaceUpdater;
+
+/**
+ * Runs a workspace without a gui: opens a workspace (.zip) or network file,
+ * updates it for a number of steps or until a {@link StopCondition} holds,
+ * streams the values of some producers (see {@link Probe}) to a CSV file,
+ * and reports metrics. No Swing or Piccolo classes are used, so it runs on
+ * machines without a display.
+ * <p>
+ * The workspace is updated on the calling thread. Its update delay, which
+ * only paces the gui, is ignored.
+ * <p>
+ * Command line usage: <code>BatchRunner [options] file</code>, with options
+ * <ul>
+ * <li>-steps n : number of steps, or the most steps with -until (default
+ * 1000)</li>
+ * <li>-until condition : stop when a condition holds, e.g.
+ * "Network1/Neuron_3:getActivation &gt; 0.9"</li>
+ * <li>-record spec : record a producer, e.g. "Network1/Neuron_3:getActivation";
+ * may be repeated</li>
+ * <li>-every n : record every n steps (default 1)</li>
+ * <li>-out file : CSV file for the recordings</li>
+ * <li>-metrics file : also write the metrics to a file</li>
+ * <li>-seed n : seed of all random streams, instead of the one saved with
+ * a workspace</li>
+ * <li>-list : list the producers which can be recorded, and exit</li>
+ * </ul>
+ * Metrics are printed as <code>key=value</code> lines. The exit status is 0
+ * on success, 1 if the run fails and 2 for bad arguments.
+ */
+public class BatchRunner {
+
+    /** Default number of steps. */
+    public static final int DEFAULT_STEPS = 1000;
+
+    /** The workspace run. */
+    private final Workspace workspace;
+
+    /** Number of steps, or the most steps when there is a stop condition. */
+    private int steps = DEFAULT_STEPS;
+
+    /** Ends the run when it holds, or null to run all the steps. */
+    private StopCondition stopCondition;
+
+    /** Producers recorded. */
+    private final List<Probe> probes = new ArrayList<Probe>();
+
+    /** Steps between recordings. */
+    private int recordInterval = 1;
+
+    /** File the recordings are written to, or null. */
+    private File recordingFile;
+
+    /**
+     * Create a runner for a workspace.
+     *
+     * @param workspace the workspace
+     */
+    public BatchRunner(final Workspace workspace) {
+        this.workspace = workspace;
+    }
+
+    /**
+     * Open a workspace (.zip) or a network file (.xml or network archive)
+     * into a new workspace, without a gui.
+     *
+     * @param file the file
+     * @return the workspace
+     * @throws IOException if the file cannot be read
+     */
+    public static Workspace open(final File file) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("No such file: " + file);
+        }
+        Workspace workspace = new Workspace();
+        if (file.getName().toLowerCase(Locale.US).endsWith(".zip")) {
+            new WorkspaceSerializer(workspace).deserialize(file);
+        } else {
+            workspace.addWorkspaceComponent(WorkspaceSerializer.open(
+                    NetworkComponent.class, file));
+        }
+        workspace.setWorkspaceChanged(false);
+        return workspace;
+    }
+
+    /**
+     * @return the workspace run
+     */
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * @param steps number of steps, or the most steps when there is a stop
+     *            condition
+     */
+    public void setSteps(final int steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("Steps must not be negative");
+        }
+        this.steps = steps;
+    }
+
+    /**
+     * @param condition condition which ends the run, see
+     *            {@link StopCondition#parse(Workspace, String)}
+     */
+    public void setStopCondition(final String condition) {
+        stopCondition = StopCondition.parse(workspace, condition);
+    }
+
+    /**
+     * Record a producer.
+     *
+     * @param spec the producer, see {@link Probe#find(Workspace, String)}
+     */
+    public void addRecording(final String spec) {
+        probes.add(Probe.find(workspace, spec));
+    }
+
+    /**
+     * @param interval steps between recordings
+     */
+    public void setRecordInterval(final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        this.recordInterval = interval;
+    }
+
+    /**
+     * @param file CSV file the recordings are written to, or null
+     */
+    public void setRecordingFile(final File file) {
+        this.recordingFile = file;
+    }
+
+    /**
+     * Run the workspace. Recordings are written as they are made, one row
+     * per recording with the step number first; the last step is always
+     * recorded.
+     *
+     * @return the metrics of the run
+     * @throws IOException if the recordings cannot be written
+     */
+    public Result run() throws IOException {
+        workspace.setUpdateDelay(0);
+        WorkspaceUpdater updater = workspace.getUpdater();
+        List<String> columns = new ArrayList<String>();
+        for (Probe probe : probes) {
+            for (String name : probe.getColumnNames()) {
+                columns.add(name);
+            }
+        }
+        double[] row = new double[columns.size()];
+        Writer out = null;
+        if (recordingFile != null) {
+            out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(recordingFile),
+                    StandardCharsets.UTF_8), 1 << 16);
+        }
+        try {
+            StringBuilder sb = new StringBuilder();
+            if (out != null) {
+                sb.append("step");
+                for (String name : columns) {
+                    sb.append(',').append(quote(name));
+                }
+                out.write(sb.append('\n').toString());
+            }
+            long start = System.nanoTime();
+            int step = 0;
+            int recorded = -1;
+            boolean conditionMet = false;
+            while (step < steps) {
+                updater.runOnceInCurrentThread();
+                step++;
+                if (out != null && step % recordInterval == 0) {
+                    writeRow(out, sb, step, row);
+                    recorded = step;
+                }
+                if (stopCondition != null && stopCondition.holds()) {
+                    conditionMet = true;
+                    break;
+                }
+            }
+            if (out != null && recorded != step) {
+                writeRow(out, sb, step, row);
+            }
+            long nanos = System.nanoTime() - start;
+            readAll(row);
+            return new Result(step, nanos, conditionMet, columns, row);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Read all the probes.
+     *
+     * @param row array to read into
+     */
+    private void readAll(final double[] row) {
+        int offset = 0;
+        for (int i = 0, n = probes.size(); i < n; i++) {
+            Probe probe = probes.get(i);
+            probe.read(row, offset);
+            offset += probe.getWidth();
+        }
+    }
+
+    /**
+     * Read all the probes and write a row of recordings.
+     *
+     * @param out the writer
+     * @param sb a buffer to reuse
+     * @param step the step number
+     * @param row array to read into
+     * @throws IOException if the row cannot be written
+     */
+    private void writeRow(final Writer out, final StringBuilder sb,
+            final int step, final double[] row) throws IOException {
+        readAll(row);
+        sb.setLength(0);
+        sb.append(step);
+        for (int i = 0; i < row.length; i++) {
+            sb.append(',').append(row[i]);
+        }
+        out.write(sb.append('\n').toString());
+    }
+
+    /**
+     * Quote a CSV field if needed.
+     *
+     * @param field the field
+     * @return the field, quoted if it contains a comma or quote
+     */
+    private static String quote(final String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Metrics of a batch run.
+     */
+    public static final class Result {
+
+        /** Number of steps run. */
+        private final int steps;
+
+        /** Wall-clock time of the run in nanoseconds. */
+        private final long nanos;
+
+        /** Whether the run ended because its stop condition held. */
+        private final boolean conditionMet;
+
+        /** Names of the recorded values. */
+        private final List<String> names;
+
+        /** Recorded values after the last step. */
+        private final double[] finalValues;
+
+        /**
+         * Create a result.
+         *
+         * @param steps number of steps run
+         * @param nanos wall-clock time in nanoseconds
+         * @param conditionMet whether the stop condition held
+         * @param names names of the recorded values
+         * @param finalValues recorded values after the last step
+         */
+        Result(final int steps, final long nanos, final boolean conditionMet,
+                final List<String> names, final double[] finalValues) {
+            this.steps = steps;
+            this.nanos = nanos;
+            this.conditionMet = conditionMet;
+            this.names = names;
+            this.finalValues = finalValues;
+        }
+
+        /**
+         * @return number of steps run
+         */
+        public int getSteps() {
+            return steps;
+        }
+
+        /**
+         * @return wall-clock time of the run in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return whether the run ended because its stop condition held
+         */
+        public boolean isConditionMet() {
+            return conditionMet;
+        }
+
+        /**
+         * @return names of the recorded values
+         */
+        public List<String> getNames() {
+            return names;
+        }
+
+        /**
+         * @return recorded values after the last step
+         */
+        public double[] getFinalValues() {
+            return finalValues;
+        }
+
+        /**
+         * Print the metrics as <code>key=value</code> lines.
+         *
+         * @param out stream to print to
+         */
+        public void print(final PrintStream out) {
+            double seconds = nanos / 1e9;
+            out.println("steps=" + steps);
+            out.println("stop=" + (conditionMet ? "condition" : "steps"));
+            out.println("seconds=" + String.format(Locale.US, "%.3f",
+                    seconds));
+            out.println("steps_per_second=" + String.format(Locale.US,
+                    "%.1f", seconds > 0 ? steps / seconds : 0));
+            for (int i = 0; i < finalValues.length; i++) {
+                out.println("final." + names.get(i) + "=" + finalValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Run a workspace from the command line. See the class documentation for
+     * options.
+     *
+     * @param args options and the file to run
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+        int steps = DEFAULT_STEPS;
+        String until = null;
+        List<String> records = new ArrayList<String>();
+        int every = 1;
+        String out = null;
+        String metrics = null;
+        Long seed = null;
+        boolean list = false;
+        String file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-steps")) {
+                    steps = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-until")) {
+                    until = args[++i];
+                } else if (arg.equals("-record")) {
+                    records.add(args[++i]);
+                } else if (arg.equals("-every")) {
+                    every = Integer.parseInt(args[++i]);
+                } else if (arg.equals("-out")) {
+                    out = args[++i];
+                } else if (arg.equals("-metrics")) {
+                    metrics = args[++i];
+                } else if (arg.equals("-seed")) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (arg.equals("-list")) {
+                    list = true;
+                } else if (arg.startsWith("-") || file != null) {
+                    throw new IllegalArgumentException("Unknown argument "
+                            + arg);
+                } else {
+                    file = arg;
+                }
+            }
+            if (file == null) {
+                throw new IllegalArgumentException("No file given");
+            }
+            if (!records.isEmpty() && out == null) {
+                throw new IllegalArgumentException("-record needs -out");
+            }
+        } catch (RuntimeException e) {
+            // Bad numbers and missing option values too
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: BatchRunner [-steps n] [-until "
+                    + "condition] [-record spec]... [-every n] [-out file] "
+                    + "[-metrics file] [-seed n] [-list] file");
+            System.exit(2);
+        }
+
+        int status = 0;
+        try {
+            if (seed != null) {
+                RandomStreams.setSeed(seed);
+            }
+            BatchRunner runner = new BatchRunner(open(new File(file)));
+            if (seed != null) {
+                // Replaces a seed saved with the workspace
+                runner.getWorkspace().setRandomSeed(seed);
+            }
+            if (list) {
+                for (String spec : Probe.list(runner.getWorkspace())) {
+                    System.out.println(spec);
+                }
+            } else {
+                runner.setSteps(steps);
+                runner.setRecordInterval(every);
+                if (until != null) {
+                    runner.setStopCondition(until);
+                }
+                for (String spec : records) {
+                    runner.addRecording(spec);
+                }
+                if (out != null) {
+                    runner.setRecordingFile(new File(out));
+                }
+                Result result = runner.run();
+                System.out.println("file=" + file);
+                result.print(System.out);
+                if (metrics != null) {
+                    try (PrintStream ps = new PrintStream(metrics, "UTF-8")) {
+                        ps.println("file=" + file);
+                        result.print(ps);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error: " + e);
+            e.printStackTrace();
+            status = 1;
+        }
+        // The updater leaves non-daemon threads behind
+        System.exit(status);
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.simbrain.workspace.PotentialProducer;
+import org.simbrain.workspace.Producer;
+import org.simbrain.workspace.Workspace;
+import org.simbrain.workspace.WorkspaceComponent;
+
+/**
+ * Reads a numeric producer of a workspace component, named by a string of
+ * the form <code>component/attribute</code>, where <code>attribute</code> is
+ * the description of one of the component's potential producers, e.g.
+ * <code>Network1/Neuron_3:getActivation</code>. Array-valued producers are
+ * read whole, or one element when the spec ends in an index, e.g.
+ * <code>Network1/Group_1:getExternalActivations[2]</code>.
+ */
+public final class Probe {
+
+    /** The spec this probe was made from. */
+    private final String spec;
+
+    /** The producer read. */
+    private final Producer<?> producer;
+
+    /** Element read from an array-valued producer, or -1 for all. */
+    private final int index;
+
+    /** Number of values read. */
+    private final int width;
+
+    /**
+     * Create a probe.
+     *
+     * @param spec the spec
+     * @param producer the producer
+     * @param index element to read, or -1 for all
+     */
+    private Probe(final String spec, final Producer<?> producer,
+            final int index) {
+        this.spec = spec;
+        this.producer = producer;
+        this.index = index;
+        Object value = producer.getValue();
+        if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            if (index >= array.length) {
+                throw new IllegalArgumentException(spec + ": index out of "
+                        + "range, " + array.length + " values");
+            }
+            width = index < 0 ? array.length : 1;
+        } else if (value instanceof Number) {
+            if (index >= 0) {
+                throw new IllegalArgumentException(spec
+                        + ": not an array-valued attribute");
+            }
+            width = 1;
+        } else if (value == null
+                && producer.getDataType() == double[].class) {
+            throw new IllegalArgumentException(spec + ": no values yet");
+        } else {
+            throw new IllegalArgumentException(spec + ": not numeric ("
+                    + producer.getDataType().getSimpleName() + ")");
+        }
+    }
+
+    /**
+     * Find the producer named by a spec.
+     *
+     * @param workspace the workspace
+     * @param spec the spec, <code>component/attribute</code> or
+     *            <code>component/attribute[index]</code>
+     * @return a probe reading the producer
+     * @throws IllegalArgumentException if there is no such component or
+     *             attribute, or it is not numeric
+     */
+    public static Probe find(final Workspace workspace, final String spec) {
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException(spec
+                    + ": expected component/attribute");
+        }
+        String componentName = spec.substring(0, slash);
+        String attribute = spec.substring(slash + 1).trim();
+        int index = -1;
+        if (attribute.endsWith("]") && attribute.indexOf('[') > 0) {
+            int open = attribute.lastIndexOf('[');
+            try {
+                index = Integer.parseInt(attribute.substring(open + 1,
+                        attribute.length() - 1).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(spec + ": bad index");
+            }
+            attribute = attribute.substring(0, open).trim();
+        }
+        WorkspaceComponent component = null;
+        for (WorkspaceComponent wc : workspace.getComponentList()) {
+            if (wc.getName().equals(componentName)) {
+                component = wc;
+                break;
+            }
+        }
+        if (component == null) {
+            throw new IllegalArgumentException(spec + ": no component named "
+                    + componentName);
+        }
+        for (PotentialProducer pp : component.getPotentialProducers()) {
+            if (pp.getDescription().equals(attribute)) {
+                return new Probe(spec, pp.createProducer(), index);
+            }
+        }
+        throw new IllegalArgumentException(spec + ": " + componentName
+                + " has no attribute " + attribute);
+    }
+
+    /**
+     * List the specs of all the numeric producers of a workspace.
+     *
+     * @param workspace the workspace
+     * @return the specs, without indices
+     */
+    public static List<String> list(final Workspace workspace) {
+        List<String> ret = new ArrayList<String>();
+        for (WorkspaceComponent wc : workspace.getComponentList()) {
+            for (PotentialProducer pp : wc.getPotentialProducers()) {
+                Class<?> type = pp.getDataType();
+                if (type == double.class || type == double[].class
+                        || type == int.class || type == Double.class) {
+                    ret.add(wc.getName() + "/" + pp.getDescription());
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the spec this probe was made from
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * @return the number of values read, which for a whole array is its
+     *         length when the probe was made
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Read the current values.
+     *
+     * @param into array to read into
+     * @param offset where to put the first value
+     */
+    public void read(final double[] into, final int offset) {
+        Object value = producer.getValue();
+        if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            if (index >= 0) {
+                into[offset] = index < array.length ? array[index]
+                        : Double.NaN;
+            } else {
+                // An array which changed size is cut or padded
+                int n = Math.min(width, array.length);
+                System.arraycopy(array, 0, into, offset, n);
+                for (int i = n; i < width; i++) {
+                    into[offset + i] = Double.NaN;
+                }
+            }
+        } else if (value instanceof Number) {
+            into[offset] = ((Number) value).doubleValue();
+        } else {
+            for (int i = 0; i < width; i++) {
+                into[offset + i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * @return the current value, or the first value of a whole array
+     */
+    public double getValue() {
+        Object value = producer.getValue();
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            int i = Math.max(index, 0);
+            return i < array.length ? array[i] : Double.NaN;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * @return column names for the values read: the spec, or the spec with
+     *         an index for each element of a whole array
+     */
+    public String[] getColumnNames() {
+        if (width == 1) {
+            return new String[] {spec};
+        }
+        String[] ret = new String[width];
+        for (int i = 0; i < width; i++) {
+            ret[i] = spec + "[" + i + "]";
+        }
+        return ret;
+    }
+
+}
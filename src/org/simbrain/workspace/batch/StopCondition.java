@@ -0,0 +1,116 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace.batch;
+
+import org.simbrain.workspace.Workspace;
+
+/**
+ * A condition on the value of a producer which ends a batch run, written as
+ * <code>spec op value</code>, where spec names a producer as for
+ * {@link Probe} and op is one of <code>&lt; &lt;= &gt; &gt;= == !=</code>,
+ * e.g. <code>Network1/Neuron_3:getActivation &gt;= 0.9</code>.
+ */
+public final class StopCondition {
+
+    /** Comparison operators, longest first so that they parse correctly. */
+    private static final String[] OPERATORS = {"<=", ">=", "==", "!=", "<",
+        ">"};
+
+    /** The value compared. */
+    private final Probe probe;
+
+    /** The operator. */
+    private final String operator;
+
+    /** The value compared against. */
+    private final double threshold;
+
+    /**
+     * Create a condition.
+     *
+     * @param probe the value compared
+     * @param operator the operator
+     * @param threshold the value compared against
+     */
+    private StopCondition(final Probe probe, final String operator,
+            final double threshold) {
+        this.probe = probe;
+        this.operator = operator;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Parse a condition.
+     *
+     * @param workspace the workspace whose producer is compared
+     * @param condition the condition, <code>spec op value</code>
+     * @return the condition
+     * @throws IllegalArgumentException if the condition cannot be parsed or
+     *             names no numeric producer
+     */
+    public static StopCondition parse(final Workspace workspace,
+            final String condition) {
+        for (String op : OPERATORS) {
+            int at = condition.lastIndexOf(op);
+            if (at <= 0) {
+                continue;
+            }
+            double threshold;
+            try {
+                threshold = Double.parseDouble(condition.substring(
+                        at + op.length()).trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(condition
+                        + ": expected a number after " + op);
+            }
+            Probe probe = Probe.find(workspace, condition.substring(0, at)
+                    .trim());
+            return new StopCondition(probe, op, threshold);
+        }
+        throw new IllegalArgumentException(condition
+                + ": expected spec op value");
+    }
+
+    /**
+     * @return whether the condition holds for the current value
+     */
+    public boolean holds() {
+        double value = probe.getValue();
+        switch (operator) {
+        case "<":
+            return value < threshold;
+        case "<=":
+            return value <= threshold;
+        case ">":
+            return value > threshold;
+        case ">=":
+            return value >= threshold;
+        case "==":
+            return value == threshold;
+        default:
+            return value != threshold;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return probe.getSpec() + " " + operator + " " + threshold;
+    }
+
+}
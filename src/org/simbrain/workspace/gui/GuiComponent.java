@@ -211,8 +211,8 @@ public abstract class GuiComponent<E extends WorkspaceComponent> extends JPanel
 
             try {
                 FileOutputStream stream = new FileOutputStream(theFile);
-                // TODO format?
-                workspaceComponent.save(stream, null);
+                workspaceComponent.save(stream,
+                        SFileChooser.getExtension(theFile));
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -238,7 +238,8 @@ public abstract class GuiComponent<E extends WorkspaceComponent> extends JPanel
             try {
                 FileOutputStream stream = new FileOutputStream(
                         workspaceComponent.getCurrentFile());
-                workspaceComponent.save(stream, null);
+                workspaceComponent.save(stream, SFileChooser
+                        .getExtension(workspaceComponent.getCurrentFile()));
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
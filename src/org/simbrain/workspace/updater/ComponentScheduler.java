@@ -0,0 +1,482 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace.updater;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.simbrain.workspace.Coupling;
+import org.simbrain.workspace.CouplingManager;
+import org.simbrain.workspace.WorkspaceComponent;
+
+/**
+ * Runs a buffered workspace update (see {@link UpdateAllBuffered}) as a
+ * graph of tasks rather than in two phases. In a buffered update every
+ * coupling reads its producer before any component updates, and every
+ * component updates after its consumers are written, so a component only
+ * has to wait for
+ * <ul>
+ * <li>the couplings it produces to be read, since updating changes the
+ * values they read, and</li>
+ * <li>the couplings it consumes to be written, which in turn wait for their
+ * producers to be read, and for the couplings the component produces to be
+ * read, since writing may change the values they read.</li>
+ * </ul>
+ * The reads of each component, and its writes, are done as one task holding
+ * the locks of that component (see {@link CouplingManager#readProducers}), and
+ * tasks run on the component update threads of the {@link WorkspaceUpdater}
+ * as soon as the tasks they wait for are done. Components which are not
+ * coupled start updating at once, and a consumer starts as soon as its own
+ * inputs have been transferred, while other components are still reading,
+ * writing or updating. The results are the same as updating all couplings
+ * and then all components.
+ * <p>
+ * The graph is rebuilt when components or couplings are added or removed.
+ * The time each component took in the last update can be read with
+ * {@link #getTimings()}.
+ */
+public class ComponentScheduler {
+
+    /** The updater whose components are updated. */
+    private final WorkspaceUpdater updater;
+
+    /** The current graph, or null before the first update. */
+    private Plan plan;
+
+    /** Timings of the last update. */
+    private volatile List<ComponentTiming> timings = Collections.emptyList();
+
+    /** Wall-clock time of the last update in nanoseconds. */
+    private volatile long lastUpdateNanos;
+
+    /**
+     * Create a scheduler.
+     *
+     * @param updater the updater whose components are updated
+     */
+    ComponentScheduler(final WorkspaceUpdater updater) {
+        this.updater = updater;
+    }
+
+    /**
+     * Update all couplings and components once, returning when all
+     * components are done. Called on the workspace update thread.
+     */
+    public void update() {
+        List<? extends WorkspaceComponent> components = updater
+                .getComponents();
+        if (components.isEmpty()) {
+            return;
+        }
+        CouplingManager manager = updater.getWorkspace().getCouplingManager();
+        int changeCount = manager.getChangeCount();
+        if (plan == null || !plan.isFor(components, changeCount)) {
+            plan = new Plan(components, manager, changeCount);
+        }
+        final Plan current = plan;
+        long start = System.nanoTime();
+        current.start(start);
+        for (int i = 0; i < current.size; i++) {
+            if (current.reads[i].length > 0) {
+                updater.submit(current.readTasks[i]);
+            } else if (current.writes[i].length == 0) {
+                current.startUpdate(i);
+            }
+        }
+        current.latch.await();
+        lastUpdateNanos = System.nanoTime() - start;
+        timings = current.getTimings(updater.getTime());
+        updater.notifyCouplingsUpdated();
+    }
+
+    /**
+     * @return how long each component took in the last update
+     */
+    public List<ComponentTiming> getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return wall-clock time of the last update in nanoseconds
+     */
+    public long getLastUpdateNanos() {
+        return lastUpdateNanos;
+    }
+
+    /**
+     * The task graph for one set of components and couplings, and the state
+     * of the update in progress.
+     */
+    private final class Plan {
+
+        /** Number of nodes. */
+        private final int size;
+
+        /** Number of components updated; the other nodes are only coupled. */
+        private final int updatedCount;
+
+        /**
+         * The component of each node: the components of the workspace, then
+         * components which only take part in couplings.
+         */
+        private final WorkspaceComponent[] nodes;
+
+        /** Couplings whose producers belong to each node. */
+        private final Coupling<?>[][] reads;
+
+        /** Couplings whose consumers belong to each node. */
+        private final Coupling<?>[][] writes;
+
+        /** Nodes whose writes wait for the reads of a node. */
+        private final int[][] consumersOf;
+
+        /** Number of nodes whose reads a node's writes wait for. */
+        private final int[] producerCount;
+
+        /** Coupling change count the graph was built for. */
+        private final int changeCount;
+
+        /** Task reading the producers of each node. */
+        private final Runnable[] readTasks;
+
+        /** Task writing the consumers of each node. */
+        private final Runnable[] writeTasks;
+
+        /** Number of reads each node's writes are waiting for. */
+        private final AtomicIntegerArray writesPending;
+
+        /** Number of tasks each node's update is waiting for. */
+        private final AtomicIntegerArray updatesPending;
+
+        /** Start of the update in progress. */
+        private long startTime;
+
+        /** Start of each node's update, relative to {@link #startTime}. */
+        private final long[] updateStart;
+
+        /** End of each node's update, relative to {@link #startTime}. */
+        private final long[] updateEnd;
+
+        /** Time spent reading the producers of each node. */
+        private final long[] readNanos;
+
+        /** Time spent writing the consumers of each node. */
+        private final long[] writeNanos;
+
+        /** Counted down when a node's update is done. */
+        private LatchCompletionSignal latch;
+
+        /**
+         * Build the graph.
+         *
+         * @param components the components of the workspace
+         * @param manager the coupling manager
+         * @param changeCount the coupling change count
+         */
+        Plan(final List<? extends WorkspaceComponent> components,
+                final CouplingManager manager, final int changeCount) {
+            this.changeCount = changeCount;
+            updatedCount = components.size();
+            List<WorkspaceComponent> nodeList =
+                    new ArrayList<WorkspaceComponent>(components);
+            Map<WorkspaceComponent, Integer> index =
+                    new HashMap<WorkspaceComponent, Integer>();
+            for (int i = 0; i < updatedCount; i++) {
+                index.put(nodeList.get(i), i);
+            }
+            List<List<Coupling<?>>> readList =
+                    new ArrayList<List<Coupling<?>>>();
+            List<List<Coupling<?>>> writeList =
+                    new ArrayList<List<Coupling<?>>>();
+            List<Set<Integer>> consumerSets = new ArrayList<Set<Integer>>();
+            List<Set<Integer>> producerSets = new ArrayList<Set<Integer>>();
+            for (Coupling<?> coupling : manager.getCouplings()) {
+                int p = indexOf(coupling.getProducer().getParentComponent(),
+                        index, nodeList, readList, writeList, consumerSets,
+                        producerSets);
+                readList.get(p).add(coupling);
+                if (coupling.getConsumer() != null) {
+                    int c = indexOf(coupling.getConsumer()
+                            .getParentComponent(), index, nodeList, readList,
+                            writeList, consumerSets, producerSets);
+                    writeList.get(c).add(coupling);
+                    consumerSets.get(p).add(c);
+                    producerSets.get(c).add(p);
+                }
+            }
+            // Nodes with no couplings
+            while (readList.size() < nodeList.size()) {
+                addNode(readList, writeList, consumerSets, producerSets);
+            }
+            // A node's consumers may be read by its own couplings (e.g. a
+            // neuron's activation), so they are only written after its
+            // producers are read
+            for (int i = 0, n = nodeList.size(); i < n; i++) {
+                if (!readList.get(i).isEmpty()
+                        && !writeList.get(i).isEmpty()) {
+                    consumerSets.get(i).add(i);
+                    producerSets.get(i).add(i);
+                }
+            }
+
+            size = nodeList.size();
+            nodes = nodeList.toArray(new WorkspaceComponent[size]);
+            reads = new Coupling<?>[size][];
+            writes = new Coupling<?>[size][];
+            consumersOf = new int[size][];
+            producerCount = new int[size];
+            readTasks = new Runnable[size];
+            writeTasks = new Runnable[size];
+            for (int i = 0; i < size; i++) {
+                reads[i] = readList.get(i).toArray(
+                        new Coupling<?>[readList.get(i).size()]);
+                writes[i] = writeList.get(i).toArray(
+                        new Coupling<?>[writeList.get(i).size()]);
+                consumersOf[i] = toArray(consumerSets.get(i));
+                producerCount[i] = producerSets.get(i).size();
+                readTasks[i] = new ReadTask(i);
+                writeTasks[i] = new WriteTask(i);
+            }
+            writesPending = new AtomicIntegerArray(size);
+            updatesPending = new AtomicIntegerArray(size);
+            updateStart = new long[size];
+            updateEnd = new long[size];
+            readNanos = new long[size];
+            writeNanos = new long[size];
+        }
+
+        /**
+         * Return the node of a component, adding one if needed.
+         *
+         * @param component the component
+         * @param index node of each component
+         * @param nodeList the components of the nodes
+         * @param readList couplings read by each node
+         * @param writeList couplings written by each node
+         * @param consumerSets consumers of each node
+         * @param producerSets producers of each node
+         * @return the node
+         */
+        private int indexOf(final WorkspaceComponent component,
+                final Map<WorkspaceComponent, Integer> index,
+                final List<WorkspaceComponent> nodeList,
+                final List<List<Coupling<?>>> readList,
+                final List<List<Coupling<?>>> writeList,
+                final List<Set<Integer>> consumerSets,
+                final List<Set<Integer>> producerSets) {
+            Integer i = index.get(component);
+            if (i == null) {
+                i = nodeList.size();
+                index.put(component, i);
+                nodeList.add(component);
+            }
+            while (readList.size() <= i) {
+                addNode(readList, writeList, consumerSets, producerSets);
+            }
+            return i;
+        }
+
+        /**
+         * Add empty lists for a node.
+         *
+         * @param readList couplings read by each node
+         * @param writeList couplings written by each node
+         * @param consumerSets consumers of each node
+         * @param producerSets producers of each node
+         */
+        private void addNode(final List<List<Coupling<?>>> readList,
+                final List<List<Coupling<?>>> writeList,
+                final List<Set<Integer>> consumerSets,
+                final List<Set<Integer>> producerSets) {
+            readList.add(new ArrayList<Coupling<?>>());
+            writeList.add(new ArrayList<Coupling<?>>());
+            consumerSets.add(new LinkedHashSet<Integer>());
+            producerSets.add(new LinkedHashSet<Integer>());
+        }
+
+        /**
+         * Whether this graph was built for the current components and
+         * couplings.
+         *
+         * @param components the components of the workspace
+         * @param currentChangeCount the coupling change count
+         * @return true if the graph is up to date
+         */
+        boolean isFor(final List<? extends WorkspaceComponent> components,
+                final int currentChangeCount) {
+            if (currentChangeCount != changeCount
+                    || components.size() != updatedCount) {
+                return false;
+            }
+            for (int i = 0; i < updatedCount; i++) {
+                if (components.get(i) != nodes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reset the state for a new update.
+         *
+         * @param start start of the update
+         */
+        void start(final long start) {
+            startTime = start;
+            latch = new LatchCompletionSignal(size);
+            for (int i = 0; i < size; i++) {
+                writesPending.set(i, producerCount[i]);
+                updatesPending.set(i, (reads[i].length > 0 ? 1 : 0)
+                        + (writes[i].length > 0 ? 1 : 0));
+                readNanos[i] = 0;
+                writeNanos[i] = 0;
+            }
+        }
+
+        /**
+         * Record that a task a node's update waits for is done, and start
+         * the update if it was the last.
+         *
+         * @param i the node
+         */
+        void taskDone(final int i) {
+            if (updatesPending.decrementAndGet(i) == 0) {
+                startUpdate(i);
+            }
+        }
+
+        /**
+         * Start updating a node.
+         *
+         * @param i the node
+         */
+        void startUpdate(final int i) {
+            updateStart[i] = System.nanoTime() - startTime;
+            if (i >= updatedCount) {
+                updateEnd[i] = updateStart[i];
+                latch.done();
+                return;
+            }
+            updater.updateComponent(nodes[i], new CompletionSignal() {
+                @Override
+                public void done() {
+                    updateEnd[i] = System.nanoTime() - startTime;
+                    latch.done();
+                }
+            });
+        }
+
+        /**
+         * Collect the timings of the update just done.
+         *
+         * @param time the workspace time
+         * @return the timing of each component
+         */
+        List<ComponentTiming> getTimings(final int time) {
+            List<ComponentTiming> ret = new ArrayList<ComponentTiming>(
+                    updatedCount);
+            for (int i = 0; i < updatedCount; i++) {
+                ret.add(new ComponentTiming(nodes[i], time, updateStart[i],
+                        updateEnd[i] - updateStart[i], readNanos[i]
+                                + writeNanos[i]));
+            }
+            return Collections.unmodifiableList(ret);
+        }
+
+        /**
+         * Reads the producers of a node, then lets the writes and update
+         * waiting for it go ahead.
+         */
+        private final class ReadTask implements Runnable {
+
+            /** The node. */
+            private final int node;
+
+            /**
+             * @param node the node
+             */
+            ReadTask(final int node) {
+                this.node = node;
+            }
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    CouplingManager.readProducers(nodes[node], reads[node]);
+                } finally {
+                    readNanos[node] = System.nanoTime() - start;
+                    for (int c : consumersOf[node]) {
+                        if (writesPending.decrementAndGet(c) == 0) {
+                            updater.submit(writeTasks[c]);
+                        }
+                    }
+                    taskDone(node);
+                }
+            }
+        }
+
+        /**
+         * Writes the consumers of a node, then lets its update go ahead.
+         */
+        private final class WriteTask implements Runnable {
+
+            /** The node. */
+            private final int node;
+
+            /**
+             * @param node the node
+             */
+            WriteTask(final int node) {
+                this.node = node;
+            }
+
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    CouplingManager.writeConsumers(nodes[node], writes[node]);
+                } finally {
+                    writeNanos[node] = System.nanoTime() - start;
+                    taskDone(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param set a set of node indices
+     * @return the indices in iteration order
+     */
+    private static int[] toArray(final Set<Integer> set) {
+        int[] ret = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            ret[i++] = value;
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace.updater;
+
+import org.simbrain.workspace.WorkspaceComponent;
+
+/**
+ * How long one component took in one workspace update, as scheduled by a
+ * {@link ComponentScheduler}. Times are in nanoseconds.
+ */
+public final class ComponentTiming {
+
+    /** The component. */
+    private final WorkspaceComponent component;
+
+    /** The workspace time of the update. */
+    private final int time;
+
+    /** Time from the start of the update until the component started. */
+    private final long startNanos;
+
+    /** Time the component took to update. */
+    private final long updateNanos;
+
+    /**
+     * Time spent reading the producers and writing the consumers of the
+     * component.
+     */
+    private final long couplingNanos;
+
+    /**
+     * Create a timing.
+     *
+     * @param component the component
+     * @param time the workspace time of the update
+     * @param startNanos time from the start of the update until the
+     *            component started
+     * @param updateNanos time the component took to update
+     * @param couplingNanos time spent on the couplings of the component
+     */
+    ComponentTiming(final WorkspaceComponent component, final int time,
+            final long startNanos, final long updateNanos,
+            final long couplingNanos) {
+        this.component = component;
+        this.time = time;
+        this.startNanos = startNanos;
+        this.updateNanos = updateNanos;
+        this.couplingNanos = couplingNanos;
+    }
+
+    /**
+     * @return the component
+     */
+    public WorkspaceComponent getComponent() {
+        return component;
+    }
+
+    /**
+     * @return the workspace time of the update
+     */
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * @return time from the start of the update until the component started
+     *         updating, i.e. how long it waited for its couplings
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return time the component took to update
+     */
+    public long getUpdateNanos() {
+        return updateNanos;
+    }
+
+    /**
+     * @return time spent reading the producers and writing the consumers of
+     *         the component
+     */
+    public long getCouplingNanos() {
+        return couplingNanos;
+    }
+
+    @Override
+    public String toString() {
+        return component.getName() + " at " + time + ": start "
+                + startNanos / 1000 + "us, update " + updateNanos / 1000
+                + "us, couplings " + couplingNanos / 1000 + "us";
+    }
+
+}
@@ -1,5 +1,7 @@
 package org.simbrain.workspace.updater;
 
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SplitRandomStream;
 import org.simbrain.workspace.WorkspaceComponent;
 
 /**
@@ -102,7 +104,13 @@ public class ComponentUpdatePart {
                     WorkspaceUpdater.LOGGER.trace("updating component part: "
                             + getDescription());
 
-                    runnable.run();
+                    SplitRandomStream previous = RandomStreams.bind(parent
+                            .getRandomStream());
+                    try {
+                        runnable.run();
+                    } finally {
+                        RandomStreams.bind(previous);
+                    }
 
                     thread.clearCurrentTask(ComponentUpdatePart.this);
                     signal.done();
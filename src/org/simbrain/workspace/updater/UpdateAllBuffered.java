@@ -18,24 +18,22 @@
  */
 package org.simbrain.workspace.updater;
 
-import java.util.List;
-
 import org.apache.log4j.Logger;
-import org.simbrain.workspace.WorkspaceComponent;
 
 /**
- * Update all components and couplings as follows. First update couplings using
- * a buffering system whereby the order in which they are updated does not
- * matter (read all producer values, write them to a buffer, then read all
- * buffer values and write them to the consumers). Then update all the
- * components.
+ * Update all components and couplings as if by the following. First update
+ * couplings using a buffering system whereby the order in which they are
+ * updated does not matter (read all producer values, write them to a buffer,
+ * then read all buffer values and write them to the consumers). Then update
+ * all the components.
  *
- * In workspace updater, the following happens. Each component update call is
- * fed to an executor service which uses as many threads as it's configured to
- * use (it defaults to the number of available processors which can be changed.)
- * Then the executing thread waits on a countdown latch. Each component update
- * decrements the latch so that after the last update is complete, the thread
- * waiting on the latch wakes up and updates all the couplings.
+ * In fact the couplings and components are not updated in two phases, but
+ * scheduled by the {@link ComponentScheduler} of the workspace updater: each
+ * component is updated as soon as the couplings it produces have been read
+ * and the couplings it consumes have been written, so components which don't
+ * depend on each other, and their coupling transfers, run at the same time on
+ * the component update threads. The executing thread waits on a countdown
+ * latch until the last component is done.
  *
  * @author jyoshimi
  */
@@ -58,26 +56,8 @@ public class UpdateAllBuffered implements UpdateAction {
      * {@inheritDoc}
      */
     public void invoke() {
-        List<? extends WorkspaceComponent> components = updater.getComponents();
-
-        int componentCount = components.size();
-
-        if (componentCount < 1) {
-            return;
-        }
-
-        LOGGER.trace("updating couplings");
-        updater.updateCouplings();
-
-        LOGGER.trace("creating latch");
-        LatchCompletionSignal latch = new LatchCompletionSignal(componentCount);
-
-        LOGGER.trace("updating components");
-        for (WorkspaceComponent component : components) {
-            updater.updateComponent(component, latch);
-        }
-        LOGGER.trace("waiting");
-        latch.await();
+        LOGGER.trace("updating couplings and components");
+        updater.getComponentScheduler().update();
         LOGGER.trace("update complete");
     }
 
@@ -87,6 +87,9 @@ public class WorkspaceUpdater {
     /** The update Manager. */
     private UpdateActionManager updateActionManager;
 
+    /** Schedules buffered updates of components and couplings. */
+    private final ComponentScheduler componentScheduler;
+
     /**
      * Constructor for the updater that uses the provided controller and
      * threads.
@@ -113,6 +116,8 @@ public class WorkspaceUpdater {
         // Instantiate the update action manager
         updateActionManager = new UpdateActionManager(this);
 
+        componentScheduler = new ComponentScheduler(this);
+
     }
 
     /**
@@ -264,6 +269,21 @@ public class WorkspaceUpdater {
         });
     }
 
+    /**
+     * Updates the workspace once on the calling thread and returns when the
+     * update is done. Unlike {@link #runOnce()}, the update is not handed to
+     * the update thread, so a caller updating in a loop (e.g. a batch run)
+     * can read the workspace between updates without synchronizing, and
+     * exceptions are passed on to the caller. Must not be called while the
+     * updater is running.
+     */
+    public void runOnceInCurrentThread() {
+        synchManager.queueTasks();
+        doUpdate();
+        synchManager.releaseTasks();
+        synchManager.runTasks();
+    }
+
     /**
      * Executes the main workspace update.
      */
@@ -272,10 +292,12 @@ public class WorkspaceUpdater {
 
         LOGGER.trace("starting: " + time);
 
-        try {
-            Thread.sleep(workspace.getUpdateDelay());
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (workspace.getUpdateDelay() > 0) {
+            try {
+                Thread.sleep(workspace.getUpdateDelay());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
         }
 
         for (UpdateAction action : updateActionManager.getActionList()) {
@@ -608,6 +630,10 @@ public class WorkspaceUpdater {
         }
 
         Collection<ComponentUpdatePart> parts = component.getUpdateParts();
+        if (parts.isEmpty()) {
+            signal.done();
+            return;
+        }
 
         final LatchCompletionSignal partsSignal = new LatchCompletionSignal(
                 parts.size()) {
@@ -630,6 +656,23 @@ public class WorkspaceUpdater {
         }
     }
 
+    /**
+     * Run a task on the component update threads.
+     *
+     * @param task the task
+     */
+    void submit(final Runnable task) {
+        componentUpdates.submit(task);
+    }
+
+    /**
+     * @return the scheduler used for buffered updates, which also records
+     *         how long each component took
+     */
+    public ComponentScheduler getComponentScheduler() {
+        return componentScheduler;
+    }
+
     /**
      * Update couplings.
      */